@@ -45,14 +45,17 @@ import org.apache.rocketmq.broker.dledger.DLedgerRoleChangeHandler;
 import org.apache.rocketmq.broker.filter.CommitLogDispatcherCalcBitMap;
 import org.apache.rocketmq.broker.filter.ConsumerFilterManager;
 import org.apache.rocketmq.broker.filtersrv.FilterServerManager;
+import org.apache.rocketmq.broker.latency.AdmissionController;
 import org.apache.rocketmq.broker.latency.BrokerFastFailure;
 import org.apache.rocketmq.broker.latency.BrokerFixedThreadPoolExecutor;
+import org.apache.rocketmq.broker.latency.WeightedFairQueue;
 import org.apache.rocketmq.broker.longpolling.NotifyMessageArrivingListener;
 import org.apache.rocketmq.broker.longpolling.PullRequestHoldService;
 import org.apache.rocketmq.broker.mqtrace.ConsumeMessageHook;
 import org.apache.rocketmq.broker.mqtrace.SendMessageHook;
 import org.apache.rocketmq.broker.offset.ConsumerOffsetManager;
 import org.apache.rocketmq.broker.out.BrokerOuterAPI;
+import org.apache.rocketmq.broker.out.RegisterPosition;
 import org.apache.rocketmq.broker.plugin.MessageStoreFactory;
 import org.apache.rocketmq.broker.plugin.MessageStorePluginContext;
 import org.apache.rocketmq.broker.processor.AdminBrokerProcessor;
@@ -71,6 +74,7 @@ import org.apache.rocketmq.broker.transaction.TransactionalMessageService;
 import org.apache.rocketmq.broker.transaction.queue.DefaultTransactionalMessageCheckListener;
 import org.apache.rocketmq.broker.transaction.queue.TransactionalMessageBridge;
 import org.apache.rocketmq.broker.transaction.queue.TransactionalMessageServiceImpl;
+import org.apache.rocketmq.broker.util.ConfigChangeLog;
 import org.apache.rocketmq.broker.util.ServiceProvider;
 import org.apache.rocketmq.common.BrokerConfig;
 import org.apache.rocketmq.common.Configuration;
@@ -82,6 +86,8 @@ import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.constant.PermName;
 import org.apache.rocketmq.common.namesrv.RegisterBrokerResult;
 import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.common.protocol.body.RegisterBrokerDeltaBody;
+import org.apache.rocketmq.common.protocol.body.TopicConfigDeltaBody;
 import org.apache.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
 import org.apache.rocketmq.common.stats.MomentStatsItem;
 import org.apache.rocketmq.logging.InternalLogger;
@@ -89,6 +95,7 @@ import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.remoting.RPCHook;
 import org.apache.rocketmq.remoting.RemotingServer;
 import org.apache.rocketmq.remoting.common.TlsMode;
+import org.apache.rocketmq.remoting.netty.InlineExecutorService;
 import org.apache.rocketmq.remoting.netty.NettyClientConfig;
 import org.apache.rocketmq.remoting.netty.NettyRemotingServer;
 import org.apache.rocketmq.remoting.netty.NettyRequestProcessor;
@@ -130,6 +137,8 @@ public class BrokerController {
     private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryImpl(
         "BrokerControllerScheduledThread"));
     private final SlaveSynchronize slaveSynchronize;
+    private final ConcurrentMap<String/* namesrvAddr */, RegisterPosition> registerPositionTable =
+        new ConcurrentHashMap<String, RegisterPosition>();
     private final BlockingQueue<Runnable> sendThreadPoolQueue;
     private final BlockingQueue<Runnable> pullThreadPoolQueue;
     private final BlockingQueue<Runnable> queryThreadPoolQueue;
@@ -157,6 +166,7 @@ public class BrokerController {
     private BrokerStats brokerStats;
     private InetSocketAddress storeHost;
     private BrokerFastFailure brokerFastFailure;
+    private AdmissionController admissionController;
     private Configuration configuration;
     private FileWatchService fileWatchService;
     private TransactionalMessageCheckService transactionalMessageCheckService;
@@ -192,8 +202,19 @@ public class BrokerController {
 
         this.slaveSynchronize = new SlaveSynchronize(this);
 
-        this.sendThreadPoolQueue = new LinkedBlockingQueue<Runnable>(this.brokerConfig.getSendThreadPoolQueueCapacity());
-        this.pullThreadPoolQueue = new LinkedBlockingQueue<Runnable>(this.brokerConfig.getPullThreadPoolQueueCapacity());
+        if (this.brokerConfig.isFairQueueEnable()) {
+            WeightedFairQueue.QueueWaitListener queueWaitListener = new WeightedFairQueue.QueueWaitListener() {
+                @Override
+                public void onDequeue(String group, long waitMillis) {
+                    BrokerController.this.brokerStatsManager.incGroupQueueWaitTime(group, (int) waitMillis);
+                }
+            };
+            this.sendThreadPoolQueue = new WeightedFairQueue(this.brokerConfig.getSendThreadPoolQueueCapacity(), this.brokerConfig, queueWaitListener);
+            this.pullThreadPoolQueue = new WeightedFairQueue(this.brokerConfig.getPullThreadPoolQueueCapacity(), this.brokerConfig, queueWaitListener);
+        } else {
+            this.sendThreadPoolQueue = new LinkedBlockingQueue<Runnable>(this.brokerConfig.getSendThreadPoolQueueCapacity());
+            this.pullThreadPoolQueue = new LinkedBlockingQueue<Runnable>(this.brokerConfig.getPullThreadPoolQueueCapacity());
+        }
         this.queryThreadPoolQueue = new LinkedBlockingQueue<Runnable>(this.brokerConfig.getQueryThreadPoolQueueCapacity());
         this.clientManagerThreadPoolQueue = new LinkedBlockingQueue<Runnable>(this.brokerConfig.getClientManagerThreadPoolQueueCapacity());
         this.consumerManagerThreadPoolQueue = new LinkedBlockingQueue<Runnable>(this.brokerConfig.getConsumerManagerThreadPoolQueueCapacity());
@@ -277,6 +298,12 @@ public class BrokerController {
                 this.pullThreadPoolQueue,
                 new ThreadFactoryImpl("PullMessageThread_"));
 
+            if (this.brokerConfig.isAdmissionControlEnable()) {
+                this.admissionController = new AdmissionController(this.brokerConfig);
+                ((BrokerFixedThreadPoolExecutor) this.sendMessageExecutor).setAdmissionController(this.admissionController);
+                ((BrokerFixedThreadPoolExecutor) this.pullMessageExecutor).setAdmissionController(this.admissionController);
+            }
+
             this.queryMessageExecutor = new BrokerFixedThreadPoolExecutor(
                 this.brokerConfig.getQueryMessageThreadPoolNums(),
                 this.brokerConfig.getQueryMessageThreadPoolNums(),
@@ -480,6 +507,7 @@ public class BrokerController {
             this.transactionalMessageService = new TransactionalMessageServiceImpl(new TransactionalMessageBridge(this, this.getMessageStore()));
             log.warn("Load default transaction message hook service: {}", TransactionalMessageServiceImpl.class.getSimpleName());
         }
+        this.transactionalMessageService.open();
         this.transactionalMessageCheckListener = ServiceProvider.loadClass(ServiceProvider.TRANSACTION_LISTENER_ID, AbstractTransactionalMessageCheckListener.class);
         if (null == this.transactionalMessageCheckListener) {
             this.transactionalMessageCheckListener = new DefaultTransactionalMessageCheckListener();
@@ -579,12 +607,15 @@ public class BrokerController {
          * ConsumerManageProcessor
          */
         ConsumerManageProcessor consumerManageProcessor = new ConsumerManageProcessor(this);
-        this.remotingServer.registerProcessor(RequestCode.GET_CONSUMER_LIST_BY_GROUP, consumerManageProcessor, this.consumerManageExecutor);
-        this.remotingServer.registerProcessor(RequestCode.UPDATE_CONSUMER_OFFSET, consumerManageProcessor, this.consumerManageExecutor);
+        // querying an unknown offset may read the consume queue, so only these two may run inline
+        ExecutorService consumerManageInlineExecutor = this.brokerConfig.isConsumerManageInlineEnable() ?
+            new InlineExecutorService() : this.consumerManageExecutor;
+        this.remotingServer.registerProcessor(RequestCode.GET_CONSUMER_LIST_BY_GROUP, consumerManageProcessor, consumerManageInlineExecutor);
+        this.remotingServer.registerProcessor(RequestCode.UPDATE_CONSUMER_OFFSET, consumerManageProcessor, consumerManageInlineExecutor);
         this.remotingServer.registerProcessor(RequestCode.QUERY_CONSUMER_OFFSET, consumerManageProcessor, this.consumerManageExecutor);
 
-        this.fastRemotingServer.registerProcessor(RequestCode.GET_CONSUMER_LIST_BY_GROUP, consumerManageProcessor, this.consumerManageExecutor);
-        this.fastRemotingServer.registerProcessor(RequestCode.UPDATE_CONSUMER_OFFSET, consumerManageProcessor, this.consumerManageExecutor);
+        this.fastRemotingServer.registerProcessor(RequestCode.GET_CONSUMER_LIST_BY_GROUP, consumerManageProcessor, consumerManageInlineExecutor);
+        this.fastRemotingServer.registerProcessor(RequestCode.UPDATE_CONSUMER_OFFSET, consumerManageProcessor, consumerManageInlineExecutor);
         this.fastRemotingServer.registerProcessor(RequestCode.QUERY_CONSUMER_OFFSET, consumerManageProcessor, this.consumerManageExecutor);
 
         /**
@@ -592,6 +623,8 @@ public class BrokerController {
          */
         this.remotingServer.registerProcessor(RequestCode.END_TRANSACTION, new EndTransactionProcessor(this), this.endTransactionExecutor);
         this.fastRemotingServer.registerProcessor(RequestCode.END_TRANSACTION, new EndTransactionProcessor(this), this.endTransactionExecutor);
+        this.remotingServer.registerProcessor(RequestCode.END_TRANSACTION_BATCH, new EndTransactionProcessor(this), this.endTransactionExecutor);
+        this.fastRemotingServer.registerProcessor(RequestCode.END_TRANSACTION_BATCH, new EndTransactionProcessor(this), this.endTransactionExecutor);
 
         /**
          * Default
@@ -772,6 +805,7 @@ public class BrokerController {
         }
 
         this.consumerOffsetManager.persist();
+        this.consumerOffsetManager.shutdown();
 
         if (this.filterServerManager != null) {
             this.filterServerManager.shutdown();
@@ -807,6 +841,10 @@ public class BrokerController {
         if (this.endTransactionExecutor != null) {
             this.endTransactionExecutor.shutdown();
         }
+
+        if (this.transactionalMessageService != null) {
+            this.transactionalMessageService.close();
+        }
     }
 
     private void unregisterBrokerAll() {
@@ -887,6 +925,11 @@ public class BrokerController {
     }
 
     public synchronized void registerIncrementBrokerData(TopicConfig topicConfig, DataVersion dataVersion) {
+        if (this.brokerConfig.isRegisterBrokerDeltaEnable()) {
+            this.registerBrokerDelta(true, false);
+            return;
+        }
+
         TopicConfig registerTopicConfig = topicConfig;
         if (!PermName.isWriteable(this.getBrokerConfig().getBrokerPermission())
             || !PermName.isReadable(this.getBrokerConfig().getBrokerPermission())) {
@@ -905,20 +948,14 @@ public class BrokerController {
     }
 
     public synchronized void registerBrokerAll(final boolean checkOrderConfig, boolean oneway, boolean forceRegister) {
-        TopicConfigSerializeWrapper topicConfigWrapper = this.getTopicConfigManager().buildTopicConfigSerializeWrapper();
-
-        if (!PermName.isWriteable(this.getBrokerConfig().getBrokerPermission())
-            || !PermName.isReadable(this.getBrokerConfig().getBrokerPermission())) {
-            ConcurrentHashMap<String, TopicConfig> topicConfigTable = new ConcurrentHashMap<String, TopicConfig>();
-            for (TopicConfig topicConfig : topicConfigWrapper.getTopicConfigTable().values()) {
-                TopicConfig tmp =
-                    new TopicConfig(topicConfig.getTopicName(), topicConfig.getReadQueueNums(), topicConfig.getWriteQueueNums(),
-                        this.brokerConfig.getBrokerPermission());
-                topicConfigTable.put(topicConfig.getTopicName(), tmp);
-            }
-            topicConfigWrapper.setTopicConfigTable(topicConfigTable);
+        if (this.brokerConfig.isRegisterBrokerDeltaEnable()) {
+            this.registerBrokerDelta(checkOrderConfig, oneway);
+            return;
         }
 
+        TopicConfigSerializeWrapper topicConfigWrapper = this.getTopicConfigManager().buildTopicConfigSerializeWrapper();
+        topicConfigWrapper.setTopicConfigTable(this.applyBrokerPermission(topicConfigWrapper.getTopicConfigTable()));
+
         if (forceRegister || needRegister(this.brokerConfig.getBrokerClusterName(),
             this.getBrokerAddr(),
             this.brokerConfig.getBrokerName(),
@@ -943,21 +980,152 @@ public class BrokerController {
             this.brokerConfig.isCompressedRegister());
 
         if (registerBrokerResultList.size() > 0) {
-            RegisterBrokerResult registerBrokerResult = registerBrokerResultList.get(0);
-            if (registerBrokerResult != null) {
-                if (this.updateMasterHAServerAddrPeriodically && registerBrokerResult.getHaServerAddr() != null) {
-                    this.messageStore.updateHaMasterAddress(registerBrokerResult.getHaServerAddr());
-                }
+            this.handleRegisterBrokerResult(registerBrokerResultList.get(0), checkOrderConfig);
+        }
+    }
 
-                this.slaveSynchronize.setMasterAddr(registerBrokerResult.getMasterAddr());
+    /**
+     * Send each name server only the topic configs changed since its last registration, a plain heartbeat when
+     * nothing changed, and register in full at the name servers that never took one, lost track of this broker or
+     * do not serve deltas.
+     */
+    private void registerBrokerDelta(final boolean checkOrderConfig, final boolean oneway) {
+        List<String> nameServerAddressList = this.brokerOuterAPI.getNameServerAddressList();
+        if (null == nameServerAddressList || nameServerAddressList.isEmpty()) {
+            return;
+        }
+        this.registerPositionTable.keySet().retainAll(nameServerAddressList);
+
+        final long brokerId = this.brokerConfig.getBrokerId();
+        final int brokerPermission = this.brokerConfig.getBrokerPermission();
+        List<String> filterServerList = this.filterServerManager.buildNewFilterServerList();
+
+        Map<Long, TopicConfigDeltaBody> topicConfigDeltaTable = new HashMap<Long, TopicConfigDeltaBody>();
+        Map<String, RegisterBrokerDeltaBody> deltaBodyTable = new HashMap<String, RegisterBrokerDeltaBody>();
+        Map<String, RegisterPosition> nextPositionTable = new HashMap<String, RegisterPosition>();
+        for (String namesrvAddr : nameServerAddressList) {
+            RegisterPosition position = this.registerPositionTable.get(namesrvAddr);
+            if (null == position || !position.isSameBroker(brokerId, brokerPermission)) {
+                continue;
+            }
 
-                if (checkOrderConfig) {
-                    this.getTopicConfigManager().updateOrderTopicConfig(registerBrokerResult.getKvTable());
-                }
+            TopicConfigDeltaBody topicConfigDelta = topicConfigDeltaTable.get(position.getVersion());
+            if (null == topicConfigDelta) {
+                topicConfigDelta = this.topicConfigManager.buildTopicConfigDelta(position.getEpoch(), position.getVersion());
+                DataVersion dataVersion = new DataVersion();
+                dataVersion.assignNewOne(topicConfigDelta.getDataVersion());
+                topicConfigDelta.setDataVersion(dataVersion);
+                topicConfigDelta.setTopicConfigTable(this.applyBrokerPermission(topicConfigDelta.getTopicConfigTable()));
+                topicConfigDeltaTable.put(position.getVersion(), topicConfigDelta);
+            }
+            if (topicConfigDelta.isFull()) {
+                continue;
             }
+
+            RegisterBrokerDeltaBody deltaBody = new RegisterBrokerDeltaBody();
+            deltaBody.setBaseDataVersion(position.getDataVersion());
+            deltaBody.setDataVersion(topicConfigDelta.getDataVersion());
+            deltaBody.setTopicConfigTable(topicConfigDelta.getTopicConfigTable());
+            deltaBody.setRemovedTopics(topicConfigDelta.getRemovedKeys());
+            deltaBody.setFilterServerList(filterServerList);
+            deltaBodyTable.put(namesrvAddr, deltaBody);
+            nextPositionTable.put(namesrvAddr, new RegisterPosition(topicConfigDelta.getEpoch(),
+                topicConfigDelta.getVersion(), topicConfigDelta.getDataVersion(), brokerId, brokerPermission));
+        }
+
+        Map<String, RegisterBrokerResult> registerBrokerResultTable = new HashMap<String, RegisterBrokerResult>();
+        if (!deltaBodyTable.isEmpty()) {
+            registerBrokerResultTable.putAll(this.brokerOuterAPI.registerBrokerDeltaAll(
+                this.brokerConfig.getBrokerClusterName(),
+                this.getBrokerAddr(),
+                this.brokerConfig.getBrokerName(),
+                brokerId,
+                this.getHAServerAddr(),
+                deltaBodyTable,
+                oneway,
+                this.brokerConfig.getRegisterBrokerTimeoutMills()));
+        }
+
+        List<String> fullRegisterList = new ArrayList<String>();
+        for (String namesrvAddr : nameServerAddressList) {
+            // a oneway delta is assumed to be taken, the name server asks for a full registration next time if not
+            if (registerBrokerResultTable.containsKey(namesrvAddr) || (oneway && deltaBodyTable.containsKey(namesrvAddr))) {
+                this.registerPositionTable.put(namesrvAddr, nextPositionTable.get(namesrvAddr));
+            } else {
+                this.registerPositionTable.remove(namesrvAddr);
+                fullRegisterList.add(namesrvAddr);
+            }
+        }
+
+        if (!fullRegisterList.isEmpty()) {
+            ConfigChangeLog changeLog = this.topicConfigManager.getChangeLog();
+            long epoch = changeLog.getEpoch();
+            long version = changeLog.getVersion();
+            TopicConfigSerializeWrapper topicConfigWrapper = this.topicConfigManager.buildTopicConfigSerializeWrapper();
+            DataVersion dataVersion = new DataVersion();
+            dataVersion.assignNewOne(topicConfigWrapper.getDataVersion());
+            topicConfigWrapper.setDataVersion(dataVersion);
+            topicConfigWrapper.setTopicConfigTable(this.applyBrokerPermission(topicConfigWrapper.getTopicConfigTable()));
+
+            Map<String, RegisterBrokerResult> fullResultTable = this.brokerOuterAPI.registerBrokerAll(
+                fullRegisterList,
+                this.brokerConfig.getBrokerClusterName(),
+                this.getBrokerAddr(),
+                this.brokerConfig.getBrokerName(),
+                brokerId,
+                this.getHAServerAddr(),
+                topicConfigWrapper,
+                filterServerList,
+                oneway,
+                this.brokerConfig.getRegisterBrokerTimeoutMills(),
+                this.brokerConfig.isCompressedRegister());
+            for (String namesrvAddr : fullResultTable.keySet()) {
+                this.registerPositionTable.put(namesrvAddr,
+                    new RegisterPosition(epoch, version, dataVersion, brokerId, brokerPermission));
+            }
+            registerBrokerResultTable.putAll(fullResultTable);
+        }
+
+        if (!registerBrokerResultTable.isEmpty()) {
+            this.handleRegisterBrokerResult(registerBrokerResultTable.values().iterator().next(), checkOrderConfig);
         }
     }
 
+    private void handleRegisterBrokerResult(final RegisterBrokerResult registerBrokerResult,
+        final boolean checkOrderConfig) {
+        if (registerBrokerResult != null) {
+            if (this.updateMasterHAServerAddrPeriodically && registerBrokerResult.getHaServerAddr() != null) {
+                this.messageStore.updateHaMasterAddress(registerBrokerResult.getHaServerAddr());
+            }
+
+            this.slaveSynchronize.setMasterAddr(registerBrokerResult.getMasterAddr());
+
+            if (checkOrderConfig) {
+                this.getTopicConfigManager().updateOrderTopicConfig(registerBrokerResult.getKvTable());
+            }
+        }
+    }
+
+    /**
+     * @return the topic configs as registered at the name servers, with the permission of the broker when it does
+     * not allow both reading and writing
+     */
+    private ConcurrentMap<String, TopicConfig> applyBrokerPermission(final ConcurrentMap<String, TopicConfig> topicConfigTable) {
+        if (PermName.isWriteable(this.getBrokerConfig().getBrokerPermission())
+            && PermName.isReadable(this.getBrokerConfig().getBrokerPermission())) {
+            return topicConfigTable;
+        }
+
+        ConcurrentHashMap<String, TopicConfig> permTopicConfigTable = new ConcurrentHashMap<String, TopicConfig>();
+        for (TopicConfig topicConfig : topicConfigTable.values()) {
+            TopicConfig tmp =
+                new TopicConfig(topicConfig.getTopicName(), topicConfig.getReadQueueNums(), topicConfig.getWriteQueueNums(),
+                    this.brokerConfig.getBrokerPermission());
+            permTopicConfigTable.put(topicConfig.getTopicName(), tmp);
+        }
+        return permTopicConfigTable;
+    }
+
     private boolean needRegister(final String clusterName,
         final String brokerAddr,
         final String brokerName,
@@ -1000,6 +1168,10 @@ public class BrokerController {
         return pullMessageExecutor;
     }
 
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
     public void setPullMessageExecutor(ExecutorService pullMessageExecutor) {
         this.pullMessageExecutor = pullMessageExecutor;
     }
@@ -39,6 +39,14 @@ public class BrokerPathConfigHelper {
         return rootDir + File.separator + "config" + File.separator + "consumerOffset.json";
     }
 
+    public static String getConsumerOffsetSnapshotPath(final String rootDir) {
+        return rootDir + File.separator + "config" + File.separator + "consumerOffset.snapshot";
+    }
+
+    public static String getConsumerOffsetJournalPath(final String rootDir) {
+        return rootDir + File.separator + "config" + File.separator + "consumerOffset.journal";
+    }
+
     public static String getSubscriptionGroupPath(final String rootDir) {
         return rootDir + File.separator + "config" + File.separator + "subscriptionGroup.json";
     }
@@ -46,4 +54,8 @@ public class BrokerPathConfigHelper {
     public static String getConsumerFilterPath(final String rootDir) {
         return rootDir + File.separator + "config" + File.separator + "consumerFilter.json";
     }
+
+    public static String getTransactionResolvedBitmapPath(final String rootDir) {
+        return rootDir + File.separator + "config" + File.separator + "transactionResolvedBitmap";
+    }
 }
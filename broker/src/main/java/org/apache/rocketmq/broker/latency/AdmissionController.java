@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.latency;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.remoting.common.RemotingHelper;
+import org.apache.rocketmq.remoting.netty.RequestTask;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.protocol.RemotingSysResponseCode;
+
+/**
+ * Admits requests into a {@link BrokerFixedThreadPoolExecutor} against a {@link ConcurrencyLimiter} per request code.
+ * A request over the limit is answered with SYSTEM_BUSY before it is queued, so the client retries another broker
+ * right away instead of timing out behind a long queue.
+ */
+public class AdmissionController {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.BROKER_LOGGER_NAME);
+
+    private final BrokerConfig brokerConfig;
+    private final ConcurrentMap<Integer, ConcurrencyLimiter> limiterTable = new ConcurrentHashMap<Integer, ConcurrencyLimiter>();
+
+    public AdmissionController(final BrokerConfig brokerConfig) {
+        this.brokerConfig = brokerConfig;
+    }
+
+    /**
+     * @return false if the request was rejected and already answered
+     */
+    public boolean admit(final FutureTaskExt<?> task) {
+        final RequestTask rt = BrokerFastFailure.castRunnable(task);
+        if (null == rt || null == rt.getRequest()) {
+            return true;
+        }
+
+        final RemotingCommand request = rt.getRequest();
+        final ConcurrencyLimiter limiter = this.getOrCreateLimiter(request.getCode());
+        final String key = groupOf(rt);
+        final AtomicInteger counter = limiter.tryAcquire(key);
+        if (null == counter) {
+            if (limiter.getRejected() % 10000 == 1) {
+                log.warn("admission control rejects request {} of {}, in flight {}, limit {}", request.getCode(), key,
+                    limiter.getInflight(), limiter.getLimit());
+            }
+            if (!request.isOnewayRPC()) {
+                rt.returnResponse(RemotingSysResponseCode.SYSTEM_BUSY, String.format("[ADMISSION_LIMIT]broker busy, start flow control for a while, in flight: %d, limit: %d",
+                    limiter.getInflight(), limiter.getLimit()));
+            }
+            return false;
+        }
+
+        task.setAdmissionTicket(new Ticket(limiter, key, counter));
+        return true;
+    }
+
+    private ConcurrencyLimiter getOrCreateLimiter(final int code) {
+        ConcurrencyLimiter limiter = this.limiterTable.get(code);
+        if (null == limiter) {
+            limiter = new ConcurrencyLimiter(this.brokerConfig.getAdmissionInitialLimit(),
+                this.brokerConfig.getAdmissionMinLimit(), this.brokerConfig.getAdmissionMaxLimit(),
+                this.brokerConfig.getAdmissionFairSharePercent());
+            ConcurrencyLimiter prev = this.limiterTable.putIfAbsent(code, limiter);
+            if (prev != null) {
+                limiter = prev;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * The producer or consumer group read straight from the undecoded header, the client address otherwise.
+     */
+    static String groupOf(final RequestTask rt) {
+        final RemotingCommand request = rt.getRequest();
+        final HashMap<String, String> extFields = request.getExtFields();
+        String group = null;
+        if (extFields != null) {
+            switch (request.getCode()) {
+                case RequestCode.SEND_MESSAGE:
+                    group = extFields.get("producerGroup");
+                    break;
+                case RequestCode.SEND_MESSAGE_V2:
+                case RequestCode.SEND_BATCH_MESSAGE:
+                    group = extFields.get("a");
+                    break;
+                case RequestCode.PULL_MESSAGE:
+                    group = extFields.get("consumerGroup");
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (group != null) {
+            return group;
+        }
+        return rt.getChannel() != null ? RemotingHelper.parseChannelRemoteAddr(rt.getChannel()) : "";
+    }
+
+    public Map<String, String> getRuntimeInfo() {
+        Map<String, String> result = new HashMap<String, String>();
+        for (Map.Entry<Integer, ConcurrencyLimiter> entry : this.limiterTable.entrySet()) {
+            ConcurrencyLimiter limiter = entry.getValue();
+            result.put("admissionLimit_" + entry.getKey(), String.valueOf(limiter.getLimit()));
+            result.put("admissionInflight_" + entry.getKey(), String.valueOf(limiter.getInflight()));
+            result.put("admissionRejected_" + entry.getKey(), String.valueOf(limiter.getRejected()));
+        }
+        return result;
+    }
+
+    public static class Ticket {
+        private final ConcurrencyLimiter limiter;
+        private final String key;
+        private final AtomicInteger counter;
+        private final long admitNanos = System.nanoTime();
+
+        Ticket(final ConcurrencyLimiter limiter, final String key, final AtomicInteger counter) {
+            this.limiter = limiter;
+            this.key = key;
+            this.counter = counter;
+        }
+
+        /**
+         * @param completed false if the request was dropped from the queue, it then gives no latency sample
+         */
+        void release(final boolean completed) {
+            this.limiter.release(this.key, this.counter, completed ? System.nanoTime() - this.admitNanos : -1);
+        }
+    }
+}
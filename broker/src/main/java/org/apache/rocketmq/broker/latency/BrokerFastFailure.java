@@ -51,6 +51,12 @@ public class BrokerFastFailure {
         return null;
     }
 
+    private static void releaseAdmission(final Runnable runnable) {
+        if (runnable instanceof FutureTaskExt) {
+            ((FutureTaskExt) runnable).releaseAdmission(false);
+        }
+    }
+
     public void start() {
         this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
             @Override
@@ -65,12 +71,15 @@ public class BrokerFastFailure {
     private void cleanExpiredRequest() {
         while (this.brokerController.getMessageStore().isOSPageCacheBusy()) {
             try {
-                if (!this.brokerController.getSendThreadPoolQueue().isEmpty()) {
-                    final Runnable runnable = this.brokerController.getSendThreadPoolQueue().poll(0, TimeUnit.SECONDS);
+                final BlockingQueue<Runnable> sendQueue = this.brokerController.getSendThreadPoolQueue();
+                if (!sendQueue.isEmpty()) {
+                    final Runnable runnable = sendQueue instanceof WeightedFairQueue
+                        ? ((WeightedFairQueue) sendQueue).pollOldest() : sendQueue.poll(0, TimeUnit.SECONDS);
                     if (null == runnable) {
                         break;
                     }
 
+                    releaseAdmission(runnable);
                     final RequestTask rt = castRunnable(runnable);
                     rt.returnResponse(RemotingSysResponseCode.SYSTEM_BUSY, String.format("[PCBUSY_CLEAN_QUEUE]broker busy, start flow control for a while, period in queue: %sms, size of queue: %d", System.currentTimeMillis() - rt.getCreateTimestamp(), this.brokerController.getSendThreadPoolQueue().size()));
                 } else {
@@ -94,6 +103,11 @@ public class BrokerFastFailure {
     }
 
     void cleanExpiredRequestInQueue(final BlockingQueue<Runnable> blockingQueue, final long maxWaitTimeMillsInQueue) {
+        if (blockingQueue instanceof WeightedFairQueue) {
+            this.cleanExpiredRequestInFairQueue((WeightedFairQueue) blockingQueue, maxWaitTimeMillsInQueue);
+            return;
+        }
+
         while (true) {
             try {
                 if (!blockingQueue.isEmpty()) {
@@ -109,6 +123,7 @@ public class BrokerFastFailure {
                     final long behind = System.currentTimeMillis() - rt.getCreateTimestamp();
                     if (behind >= maxWaitTimeMillsInQueue) {
                         if (blockingQueue.remove(runnable)) {
+                            releaseAdmission(runnable);
                             rt.setStopRun(true);
                             rt.returnResponse(RemotingSysResponseCode.SYSTEM_BUSY, String.format("[TIMEOUT_CLEAN_QUEUE]broker busy, start flow control for a while, period in queue: %sms, size of queue: %d", behind, blockingQueue.size()));
                         }
@@ -123,6 +138,21 @@ public class BrokerFastFailure {
         }
     }
 
+    /**
+     * The head of a fair queue is the request served next, not the oldest one, so every group is scanned.
+     */
+    private void cleanExpiredRequestInFairQueue(final WeightedFairQueue queue, final long maxWaitTimeMillsInQueue) {
+        for (Runnable runnable : queue.removeOlderThan(maxWaitTimeMillsInQueue)) {
+            try {
+                releaseAdmission(runnable);
+                final RequestTask rt = castRunnable(runnable);
+                rt.setStopRun(true);
+                rt.returnResponse(RemotingSysResponseCode.SYSTEM_BUSY, String.format("[TIMEOUT_CLEAN_QUEUE]broker busy, start flow control for a while, period in queue: %sms, size of queue: %d", System.currentTimeMillis() - rt.getCreateTimestamp(), queue.size()));
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
     public void shutdown() {
         this.scheduledExecutorService.shutdown();
     }
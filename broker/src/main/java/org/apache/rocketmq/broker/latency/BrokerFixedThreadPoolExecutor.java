@@ -18,6 +18,7 @@
 package org.apache.rocketmq.broker.latency;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ThreadFactory;
@@ -25,6 +26,8 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 public class BrokerFixedThreadPoolExecutor extends ThreadPoolExecutor {
+    private volatile AdmissionController admissionController;
+
     public BrokerFixedThreadPoolExecutor(final int corePoolSize, final int maximumPoolSize, final long keepAliveTime,
         final TimeUnit unit,
         final BlockingQueue<Runnable> workQueue) {
@@ -54,4 +57,39 @@ public class BrokerFixedThreadPoolExecutor extends ThreadPoolExecutor {
     protected <T> RunnableFuture<T> newTaskFor(final Runnable runnable, final T value) {
         return new FutureTaskExt<T>(runnable, value);
     }
+
+    @Override
+    public void execute(final Runnable command) {
+        final AdmissionController controller = this.admissionController;
+        if (null == controller || !(command instanceof FutureTaskExt)) {
+            super.execute(command);
+            return;
+        }
+
+        final FutureTaskExt<?> task = (FutureTaskExt<?>) command;
+        if (!controller.admit(task)) {
+            return;
+        }
+        try {
+            super.execute(command);
+        } catch (RejectedExecutionException e) {
+            task.releaseAdmission(false);
+            throw e;
+        }
+    }
+
+    @Override
+    protected void afterExecute(final Runnable r, final Throwable t) {
+        if (r instanceof FutureTaskExt) {
+            ((FutureTaskExt<?>) r).releaseAdmission(true);
+        }
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    public void setAdmissionController(final AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
 }
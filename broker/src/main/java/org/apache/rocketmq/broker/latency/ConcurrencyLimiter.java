@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.latency;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limit of one request code, adjusted by the gradient between the long term and the recent latency.
+ * <p>
+ * While the recent latency stays close to the long term one the limit grows by about its square root per sample,
+ * once requests start to queue up the recent latency rises and the limit shrinks by up to half. The limit does not
+ * grow while less than half of it is in use, so an idle broker does not drift to the maximum.
+ * <p>
+ * Once {@code fairSharePercent} of the limit is in flight, a key, the producer or consumer group, may not hold more
+ * than its even share of the limit among the keys currently in flight.
+ */
+public class ConcurrencyLimiter {
+    private static final double LONG_RTT_WEIGHT = 1.0 / 600;
+    private static final double SHORT_RTT_WEIGHT = 0.1;
+    private static final double RTT_TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int fairSharePercent;
+    private final AtomicInteger inflight = new AtomicInteger(0);
+    private final ConcurrentMap<String, AtomicInteger> inflightByKey = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicLong rejected = new AtomicLong(0);
+
+    private volatile int limit;
+    private double estimatedLimit;
+    private double shortRtt = 0;
+    private double longRtt = 0;
+
+    public ConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit, final int fairSharePercent) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.fairSharePercent = fairSharePercent;
+        this.estimatedLimit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.limit = (int) this.estimatedLimit;
+    }
+
+    /**
+     * @return the in-flight counter of the key to hand back to {@link #release}, null if the request is rejected
+     */
+    public AtomicInteger tryAcquire(final String key) {
+        final int currentLimit = this.limit;
+        final int total = this.inflight.incrementAndGet();
+        if (total > currentLimit) {
+            this.inflight.decrementAndGet();
+            this.rejected.incrementAndGet();
+            return null;
+        }
+
+        AtomicInteger counter = this.inflightByKey.get(key);
+        if (null == counter) {
+            counter = new AtomicInteger(0);
+            AtomicInteger prev = this.inflightByKey.putIfAbsent(key, counter);
+            if (prev != null) {
+                counter = prev;
+            }
+        }
+
+        final int mine = counter.incrementAndGet();
+        if (total * 100L >= (long) currentLimit * this.fairSharePercent) {
+            int share = Math.max(1, currentLimit / Math.max(1, this.inflightByKey.size()));
+            if (mine > share) {
+                this.releaseCounter(key, counter);
+                this.inflight.decrementAndGet();
+                this.rejected.incrementAndGet();
+                return null;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @param rttNanos time from admission to completion, negative if the request was dropped before it ran
+     */
+    public void release(final String key, final AtomicInteger counter, final long rttNanos) {
+        this.releaseCounter(key, counter);
+        final int total = this.inflight.getAndDecrement();
+        if (rttNanos >= 0) {
+            this.onSample(rttNanos, total);
+        }
+    }
+
+    private void releaseCounter(final String key, final AtomicInteger counter) {
+        if (counter.decrementAndGet() == 0) {
+            // a request acquiring the removed counter meanwhile still releases it, it only misses the share check
+            this.inflightByKey.remove(key, counter);
+        }
+    }
+
+    synchronized void onSample(final long rttNanos, final int inflightAtSample) {
+        if (this.longRtt == 0) {
+            this.shortRtt = rttNanos;
+            this.longRtt = rttNanos;
+            return;
+        }
+
+        this.shortRtt = this.shortRtt * (1 - SHORT_RTT_WEIGHT) + rttNanos * SHORT_RTT_WEIGHT;
+        this.longRtt = this.longRtt * (1 - LONG_RTT_WEIGHT) + rttNanos * LONG_RTT_WEIGHT;
+        if (this.longRtt > this.shortRtt * 2) {
+            // recovering from an overload, let the long term latency follow faster
+            this.longRtt *= 0.95;
+        }
+
+        if (inflightAtSample < this.estimatedLimit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * this.longRtt / this.shortRtt));
+        double newLimit = this.estimatedLimit * gradient + Math.sqrt(this.estimatedLimit);
+        newLimit = this.estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        this.estimatedLimit = Math.min(this.maxLimit, Math.max(this.minLimit, newLimit));
+        this.limit = (int) this.estimatedLimit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+}
@@ -22,6 +22,7 @@ import java.util.concurrent.FutureTask;
 
 public class FutureTaskExt<V> extends FutureTask<V> {
     private final Runnable runnable;
+    private volatile AdmissionController.Ticket admissionTicket;
 
     public FutureTaskExt(final Callable<V> callable) {
         super(callable);
@@ -36,4 +37,19 @@ public class FutureTaskExt<V> extends FutureTask<V> {
     public Runnable getRunnable() {
         return runnable;
     }
+
+    void setAdmissionTicket(final AdmissionController.Ticket admissionTicket) {
+        this.admissionTicket = admissionTicket;
+    }
+
+    /**
+     * Gives the admission slot back, either after the task ran or once it was dropped from the queue.
+     */
+    public void releaseAdmission(final boolean completed) {
+        AdmissionController.Ticket ticket = this.admissionTicket;
+        if (ticket != null) {
+            this.admissionTicket = null;
+            ticket.release(completed);
+        }
+    }
 }
@@ -0,0 +1,467 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.latency;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.remoting.netty.RequestTask;
+
+/**
+ * Work queue of a {@link BrokerFixedThreadPoolExecutor} that serves the producer or consumer groups in deficit round
+ * robin instead of first come first served.
+ * <p>
+ * Every group with queued requests gets {@code QUANTUM} times its weight per round, a request costs one plus one per
+ * 4 KB of body, so a burst of large batches from one group only delays the others by their share. Weights come from
+ * {@code fairQueueGroupWeights}, {@code group:weight} pairs separated by commas, groups not listed weigh 1. Within a
+ * group requests stay in arrival order, {@link #peek} returns the request served next.
+ * <p>
+ * The request served next is not necessarily the oldest one, so expiring requests goes through
+ * {@link #removeOlderThan(long)} and {@link #pollOldest()} instead of the head of the queue.
+ */
+public class WeightedFairQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private static final int QUANTUM = 64;
+    private static final int COST_UNIT = 4 * 1024;
+
+    private final int capacity;
+    private final BrokerConfig brokerConfig;
+    private final QueueWaitListener queueWaitListener;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = this.lock.newCondition();
+    private final Condition notFull = this.lock.newCondition();
+    private final Map<String, Flow> flowTable = new HashMap<String, Flow>();
+    private final ArrayDeque<Flow> activeFlows = new ArrayDeque<Flow>();
+    private int count = 0;
+
+    private String weightsConfig;
+    private Map<String, Integer> weightTable = Collections.emptyMap();
+
+    public WeightedFairQueue(final int capacity, final BrokerConfig brokerConfig,
+        final QueueWaitListener queueWaitListener) {
+        this.capacity = capacity;
+        this.brokerConfig = brokerConfig;
+        this.queueWaitListener = queueWaitListener;
+    }
+
+    @Override
+    public boolean offer(final Runnable runnable) {
+        if (null == runnable) {
+            throw new NullPointerException();
+        }
+
+        final String group = groupOf(runnable);
+        final int cost = costOf(runnable);
+        this.lock.lock();
+        try {
+            if (this.count >= this.capacity) {
+                return false;
+            }
+            this.enqueue(runnable, group, cost);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final Runnable runnable) throws InterruptedException {
+        this.offer(runnable, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean offer(final Runnable runnable, final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (null == runnable) {
+            throw new NullPointerException();
+        }
+
+        final String group = groupOf(runnable);
+        final int cost = costOf(runnable);
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            while (this.count >= this.capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = this.notFull.awaitNanos(nanos);
+            }
+            this.enqueue(runnable, group, cost);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void enqueue(final Runnable runnable, final String group, final int cost) {
+        Flow flow = this.flowTable.get(group);
+        if (null == flow) {
+            flow = new Flow(group, this.weightOf(group));
+            this.flowTable.put(group, flow);
+            this.activeFlows.addLast(flow);
+        }
+        flow.entries.addLast(new Entry(runnable, cost));
+        this.count++;
+        this.notEmpty.signal();
+    }
+
+    @Override
+    public Runnable poll() {
+        this.lock.lock();
+        try {
+            return this.count == 0 ? null : this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (this.count == 0) {
+                this.notEmpty.await();
+            }
+            return this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            while (this.count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+            return this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        this.lock.lock();
+        try {
+            if (this.count == 0) {
+                return null;
+            }
+            // hand out the quanta the next dequeue would, so it takes the same request
+            while (true) {
+                Flow flow = this.activeFlows.peekFirst();
+                Entry head = flow.entries.peekFirst();
+                if (flow.deficit >= head.cost) {
+                    return head.runnable;
+                }
+                this.nextRound(flow);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private Runnable dequeue() {
+        while (true) {
+            Flow flow = this.activeFlows.peekFirst();
+            Entry head = flow.entries.peekFirst();
+            if (flow.deficit < head.cost) {
+                this.nextRound(flow);
+                continue;
+            }
+
+            flow.deficit -= head.cost;
+            flow.entries.pollFirst();
+            this.count--;
+            this.notFull.signal();
+            if (flow.entries.isEmpty()) {
+                this.activeFlows.pollFirst();
+                this.flowTable.remove(flow.group);
+            }
+            if (this.queueWaitListener != null) {
+                this.queueWaitListener.onDequeue(flow.group, System.currentTimeMillis() - head.enqueueTimestamp);
+            }
+            return head.runnable;
+        }
+    }
+
+    /**
+     * Removes the request waiting longest, whichever group is due next.
+     */
+    public Runnable pollOldest() {
+        this.lock.lock();
+        try {
+            Flow oldest = null;
+            for (Flow flow : this.activeFlows) {
+                if (null == oldest || flow.entries.peekFirst().enqueueTimestamp < oldest.entries.peekFirst().enqueueTimestamp) {
+                    oldest = flow;
+                }
+            }
+            if (null == oldest) {
+                return null;
+            }
+            Entry head = oldest.entries.pollFirst();
+            this.removed(oldest);
+            return head.runnable;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the requests that waited at least {@code maxWaitMillis} since they were created, in every group. Only
+     * {@link RequestTask}s expire.
+     *
+     * @return the removed requests, oldest of each group first
+     */
+    public List<Runnable> removeOlderThan(final long maxWaitMillis) {
+        final long now = System.currentTimeMillis();
+        final List<Runnable> expired = new ArrayList<Runnable>();
+        this.lock.lock();
+        try {
+            Iterator<Flow> flows = this.activeFlows.iterator();
+            while (flows.hasNext()) {
+                Flow flow = flows.next();
+                Iterator<Entry> it = flow.entries.iterator();
+                while (it.hasNext()) {
+                    Entry entry = it.next();
+                    RequestTask rt = BrokerFastFailure.castRunnable(entry.runnable);
+                    if (null == rt) {
+                        continue;
+                    }
+                    // arrival order within a group, the rest of it is younger
+                    if (now - rt.getCreateTimestamp() < maxWaitMillis) {
+                        break;
+                    }
+                    it.remove();
+                    this.count--;
+                    this.notFull.signal();
+                    expired.add(entry.runnable);
+                }
+                if (flow.entries.isEmpty()) {
+                    flows.remove();
+                    this.flowTable.remove(flow.group);
+                }
+            }
+            return expired;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Bookkeeping after an entry of the flow was taken out by other means than {@link #dequeue()}.
+     */
+    private void removed(final Flow flow) {
+        this.count--;
+        this.notFull.signal();
+        if (flow.entries.isEmpty()) {
+            this.activeFlows.remove(flow);
+            this.flowTable.remove(flow.group);
+        }
+    }
+
+    private void nextRound(final Flow flow) {
+        this.activeFlows.pollFirst();
+        flow.deficit += (long) QUANTUM * flow.weight;
+        this.activeFlows.addLast(flow);
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        if (!(o instanceof Runnable)) {
+            return false;
+        }
+
+        final String group = groupOf((Runnable) o);
+        this.lock.lock();
+        try {
+            Flow flow = this.flowTable.get(group);
+            if (null == flow) {
+                return false;
+            }
+            Iterator<Entry> it = flow.entries.iterator();
+            while (it.hasNext()) {
+                if (it.next().runnable == o) {
+                    it.remove();
+                    this.removed(flow);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return this.capacity - this.size();
+    }
+
+    @Override
+    public int drainTo(final Collection<? super Runnable> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super Runnable> c, final int maxElements) {
+        this.lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && this.count > 0) {
+                c.add(this.dequeue());
+                n++;
+            }
+            return n;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Iterates over a snapshot, removals go through {@link #remove(Object)}.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<Runnable>();
+        this.lock.lock();
+        try {
+            for (Flow flow : this.activeFlows) {
+                for (Entry entry : flow.entries) {
+                    snapshot.add(entry.runnable);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        final Iterator<Runnable> it = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                this.last = it.next();
+                return this.last;
+            }
+
+            @Override
+            public void remove() {
+                WeightedFairQueue.this.remove(this.last);
+            }
+        };
+    }
+
+    private int weightOf(final String group) {
+        final String config = this.brokerConfig.getFairQueueGroupWeights();
+        if (config == null ? this.weightsConfig != null : !config.equals(this.weightsConfig)) {
+            Map<String, Integer> table = new HashMap<String, Integer>();
+            if (!UtilAll.isBlank(config)) {
+                for (String pair : config.split(",")) {
+                    int index = pair.lastIndexOf(':');
+                    if (index > 0) {
+                        try {
+                            table.put(pair.substring(0, index).trim(), Integer.parseInt(pair.substring(index + 1).trim()));
+                        } catch (NumberFormatException ignored) {
+                        }
+                    }
+                }
+            }
+            this.weightTable = table;
+            this.weightsConfig = config;
+        }
+
+        Integer weight = this.weightTable.get(group);
+        return weight != null && weight > 0 ? weight : 1;
+    }
+
+    private static String groupOf(final Runnable runnable) {
+        final RequestTask rt = BrokerFastFailure.castRunnable(runnable);
+        if (null == rt || null == rt.getRequest()) {
+            return "";
+        }
+        return AdmissionController.groupOf(rt);
+    }
+
+    private static int costOf(final Runnable runnable) {
+        final RequestTask rt = BrokerFastFailure.castRunnable(runnable);
+        if (null == rt || null == rt.getRequest() || null == rt.getRequest().getBody()) {
+            return 1;
+        }
+        return 1 + rt.getRequest().getBody().length / COST_UNIT;
+    }
+
+    public interface QueueWaitListener {
+        void onDequeue(String group, long waitMillis);
+    }
+
+    static class Flow {
+        private final String group;
+        private final int weight;
+        private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+        private long deficit = 0;
+
+        Flow(final String group, final int weight) {
+            this.group = group;
+            this.weight = weight;
+        }
+    }
+
+    static class Entry {
+        private final Runnable runnable;
+        private final int cost;
+        private final long enqueueTimestamp = System.currentTimeMillis();
+
+        Entry(final Runnable runnable, final int cost) {
+            this.runnable = runnable;
+            this.cost = cost;
+        }
+    }
+}
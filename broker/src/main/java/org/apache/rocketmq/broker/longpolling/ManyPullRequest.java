@@ -17,26 +17,67 @@
 package org.apache.rocketmq.broker.longpolling;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+/**
+ * Pull requests held on one consume queue, ordered by the offset they wait for.
+ */
 public class ManyPullRequest {
-    private final ArrayList<PullRequest> pullRequestList = new ArrayList<>();
+    private final TreeMap<Long/* pullFromThisOffset */, List<PullRequest>> pullRequestTable = new TreeMap<>();
+    private int size = 0;
+
+    /**
+     * @return false if the request was already woken up and was not added
+     */
+    public synchronized boolean addPullRequest(final PullRequest pullRequest) {
+        if (pullRequest.isWokenUp()) {
+            return false;
+        }
 
-    public synchronized void addPullRequest(final PullRequest pullRequest) {
-        this.pullRequestList.add(pullRequest);
+        List<PullRequest> list = this.pullRequestTable.get(pullRequest.getPullFromThisOffset());
+        if (null == list) {
+            list = new ArrayList<>(2);
+            this.pullRequestTable.put(pullRequest.getPullFromThisOffset(), list);
+        }
+        list.add(pullRequest);
+        this.size++;
+        return true;
     }
 
-    public synchronized void addPullRequest(final List<PullRequest> many) {
-        this.pullRequestList.addAll(many);
+    /**
+     * Remove and return the requests waiting for an offset below {@code maxOffset}, the others are not touched.
+     */
+    public synchronized List<PullRequest> takeBelow(final long maxOffset) {
+        if (this.pullRequestTable.isEmpty() || this.pullRequestTable.firstKey() >= maxOffset) {
+            return null;
+        }
+
+        List<PullRequest> result = new ArrayList<>();
+        Iterator<Map.Entry<Long, List<PullRequest>>> it = this.pullRequestTable.headMap(maxOffset).entrySet().iterator();
+        while (it.hasNext()) {
+            result.addAll(it.next().getValue());
+            it.remove();
+        }
+        this.size -= result.size();
+        return result;
     }
 
-    public synchronized List<PullRequest> cloneListAndClear() {
-        if (!this.pullRequestList.isEmpty()) {
-            List<PullRequest> result = (ArrayList<PullRequest>) this.pullRequestList.clone();
-            this.pullRequestList.clear();
-            return result;
+    public synchronized boolean removePullRequest(final PullRequest pullRequest) {
+        List<PullRequest> list = this.pullRequestTable.get(pullRequest.getPullFromThisOffset());
+        if (list != null && list.remove(pullRequest)) {
+            if (list.isEmpty()) {
+                this.pullRequestTable.remove(pullRequest.getPullFromThisOffset());
+            }
+            this.size--;
+            return true;
         }
+        return false;
+    }
 
-        return null;
+    public synchronized int size() {
+        return this.size;
     }
 }
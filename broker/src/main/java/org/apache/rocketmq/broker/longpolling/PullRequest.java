@@ -17,6 +17,8 @@
 package org.apache.rocketmq.broker.longpolling;
 
 import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.store.MessageFilter;
@@ -29,6 +31,8 @@ public class PullRequest {
     private final long pullFromThisOffset;
     private final SubscriptionData subscriptionData;
     private final MessageFilter messageFilter;
+    private final AtomicBoolean wokenUp = new AtomicBoolean(false);
+    private volatile Timeout timeout;
 
     public PullRequest(RemotingCommand requestCommand, Channel clientChannel, long timeoutMillis, long suspendTimestamp,
         long pullFromThisOffset, SubscriptionData subscriptionData,
@@ -69,4 +73,23 @@ public class PullRequest {
     public MessageFilter getMessageFilter() {
         return messageFilter;
     }
+
+    /**
+     * Either the arriving message or the timeout wakes the request up, only the first caller gets true.
+     */
+    public boolean markWokenUp() {
+        return this.wokenUp.compareAndSet(false, true);
+    }
+
+    public boolean isWokenUp() {
+        return wokenUp.get();
+    }
+
+    public Timeout getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
 }
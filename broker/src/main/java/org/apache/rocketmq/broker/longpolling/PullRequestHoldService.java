@@ -16,37 +16,76 @@
  */
 package org.apache.rocketmq.broker.longpolling;
 
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.SystemClock;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.ConsumeQueue;
 import org.apache.rocketmq.store.ConsumeQueueExt;
 
+/**
+ * Holds pull requests that found no message until a matching message arrives or they time out.
+ * <p>
+ * Requests are kept per consume queue, ordered by the offset they wait for, so an arriving message only visits the
+ * requests it can serve. Every request is also scheduled on a hashed timing wheel which wakes it up right at its
+ * timeout. The periodic check only covers brokers without arriving notifications, like slaves.
+ */
 public class PullRequestHoldService extends ServiceThread {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.BROKER_LOGGER_NAME);
-    private static final String TOPIC_QUEUEID_SEPARATOR = "@";
+    private static final long TIMER_TICK_MILLS = 100;
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
     private final BrokerController brokerController;
     private final SystemClock systemClock = new SystemClock();
-    private ConcurrentMap<String/* topic@queueId */, ManyPullRequest> pullRequestTable =
-        new ConcurrentHashMap<String, ManyPullRequest>(1024);
+    private ConcurrentMap<ConsumeQueue, ManyPullRequest> pullRequestTable =
+        new ConcurrentHashMap<ConsumeQueue, ManyPullRequest>(1024);
+    private final Timer timer = new HashedWheelTimer(new ThreadFactoryImpl("PullRequestHoldTimer_"),
+        TIMER_TICK_MILLS, TimeUnit.MILLISECONDS, TIMER_TICKS_PER_WHEEL);
+
+    private final AtomicLong holdingRequestNums = new AtomicLong(0);
+    private final AtomicLong wakeupByArrivingTimes = new AtomicLong(0);
+    private final AtomicLong wakeupByTimeoutTimes = new AtomicLong(0);
+    private final AtomicLong wakeupLatencyTotalMills = new AtomicLong(0);
+    private final AtomicLong wakeupLatencySamples = new AtomicLong(0);
 
     public PullRequestHoldService(final BrokerController brokerController) {
         this.brokerController = brokerController;
     }
 
     public void suspendPullRequest(final String topic, final int queueId, final PullRequest pullRequest) {
-        String key = this.buildKey(topic, queueId);
-        ManyPullRequest mpr = this.pullRequestTable.get(key);
+        this.holdingRequestNums.incrementAndGet();
+        pullRequest.setTimeout(this.timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) {
+                PullRequestHoldService.this.wakeupWhenTimeout(topic, queueId, pullRequest);
+            }
+        }, pullRequest.getTimeoutMillis(), TimeUnit.MILLISECONDS));
+
+        ConsumeQueue consumeQueue = this.brokerController.getMessageStore().getConsumeQueue(topic, queueId);
+        if (null == consumeQueue) {
+            // the queue is gone, the timeout answers the request
+            return;
+        }
+
+        ManyPullRequest mpr = this.pullRequestTable.get(consumeQueue);
         if (null == mpr) {
             mpr = new ManyPullRequest();
-            ManyPullRequest prev = this.pullRequestTable.putIfAbsent(key, mpr);
+            ManyPullRequest prev = this.pullRequestTable.putIfAbsent(consumeQueue, mpr);
             if (prev != null) {
                 mpr = prev;
             }
@@ -55,14 +94,6 @@ public class PullRequestHoldService extends ServiceThread {
         mpr.addPullRequest(pullRequest);
     }
 
-    private String buildKey(final String topic, final int queueId) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(topic);
-        sb.append(TOPIC_QUEUEID_SEPARATOR);
-        sb.append(queueId);
-        return sb.toString();
-    }
-
     @Override
     public void run() {
         log.info("{} service started", this.getServiceName());
@@ -88,23 +119,31 @@ public class PullRequestHoldService extends ServiceThread {
         log.info("{} service end", this.getServiceName());
     }
 
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        this.timer.stop();
+    }
+
     @Override
     public String getServiceName() {
         return PullRequestHoldService.class.getSimpleName();
     }
 
     private void checkHoldRequest() {
-        for (String key : this.pullRequestTable.keySet()) {
-            String[] kArray = key.split(TOPIC_QUEUEID_SEPARATOR);
-            if (2 == kArray.length) {
-                String topic = kArray[0];
-                int queueId = Integer.parseInt(kArray[1]);
-                final long offset = this.brokerController.getMessageStore().getMaxOffsetInQueue(topic, queueId);
-                try {
-                    this.notifyMessageArriving(topic, queueId, offset);
-                } catch (Throwable e) {
-                    log.error("check hold request failed. topic={}, queueId={}", topic, queueId, e);
+        Iterator<Map.Entry<ConsumeQueue, ManyPullRequest>> it = this.pullRequestTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ConsumeQueue, ManyPullRequest> entry = it.next();
+            ConsumeQueue consumeQueue = entry.getKey();
+            try {
+                if (consumeQueue != this.brokerController.getMessageStore().getConsumeQueue(consumeQueue.getTopic(), consumeQueue.getQueueId())) {
+                    // destroyed queue, the timeouts answer the requests left
+                    it.remove();
+                    continue;
                 }
+                this.notifyMessageArriving(consumeQueue, entry.getValue(), consumeQueue.getMaxOffsetInQueue(), null, 0, null, null);
+            } catch (Throwable e) {
+                log.error("check hold request failed. topic={}, queueId={}", consumeQueue.getTopic(), consumeQueue.getQueueId(), e);
             }
         }
     }
@@ -115,55 +154,100 @@ public class PullRequestHoldService extends ServiceThread {
 
     public void notifyMessageArriving(final String topic, final int queueId, final long maxOffset, final Long tagsCode,
         long msgStoreTime, byte[] filterBitMap, Map<String, String> properties) {
-        String key = this.buildKey(topic, queueId);
-        ManyPullRequest mpr = this.pullRequestTable.get(key);
+        ConsumeQueue consumeQueue = this.brokerController.getMessageStore().getConsumeQueue(topic, queueId);
+        if (null == consumeQueue) {
+            return;
+        }
+
+        ManyPullRequest mpr = this.pullRequestTable.get(consumeQueue);
         if (mpr != null) {
-            List<PullRequest> requestList = mpr.cloneListAndClear();
-            if (requestList != null) {
-                List<PullRequest> replayList = new ArrayList<PullRequest>();
-
-                for (PullRequest request : requestList) {
-                    long newestOffset = maxOffset;
-                    if (newestOffset <= request.getPullFromThisOffset()) {
-                        newestOffset = this.brokerController.getMessageStore().getMaxOffsetInQueue(topic, queueId);
-                    }
-
-                    if (newestOffset > request.getPullFromThisOffset()) {
-                        boolean match = request.getMessageFilter().isMatchedByConsumeQueue(tagsCode,
-                            new ConsumeQueueExt.CqExtUnit(tagsCode, msgStoreTime, filterBitMap));
-                        // match by bit map, need eval again when properties is not null.
-                        if (match && properties != null) {
-                            match = request.getMessageFilter().isMatchedByCommitLog(null, properties);
-                        }
-
-                        if (match) {
-                            try {
-                                this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
-                                    request.getRequestCommand());
-                            } catch (Throwable e) {
-                                log.error("execute request when wakeup failed.", e);
-                            }
-                            continue;
-                        }
-                    }
-
-                    if (System.currentTimeMillis() >= (request.getSuspendTimestamp() + request.getTimeoutMillis())) {
-                        try {
-                            this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
-                                request.getRequestCommand());
-                        } catch (Throwable e) {
-                            log.error("execute request when wakeup failed.", e);
-                        }
-                        continue;
-                    }
-
-                    replayList.add(request);
-                }
+            this.notifyMessageArriving(consumeQueue, mpr, Math.max(maxOffset, consumeQueue.getMaxOffsetInQueue()),
+                tagsCode, msgStoreTime, filterBitMap, properties);
+        }
+    }
+
+    private void notifyMessageArriving(final ConsumeQueue consumeQueue, final ManyPullRequest mpr, final long newestOffset,
+        final Long tagsCode, long msgStoreTime, byte[] filterBitMap, Map<String, String> properties) {
+        List<PullRequest> requestList = mpr.takeBelow(newestOffset);
+        if (null == requestList) {
+            return;
+        }
+
+        List<PullRequest> wakeupList = new ArrayList<PullRequest>(requestList.size());
+        for (PullRequest request : requestList) {
+            boolean match = request.getMessageFilter().isMatchedByConsumeQueue(tagsCode,
+                new ConsumeQueueExt.CqExtUnit(tagsCode, msgStoreTime, filterBitMap));
+            // match by bit map, need eval again when properties is not null.
+            if (match && properties != null) {
+                match = request.getMessageFilter().isMatchedByCommitLog(null, properties);
+            }
 
-                if (!replayList.isEmpty()) {
-                    mpr.addPullRequest(replayList);
+            if (!match) {
+                // not added again if the timeout fired meanwhile
+                mpr.addPullRequest(request);
+                continue;
+            }
+
+            if (request.markWokenUp()) {
+                if (request.getTimeout() != null) {
+                    request.getTimeout().cancel();
+                }
+                this.wakeupByArrivingTimes.incrementAndGet();
+                if (msgStoreTime > 0) {
+                    this.wakeupLatencyTotalMills.addAndGet(Math.max(0, System.currentTimeMillis() - msgStoreTime));
+                    this.wakeupLatencySamples.incrementAndGet();
                 }
+                wakeupList.add(request);
             }
         }
+
+        if (!wakeupList.isEmpty()) {
+            this.holdingRequestNums.addAndGet(-wakeupList.size());
+            try {
+                this.brokerController.getPullMessageProcessor().executeRequestsWhenWakeup(wakeupList);
+            } catch (Throwable e) {
+                log.error("execute requests when wakeup failed.", e);
+            }
+        }
+    }
+
+    private void wakeupWhenTimeout(final String topic, final int queueId, final PullRequest request) {
+        if (!request.markWokenUp()) {
+            return;
+        }
+
+        ConsumeQueue consumeQueue = this.brokerController.getMessageStore().getConsumeQueue(topic, queueId);
+        if (consumeQueue != null) {
+            ManyPullRequest mpr = this.pullRequestTable.get(consumeQueue);
+            if (mpr != null) {
+                mpr.removePullRequest(request);
+            }
+        }
+        this.wakeupByTimeoutTimes.incrementAndGet();
+        this.executeRequestWhenWakeup(request);
+    }
+
+    private void executeRequestWhenWakeup(final PullRequest request) {
+        this.holdingRequestNums.decrementAndGet();
+        try {
+            this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
+                request.getRequestCommand());
+        } catch (Throwable e) {
+            log.error("execute request when wakeup failed.", e);
+        }
+    }
+
+    public long getHoldingRequestNums() {
+        return holdingRequestNums.get();
+    }
+
+    public void buildRunningStats(final HashMap<String, String> stats) {
+        long samples = this.wakeupLatencySamples.get();
+        stats.put("pullRequestHoldingNums", String.valueOf(this.holdingRequestNums.get()));
+        stats.put("pullRequestWakeupByArrivingTimes", String.valueOf(this.wakeupByArrivingTimes.get()));
+        stats.put("pullRequestWakeupByTimeoutTimes", String.valueOf(this.wakeupByTimeoutTimes.get()));
+        // from the message being stored to the held request being handed to the pull executor
+        stats.put("pullRequestWakeupLatencyAvgMills",
+            String.format("%.2f", samples == 0 ? 0.0 : (double) this.wakeupLatencyTotalMills.get() / samples));
     }
 }
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.offset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+
+/**
+ * Binary persistence of the consumer offsets, a snapshot of the whole table plus an append-only journal of the
+ * offsets changed since that snapshot.
+ * <p>
+ * Both files carry the generation of the snapshot. Writing a snapshot bumps the generation and starts a new journal,
+ * so a journal left over by a crash in between belongs to an older generation and is not replayed on top of the
+ * newer snapshot. Every journal record is checksummed, a torn record at the tail is dropped on replay.
+ * <p>
+ * The snapshot is checksummed too and replaced by an atomic rename, so it is either the previous or the new one. A
+ * snapshot that does not verify fails the load, it is never silently replaced by older offsets.
+ */
+public class ConsumerOffsetJournal {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.BROKER_LOGGER_NAME);
+    private static final int SNAPSHOT_MAGIC = 0x434F5331;
+    private static final int JOURNAL_MAGIC = 0x434F4A31;
+    /**
+     * Record of a topic@group whose offsets were all removed.
+     */
+    private static final int REMOVED = -1;
+
+    private final String snapshotPath;
+    private final String journalPath;
+    private long generation = 0;
+    private DataOutputStream journalOut;
+    private long journalSize = 0;
+
+    public ConsumerOffsetJournal(final String snapshotPath, final String journalPath) {
+        this.snapshotPath = snapshotPath;
+        this.journalPath = journalPath;
+    }
+
+    /**
+     * Fill the offset table from the snapshot and the journal.
+     *
+     * @return false if there is no snapshot yet
+     * @throws IOException if the snapshot is broken
+     */
+    public synchronized boolean load(final ConcurrentMap<String, ConcurrentMap<Integer, Long>> offsetTable)
+        throws IOException {
+        File snapshotFile = new File(this.snapshotPath);
+        if (!snapshotFile.exists()) {
+            return false;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+        byte[] body;
+        long snapshotGeneration;
+        int keyNums;
+        try {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("unknown consumer offset snapshot format, " + this.snapshotPath);
+            }
+            snapshotGeneration = in.readLong();
+            keyNums = in.readInt();
+            int size = in.readInt();
+            int crc = in.readInt();
+            if (size < 0 || size > snapshotFile.length()) {
+                throw new IOException("consumer offset snapshot " + this.snapshotPath + " is broken, body size " + size);
+            }
+            body = new byte[size];
+            in.readFully(body);
+            if (UtilAll.crc32(body) != crc) {
+                throw new IOException("consumer offset snapshot " + this.snapshotPath + " is broken, checksum mismatch");
+            }
+        } catch (EOFException e) {
+            throw new IOException("consumer offset snapshot " + this.snapshotPath + " is truncated", e);
+        } finally {
+            in.close();
+        }
+
+        this.generation = snapshotGeneration;
+        in = new DataInputStream(new ByteArrayInputStream(body));
+        try {
+            for (int i = 0; i < keyNums; i++) {
+                String key = in.readUTF();
+                int queueNums = in.readInt();
+                ConcurrentMap<Integer, Long> offsets = new ConcurrentHashMap<Integer, Long>(Math.max(32, queueNums));
+                for (int q = 0; q < queueNums; q++) {
+                    offsets.put(in.readInt(), in.readLong());
+                }
+                offsetTable.put(key, offsets);
+            }
+        } finally {
+            in.close();
+        }
+
+        int records = this.replayJournal(offsetTable);
+        log.info("load consumer offset snapshot {} generation {}, {} keys, replay {} journal records",
+            this.snapshotPath, this.generation, offsetTable.size(), records);
+        return true;
+    }
+
+    private int replayJournal(final ConcurrentMap<String, ConcurrentMap<Integer, Long>> offsetTable) throws IOException {
+        File journalFile = new File(this.journalPath);
+        if (!journalFile.exists()) {
+            return 0;
+        }
+
+        int records = 0;
+        long remaining = journalFile.length() - 12;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        try {
+            if (in.readInt() != JOURNAL_MAGIC || in.readLong() != this.generation) {
+                log.warn("ignore consumer offset journal {}, it does not belong to snapshot generation {}",
+                    this.journalPath, this.generation);
+                return 0;
+            }
+            while (true) {
+                int size = in.readInt();
+                int crc = in.readInt();
+                remaining -= 8;
+                if (size <= 0) {
+                    break;
+                }
+                // a broken size field must not allocate more than the file can still hold
+                if (size > remaining) {
+                    log.warn("consumer offset journal {} has a broken record size {} after {} records",
+                        this.journalPath, size, records);
+                    break;
+                }
+                remaining -= size;
+                byte[] body = new byte[size];
+                in.readFully(body);
+                if (UtilAll.crc32(body) != crc) {
+                    log.warn("consumer offset journal {} has a broken record after {} records", this.journalPath, records);
+                    break;
+                }
+                this.applyRecord(body, offsetTable);
+                records++;
+            }
+        } catch (EOFException e) {
+            // torn tail of the journal, written when the broker stopped
+        } finally {
+            in.close();
+        }
+        return records;
+    }
+
+    private void applyRecord(final byte[] body, final ConcurrentMap<String, ConcurrentMap<Integer, Long>> offsetTable)
+        throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        String key = in.readUTF();
+        int queueNums = in.readInt();
+        if (queueNums == REMOVED) {
+            offsetTable.remove(key);
+            return;
+        }
+
+        ConcurrentMap<Integer, Long> offsets = offsetTable.get(key);
+        if (null == offsets) {
+            offsets = new ConcurrentHashMap<Integer, Long>(32);
+            offsetTable.put(key, offsets);
+        }
+        for (int q = 0; q < queueNums; q++) {
+            offsets.put(in.readInt(), in.readLong());
+        }
+    }
+
+    /**
+     * Append the current offsets of one topic@group, null when it was removed. Only valid after a snapshot was written
+     * by this instance, the journal is always started together with its snapshot.
+     */
+    public synchronized void append(final String key, final Map<Integer, Long> offsets) throws IOException {
+        if (null == this.journalOut) {
+            throw new IOException("no consumer offset snapshot written yet, " + this.snapshotPath);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeUTF(key);
+        if (null == offsets) {
+            body.writeInt(REMOVED);
+        } else {
+            // a snapshot of the entries, the map keeps changing
+            Object[] entries = offsets.entrySet().toArray();
+            body.writeInt(entries.length);
+            for (Object entry : entries) {
+                @SuppressWarnings("unchecked")
+                Map.Entry<Integer, Long> offset = (Map.Entry<Integer, Long>) entry;
+                body.writeInt(offset.getKey());
+                body.writeLong(offset.getValue());
+            }
+        }
+        body.flush();
+
+        byte[] record = bytes.toByteArray();
+        this.journalOut.writeInt(record.length);
+        this.journalOut.writeInt(UtilAll.crc32(record));
+        this.journalOut.write(record);
+        this.journalSize += 8 + record.length;
+    }
+
+    /**
+     * Push the appended records to the file.
+     */
+    public synchronized void flush() throws IOException {
+        if (this.journalOut != null) {
+            this.journalOut.flush();
+        }
+    }
+
+    /**
+     * Write the whole table as a new snapshot generation and start an empty journal for it.
+     */
+    public synchronized void snapshot(final ConcurrentMap<String, ConcurrentMap<Integer, Long>> offsetTable)
+        throws IOException {
+        long nextGeneration = this.generation + 1;
+        File tmpFile = new File(this.snapshotPath + ".tmp");
+        File parent = tmpFile.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        int keyNums = 0;
+        FileOutputStream fileOut = new FileOutputStream(tmpFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            Object[] keys = offsetTable.keySet().toArray();
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(nextGeneration);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 * 64);
+            DataOutputStream body = new DataOutputStream(bytes);
+            for (Object key : keys) {
+                ConcurrentMap<Integer, Long> offsets = offsetTable.get(key);
+                if (null == offsets) {
+                    continue;
+                }
+                Object[] entries = offsets.entrySet().toArray();
+                body.writeUTF((String) key);
+                body.writeInt(entries.length);
+                for (Object entry : entries) {
+                    @SuppressWarnings("unchecked")
+                    Map.Entry<Integer, Long> offset = (Map.Entry<Integer, Long>) entry;
+                    body.writeInt(offset.getKey());
+                    body.writeLong(offset.getValue());
+                }
+                keyNums++;
+            }
+            body.flush();
+            byte[] bodyBytes = bytes.toByteArray();
+            out.writeInt(keyNums);
+            out.writeInt(bodyBytes.length);
+            out.writeInt(UtilAll.crc32(bodyBytes));
+            out.write(bodyBytes);
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        // never a moment without a complete snapshot on disk
+        Files.move(tmpFile.toPath(), new File(this.snapshotPath).toPath(), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+
+        this.generation = nextGeneration;
+        this.openJournal();
+        log.info("write consumer offset snapshot {} generation {}, {} keys", this.snapshotPath, this.generation, keyNums);
+    }
+
+    private void openJournal() throws IOException {
+        if (this.journalOut != null) {
+            this.journalOut.close();
+            this.journalOut = null;
+        }
+
+        this.journalOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.journalPath, false)));
+        this.journalOut.writeInt(JOURNAL_MAGIC);
+        this.journalOut.writeLong(this.generation);
+        this.journalOut.flush();
+        this.journalSize = 12;
+    }
+
+    public synchronized long getJournalSize() {
+        return journalSize;
+    }
+
+    public synchronized void close() {
+        if (this.journalOut != null) {
+            try {
+                this.journalOut.close();
+            } catch (IOException e) {
+                log.warn("close consumer offset journal {} failed", this.journalPath, e);
+            }
+            this.journalOut = null;
+        }
+    }
+}
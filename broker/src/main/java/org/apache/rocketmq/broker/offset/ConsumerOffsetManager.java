@@ -16,6 +16,7 @@
  */
 package org.apache.rocketmq.broker.offset;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -26,49 +27,68 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.broker.BrokerPathConfigHelper;
+import org.apache.rocketmq.broker.offset.ConsumerOffsetTable.OffsetRow;
 import org.apache.rocketmq.common.ConfigManager;
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.protocol.body.ConsumerOffsetDeltaBody;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.remoting.protocol.RemotingSerializable;
 
 public class ConsumerOffsetManager extends ConfigManager {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.BROKER_LOGGER_NAME);
-    private static final String TOPIC_GROUP_SEPARATOR = "@";
+    private static final String TOPIC_GROUP_SEPARATOR = ConsumerOffsetTable.TOPIC_GROUP_SEPARATOR;
 
-    private ConcurrentMap<String/* topic@group */, ConcurrentMap<Integer, Long>> offsetTable =
-        new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>(512);
+    /**
+     * Not named offsetTable, json reads and writes that property through getOffsetTable and setOffsetTable.
+     */
+    private final ConsumerOffsetTable consumerOffsetTable = new ConsumerOffsetTable();
 
     private transient BrokerController brokerController;
 
+    /**
+     * Binary persistence, null when the offsets are persisted as json.
+     */
+    private transient ConsumerOffsetJournal offsetJournal;
+    /**
+     * topic@group removed since the last persist, written to the journal before the changed offsets.
+     */
+    private final transient Set<String> removedKeys = ConcurrentHashMap.newKeySet();
+    private transient volatile boolean snapshotRequired = true;
+
     public ConsumerOffsetManager() {
     }
 
     public ConsumerOffsetManager(BrokerController brokerController) {
         this.brokerController = brokerController;
+        if (brokerController.getBrokerConfig().isConsumerOffsetJournalEnable()) {
+            String rootDir = brokerController.getMessageStoreConfig().getStorePathRootDir();
+            this.offsetJournal = new ConsumerOffsetJournal(BrokerPathConfigHelper.getConsumerOffsetSnapshotPath(rootDir),
+                BrokerPathConfigHelper.getConsumerOffsetJournalPath(rootDir));
+        }
     }
 
     public void scanUnsubscribedTopic() {
-        Iterator<Entry<String, ConcurrentMap<Integer, Long>>> it = this.offsetTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, ConcurrentMap<Integer, Long>> next = it.next();
-            String topicAtGroup = next.getKey();
-            String[] arrays = topicAtGroup.split(TOPIC_GROUP_SEPARATOR);
-            if (arrays.length == 2) {
-                String topic = arrays[0];
-                String group = arrays[1];
-
-                if (null == brokerController.getConsumerManager().findSubscriptionData(group, topic)
-                    && this.offsetBehindMuchThanData(topic, next.getValue())) {
-                    it.remove();
-                    log.warn("remove topic offset, {}", topicAtGroup);
-                }
+        for (OffsetRow row : this.consumerOffsetTable.rows()) {
+            String topic = row.getTopic();
+            String group = row.getGroup();
+
+            if (null == brokerController.getConsumerManager().findSubscriptionData(group, topic)
+                && this.offsetBehindMuchThanData(topic, this.consumerOffsetTable.offsets(row))) {
+                this.removeOffset(group, topic);
+                log.warn("remove topic offset, {}", row.getKey());
             }
         }
     }
 
-    private boolean offsetBehindMuchThanData(final String topic, ConcurrentMap<Integer, Long> table) {
+    private void removeOffset(final String group, final String topic) {
+        if (this.consumerOffsetTable.remove(group, topic) && this.offsetJournal != null) {
+            this.removedKeys.add(topic + TOPIC_GROUP_SEPARATOR + group);
+        }
+    }
+
+    private boolean offsetBehindMuchThanData(final String topic, Map<Integer, Long> table) {
         Iterator<Entry<Integer, Long>> it = table.entrySet().iterator();
         boolean result = !table.isEmpty();
 
@@ -84,72 +104,117 @@ public class ConsumerOffsetManager extends ConfigManager {
 
     public Set<String> whichTopicByConsumer(final String group) {
         Set<String> topics = new HashSet<String>();
-
-        Iterator<Entry<String, ConcurrentMap<Integer, Long>>> it = this.offsetTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, ConcurrentMap<Integer, Long>> next = it.next();
-            String topicAtGroup = next.getKey();
-            String[] arrays = topicAtGroup.split(TOPIC_GROUP_SEPARATOR);
-            if (arrays.length == 2) {
-                if (group.equals(arrays[1])) {
-                    topics.add(arrays[0]);
-                }
-            }
+        for (OffsetRow row : this.consumerOffsetTable.rowsOfGroup(group)) {
+            topics.add(row.getTopic());
         }
-
         return topics;
     }
 
     public Set<String> whichGroupByTopic(final String topic) {
         Set<String> groups = new HashSet<String>();
-
-        Iterator<Entry<String, ConcurrentMap<Integer, Long>>> it = this.offsetTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, ConcurrentMap<Integer, Long>> next = it.next();
-            String topicAtGroup = next.getKey();
-            String[] arrays = topicAtGroup.split(TOPIC_GROUP_SEPARATOR);
-            if (arrays.length == 2) {
-                if (topic.equals(arrays[0])) {
-                    groups.add(arrays[1]);
-                }
+        for (OffsetRow row : this.consumerOffsetTable.rows()) {
+            if (topic.equals(row.getTopic())) {
+                groups.add(row.getGroup());
             }
         }
-
         return groups;
     }
 
     public void commitOffset(final String clientHost, final String group, final String topic, final int queueId,
         final long offset) {
-        // topic@group
-        String key = topic + TOPIC_GROUP_SEPARATOR + group;
-        this.commitOffset(clientHost, key, queueId, offset);
+        long storeOffset = this.consumerOffsetTable.commit(group, topic, queueId, offset);
+        if (storeOffset >= 0 && offset < storeOffset) {
+            log.warn("[NOTIFYME]update consumer offset less than store. clientHost={}, key={}@{}, queueId={}, requestOffset={}, storeOffset={}", clientHost, topic, group, queueId, offset, storeOffset);
+        }
     }
 
-    private void commitOffset(final String clientHost, final String key, final int queueId, final long offset) {
-        ConcurrentMap<Integer, Long> map = this.offsetTable.get(key);
-        if (null == map) {
-            map = new ConcurrentHashMap<Integer, Long>(32);
-            map.put(queueId, offset);
-            this.offsetTable.put(key, map);
+    /**
+     * Take over the offsets of the master, on a slave.
+     */
+    public void syncOffsetTable(final Map<String, ? extends Map<Integer, Long>> masterOffsetTable) {
+        this.consumerOffsetTable.load(masterOffsetTable);
+    }
+
+    /**
+     * @return the offsets committed since the given version, all of them when the version belongs to another epoch
+     */
+    public ConsumerOffsetDeltaBody buildConsumerOffsetDelta(final long epoch, final long sinceVersion) {
+        ConsumerOffsetDeltaBody delta = new ConsumerOffsetDeltaBody();
+        long version = this.consumerOffsetTable.nextChangeVersion();
+        delta.setEpoch(this.consumerOffsetTable.getEpoch());
+        delta.setVersion(version);
+        if (epoch == this.consumerOffsetTable.getEpoch() && sinceVersion <= version) {
+            delta.setOffsetTable(this.consumerOffsetTable.changedSince(sinceVersion));
         } else {
-            Long storeOffset = map.put(queueId, offset);
-            if (storeOffset != null && offset < storeOffset) {
-                log.warn("[NOTIFYME]update consumer offset less than store. clientHost={}, key={}, queueId={}, requestOffset={}, storeOffset={}", clientHost, key, queueId, offset, storeOffset);
+            delta.setFull(true);
+            delta.setOffsetTable(new HashMap<String, Map<Integer, Long>>(this.consumerOffsetTable.toMap()));
+        }
+        return delta;
+    }
+
+    @Override
+    public boolean load() {
+        if (this.offsetJournal != null) {
+            try {
+                ConcurrentMap<String, ConcurrentMap<Integer, Long>> offsets = new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>(512);
+                if (this.offsetJournal.load(offsets)) {
+                    this.consumerOffsetTable.load(offsets);
+                    return true;
+                }
+                log.info("no consumer offset snapshot yet, load {}", this.configFilePath());
+            } catch (Exception e) {
+                // the json file is older than the snapshot, loading it would rewind the consumers
+                log.error("load consumer offset snapshot failed", e);
+                return false;
             }
         }
+        return super.load();
     }
 
-    public long queryOffset(final String group, final String topic, final int queueId) {
-        // topic@group
-        String key = topic + TOPIC_GROUP_SEPARATOR + group;
-        ConcurrentMap<Integer, Long> map = this.offsetTable.get(key);
-        if (null != map) {
-            Long offset = map.get(queueId);
-            if (offset != null)
-                return offset;
+    /**
+     * With the journal enabled, appends the offsets changed since the last persist. A full snapshot is written on the
+     * first persist after startup, after a failure and once the journal grew too large.
+     */
+    @Override
+    public synchronized void persist() {
+        if (null == this.offsetJournal) {
+            super.persist();
+            return;
         }
 
-        return -1;
+        try {
+            if (this.snapshotRequired
+                || this.offsetJournal.getJournalSize() > this.brokerController.getBrokerConfig().getConsumerOffsetJournalMaxSize()) {
+                this.removedKeys.clear();
+                this.consumerOffsetTable.clearDirty();
+                this.offsetJournal.snapshot(this.consumerOffsetTable.toMap());
+                this.snapshotRequired = false;
+            } else {
+                Iterator<String> it = this.removedKeys.iterator();
+                while (it.hasNext()) {
+                    String key = it.next();
+                    it.remove();
+                    this.offsetJournal.append(key, null);
+                }
+                for (Entry<String, Map<Integer, Long>> entry : this.consumerOffsetTable.drainDirty().entrySet()) {
+                    this.offsetJournal.append(entry.getKey(), entry.getValue());
+                }
+                this.offsetJournal.flush();
+            }
+        } catch (IOException e) {
+            this.snapshotRequired = true;
+            log.error("persist consumer offset journal exception", e);
+        }
+    }
+
+    public void shutdown() {
+        if (this.offsetJournal != null) {
+            this.offsetJournal.close();
+        }
+    }
+
+    public long queryOffset(final String group, final String topic, final int queueId) {
+        return this.consumerOffsetTable.query(group, topic, queueId);
     }
 
     public String encode() {
@@ -166,7 +231,7 @@ public class ConsumerOffsetManager extends ConfigManager {
         if (jsonString != null) {
             ConsumerOffsetManager obj = RemotingSerializable.fromJson(jsonString, ConsumerOffsetManager.class);
             if (obj != null) {
-                this.offsetTable = obj.offsetTable;
+                this.consumerOffsetTable.load(obj.getOffsetTable());
             }
         }
     }
@@ -175,34 +240,30 @@ public class ConsumerOffsetManager extends ConfigManager {
         return RemotingSerializable.toJson(this, prettyFormat);
     }
 
+    /**
+     * @return a copy of all offsets keyed by topic@group, the layout of consumerOffset.json
+     */
     public ConcurrentMap<String, ConcurrentMap<Integer, Long>> getOffsetTable() {
-        return offsetTable;
+        return this.consumerOffsetTable.toMap();
     }
 
     public void setOffsetTable(ConcurrentHashMap<String, ConcurrentMap<Integer, Long>> offsetTable) {
-        this.offsetTable = offsetTable;
+        this.consumerOffsetTable.load(offsetTable);
     }
 
     public Map<Integer, Long> queryMinOffsetInAllGroup(final String topic, final String filterGroups) {
 
         Map<Integer, Long> queueMinOffset = new HashMap<Integer, Long>();
-        Set<String> topicGroups = this.offsetTable.keySet();
+        Set<String> excludedGroups = new HashSet<String>();
         if (!UtilAll.isBlank(filterGroups)) {
             for (String group : filterGroups.split(",")) {
-                Iterator<String> it = topicGroups.iterator();
-                while (it.hasNext()) {
-                    if (group.equals(it.next().split(TOPIC_GROUP_SEPARATOR)[1])) {
-                        it.remove();
-                    }
-                }
+                excludedGroups.add(group);
             }
         }
 
-        for (Map.Entry<String, ConcurrentMap<Integer, Long>> offSetEntry : this.offsetTable.entrySet()) {
-            String topicGroup = offSetEntry.getKey();
-            String[] topicGroupArr = topicGroup.split(TOPIC_GROUP_SEPARATOR);
-            if (topic.equals(topicGroupArr[0])) {
-                for (Entry<Integer, Long> entry : offSetEntry.getValue().entrySet()) {
+        for (OffsetRow row : this.consumerOffsetTable.rows()) {
+            if (topic.equals(row.getTopic()) && !excludedGroups.contains(row.getGroup())) {
+                for (Entry<Integer, Long> entry : this.consumerOffsetTable.offsets(row).entrySet()) {
                     long minOffset = this.brokerController.getMessageStore().getMinOffsetInQueue(topic, entry.getKey());
                     if (entry.getValue() >= minOffset) {
                         Long offset = queueMinOffset.get(entry.getKey());
@@ -220,15 +281,13 @@ public class ConsumerOffsetManager extends ConfigManager {
     }
 
     public Map<Integer, Long> queryOffset(final String group, final String topic) {
-        // topic@group
-        String key = topic + TOPIC_GROUP_SEPARATOR + group;
-        return this.offsetTable.get(key);
+        return this.consumerOffsetTable.queryOffsets(group, topic);
     }
 
     public void cloneOffset(final String srcGroup, final String destGroup, final String topic) {
-        ConcurrentMap<Integer, Long> offsets = this.offsetTable.get(topic + TOPIC_GROUP_SEPARATOR + srcGroup);
+        Map<Integer, Long> offsets = this.consumerOffsetTable.queryOffsets(srcGroup, topic);
         if (offsets != null) {
-            this.offsetTable.put(topic + TOPIC_GROUP_SEPARATOR + destGroup, new ConcurrentHashMap<Integer, Long>(offsets));
+            this.consumerOffsetTable.putAll(destGroup, topic, offsets);
         }
     }
 
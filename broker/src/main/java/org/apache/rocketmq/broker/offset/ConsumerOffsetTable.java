@@ -0,0 +1,530 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.offset;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Consumer offsets kept in flat primitive arrays.
+ * <p>
+ * Every (group, topic, queueId) owns a slot of the offset array. Groups and topics are resolved to a row by two map
+ * lookups on the names, so a commit neither concatenates {@code topic@group} nor boxes the offset. The offset of an
+ * existing slot is published by an ordered write, only a new slot is allocated under the lock of its row. The arrays
+ * are split in chunks, growing the table never copies offsets. A dirty bitmap records the slots changed since it was
+ * drained last, so persistence only touches what changed. Every slot also remembers the change version current when it
+ * was written last, readers on slaves ask for the slots changed since the version they are in sync with. Every chunk
+ * remembers the latest of them, so chunks left unchanged are skipped as a whole.
+ * <p>
+ * Slots of removed rows are handed to new rows only after {@link #SLOT_REUSE_DELAY_MILLIS}, a late commit still
+ * holding the slot of a removed row cannot land in the slot of another one.
+ */
+public class ConsumerOffsetTable {
+    public static final String TOPIC_GROUP_SEPARATOR = "@";
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int[] EMPTY_SLOTS = new int[0];
+    /**
+     * Index of the latest change version of the chunk in its version array.
+     */
+    private static final int CHUNK_VERSION_INDEX = CHUNK_SIZE;
+    public static final long SLOT_REUSE_DELAY_MILLIS = 60 * 1000;
+
+    private final ConcurrentMap<String/* group */, ConcurrentMap<String/* topic */, OffsetRow>> rowTable =
+        new ConcurrentHashMap<String, ConcurrentMap<String, OffsetRow>>(512);
+
+    private final Object allocateLock = new Object();
+    private volatile AtomicLongArray[] offsetChunks = new AtomicLongArray[16];
+    private volatile OffsetRow[][] rowChunks = new OffsetRow[16][];
+    private volatile int[][] queueIdChunks = new int[16][];
+    private volatile AtomicLongArray[] versionChunks = new AtomicLongArray[16];
+    private volatile int slotCount = 0;
+    private final ArrayDeque<FreedSlot> freedSlots = new ArrayDeque<FreedSlot>();
+    private final long slotReuseDelayMillis;
+    private final DirtyBitmap dirtyBitmap = new DirtyBitmap();
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong changeVersion = new AtomicLong(1);
+
+    public ConsumerOffsetTable() {
+        this(SLOT_REUSE_DELAY_MILLIS);
+    }
+
+    ConsumerOffsetTable(final long slotReuseDelayMillis) {
+        this.slotReuseDelayMillis = slotReuseDelayMillis;
+    }
+
+    /**
+     * @return the previous offset, -1 if there was none
+     */
+    public long commit(final String group, final String topic, final int queueId, final long offset) {
+        if (queueId < 0) {
+            return -1;
+        }
+        OffsetRow row = this.findOrCreateRow(group, topic);
+        int slot = row.slot(queueId);
+        if (slot < 0) {
+            synchronized (row) {
+                slot = row.slot(queueId);
+                if (slot < 0) {
+                    if (!row.removed) {
+                        this.allocateSlot(row, queueId, offset);
+                    }
+                    return -1;
+                }
+            }
+        }
+
+        AtomicLongArray chunk = this.offsetChunks[slot >>> CHUNK_SHIFT];
+        long previous = chunk.get(slot & CHUNK_MASK);
+        chunk.lazySet(slot & CHUNK_MASK, offset);
+        this.writeVersion(this.versionChunks[slot >>> CHUNK_SHIFT], slot & CHUNK_MASK);
+        this.dirtyBitmap.mark(slot);
+        return previous;
+    }
+
+    public long query(final String group, final String topic, final int queueId) {
+        OffsetRow row = this.findRow(group, topic);
+        if (null == row) {
+            return -1;
+        }
+        int slot = row.slot(queueId);
+        return slot < 0 ? -1 : this.offset(slot);
+    }
+
+    /**
+     * @return a copy of the offsets of the topic@group, null if there is none
+     */
+    public Map<Integer, Long> queryOffsets(final String group, final String topic) {
+        OffsetRow row = this.findRow(group, topic);
+        return null == row ? null : this.offsets(row);
+    }
+
+    /**
+     * Overwrite the offsets of a topic@group with the given ones, queues missing from them are left untouched.
+     */
+    public void putAll(final String group, final String topic, final Map<Integer, Long> offsets) {
+        for (Map.Entry<Integer, Long> entry : offsets.entrySet()) {
+            if (entry.getKey() >= 0 && entry.getValue() != null) {
+                this.commit(group, topic, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public boolean remove(final String group, final String topic) {
+        ConcurrentMap<String, OffsetRow> topicRows = this.rowTable.get(group);
+        if (null == topicRows) {
+            return false;
+        }
+        OffsetRow row = topicRows.remove(topic);
+        if (null == row) {
+            return false;
+        }
+        this.freeSlots(row);
+        return true;
+    }
+
+    public List<OffsetRow> rows() {
+        List<OffsetRow> rows = new ArrayList<OffsetRow>();
+        for (ConcurrentMap<String, OffsetRow> topicRows : this.rowTable.values()) {
+            rows.addAll(topicRows.values());
+        }
+        return rows;
+    }
+
+    public List<OffsetRow> rowsOfGroup(final String group) {
+        ConcurrentMap<String, OffsetRow> topicRows = this.rowTable.get(group);
+        return null == topicRows ? new ArrayList<OffsetRow>() : new ArrayList<OffsetRow>(topicRows.values());
+    }
+
+    public Map<Integer, Long> offsets(final OffsetRow row) {
+        int[] slots = row.slots;
+        Map<Integer, Long> offsets = new HashMap<Integer, Long>(Math.max(16, slots.length * 2));
+        for (int queueId = 0; queueId < slots.length; queueId++) {
+            if (slots[queueId] > 0) {
+                offsets.put(queueId, this.offset(slots[queueId] - 1));
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * @return all offsets keyed by {@code topic@group}, the layout of consumerOffset.json
+     */
+    public ConcurrentMap<String, ConcurrentMap<Integer, Long>> toMap() {
+        ConcurrentMap<String, ConcurrentMap<Integer, Long>> map = new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>(512);
+        for (OffsetRow row : this.rows()) {
+            map.put(row.getKey(), new ConcurrentHashMap<Integer, Long>(this.offsets(row)));
+        }
+        return map;
+    }
+
+    /**
+     * Fill the table from offsets keyed by {@code topic@group}.
+     */
+    public void load(final Map<String, ? extends Map<Integer, Long>> offsetTable) {
+        for (Map.Entry<String, ? extends Map<Integer, Long>> entry : offsetTable.entrySet()) {
+            String key = entry.getKey();
+            int index = key.indexOf(TOPIC_GROUP_SEPARATOR);
+            if (index <= 0 || index == key.length() - 1 || null == entry.getValue()) {
+                continue;
+            }
+            this.putAll(key.substring(index + 1), key.substring(0, index), entry.getValue());
+        }
+    }
+
+    /**
+     * Take the offsets changed since the previous drain, keyed by {@code topic@group}. Removed rows are left out.
+     */
+    public Map<String, Map<Integer, Long>> drainDirty() {
+        Map<String, Map<Integer, Long>> changes = new HashMap<String, Map<Integer, Long>>();
+        int slots = this.slotCount;
+        for (int slot = this.dirtyBitmap.drainNext(0, slots); slot >= 0; slot = this.dirtyBitmap.drainNext(slot + 1, slots)) {
+            OffsetRow row = this.rowChunks[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK];
+            if (null == row || row.removed) {
+                continue;
+            }
+            Map<Integer, Long> offsets = changes.get(row.getKey());
+            if (null == offsets) {
+                offsets = new HashMap<Integer, Long>();
+                changes.put(row.getKey(), offsets);
+            }
+            offsets.put(this.queueIdChunks[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK], this.offset(slot));
+        }
+        return changes;
+    }
+
+    public void clearDirty() {
+        this.dirtyBitmap.clear();
+    }
+
+    /**
+     * Start a new change version.
+     *
+     * @return the version a reader passes to {@link #changedSince} next time, slots written from now on carry it or a
+     * later one
+     */
+    public long nextChangeVersion() {
+        return this.changeVersion.getAndIncrement();
+    }
+
+    /**
+     * @return the offsets of the slots written with the given change version or a later one, keyed by
+     * {@code topic@group}. Removed rows are left out.
+     */
+    public Map<String, Map<Integer, Long>> changedSince(final long version) {
+        Map<String, Map<Integer, Long>> changes = new HashMap<String, Map<Integer, Long>>();
+        int slots = this.slotCount;
+        for (int slot = 0; slot < slots; slot++) {
+            AtomicLongArray versions = this.versionChunks[slot >>> CHUNK_SHIFT];
+            if (versions.get(CHUNK_VERSION_INDEX) < version) {
+                slot |= CHUNK_MASK;
+                continue;
+            }
+            if (versions.get(slot & CHUNK_MASK) < version) {
+                continue;
+            }
+            OffsetRow row = this.rowChunks[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK];
+            if (null == row || row.removed) {
+                continue;
+            }
+            Map<Integer, Long> offsets = changes.get(row.getKey());
+            if (null == offsets) {
+                offsets = new HashMap<Integer, Long>();
+                changes.put(row.getKey(), offsets);
+            }
+            offsets.put(this.queueIdChunks[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK], this.offset(slot));
+        }
+        return changes;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public int getFreedSlotCount() {
+        synchronized (this.allocateLock) {
+            return this.freedSlots.size();
+        }
+    }
+
+    private long offset(final int slot) {
+        return this.offsetChunks[slot >>> CHUNK_SHIFT].get(slot & CHUNK_MASK);
+    }
+
+    private OffsetRow findRow(final String group, final String topic) {
+        ConcurrentMap<String, OffsetRow> topicRows = this.rowTable.get(group);
+        return null == topicRows ? null : topicRows.get(topic);
+    }
+
+    private OffsetRow findOrCreateRow(final String group, final String topic) {
+        ConcurrentMap<String, OffsetRow> topicRows = this.rowTable.get(group);
+        if (null == topicRows) {
+            topicRows = new ConcurrentHashMap<String, OffsetRow>(16);
+            ConcurrentMap<String, OffsetRow> prev = this.rowTable.putIfAbsent(group, topicRows);
+            if (prev != null) {
+                topicRows = prev;
+            }
+        }
+
+        OffsetRow row = topicRows.get(topic);
+        if (null == row) {
+            row = new OffsetRow(group, topic);
+            OffsetRow prev = topicRows.putIfAbsent(topic, row);
+            if (prev != null) {
+                row = prev;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Publish the version of the current change on the slot, after raising the one of its chunk.
+     */
+    private void writeVersion(final AtomicLongArray versions, final int index) {
+        long version = this.changeVersion.get();
+        long chunkVersion = versions.get(CHUNK_VERSION_INDEX);
+        while (chunkVersion < version && !versions.compareAndSet(CHUNK_VERSION_INDEX, chunkVersion, version)) {
+            chunkVersion = versions.get(CHUNK_VERSION_INDEX);
+        }
+        versions.lazySet(index, version);
+    }
+
+    private void freeSlots(final OffsetRow row) {
+        int[] slots;
+        synchronized (row) {
+            row.removed = true;
+            slots = row.slots;
+            row.slots = EMPTY_SLOTS;
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (this.allocateLock) {
+            for (int slot : slots) {
+                if (slot > 0) {
+                    this.rowChunks[(slot - 1) >>> CHUNK_SHIFT][(slot - 1) & CHUNK_MASK] = null;
+                    this.freedSlots.add(new FreedSlot(slot - 1, now));
+                }
+            }
+        }
+    }
+
+    /**
+     * Called under the lock of the row.
+     */
+    private void allocateSlot(final OffsetRow row, final int queueId, final long offset) {
+        int slot;
+        synchronized (this.allocateLock) {
+            FreedSlot freed = this.freedSlots.peek();
+            boolean reused = freed != null && System.currentTimeMillis() - freed.freedTime >= this.slotReuseDelayMillis;
+            if (reused) {
+                this.freedSlots.poll();
+                slot = freed.slot;
+            } else {
+                slot = this.slotCount;
+                this.growIfNeeded(slot >>> CHUNK_SHIFT);
+            }
+            int chunkIndex = slot >>> CHUNK_SHIFT;
+            this.rowChunks[chunkIndex][slot & CHUNK_MASK] = row;
+            this.queueIdChunks[chunkIndex][slot & CHUNK_MASK] = queueId;
+            this.offsetChunks[chunkIndex].set(slot & CHUNK_MASK, offset);
+            this.writeVersion(this.versionChunks[chunkIndex], slot & CHUNK_MASK);
+            if (!reused) {
+                this.slotCount = slot + 1;
+            }
+        }
+
+        // publish the slot only once its offset is in place
+        int[] newSlots = Arrays.copyOf(row.slots, Math.max(row.slots.length, queueId + 1));
+        newSlots[queueId] = slot + 1;
+        row.slots = newSlots;
+        this.dirtyBitmap.mark(slot);
+    }
+
+    /**
+     * Called under the allocate lock.
+     */
+    private void growIfNeeded(final int chunkIndex) {
+        if (chunkIndex >= this.offsetChunks.length) {
+            int length = this.offsetChunks.length * 2;
+            AtomicLongArray[] offsetChunks = new AtomicLongArray[length];
+            AtomicLongArray[] versionChunks = new AtomicLongArray[length];
+            OffsetRow[][] rowChunks = new OffsetRow[length][];
+            int[][] queueIdChunks = new int[length][];
+            System.arraycopy(this.offsetChunks, 0, offsetChunks, 0, this.offsetChunks.length);
+            System.arraycopy(this.versionChunks, 0, versionChunks, 0, this.versionChunks.length);
+            System.arraycopy(this.rowChunks, 0, rowChunks, 0, this.rowChunks.length);
+            System.arraycopy(this.queueIdChunks, 0, queueIdChunks, 0, this.queueIdChunks.length);
+            this.rowChunks = rowChunks;
+            this.queueIdChunks = queueIdChunks;
+            this.versionChunks = versionChunks;
+            this.offsetChunks = offsetChunks;
+        }
+        if (null == this.offsetChunks[chunkIndex]) {
+            this.rowChunks[chunkIndex] = new OffsetRow[CHUNK_SIZE];
+            this.queueIdChunks[chunkIndex] = new int[CHUNK_SIZE];
+            this.versionChunks[chunkIndex] = new AtomicLongArray(CHUNK_SIZE + 1);
+            this.offsetChunks[chunkIndex] = new AtomicLongArray(CHUNK_SIZE);
+        }
+    }
+
+    static class FreedSlot {
+        private final int slot;
+        private final long freedTime;
+
+        FreedSlot(final int slot, final long freedTime) {
+            this.slot = slot;
+            this.freedTime = freedTime;
+        }
+    }
+
+    public static class OffsetRow {
+        private final String group;
+        private final String topic;
+        private final String key;
+        /**
+         * Slot plus one by queue id, 0 when the queue has no offset.
+         */
+        private volatile int[] slots = EMPTY_SLOTS;
+        private volatile boolean removed = false;
+
+        OffsetRow(final String group, final String topic) {
+            this.group = group;
+            this.topic = topic;
+            this.key = topic + TOPIC_GROUP_SEPARATOR + group;
+        }
+
+        int slot(final int queueId) {
+            int[] slots = this.slots;
+            return queueId >= 0 && queueId < slots.length ? slots[queueId] - 1 : -1;
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * @return {@code topic@group}
+         */
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * One bit per slot, set by the committing threads and cleared word by word by the drain.
+     */
+    static class DirtyBitmap {
+        private static final int WORDS_PER_CHUNK = CHUNK_SIZE / 64;
+
+        private volatile AtomicLongArray[] chunks = new AtomicLongArray[16];
+
+        void mark(final int slot) {
+            AtomicLongArray chunk = this.chunk(slot >>> CHUNK_SHIFT);
+            int word = (slot & CHUNK_MASK) >>> 6;
+            long bit = 1L << (slot & 63);
+            long value;
+            do {
+                value = chunk.get(word);
+                if ((value & bit) != 0) {
+                    return;
+                }
+            } while (!chunk.compareAndSet(word, value, value | bit));
+        }
+
+        /**
+         * Clear and return the first dirty slot in [from, to), -1 if there is none. The word of the returned slot
+         * keeps its other bits, they are returned by the next calls.
+         */
+        int drainNext(final int from, final int to) {
+            AtomicLongArray[] chunks = this.chunks;
+            for (int slot = from; slot < to; ) {
+                int chunkIndex = slot >>> CHUNK_SHIFT;
+                AtomicLongArray chunk = chunkIndex < chunks.length ? chunks[chunkIndex] : null;
+                if (null == chunk) {
+                    slot = (chunkIndex + 1) << CHUNK_SHIFT;
+                    continue;
+                }
+                int word = (slot & CHUNK_MASK) >>> 6;
+                long value = chunk.get(word) & (-1L << (slot & 63));
+                if (value == 0) {
+                    slot = (slot | 63) + 1;
+                    continue;
+                }
+                int found = (slot & ~63) + Long.numberOfTrailingZeros(value);
+                if (found >= to) {
+                    return -1;
+                }
+                long bit = 1L << (found & 63);
+                long current;
+                do {
+                    current = chunk.get(word);
+                } while (!chunk.compareAndSet(word, current, current & ~bit));
+                return found;
+            }
+            return -1;
+        }
+
+        void clear() {
+            AtomicLongArray[] chunks = this.chunks;
+            for (AtomicLongArray chunk : chunks) {
+                if (chunk != null) {
+                    for (int i = 0; i < WORDS_PER_CHUNK; i++) {
+                        chunk.set(i, 0);
+                    }
+                }
+            }
+        }
+
+        private AtomicLongArray chunk(final int chunkIndex) {
+            AtomicLongArray[] chunks = this.chunks;
+            if (chunkIndex < chunks.length && chunks[chunkIndex] != null) {
+                return chunks[chunkIndex];
+            }
+            synchronized (this) {
+                chunks = this.chunks;
+                if (chunkIndex >= chunks.length) {
+                    AtomicLongArray[] newChunks = new AtomicLongArray[Math.max(chunkIndex + 1, chunks.length * 2)];
+                    System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+                    chunks = newChunks;
+                }
+                if (null == chunks[chunkIndex]) {
+                    chunks[chunkIndex] = new AtomicLongArray(WORDS_PER_CHUNK);
+                }
+                this.chunks = chunks;
+                return chunks[chunkIndex];
+            }
+        }
+    }
+}
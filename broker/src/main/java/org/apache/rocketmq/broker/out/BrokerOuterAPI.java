@@ -20,7 +20,10 @@ import com.google.common.collect.Lists;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -37,11 +40,16 @@ import org.apache.rocketmq.common.namesrv.RegisterBrokerResult;
 import org.apache.rocketmq.common.namesrv.TopAddressing;
 import org.apache.rocketmq.common.protocol.RequestCode;
 import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.protocol.body.ConsumerOffsetDeltaBody;
 import org.apache.rocketmq.common.protocol.body.ConsumerOffsetSerializeWrapper;
 import org.apache.rocketmq.common.protocol.body.KVTable;
 import org.apache.rocketmq.common.protocol.body.RegisterBrokerBody;
+import org.apache.rocketmq.common.protocol.body.RegisterBrokerDeltaBody;
+import org.apache.rocketmq.common.protocol.body.SubscriptionGroupDeltaBody;
 import org.apache.rocketmq.common.protocol.body.SubscriptionGroupWrapper;
+import org.apache.rocketmq.common.protocol.body.TopicConfigDeltaBody;
 import org.apache.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import org.apache.rocketmq.common.protocol.header.GetConfigDeltaRequestHeader;
 import org.apache.rocketmq.common.protocol.header.namesrv.QueryDataVersionRequestHeader;
 import org.apache.rocketmq.common.protocol.header.namesrv.QueryDataVersionResponseHeader;
 import org.apache.rocketmq.common.protocol.header.namesrv.RegisterBrokerRequestHeader;
@@ -60,9 +68,14 @@ import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 
 public class BrokerOuterAPI {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.BROKER_LOGGER_NAME);
+    private static final long DELTA_SUSPEND_MILLS = 1000 * 60 * 5;
     private final RemotingClient remotingClient;
     private final TopAddressing topAddressing = new TopAddressing(MixAll.getWSAddr());
     private String nameSrvAddr = null;
+    /**
+     * Name servers not asked for deltas until the given time, as they failed to take one.
+     */
+    private final ConcurrentMap<String, Long> deltaSuspendedTable = new ConcurrentHashMap<String, Long>();
     private BrokerFixedThreadPoolExecutor brokerOuterExecutor = new BrokerFixedThreadPoolExecutor(4, 10, 1, TimeUnit.MINUTES,
         new ArrayBlockingQueue<Runnable>(32), new ThreadFactoryImpl("brokerOutApi_thread_", true));
 
@@ -101,6 +114,10 @@ public class BrokerOuterAPI {
         return nameSrvAddr;
     }
 
+    public List<String> getNameServerAddressList() {
+        return this.remotingClient.getNameServerAddressList();
+    }
+
     public void updateNameServerAddressList(final String addrs) {
         List<String> lst = new ArrayList<String>();
         String[] addrArray = addrs.split(";");
@@ -122,9 +139,28 @@ public class BrokerOuterAPI {
         final boolean oneway,
         final int timeoutMills,
         final boolean compressed) {
+        return Lists.newArrayList(this.registerBrokerAll(this.remotingClient.getNameServerAddressList(), clusterName,
+            brokerAddr, brokerName, brokerId, haServerAddr, topicConfigWrapper, filterServerList, oneway, timeoutMills,
+            compressed).values());
+    }
 
-        final List<RegisterBrokerResult> registerBrokerResultList = Lists.newArrayList();
-        List<String> nameServerAddressList = this.remotingClient.getNameServerAddressList();
+    /**
+     * @return the results by name server address, of the name servers that answered
+     */
+    public ConcurrentMap<String, RegisterBrokerResult> registerBrokerAll(
+        final List<String> nameServerAddressList,
+        final String clusterName,
+        final String brokerAddr,
+        final String brokerName,
+        final long brokerId,
+        final String haServerAddr,
+        final TopicConfigSerializeWrapper topicConfigWrapper,
+        final List<String> filterServerList,
+        final boolean oneway,
+        final int timeoutMills,
+        final boolean compressed) {
+
+        final ConcurrentMap<String, RegisterBrokerResult> registerBrokerResultTable = new ConcurrentHashMap<String, RegisterBrokerResult>();
         if (nameServerAddressList != null && nameServerAddressList.size() > 0) {
 
             final RegisterBrokerRequestHeader requestHeader = new RegisterBrokerRequestHeader();
@@ -149,7 +185,7 @@ public class BrokerOuterAPI {
                         try {
                             RegisterBrokerResult result = registerBroker(namesrvAddr,oneway, timeoutMills,requestHeader,body);
                             if (result != null) {
-                                registerBrokerResultList.add(result);
+                                registerBrokerResultTable.put(namesrvAddr, result);
                             }
 
                             log.info("register broker[{}]to name server {} OK", brokerId, namesrvAddr);
@@ -168,7 +204,80 @@ public class BrokerOuterAPI {
             }
         }
 
-        return registerBrokerResultList;
+        return registerBrokerResultTable;
+    }
+
+    /**
+     * Send every name server its delta. Name servers which have to be registered in full, failed or do not serve
+     * deltas are missing from the result, so are all of them for a oneway request. A name server that failed is not
+     * asked for deltas for a while.
+     *
+     * @return the results by name server address, of the name servers that took their delta
+     */
+    public ConcurrentMap<String, RegisterBrokerResult> registerBrokerDeltaAll(
+        final String clusterName,
+        final String brokerAddr,
+        final String brokerName,
+        final long brokerId,
+        final String haServerAddr,
+        final Map<String, RegisterBrokerDeltaBody> deltaBodyTable,
+        final boolean oneway,
+        final int timeoutMills) {
+
+        final ConcurrentMap<String, RegisterBrokerResult> registerBrokerResultTable = new ConcurrentHashMap<String, RegisterBrokerResult>();
+        final List<String> nameServerAddressList = new ArrayList<String>();
+        for (String namesrvAddr : deltaBodyTable.keySet()) {
+            Long suspendedUntil = this.deltaSuspendedTable.get(namesrvAddr);
+            if (suspendedUntil == null || suspendedUntil < System.currentTimeMillis()) {
+                nameServerAddressList.add(namesrvAddr);
+            }
+        }
+        if (nameServerAddressList.isEmpty()) {
+            return registerBrokerResultTable;
+        }
+
+        final CountDownLatch countDownLatch = new CountDownLatch(nameServerAddressList.size());
+        for (final String namesrvAddr : nameServerAddressList) {
+            brokerOuterExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        RegisterBrokerRequestHeader requestHeader = new RegisterBrokerRequestHeader();
+                        requestHeader.setBrokerAddr(brokerAddr);
+                        requestHeader.setBrokerId(brokerId);
+                        requestHeader.setBrokerName(brokerName);
+                        requestHeader.setClusterName(clusterName);
+                        requestHeader.setHaServerAddr(haServerAddr);
+                        byte[] body = deltaBodyTable.get(namesrvAddr).encode();
+                        requestHeader.setBodyCrc32(UtilAll.crc32(body));
+
+                        RegisterBrokerResult result = registerBrokerDelta(namesrvAddr, oneway, timeoutMills, requestHeader, body);
+                        if (result != null) {
+                            registerBrokerResultTable.put(namesrvAddr, result);
+                        }
+                        deltaSuspendedTable.remove(namesrvAddr);
+                    } catch (MQBrokerException e) {
+                        if (e.getResponseCode() == ResponseCode.REGISTER_BROKER_FULL_REQUIRED) {
+                            log.info("name server {} asks broker[{}] to register in full", namesrvAddr, brokerId);
+                        } else {
+                            deltaSuspendedTable.put(namesrvAddr, System.currentTimeMillis() + DELTA_SUSPEND_MILLS);
+                            log.warn("registerBrokerDelta Exception, {}", namesrvAddr, e);
+                        }
+                    } catch (Exception e) {
+                        deltaSuspendedTable.put(namesrvAddr, System.currentTimeMillis() + DELTA_SUSPEND_MILLS);
+                        log.warn("registerBrokerDelta Exception, {}", namesrvAddr, e);
+                    } finally {
+                        countDownLatch.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            countDownLatch.await(timeoutMills, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+        }
+        return registerBrokerResultTable;
     }
 
     private RegisterBrokerResult registerBroker(
@@ -212,6 +321,47 @@ public class BrokerOuterAPI {
         throw new MQBrokerException(response.getCode(), response.getRemark());
     }
 
+    private RegisterBrokerResult registerBrokerDelta(
+        final String namesrvAddr,
+        final boolean oneway,
+        final int timeoutMills,
+        final RegisterBrokerRequestHeader requestHeader,
+        final byte[] body
+    ) throws RemotingCommandException, MQBrokerException, RemotingConnectException, RemotingSendRequestException, RemotingTimeoutException,
+        InterruptedException {
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.REGISTER_BROKER_DELTA, requestHeader);
+        request.setBody(body);
+
+        if (oneway) {
+            try {
+                this.remotingClient.invokeOneway(namesrvAddr, request, timeoutMills);
+            } catch (RemotingTooMuchRequestException e) {
+                // Ignore
+            }
+            return null;
+        }
+
+        RemotingCommand response = this.remotingClient.invokeSync(namesrvAddr, request, timeoutMills);
+        assert response != null;
+        switch (response.getCode()) {
+            case ResponseCode.SUCCESS: {
+                RegisterBrokerResponseHeader responseHeader =
+                    (RegisterBrokerResponseHeader) response.decodeCommandCustomHeader(RegisterBrokerResponseHeader.class);
+                RegisterBrokerResult result = new RegisterBrokerResult();
+                result.setMasterAddr(responseHeader.getMasterAddr());
+                result.setHaServerAddr(responseHeader.getHaServerAddr());
+                if (response.getBody() != null) {
+                    result.setKvTable(KVTable.decode(response.getBody(), KVTable.class));
+                }
+                return result;
+            }
+            default:
+                break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
+
     public void unregisterBrokerAll(
         final String clusterName,
         final String brokerAddr,
@@ -392,6 +542,49 @@ public class BrokerOuterAPI {
         throw new MQBrokerException(response.getCode(), response.getRemark());
     }
 
+    public TopicConfigDeltaBody getTopicConfigDelta(final String addr, final long epoch,
+        final long sinceVersion) throws RemotingConnectException, RemotingSendRequestException,
+        RemotingTimeoutException, InterruptedException, MQBrokerException {
+        RemotingCommand response = this.getConfigDelta(MixAll.brokerVIPChannel(true, addr),
+            RequestCode.GET_TOPIC_CONFIG_DELTA, epoch, sinceVersion);
+        return TopicConfigDeltaBody.decode(response.getBody(), TopicConfigDeltaBody.class);
+    }
+
+    public ConsumerOffsetDeltaBody getConsumerOffsetDelta(final String addr, final long epoch,
+        final long sinceVersion) throws RemotingConnectException, RemotingSendRequestException,
+        RemotingTimeoutException, InterruptedException, MQBrokerException {
+        RemotingCommand response = this.getConfigDelta(addr, RequestCode.GET_CONSUMER_OFFSET_DELTA, epoch, sinceVersion);
+        return ConsumerOffsetDeltaBody.decode(response.getBody(), ConsumerOffsetDeltaBody.class);
+    }
+
+    public SubscriptionGroupDeltaBody getSubscriptionGroupDelta(final String addr, final long epoch,
+        final long sinceVersion) throws RemotingConnectException, RemotingSendRequestException,
+        RemotingTimeoutException, InterruptedException, MQBrokerException {
+        RemotingCommand response = this.getConfigDelta(addr, RequestCode.GET_SUBSCRIPTIONGROUP_CONFIG_DELTA, epoch, sinceVersion);
+        return SubscriptionGroupDeltaBody.decode(response.getBody(), SubscriptionGroupDeltaBody.class);
+    }
+
+    private RemotingCommand getConfigDelta(final String addr, final int requestCode, final long epoch,
+        final long sinceVersion) throws RemotingConnectException, RemotingSendRequestException,
+        RemotingTimeoutException, InterruptedException, MQBrokerException {
+        GetConfigDeltaRequestHeader requestHeader = new GetConfigDeltaRequestHeader();
+        requestHeader.setEpoch(epoch);
+        requestHeader.setSinceVersion(sinceVersion);
+        RemotingCommand request = RemotingCommand.createRequestCommand(requestCode, requestHeader);
+
+        RemotingCommand response = this.remotingClient.invokeSync(addr, request, 3000);
+        assert response != null;
+        switch (response.getCode()) {
+            case ResponseCode.SUCCESS: {
+                return response;
+            }
+            default:
+                break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
+
     public void registerRPCHook(RPCHook rpcHook) {
         remotingClient.registerRPCHook(rpcHook);
     }
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.out;
+
+import org.apache.rocketmq.common.DataVersion;
+
+/**
+ * What a name server holds of this broker after its last registration there: the topic config change log version it
+ * covers, the data version it stores and the broker identity it was registered with.
+ */
+public class RegisterPosition {
+    private final long epoch;
+    private final long version;
+    private final DataVersion dataVersion;
+    private final long brokerId;
+    private final int brokerPermission;
+
+    public RegisterPosition(final long epoch, final long version, final DataVersion dataVersion, final long brokerId,
+        final int brokerPermission) {
+        this.epoch = epoch;
+        this.version = version;
+        this.dataVersion = dataVersion;
+        this.brokerId = brokerId;
+        this.brokerPermission = brokerPermission;
+    }
+
+    public boolean isSameBroker(final long brokerId, final int brokerPermission) {
+        return this.brokerId == brokerId && this.brokerPermission == brokerPermission;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public DataVersion getDataVersion() {
+        return dataVersion;
+    }
+}
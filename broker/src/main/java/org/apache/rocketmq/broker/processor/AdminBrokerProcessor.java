@@ -65,6 +65,7 @@ import org.apache.rocketmq.common.protocol.ResponseCode;
 import org.apache.rocketmq.common.protocol.body.BrokerStatsData;
 import org.apache.rocketmq.common.protocol.body.BrokerStatsItem;
 import org.apache.rocketmq.common.protocol.body.Connection;
+import org.apache.rocketmq.common.protocol.body.ConfigDeltaBody;
 import org.apache.rocketmq.common.protocol.body.ConsumeQueueData;
 import org.apache.rocketmq.common.protocol.body.ConsumeStatsList;
 import org.apache.rocketmq.common.protocol.body.ConsumerConnection;
@@ -86,6 +87,7 @@ import org.apache.rocketmq.common.protocol.header.DeleteSubscriptionGroupRequest
 import org.apache.rocketmq.common.protocol.header.DeleteTopicRequestHeader;
 import org.apache.rocketmq.common.protocol.header.GetAllTopicConfigResponseHeader;
 import org.apache.rocketmq.common.protocol.header.GetBrokerConfigResponseHeader;
+import org.apache.rocketmq.common.protocol.header.GetConfigDeltaRequestHeader;
 import org.apache.rocketmq.common.protocol.header.GetConsumeStatsInBrokerHeader;
 import org.apache.rocketmq.common.protocol.header.GetConsumeStatsRequestHeader;
 import org.apache.rocketmq.common.protocol.header.GetConsumerConnectionListRequestHeader;
@@ -118,6 +120,8 @@ import org.apache.rocketmq.filter.util.BitsArray;
 import org.apache.rocketmq.remoting.common.RemotingHelper;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
 import org.apache.rocketmq.remoting.exception.RemotingTimeoutException;
+import org.apache.rocketmq.remoting.netty.NettyAllocatorMetrics;
+import org.apache.rocketmq.remoting.netty.NettyRemotingServer;
 import org.apache.rocketmq.remoting.netty.NettyRequestProcessor;
 import org.apache.rocketmq.remoting.protocol.LanguageCode;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
@@ -184,6 +188,10 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
                 return this.getConsumeStats(ctx, request);
             case RequestCode.GET_ALL_CONSUMER_OFFSET:
                 return this.getAllConsumerOffset(ctx, request);
+            case RequestCode.GET_TOPIC_CONFIG_DELTA:
+            case RequestCode.GET_CONSUMER_OFFSET_DELTA:
+            case RequestCode.GET_SUBSCRIPTIONGROUP_CONFIG_DELTA:
+                return this.getConfigDelta(ctx, request);
             case RequestCode.GET_ALL_DELAY_OFFSET:
                 return this.getAllDelayOffset(ctx, request);
             case RequestCode.INVOKE_BROKER_TO_RESET_OFFSET:
@@ -890,6 +898,38 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
         return response;
     }
 
+    private RemotingCommand getConfigDelta(ChannelHandlerContext ctx,
+        RemotingCommand request) throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        final GetConfigDeltaRequestHeader requestHeader =
+            (GetConfigDeltaRequestHeader) request.decodeCommandCustomHeader(GetConfigDeltaRequestHeader.class);
+
+        ConfigDeltaBody delta;
+        switch (request.getCode()) {
+            case RequestCode.GET_TOPIC_CONFIG_DELTA:
+                delta = this.brokerController.getTopicConfigManager()
+                    .buildTopicConfigDelta(requestHeader.getEpoch(), requestHeader.getSinceVersion());
+                break;
+            case RequestCode.GET_CONSUMER_OFFSET_DELTA:
+                delta = this.brokerController.getConsumerOffsetManager()
+                    .buildConsumerOffsetDelta(requestHeader.getEpoch(), requestHeader.getSinceVersion());
+                break;
+            default:
+                delta = this.brokerController.getSubscriptionGroupManager()
+                    .buildSubscriptionGroupDelta(requestHeader.getEpoch(), requestHeader.getSinceVersion());
+                break;
+        }
+
+        if (delta.isFull()) {
+            log.info("config delta {} since {}:{} not available, send the whole table to {}", request.getCode(),
+                requestHeader.getEpoch(), requestHeader.getSinceVersion(), ctx.channel().remoteAddress());
+        }
+        response.setBody(delta.encode());
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        return response;
+    }
+
     private RemotingCommand getAllConsumerOffset(ChannelHandlerContext ctx, RemotingCommand request) {
         final RemotingCommand response = RemotingCommand.createResponseCommand(null);
 
@@ -1381,6 +1421,13 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
         runtimeInfo.put("EndTransactionThreadPoolQueueCapacity",
             String.valueOf(this.brokerController.getBrokerConfig().getEndTransactionPoolQueueCapacity()));
 
+        runtimeInfo.putAll(NettyAllocatorMetrics.getRuntimeInfo());
+        if (this.brokerController.getRemotingServer() instanceof NettyRemotingServer) {
+            runtimeInfo.putAll(((NettyRemotingServer) this.brokerController.getRemotingServer()).getEventLoopRuntimeInfo());
+        }
+        if (this.brokerController.getAdmissionController() != null) {
+            runtimeInfo.putAll(this.brokerController.getAdmissionController().getRuntimeInfo());
+        }
         runtimeInfo.put("dispatchBehindBytes", String.valueOf(this.brokerController.getMessageStore().dispatchBehindBytes()));
         runtimeInfo.put("pageCacheLockTimeMills", String.valueOf(this.brokerController.getMessageStore().lockTimeMills()));
 
@@ -1388,12 +1435,16 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
         runtimeInfo.put("pullThreadPoolQueueHeadWaitTimeMills", String.valueOf(this.brokerController.headSlowTimeMills4PullThreadPoolQueue()));
         runtimeInfo.put("queryThreadPoolQueueHeadWaitTimeMills", String.valueOf(this.brokerController.headSlowTimeMills4QueryThreadPoolQueue()));
 
+        this.brokerController.getPullRequestHoldService().buildRunningStats(runtimeInfo);
+
         runtimeInfo.put("earliestMessageTimeStamp", String.valueOf(this.brokerController.getMessageStore().getEarliestMessageTime()));
         runtimeInfo.put("startAcceptSendRequestTimeStamp", String.valueOf(this.brokerController.getBrokerConfig().getStartAcceptSendRequestTimeStamp()));
         if (this.brokerController.getMessageStore() instanceof DefaultMessageStore) {
             DefaultMessageStore defaultMessageStore = (DefaultMessageStore) this.brokerController.getMessageStore();
             runtimeInfo.put("remainTransientStoreBufferNumbs", String.valueOf(defaultMessageStore.remainTransientStoreBufferNumbs()));
             if (defaultMessageStore.getMessageStoreConfig().isTransientStorePoolEnable()) {
+                runtimeInfo.put("totalTransientStoreBufferNumbs", String.valueOf(defaultMessageStore.getTransientStorePool().totalBufferNums()));
+                runtimeInfo.put("transientStoreCommitBacklogPressure", String.format("%.2f", defaultMessageStore.getTransientStorePool().getCommitBacklogPressure()));
                 runtimeInfo.put("remainHowManyDataToCommit", MixAll.humanReadableByteCount(defaultMessageStore.getCommitLog().remainHowManyDataToCommit(), false));
             }
             runtimeInfo.put("remainHowManyDataToFlush", MixAll.humanReadableByteCount(defaultMessageStore.getCommitLog().remainHowManyDataToFlush(), false));
@@ -17,6 +17,8 @@
 package org.apache.rocketmq.broker.processor;
 
 import io.netty.channel.ChannelHandlerContext;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.broker.transaction.OperationResult;
 import org.apache.rocketmq.common.TopicFilterType;
@@ -25,7 +27,9 @@ import org.apache.rocketmq.common.message.MessageAccessor;
 import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.message.MessageDecoder;
 import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.protocol.RequestCode;
 import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.protocol.body.EndTransactionBatchRequestBody;
 import org.apache.rocketmq.common.protocol.header.EndTransactionRequestHeader;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.logging.InternalLogger;
@@ -53,15 +57,99 @@ public class EndTransactionProcessor implements NettyRequestProcessor {
     public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) throws
         RemotingCommandException {
         final RemotingCommand response = RemotingCommand.createResponseCommand(null);
-        final EndTransactionRequestHeader requestHeader =
-            (EndTransactionRequestHeader)request.decodeCommandCustomHeader(EndTransactionRequestHeader.class);
-        LOGGER.info("Transaction request:{}", requestHeader);
         if (BrokerRole.SLAVE == brokerController.getMessageStoreConfig().getBrokerRole()) {
             response.setCode(ResponseCode.SLAVE_NOT_AVAILABLE);
             LOGGER.warn("Message store is slave mode, so end transaction is forbidden. ");
             return response;
         }
 
+        if (request.getCode() == RequestCode.END_TRANSACTION_BATCH) {
+            return this.processBatchRequest(ctx, request);
+        }
+
+        final EndTransactionRequestHeader requestHeader =
+            (EndTransactionRequestHeader)request.decodeCommandCustomHeader(EndTransactionRequestHeader.class);
+        return this.endTransaction(ctx, requestHeader, request.getRemark(), null);
+    }
+
+    /**
+     * Ends every transaction of the batch, then writes the op records of all the committed or rolled back half
+     * messages together, one packed op message per half queue. Every header is checked before any transaction is
+     * ended, and the op records of the transactions already ended are written even if a later one throws, otherwise
+     * the check would end them again.
+     */
+    private RemotingCommand processBatchRequest(ChannelHandlerContext ctx, RemotingCommand request) throws
+        RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        EndTransactionBatchRequestBody requestBody = EndTransactionBatchRequestBody.decode(request.getBody(),
+            EndTransactionBatchRequestBody.class);
+        if (null == requestBody || null == requestBody.getRequestHeaders()) {
+            response.setCode(ResponseCode.SYSTEM_ERROR);
+            response.setRemark("The batch end transaction request has no body");
+            return response;
+        }
+
+        for (EndTransactionRequestHeader requestHeader : requestBody.getRequestHeaders()) {
+            checkBatchRequestHeader(requestHeader);
+        }
+
+        List<MessageExt> resolvedHalfMessages = new ArrayList<MessageExt>(requestBody.getRequestHeaders().size());
+        int failed = 0;
+        boolean opWritten = true;
+        try {
+            for (EndTransactionRequestHeader requestHeader : requestBody.getRequestHeaders()) {
+                RemotingCommand result = this.endTransaction(ctx, requestHeader, request.getRemark(), resolvedHalfMessages);
+                if (result != null && result.getCode() != ResponseCode.SUCCESS) {
+                    failed++;
+                }
+            }
+        } finally {
+            if (!resolvedHalfMessages.isEmpty()) {
+                opWritten = this.brokerController.getTransactionalMessageService().deletePrepareMessages(resolvedHalfMessages);
+            }
+        }
+
+        if (!opWritten) {
+            LOGGER.error("Write op records of {} ended transactions failed, they will be checked again",
+                resolvedHalfMessages.size());
+            response.setCode(ResponseCode.SYSTEM_ERROR);
+            response.setRemark("Write op records of " + resolvedHalfMessages.size() + " ended transactions failed");
+            return response;
+        }
+        if (failed > 0) {
+            response.setCode(ResponseCode.SYSTEM_ERROR);
+            response.setRemark(failed + " of " + requestBody.getRequestHeaders().size() + " transactions end failed");
+            return response;
+        }
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        return response;
+    }
+
+    /**
+     * Headers decoded from the request body skip the {@code CFNotNull} checks of
+     * {@link RemotingCommand#decodeCommandCustomHeader(Class)}, so they are done here.
+     */
+    private static void checkBatchRequestHeader(EndTransactionRequestHeader requestHeader) throws RemotingCommandException {
+        if (null == requestHeader || null == requestHeader.getProducerGroup() || null == requestHeader.getTranStateTableOffset()
+            || null == requestHeader.getCommitLogOffset() || null == requestHeader.getCommitOrRollback()
+            || null == requestHeader.getMsgId()) {
+            throw new RemotingCommandException("the custom field of batch end transaction header is null: " + requestHeader);
+        }
+        if (null == requestHeader.getFromTransactionCheck()) {
+            requestHeader.setFromTransactionCheck(false);
+        }
+        requestHeader.checkFields();
+    }
+
+    /**
+     * @param resolvedHalfMessages collects the committed or rolled back half messages when ending a batch, their op
+     * records are written by the caller. When null, the op record is written at once.
+     */
+    private RemotingCommand endTransaction(ChannelHandlerContext ctx, EndTransactionRequestHeader requestHeader,
+        String remark, List<MessageExt> resolvedHalfMessages) {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        LOGGER.info("Transaction request:{}", requestHeader);
         if (requestHeader.getFromTransactionCheck()) {
             switch (requestHeader.getCommitOrRollback()) {
                 case MessageSysFlag.TRANSACTION_NOT_TYPE: {
@@ -69,7 +157,7 @@ public class EndTransactionProcessor implements NettyRequestProcessor {
                             + "RequestHeader: {} Remark: {}",
                         RemotingHelper.parseChannelRemoteAddr(ctx.channel()),
                         requestHeader.toString(),
-                        request.getRemark());
+                        remark);
                     return null;
                 }
 
@@ -78,7 +166,7 @@ public class EndTransactionProcessor implements NettyRequestProcessor {
                             + "RequestHeader: {} Remark: {}",
                         RemotingHelper.parseChannelRemoteAddr(ctx.channel()),
                         requestHeader.toString(),
-                        request.getRemark());
+                        remark);
 
                     break;
                 }
@@ -88,7 +176,7 @@ public class EndTransactionProcessor implements NettyRequestProcessor {
                             + "RequestHeader: {} Remark: {}",
                         RemotingHelper.parseChannelRemoteAddr(ctx.channel()),
                         requestHeader.toString(),
-                        request.getRemark());
+                        remark);
                     break;
                 }
                 default:
@@ -101,7 +189,7 @@ public class EndTransactionProcessor implements NettyRequestProcessor {
                             + "RequestHeader: {} Remark: {}",
                         RemotingHelper.parseChannelRemoteAddr(ctx.channel()),
                         requestHeader.toString(),
-                        request.getRemark());
+                        remark);
                     return null;
                 }
 
@@ -114,7 +202,7 @@ public class EndTransactionProcessor implements NettyRequestProcessor {
                             + "RequestHeader: {} Remark: {}",
                         RemotingHelper.parseChannelRemoteAddr(ctx.channel()),
                         requestHeader.toString(),
-                        request.getRemark());
+                        remark);
                     break;
                 }
                 default:
@@ -134,7 +222,7 @@ public class EndTransactionProcessor implements NettyRequestProcessor {
                     msgInner.setStoreTimestamp(result.getPrepareMessage().getStoreTimestamp());
                     RemotingCommand sendResult = sendFinalMessage(msgInner);
                     if (sendResult.getCode() == ResponseCode.SUCCESS) {
-                        this.brokerController.getTransactionalMessageService().deletePrepareMessage(result.getPrepareMessage());
+                        this.deletePrepareMessage(result.getPrepareMessage(), resolvedHalfMessages);
                     }
                     return sendResult;
                 }
@@ -145,7 +233,7 @@ public class EndTransactionProcessor implements NettyRequestProcessor {
             if (result.getResponseCode() == ResponseCode.SUCCESS) {
                 RemotingCommand res = checkPrepareMessage(result.getPrepareMessage(), requestHeader);
                 if (res.getCode() == ResponseCode.SUCCESS) {
-                    this.brokerController.getTransactionalMessageService().deletePrepareMessage(result.getPrepareMessage());
+                    this.deletePrepareMessage(result.getPrepareMessage(), resolvedHalfMessages);
                 }
                 return res;
             }
@@ -160,6 +248,14 @@ public class EndTransactionProcessor implements NettyRequestProcessor {
         return false;
     }
 
+    private void deletePrepareMessage(MessageExt prepareMessage, List<MessageExt> resolvedHalfMessages) {
+        if (resolvedHalfMessages != null) {
+            resolvedHalfMessages.add(prepareMessage);
+        } else {
+            this.brokerController.getTransactionalMessageService().deletePrepareMessage(prepareMessage);
+        }
+    }
+
     private RemotingCommand checkPrepareMessage(MessageExt msgExt, EndTransactionRequestHeader requestHeader) {
         final RemotingCommand response = RemotingCommand.createResponseCommand(null);
         if (msgExt != null) {
@@ -16,13 +16,22 @@
  */
 package org.apache.rocketmq.broker.processor;
 
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.FileRegion;
+import io.netty.handler.ssl.SslHandler;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.broker.client.ConsumerGroupInfo;
 import org.apache.rocketmq.broker.filter.ConsumerFilterData;
@@ -33,6 +42,7 @@ import org.apache.rocketmq.broker.longpolling.PullRequest;
 import org.apache.rocketmq.broker.mqtrace.ConsumeMessageContext;
 import org.apache.rocketmq.broker.mqtrace.ConsumeMessageHook;
 import org.apache.rocketmq.broker.pagecache.ManyMessageTransfer;
+import org.apache.rocketmq.common.BrokerConfig;
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.TopicConfig;
 import org.apache.rocketmq.common.TopicFilterType;
@@ -88,6 +98,14 @@ public class PullMessageProcessor implements NettyRequestProcessor {
 
     private RemotingCommand processRequest(final Channel channel, RemotingCommand request, boolean brokerAllowSuspend)
         throws RemotingCommandException {
+        return this.processRequest(channel, request, brokerAllowSuspend, null);
+    }
+
+    /**
+     * @param sharedReads reads shared by the requests woken up together, null when the request is processed alone
+     */
+    private RemotingCommand processRequest(final Channel channel, RemotingCommand request, boolean brokerAllowSuspend,
+        final ConcurrentMap<String, GetMessageResult> sharedReads) throws RemotingCommandException {
         RemotingCommand response = RemotingCommand.createResponseCommand(PullMessageResponseHeader.class);
         final PullMessageResponseHeader responseHeader = (PullMessageResponseHeader) response.readCustomHeader();
         final PullMessageRequestHeader requestHeader =
@@ -233,9 +251,7 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                 this.brokerController.getConsumerFilterManager());
         }
 
-        final GetMessageResult getMessageResult =
-            this.brokerController.getMessageStore().getMessage(requestHeader.getConsumerGroup(), requestHeader.getTopic(),
-                requestHeader.getQueueId(), requestHeader.getQueueOffset(), requestHeader.getMaxMsgNums(), messageFilter);
+        final GetMessageResult getMessageResult = this.getMessage(requestHeader, subscriptionData, messageFilter, sharedReads);
         if (getMessageResult != null) {
             response.setRemark(getMessageResult.getStatus().name());
             responseHeader.setNextBeginOffset(getMessageResult.getNextBeginOffset());
@@ -375,14 +391,43 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                         getMessageResult.getBufferTotalSize());
 
                     this.brokerController.getBrokerStatsManager().incBrokerGetNums(getMessageResult.getMessageCount());
-                    if (this.brokerController.getBrokerConfig().isTransferMsgByHeap()) {
+                    if (this.isTransferByHeap(getMessageResult)) {
                         final long beginTimeMills = this.brokerController.getMessageStore().now();
+                        this.brokerController.getBrokerStatsManager().incBrokerGetTransferSize(BrokerStatsManager.TRANSFER_BY_HEAP,
+                            getMessageResult.getBufferTotalSize());
                         final byte[] r = this.readGetMessageResult(getMessageResult, requestHeader.getConsumerGroup(), requestHeader.getTopic(), requestHeader.getQueueId());
                         this.brokerController.getBrokerStatsManager().incGroupGetLatency(requestHeader.getConsumerGroup(),
                             requestHeader.getTopic(), requestHeader.getQueueId(),
                             (int) (this.brokerController.getMessageStore().now() - beginTimeMills));
                         response.setBody(r);
+                    } else if (channel.pipeline().get(SslHandler.class) != null) {
+                        // a file region would be copied once more by the FileRegionEncoder before encryption
+                        this.brokerController.getBrokerStatsManager().incBrokerGetTransferSize(BrokerStatsManager.TRANSFER_BY_COMPOSITE,
+                            getMessageResult.getBufferTotalSize());
+                        try {
+                            ByteBuffer[] buffers = new ByteBuffer[getMessageResult.getMessageBufferList().size() + 1];
+                            buffers[0] = response.encodeHeader(getMessageResult.getBufferTotalSize());
+                            for (int i = 1; i < buffers.length; i++) {
+                                buffers[i] = getMessageResult.getMessageBufferList().get(i - 1).slice();
+                            }
+                            channel.writeAndFlush(Unpooled.wrappedBuffer(buffers)).addListener(new ChannelFutureListener() {
+                                @Override
+                                public void operationComplete(ChannelFuture future) throws Exception {
+                                    getMessageResult.release();
+                                    if (!future.isSuccess()) {
+                                        log.error("transfer many message by composite buffer failed, {}", channel.remoteAddress(), future.cause());
+                                    }
+                                }
+                            });
+                        } catch (Throwable e) {
+                            log.error("transfer many message by composite buffer exception", e);
+                            getMessageResult.release();
+                        }
+
+                        response = null;
                     } else {
+                        this.brokerController.getBrokerStatsManager().incBrokerGetTransferSize(BrokerStatsManager.TRANSFER_BY_ZERO_COPY,
+                            getMessageResult.getBufferTotalSize());
                         try {
                             FileRegion fileRegion =
                                 new ManyMessageTransfer(response.encodeHeader(getMessageResult.getBufferTotalSize()), getMessageResult);
@@ -484,6 +529,21 @@ public class PullMessageProcessor implements NettyRequestProcessor {
         }
     }
 
+    /**
+     * Heap copy costs a copy on the pull thread while zero copy costs a file region per message, so small batches in
+     * memory go by heap and the others by zero copy, unless the choice is fixed by transferMsgByHeap.
+     */
+    private boolean isTransferByHeap(final GetMessageResult getMessageResult) {
+        BrokerConfig brokerConfig = this.brokerController.getBrokerConfig();
+        if (!brokerConfig.isTransferMsgAdaptive()) {
+            return brokerConfig.isTransferMsgByHeap();
+        }
+
+        return !getMessageResult.isSuggestPullingFromSlave()
+            && getMessageResult.getBufferTotalSize() <= brokerConfig.getTransferMsgByHeapMaxBytes()
+            && getMessageResult.getMessageCount() <= brokerConfig.getTransferMsgByHeapMaxCount();
+    }
+
     private byte[] readGetMessageResult(final GetMessageResult getMessageResult, final String group, final String topic,
         final int queueId) {
         final ByteBuffer byteBuffer = ByteBuffer.allocate(getMessageResult.getBufferTotalSize());
@@ -530,44 +590,209 @@ public class PullMessageProcessor implements NettyRequestProcessor {
         }
     }
 
+    private GetMessageResult getMessage(final PullMessageRequestHeader requestHeader, final SubscriptionData subscriptionData,
+        final MessageFilter messageFilter, final ConcurrentMap<String, GetMessageResult> sharedReads) {
+        if (null == sharedReads) {
+            return this.brokerController.getMessageStore().getMessage(requestHeader.getConsumerGroup(), requestHeader.getTopic(),
+                requestHeader.getQueueId(), requestHeader.getQueueOffset(), requestHeader.getMaxMsgNums(), messageFilter);
+        }
+
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(requestHeader.getTopic()).append('@').append(requestHeader.getQueueId())
+            .append('@').append(requestHeader.getQueueOffset()).append('@').append(requestHeader.getMaxMsgNums())
+            .append('@').append(subscriptionData.getExpressionType()).append('@').append(subscriptionData.getSubString());
+        if (!ExpressionType.isTagType(subscriptionData.getExpressionType())) {
+            // the bit map of sql filters belongs to the group
+            sb.append('@').append(requestHeader.getConsumerGroup());
+        }
+        String key = sb.toString();
+
+        GetMessageResult shared = sharedReads.get(key);
+        if (null == shared) {
+            shared = this.brokerController.getMessageStore().getMessage(requestHeader.getConsumerGroup(), requestHeader.getTopic(),
+                requestHeader.getQueueId(), requestHeader.getQueueOffset(), requestHeader.getMaxMsgNums(), messageFilter);
+            if (null == shared) {
+                return null;
+            }
+            GetMessageResult prev = sharedReads.putIfAbsent(key, shared);
+            if (prev != null) {
+                shared.release();
+                shared = prev;
+            }
+        }
+
+        GetMessageResult result = shared.duplicate();
+        if (null == result) {
+            return this.brokerController.getMessageStore().getMessage(requestHeader.getConsumerGroup(), requestHeader.getTopic(),
+                requestHeader.getQueueId(), requestHeader.getQueueOffset(), requestHeader.getMaxMsgNums(), messageFilter);
+        }
+        return result;
+    }
+
     public void executeRequestWhenWakeup(final Channel channel,
         final RemotingCommand request) throws RemotingCommandException {
         Runnable run = new Runnable() {
             @Override
             public void run() {
-                try {
-                    final RemotingCommand response = PullMessageProcessor.this.processRequest(channel, request, false);
+                PullMessageProcessor.this.processRequestWhenWakeup(channel, request, null);
+            }
+        };
+        this.brokerController.getPullMessageExecutor().submit(new RequestTask(run, channel, request));
+    }
 
-                    if (response != null) {
-                        response.setOpaque(request.getOpaque());
-                        response.markResponseType();
-                        try {
-                            channel.writeAndFlush(response).addListener(new ChannelFutureListener() {
-                                @Override
-                                public void operationComplete(ChannelFuture future) throws Exception {
-                                    if (!future.isSuccess()) {
-                                        log.error("processRequestWrapper response to {} failed",
-                                            future.channel().remoteAddress(), future.cause());
-                                        log.error(request.toString());
-                                        log.error(response.toString());
-                                    }
-                                }
-                            });
-                        } catch (Throwable e) {
-                            log.error("processRequestWrapper process request over, but response failed", e);
-                            log.error(request.toString());
-                            log.error(response.toString());
-                        }
+    /**
+     * Wake up requests released by the same message together. Requests waiting for the same offset with the same
+     * subscription share one read of the queue: the first of them reads it, then the others are handed to the pull
+     * executor so they are answered in parallel. The shared read is released once the last of them is done.
+     */
+    public void executeRequestsWhenWakeup(final List<PullRequest> pullRequests) throws RemotingCommandException {
+        Map<String, List<PullRequest>> batches = new LinkedHashMap<String, List<PullRequest>>();
+        for (PullRequest pullRequest : pullRequests) {
+            SubscriptionData subscriptionData = pullRequest.getSubscriptionData();
+            String key = pullRequest.getPullFromThisOffset() + "@"
+                + (subscriptionData != null ? subscriptionData.getExpressionType() + "@" + subscriptionData.getSubString() : "");
+            List<PullRequest> batch = batches.get(key);
+            if (null == batch) {
+                batch = new ArrayList<PullRequest>();
+                batches.put(key, batch);
+            }
+            batch.add(pullRequest);
+        }
+
+        for (final List<PullRequest> batch : batches.values()) {
+            final PullRequest first = batch.get(0);
+            if (batch.size() == 1) {
+                this.executeRequestWhenWakeup(first.getClientChannel(), first.getRequestCommand());
+                continue;
+            }
+
+            final ConcurrentMap<String, GetMessageResult> sharedReads = new ConcurrentHashMap<String, GetMessageResult>(4);
+            final AtomicInteger pending = new AtomicInteger(batch.size());
+            Runnable run = new Runnable() {
+                @Override
+                public void run() {
+                    PullMessageProcessor.this.processSharedRequest(first, sharedReads, pending);
+                    for (int i = 1; i < batch.size(); i++) {
+                        PullMessageProcessor.this.executeSharedRequest(batch.get(i), sharedReads, pending);
                     }
-                } catch (RemotingCommandException e1) {
-                    log.error("excuteRequestWhenWakeup run", e1);
                 }
+            };
+            this.brokerController.getPullMessageExecutor().submit(new BatchRequestTask(run, batch));
+        }
+    }
+
+    private void executeSharedRequest(final PullRequest pullRequest,
+        final ConcurrentMap<String, GetMessageResult> sharedReads, final AtomicInteger pending) {
+        Runnable run = new Runnable() {
+            @Override
+            public void run() {
+                PullMessageProcessor.this.processSharedRequest(pullRequest, sharedReads, pending);
             }
         };
-        this.brokerController.getPullMessageExecutor().submit(new RequestTask(run, channel, request));
+        try {
+            this.brokerController.getPullMessageExecutor().submit(new SharedReadRequestTask(run, pullRequest, sharedReads, pending));
+        } catch (RejectedExecutionException e) {
+            this.processSharedRequest(pullRequest, sharedReads, pending);
+        }
+    }
+
+    private void processSharedRequest(final PullRequest pullRequest,
+        final ConcurrentMap<String, GetMessageResult> sharedReads, final AtomicInteger pending) {
+        // one failing request must not leave the rest of the batch unanswered
+        try {
+            this.processRequestWhenWakeup(pullRequest.getClientChannel(), pullRequest.getRequestCommand(), sharedReads);
+        } catch (Throwable e) {
+            log.error("executeRequestsWhenWakeup run", e);
+        } finally {
+            releaseSharedReads(sharedReads, pending);
+        }
+    }
+
+    static void releaseSharedReads(final ConcurrentMap<String, GetMessageResult> sharedReads, final AtomicInteger pending) {
+        if (pending.decrementAndGet() == 0) {
+            for (GetMessageResult shared : sharedReads.values()) {
+                shared.release();
+            }
+        }
+    }
+
+    private void processRequestWhenWakeup(final Channel channel, final RemotingCommand request,
+        final ConcurrentMap<String, GetMessageResult> sharedReads) {
+        try {
+            final RemotingCommand response = PullMessageProcessor.this.processRequest(channel, request, false, sharedReads);
+
+            if (response != null) {
+                response.setOpaque(request.getOpaque());
+                response.markResponseType();
+                try {
+                    channel.writeAndFlush(response).addListener(new ChannelFutureListener() {
+                        @Override
+                        public void operationComplete(ChannelFuture future) throws Exception {
+                            if (!future.isSuccess()) {
+                                log.error("processRequestWrapper response to {} failed",
+                                    future.channel().remoteAddress(), future.cause());
+                                log.error(request.toString());
+                                log.error(response.toString());
+                            }
+                        }
+                    });
+                } catch (Throwable e) {
+                    log.error("processRequestWrapper process request over, but response failed", e);
+                    log.error(request.toString());
+                    log.error(response.toString());
+                }
+            }
+        } catch (RemotingCommandException e1) {
+            log.error("excuteRequestWhenWakeup run", e1);
+        }
     }
 
     public void registerConsumeMessageHook(List<ConsumeMessageHook> sendMessageHookList) {
         this.consumeMessageHookList = sendMessageHookList;
     }
+
+    /**
+     * Task of a batch of woken up requests, the fast failure of the pull queue answers all of them.
+     */
+    static class BatchRequestTask extends RequestTask {
+        private final List<PullRequest> batch;
+
+        BatchRequestTask(final Runnable runnable, final List<PullRequest> batch) {
+            super(runnable, batch.get(0).getClientChannel(), batch.get(0).getRequestCommand());
+            this.batch = batch;
+        }
+
+        @Override
+        public void returnResponse(int code, String remark) {
+            for (PullRequest pullRequest : this.batch) {
+                final RemotingCommand response = RemotingCommand.createResponseCommand(code, remark);
+                response.setOpaque(pullRequest.getRequestCommand().getOpaque());
+                pullRequest.getClientChannel().writeAndFlush(response);
+            }
+        }
+    }
+
+    /**
+     * Task of one request of a batch sharing a read, dropped by the fast failure it still counts as done.
+     */
+    static class SharedReadRequestTask extends RequestTask {
+        private final ConcurrentMap<String, GetMessageResult> sharedReads;
+        private final AtomicInteger pending;
+
+        SharedReadRequestTask(final Runnable runnable, final PullRequest pullRequest,
+            final ConcurrentMap<String, GetMessageResult> sharedReads, final AtomicInteger pending) {
+            super(runnable, pullRequest.getClientChannel(), pullRequest.getRequestCommand());
+            this.sharedReads = sharedReads;
+            this.pending = pending;
+        }
+
+        @Override
+        public void returnResponse(int code, String remark) {
+            try {
+                super.returnResponse(code, remark);
+            } finally {
+                releaseSharedReads(this.sharedReads, this.pending);
+            }
+        }
+    }
 }
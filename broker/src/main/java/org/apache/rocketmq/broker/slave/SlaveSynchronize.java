@@ -19,20 +19,35 @@ package org.apache.rocketmq.broker.slave;
 import java.io.IOException;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.broker.subscription.SubscriptionGroupManager;
+import org.apache.rocketmq.client.exception.MQBrokerException;
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.constant.LoggerName;
-import org.apache.rocketmq.logging.InternalLogger;
-import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.protocol.body.ConfigDeltaBody;
+import org.apache.rocketmq.common.protocol.body.ConsumerOffsetDeltaBody;
 import org.apache.rocketmq.common.protocol.body.ConsumerOffsetSerializeWrapper;
+import org.apache.rocketmq.common.protocol.body.SubscriptionGroupDeltaBody;
 import org.apache.rocketmq.common.protocol.body.SubscriptionGroupWrapper;
+import org.apache.rocketmq.common.protocol.body.TopicConfigDeltaBody;
 import org.apache.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.store.config.StorePathConfigHelper;
 
+/**
+ * Pulls the topic configs, subscription groups and consumer offsets of the master. Each table is asked for the
+ * changes since the version synced last, a master without delta support gets the whole tables as before.
+ */
 public class SlaveSynchronize {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.BROKER_LOGGER_NAME);
     private final BrokerController brokerController;
     private volatile String masterAddr = null;
 
+    private volatile boolean deltaSupported = true;
+    private final SyncPosition topicConfigPosition = new SyncPosition();
+    private final SyncPosition consumerOffsetPosition = new SyncPosition();
+    private final SyncPosition subscriptionGroupPosition = new SyncPosition();
+
     public SlaveSynchronize(BrokerController brokerController) {
         this.brokerController = brokerController;
     }
@@ -42,6 +57,13 @@ public class SlaveSynchronize {
     }
 
     public void setMasterAddr(String masterAddr) {
+        String old = this.masterAddr;
+        if (old == null ? masterAddr != null : !old.equals(masterAddr)) {
+            this.deltaSupported = true;
+            this.topicConfigPosition.reset();
+            this.consumerOffsetPosition.reset();
+            this.subscriptionGroupPosition.reset();
+        }
         this.masterAddr = masterAddr;
     }
 
@@ -56,6 +78,10 @@ public class SlaveSynchronize {
         String masterAddrBak = this.masterAddr;
         if (masterAddrBak != null && !masterAddrBak.equals(brokerController.getBrokerAddr())) {
             try {
+                if (this.deltaSupported && this.syncTopicConfigDelta(masterAddrBak)) {
+                    return;
+                }
+
                 TopicConfigSerializeWrapper topicWrapper =
                     this.brokerController.getBrokerOuterAPI().getAllTopicConfig(masterAddrBak);
                 if (!this.brokerController.getTopicConfigManager().getDataVersion()
@@ -80,10 +106,13 @@ public class SlaveSynchronize {
         String masterAddrBak = this.masterAddr;
         if (masterAddrBak != null && !masterAddrBak.equals(brokerController.getBrokerAddr())) {
             try {
+                if (this.deltaSupported && this.syncConsumerOffsetDelta(masterAddrBak)) {
+                    return;
+                }
+
                 ConsumerOffsetSerializeWrapper offsetWrapper =
                     this.brokerController.getBrokerOuterAPI().getAllConsumerOffset(masterAddrBak);
-                this.brokerController.getConsumerOffsetManager().getOffsetTable()
-                    .putAll(offsetWrapper.getOffsetTable());
+                this.brokerController.getConsumerOffsetManager().syncOffsetTable(offsetWrapper.getOffsetTable());
                 this.brokerController.getConsumerOffsetManager().persist();
                 log.info("Update slave consumer offset from master, {}", masterAddrBak);
             } catch (Exception e) {
@@ -120,6 +149,10 @@ public class SlaveSynchronize {
         String masterAddrBak = this.masterAddr;
         if (masterAddrBak != null  && !masterAddrBak.equals(brokerController.getBrokerAddr())) {
             try {
+                if (this.deltaSupported && this.syncSubscriptionGroupDelta(masterAddrBak)) {
+                    return;
+                }
+
                 SubscriptionGroupWrapper subscriptionWrapper =
                     this.brokerController.getBrokerOuterAPI()
                         .getAllSubscriptionGroupConfig(masterAddrBak);
@@ -141,4 +174,92 @@ public class SlaveSynchronize {
             }
         }
     }
+
+    /**
+     * @return false if the master does not serve deltas
+     */
+    private boolean syncTopicConfigDelta(final String masterAddrBak) throws Exception {
+        TopicConfigDeltaBody delta;
+        try {
+            delta = this.brokerController.getBrokerOuterAPI().getTopicConfigDelta(masterAddrBak,
+                this.topicConfigPosition.epoch, this.topicConfigPosition.version);
+        } catch (MQBrokerException e) {
+            return this.handleDeltaException(e, masterAddrBak);
+        }
+
+        if (delta.isFull() || !delta.getTopicConfigTable().isEmpty() || !delta.getRemovedKeys().isEmpty()) {
+            this.brokerController.getTopicConfigManager().applyTopicConfigDelta(delta);
+            this.brokerController.getTopicConfigManager().persist();
+            log.info("Update slave topic config from master, {}, full {}, changed {}, removed {}", masterAddrBak,
+                delta.isFull(), delta.getTopicConfigTable().size(), delta.getRemovedKeys().size());
+        }
+        this.topicConfigPosition.update(delta);
+        return true;
+    }
+
+    private boolean syncConsumerOffsetDelta(final String masterAddrBak) throws Exception {
+        ConsumerOffsetDeltaBody delta;
+        try {
+            delta = this.brokerController.getBrokerOuterAPI().getConsumerOffsetDelta(masterAddrBak,
+                this.consumerOffsetPosition.epoch, this.consumerOffsetPosition.version);
+        } catch (MQBrokerException e) {
+            return this.handleDeltaException(e, masterAddrBak);
+        }
+
+        if (delta.isFull() || !delta.getOffsetTable().isEmpty()) {
+            this.brokerController.getConsumerOffsetManager().syncOffsetTable(delta.getOffsetTable());
+            this.brokerController.getConsumerOffsetManager().persist();
+            log.info("Update slave consumer offset from master, {}, full {}, changed {}", masterAddrBak,
+                delta.isFull(), delta.getOffsetTable().size());
+        }
+        this.consumerOffsetPosition.update(delta);
+        return true;
+    }
+
+    private boolean syncSubscriptionGroupDelta(final String masterAddrBak) throws Exception {
+        SubscriptionGroupDeltaBody delta;
+        try {
+            delta = this.brokerController.getBrokerOuterAPI().getSubscriptionGroupDelta(masterAddrBak,
+                this.subscriptionGroupPosition.epoch, this.subscriptionGroupPosition.version);
+        } catch (MQBrokerException e) {
+            return this.handleDeltaException(e, masterAddrBak);
+        }
+
+        if (delta.isFull() || !delta.getSubscriptionGroupTable().isEmpty() || !delta.getRemovedKeys().isEmpty()) {
+            this.brokerController.getSubscriptionGroupManager().applySubscriptionGroupDelta(delta);
+            this.brokerController.getSubscriptionGroupManager().persist();
+            log.info("Update slave Subscription Group from master, {}, full {}, changed {}, removed {}", masterAddrBak,
+                delta.isFull(), delta.getSubscriptionGroupTable().size(), delta.getRemovedKeys().size());
+        }
+        this.subscriptionGroupPosition.update(delta);
+        return true;
+    }
+
+    /**
+     * Only a master answering that it does not know the request is asked for whole tables from then on, other errors
+     * and timeouts fail this round and the next one asks for the delta again.
+     */
+    private boolean handleDeltaException(final MQBrokerException e, final String masterAddrBak) throws MQBrokerException {
+        if (e.getResponseCode() == ResponseCode.REQUEST_CODE_NOT_SUPPORTED) {
+            log.info("master {} does not serve config deltas, fall back to full sync", masterAddrBak);
+            this.deltaSupported = false;
+            return false;
+        }
+        throw e;
+    }
+
+    static class SyncPosition {
+        private volatile long epoch = -1;
+        private volatile long version = 0;
+
+        void update(final ConfigDeltaBody delta) {
+            this.epoch = delta.getEpoch();
+            this.version = delta.getVersion();
+        }
+
+        void reset() {
+            this.epoch = -1;
+            this.version = 0;
+        }
+    }
 }
@@ -22,10 +22,12 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.broker.BrokerPathConfigHelper;
+import org.apache.rocketmq.broker.util.ConfigChangeLog;
 import org.apache.rocketmq.common.ConfigManager;
 import org.apache.rocketmq.common.DataVersion;
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.protocol.body.SubscriptionGroupDeltaBody;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.common.subscription.SubscriptionGroupConfig;
@@ -38,6 +40,10 @@ public class SubscriptionGroupManager extends ConfigManager {
         new ConcurrentHashMap<String, SubscriptionGroupConfig>(1024);
     private final DataVersion dataVersion = new DataVersion();
     private transient BrokerController brokerController;
+    /**
+     * No getter, this manager is serialized through its getters.
+     */
+    private final transient ConfigChangeLog changeLog = new ConfigChangeLog();
 
     public SubscriptionGroupManager() {
         this.init();
@@ -104,6 +110,7 @@ public class SubscriptionGroupManager extends ConfigManager {
             log.info("create new subscription group, {}", config);
         }
 
+        this.changeLog.recordChange(config.getGroupName());
         this.dataVersion.nextVersion();
 
         this.persist();
@@ -113,6 +120,7 @@ public class SubscriptionGroupManager extends ConfigManager {
         SubscriptionGroupConfig old = this.subscriptionGroupTable.get(groupName);
         if (old != null) {
             old.setConsumeEnable(false);
+            this.changeLog.recordChange(groupName);
             this.dataVersion.nextVersion();
         }
     }
@@ -127,6 +135,7 @@ public class SubscriptionGroupManager extends ConfigManager {
                 if (null == preConfig) {
                     log.info("auto create a subscription group, {}", subscriptionGroupConfig.toString());
                 }
+                this.changeLog.recordChange(group);
                 this.dataVersion.nextVersion();
                 this.persist();
             }
@@ -162,6 +171,45 @@ public class SubscriptionGroupManager extends ConfigManager {
         return RemotingSerializable.toJson(this, prettyFormat);
     }
 
+    /**
+     * @return the subscription groups changed since the given version of the change log, all of them when the change
+     * log no longer knows that version
+     */
+    public SubscriptionGroupDeltaBody buildSubscriptionGroupDelta(final long epoch, final long sinceVersion) {
+        SubscriptionGroupDeltaBody delta = new SubscriptionGroupDeltaBody();
+        delta.setEpoch(this.changeLog.getEpoch());
+        delta.setVersion(this.changeLog.getVersion());
+        delta.setDataVersion(this.dataVersion);
+        if (!this.changeLog.isDeltaAvailable(epoch, sinceVersion)) {
+            delta.setFull(true);
+            delta.setSubscriptionGroupTable(this.subscriptionGroupTable);
+            return delta;
+        }
+
+        for (String group : this.changeLog.changedSince(sinceVersion)) {
+            SubscriptionGroupConfig config = this.subscriptionGroupTable.get(group);
+            if (config != null) {
+                delta.getSubscriptionGroupTable().put(group, config);
+            }
+        }
+        delta.setRemovedKeys(this.changeLog.removedSince(sinceVersion));
+        return delta;
+    }
+
+    /**
+     * Apply the changes of the master, on a slave.
+     */
+    public void applySubscriptionGroupDelta(final SubscriptionGroupDeltaBody delta) {
+        if (delta.isFull()) {
+            this.subscriptionGroupTable.clear();
+        }
+        for (String group : delta.getRemovedKeys()) {
+            this.subscriptionGroupTable.remove(group);
+        }
+        this.subscriptionGroupTable.putAll(delta.getSubscriptionGroupTable());
+        this.dataVersion.assignNewOne(delta.getDataVersion());
+    }
+
     private void printLoadDataWhenFirstBoot(final SubscriptionGroupManager sgm) {
         Iterator<Entry<String, SubscriptionGroupConfig>> it = sgm.getSubscriptionGroupTable().entrySet().iterator();
         while (it.hasNext()) {
@@ -182,6 +230,7 @@ public class SubscriptionGroupManager extends ConfigManager {
         SubscriptionGroupConfig old = this.subscriptionGroupTable.remove(groupName);
         if (old != null) {
             log.info("delete subscription group OK, subscription group:{}", old);
+            this.changeLog.recordRemove(groupName);
             this.dataVersion.nextVersion();
             this.persist();
         } else {
@@ -28,6 +28,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.broker.BrokerPathConfigHelper;
+import org.apache.rocketmq.broker.util.ConfigChangeLog;
 import org.apache.rocketmq.common.ConfigManager;
 import org.apache.rocketmq.common.DataVersion;
 import org.apache.rocketmq.common.MixAll;
@@ -37,6 +38,7 @@ import org.apache.rocketmq.common.constant.PermName;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.common.protocol.body.KVTable;
+import org.apache.rocketmq.common.protocol.body.TopicConfigDeltaBody;
 import org.apache.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
 import org.apache.rocketmq.common.sysflag.TopicSysFlag;
 
@@ -48,6 +50,7 @@ public class TopicConfigManager extends ConfigManager {
     private final ConcurrentMap<String, TopicConfig> topicConfigTable =
         new ConcurrentHashMap<String, TopicConfig>(1024);
     private final DataVersion dataVersion = new DataVersion();
+    private transient final ConfigChangeLog changeLog = new ConfigChangeLog();
     private final Set<String> systemTopicList = new HashSet<String>();
     private transient BrokerController brokerController;
 
@@ -205,6 +208,7 @@ public class TopicConfigManager extends ConfigManager {
 
                         this.topicConfigTable.put(topic, topicConfig);
 
+                        this.changeLog.recordChange(topic);
                         this.dataVersion.nextVersion();
 
                         createNew = true;
@@ -253,6 +257,7 @@ public class TopicConfigManager extends ConfigManager {
                     log.info("create new topic {}", topicConfig);
                     this.topicConfigTable.put(topic, topicConfig);
                     createNew = true;
+                    this.changeLog.recordChange(topic);
                     this.dataVersion.nextVersion();
                     this.persist();
                 } finally {
@@ -293,6 +298,7 @@ public class TopicConfigManager extends ConfigManager {
                     log.info("create new topic {}", topicConfig);
                     this.topicConfigTable.put(MixAll.TRANS_CHECK_MAX_TIME_TOPIC, topicConfig);
                     createNew = true;
+                    this.changeLog.recordChange(MixAll.TRANS_CHECK_MAX_TIME_TOPIC);
                     this.dataVersion.nextVersion();
                     this.persist();
                 } finally {
@@ -326,6 +332,7 @@ public class TopicConfigManager extends ConfigManager {
 
             this.topicConfigTable.put(topic, topicConfig);
 
+            this.changeLog.recordChange(topic);
             this.dataVersion.nextVersion();
 
             this.persist();
@@ -346,6 +353,7 @@ public class TopicConfigManager extends ConfigManager {
 
             this.topicConfigTable.put(topic, topicConfig);
 
+            this.changeLog.recordChange(topic);
             this.dataVersion.nextVersion();
 
             this.persist();
@@ -361,6 +369,7 @@ public class TopicConfigManager extends ConfigManager {
             log.info("create new topic [{}]", topicConfig);
         }
 
+        this.changeLog.recordChange(topicConfig.getTopicName());
         this.dataVersion.nextVersion();
 
         this.persist();
@@ -375,6 +384,7 @@ public class TopicConfigManager extends ConfigManager {
                 TopicConfig topicConfig = this.topicConfigTable.get(topic);
                 if (topicConfig != null && !topicConfig.isOrder()) {
                     topicConfig.setOrder(true);
+                    this.changeLog.recordChange(topic);
                     isChange = true;
                     log.info("update order topic config, topic={}, order={}", topic, true);
                 }
@@ -386,6 +396,7 @@ public class TopicConfigManager extends ConfigManager {
                     TopicConfig topicConfig = entry.getValue();
                     if (topicConfig.isOrder()) {
                         topicConfig.setOrder(false);
+                        this.changeLog.recordChange(topic);
                         isChange = true;
                         log.info("update order topic config, topic={}, order={}", topic, false);
                     }
@@ -412,6 +423,7 @@ public class TopicConfigManager extends ConfigManager {
         TopicConfig old = this.topicConfigTable.remove(topic);
         if (old != null) {
             log.info("delete topic config OK, topic: {}", old);
+            this.changeLog.recordRemove(topic);
             this.dataVersion.nextVersion();
             this.persist();
         } else {
@@ -431,6 +443,46 @@ public class TopicConfigManager extends ConfigManager {
         return encode(false);
     }
 
+    /**
+     * @return the topic configs changed since the given version of the change log, all of them when the change log
+     * no longer knows that version
+     */
+    public TopicConfigDeltaBody buildTopicConfigDelta(final long epoch, final long sinceVersion) {
+        TopicConfigDeltaBody delta = new TopicConfigDeltaBody();
+        long version = this.changeLog.getVersion();
+        delta.setEpoch(this.changeLog.getEpoch());
+        delta.setVersion(version);
+        delta.setDataVersion(this.dataVersion);
+        if (!this.changeLog.isDeltaAvailable(epoch, sinceVersion)) {
+            delta.setFull(true);
+            delta.setTopicConfigTable(this.topicConfigTable);
+            return delta;
+        }
+
+        for (String topic : this.changeLog.changedSince(sinceVersion)) {
+            TopicConfig topicConfig = this.topicConfigTable.get(topic);
+            if (topicConfig != null) {
+                delta.getTopicConfigTable().put(topic, topicConfig);
+            }
+        }
+        delta.setRemovedKeys(this.changeLog.removedSince(sinceVersion));
+        return delta;
+    }
+
+    /**
+     * Apply the changes of the master, on a slave.
+     */
+    public void applyTopicConfigDelta(final TopicConfigDeltaBody delta) {
+        if (delta.isFull()) {
+            this.topicConfigTable.clear();
+        }
+        for (String topic : delta.getRemovedKeys()) {
+            this.topicConfigTable.remove(topic);
+        }
+        this.topicConfigTable.putAll(delta.getTopicConfigTable());
+        this.dataVersion.assignNewOne(delta.getDataVersion());
+    }
+
     @Override
     public String configFilePath() {
         return BrokerPathConfigHelper.getTopicConfigPath(this.brokerController.getMessageStoreConfig()
@@ -469,6 +521,10 @@ public class TopicConfigManager extends ConfigManager {
         return dataVersion;
     }
 
+    public ConfigChangeLog getChangeLog() {
+        return changeLog;
+    }
+
     public ConcurrentMap<String, TopicConfig> getTopicConfigTable() {
         return topicConfigTable;
     }
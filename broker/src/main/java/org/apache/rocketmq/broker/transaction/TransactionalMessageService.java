@@ -16,6 +16,7 @@
  */
 package org.apache.rocketmq.broker.transaction;
 
+import java.util.List;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.protocol.header.EndTransactionRequestHeader;
 import org.apache.rocketmq.store.MessageExtBrokerInner;
@@ -38,6 +39,20 @@ public interface TransactionalMessageService {
      */
     boolean deletePrepareMessage(MessageExt messageExt);
 
+    /**
+     * Delete many prepare messages at once. The default deletes them one by one, implementations may pack the
+     * removals of the same queue into one op message.
+     *
+     * @param messageExts Prepare messages which have been committed or rolled back.
+     */
+    default boolean deletePrepareMessages(List<MessageExt> messageExts) {
+        boolean result = true;
+        for (MessageExt messageExt : messageExts) {
+            result &= deletePrepareMessage(messageExt);
+        }
+        return result;
+    }
+
     /**
      * Invoked to process commit prepare message.
      *
@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.transaction.queue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.MessageStore;
+
+/**
+ * One bit per half message offset, set once the op message of its commit or rollback is stored, so the checker knows
+ * in O(1) that a half message is resolved without reading the op queue.
+ * <p>
+ * Bits live in fixed segments per half queue, segments below the checked offset are dropped. The bitmap is persisted
+ * periodically as a hint only: a bit is set after its op message, so a bit lost by a crash only makes the checker fall
+ * back to the op queue for that offset. The min and max offset of each half queue are saved along, a queue whose
+ * offsets went back since, e.g. the store was replaced or truncated, gets its bits dropped on load because they would
+ * mark other half messages as resolved.
+ */
+public class ResolvedHalfBitmap {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.TRANSACTION_LOGGER_NAME);
+    private static final int FILE_MAGIC = 0x48424D32;
+    private static final int SEGMENT_WORDS = 1024;
+    private static final int SEGMENT_BITS = SEGMENT_WORDS * 64;
+
+    private final ConcurrentMap<Integer/* queueId */, ConcurrentSkipListMap<Long/* segment */, AtomicLongArray>> bitmapTable =
+        new ConcurrentHashMap<Integer, ConcurrentSkipListMap<Long, AtomicLongArray>>(16);
+    private final String filePath;
+    private final MessageStore messageStore;
+
+    /**
+     * @param filePath where the bitmap is persisted, null to keep it in memory only
+     */
+    public ResolvedHalfBitmap(final String filePath) {
+        this(filePath, null);
+    }
+
+    /**
+     * @param filePath where the bitmap is persisted, null to keep it in memory only
+     * @param messageStore store of the half queues the persisted bitmap is checked against, null to skip the check
+     */
+    public ResolvedHalfBitmap(final String filePath, final MessageStore messageStore) {
+        this.filePath = filePath;
+        this.messageStore = messageStore;
+    }
+
+    public void markResolved(final int queueId, final long offset) {
+        if (offset < 0) {
+            return;
+        }
+
+        ConcurrentSkipListMap<Long, AtomicLongArray> segments = this.bitmapTable.get(queueId);
+        if (null == segments) {
+            segments = new ConcurrentSkipListMap<Long, AtomicLongArray>();
+            ConcurrentSkipListMap<Long, AtomicLongArray> prev = this.bitmapTable.putIfAbsent(queueId, segments);
+            if (prev != null) {
+                segments = prev;
+            }
+        }
+
+        long segmentIndex = offset / SEGMENT_BITS;
+        AtomicLongArray segment = segments.get(segmentIndex);
+        if (null == segment) {
+            segment = new AtomicLongArray(SEGMENT_WORDS);
+            AtomicLongArray prev = segments.putIfAbsent(segmentIndex, segment);
+            if (prev != null) {
+                segment = prev;
+            }
+        }
+
+        int bit = (int) (offset % SEGMENT_BITS);
+        long mask = 1L << (bit & 63);
+        int word = bit >>> 6;
+        while (true) {
+            long value = segment.get(word);
+            if ((value & mask) != 0 || segment.compareAndSet(word, value, value | mask)) {
+                return;
+            }
+        }
+    }
+
+    public boolean isResolved(final int queueId, final long offset) {
+        if (offset < 0) {
+            return false;
+        }
+
+        ConcurrentSkipListMap<Long, AtomicLongArray> segments = this.bitmapTable.get(queueId);
+        if (null == segments) {
+            return false;
+        }
+        AtomicLongArray segment = segments.get(offset / SEGMENT_BITS);
+        if (null == segment) {
+            return false;
+        }
+        int bit = (int) (offset % SEGMENT_BITS);
+        return (segment.get(bit >>> 6) & (1L << (bit & 63))) != 0;
+    }
+
+    /**
+     * Drop the segments whose offsets are all below {@code minOffset}, the checker never goes back there.
+     */
+    public void truncateBelow(final int queueId, final long minOffset) {
+        ConcurrentSkipListMap<Long, AtomicLongArray> segments = this.bitmapTable.get(queueId);
+        if (segments != null) {
+            segments.headMap(minOffset / SEGMENT_BITS).clear();
+        }
+    }
+
+    public synchronized void persist() {
+        if (null == this.filePath) {
+            return;
+        }
+
+        File tmpFile = new File(this.filePath + ".tmp");
+        File parent = tmpFile.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(this.bitmapTable.size());
+                for (Map.Entry<Integer, ConcurrentSkipListMap<Long, AtomicLongArray>> entry : this.bitmapTable.entrySet()) {
+                    // snapshot, segments may be added meanwhile
+                    ConcurrentNavigableMap<Long, AtomicLongArray> segments = entry.getValue().clone();
+                    out.writeInt(entry.getKey());
+                    out.writeLong(this.minOffsetInHalfQueue(entry.getKey()));
+                    out.writeLong(this.maxOffsetInHalfQueue(entry.getKey()));
+                    out.writeInt(segments.size());
+                    for (Map.Entry<Long, AtomicLongArray> segment : segments.entrySet()) {
+                        out.writeLong(segment.getKey());
+                        for (int i = 0; i < SEGMENT_WORDS; i++) {
+                            out.writeLong(segment.getValue().get(i));
+                        }
+                    }
+                }
+            } finally {
+                out.close();
+            }
+
+            Files.move(tmpFile.toPath(), new File(this.filePath).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.error("Persist resolved half bitmap to {} failed", this.filePath, e);
+        }
+    }
+
+    public synchronized void load() {
+        if (null == this.filePath || !new File(this.filePath).exists()) {
+            return;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.filePath)));
+            try {
+                if (in.readInt() != FILE_MAGIC) {
+                    log.warn("Ignore resolved half bitmap {}, unknown format", this.filePath);
+                    return;
+                }
+                int queueNums = in.readInt();
+                for (int q = 0; q < queueNums; q++) {
+                    int queueId = in.readInt();
+                    long minOffset = in.readLong();
+                    long maxOffset = in.readLong();
+                    int segmentNums = in.readInt();
+                    ConcurrentSkipListMap<Long, AtomicLongArray> segments = new ConcurrentSkipListMap<Long, AtomicLongArray>();
+                    for (int s = 0; s < segmentNums; s++) {
+                        long segmentIndex = in.readLong();
+                        AtomicLongArray segment = new AtomicLongArray(SEGMENT_WORDS);
+                        for (int i = 0; i < SEGMENT_WORDS; i++) {
+                            segment.set(i, in.readLong());
+                        }
+                        segments.put(segmentIndex, segment);
+                    }
+                    if (this.matchHalfQueue(queueId, minOffset, maxOffset)) {
+                        this.bitmapTable.put(queueId, segments);
+                    } else {
+                        log.warn("Drop resolved half bitmap of queue {}, saved offsets [{}, {}] no longer match [{}, {}]",
+                            queueId, minOffset, maxOffset, this.minOffsetInHalfQueue(queueId), this.maxOffsetInHalfQueue(queueId));
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            log.info("Load resolved half bitmap {} OK, queues: {}", this.filePath, this.bitmapTable.size());
+        } catch (IOException e) {
+            // only a hint, the op queue still tells the resolved half messages
+            this.bitmapTable.clear();
+            log.warn("Load resolved half bitmap {} failed, ignore it", this.filePath, e);
+        }
+    }
+
+    /**
+     * The saved offsets match if the half queue still starts at the same offset and did not lose its tail, messages
+     * appended after the last persist only miss their bits.
+     */
+    private boolean matchHalfQueue(final int queueId, final long minOffset, final long maxOffset) {
+        if (null == this.messageStore) {
+            return true;
+        }
+        return this.minOffsetInHalfQueue(queueId) == minOffset && this.maxOffsetInHalfQueue(queueId) >= maxOffset;
+    }
+
+    private long minOffsetInHalfQueue(final int queueId) {
+        return null == this.messageStore ? -1 : this.messageStore.getMinOffsetInQueue(TransactionalMessageUtil.buildHalfTopic(), queueId);
+    }
+
+    private long maxOffsetInHalfQueue(final int queueId) {
+        return null == this.messageStore ? -1 : this.messageStore.getMaxOffsetInQueue(TransactionalMessageUtil.buildHalfTopic(), queueId);
+    }
+}
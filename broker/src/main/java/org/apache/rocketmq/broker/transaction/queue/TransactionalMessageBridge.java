@@ -44,14 +44,19 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class TransactionalMessageBridge {
     private static final InternalLogger LOGGER = InnerLoggerFactory.getLogger(LoggerName.TRANSACTION_LOGGER_NAME);
 
+    private static final int MAX_OFFSETS_PER_OP_MESSAGE = 1024;
+
     private final ConcurrentHashMap<MessageQueue, MessageQueue> opQueueMap = new ConcurrentHashMap<>();
     private final BrokerController brokerController;
     private final MessageStore store;
@@ -289,6 +294,52 @@ public class TransactionalMessageBridge {
         return topicConfig;
     }
 
+    /**
+     * Write one packed op message per half queue, its body carries the half offsets of all the given messages of that
+     * queue.
+     *
+     * @return false if any of the op messages could not be written
+     */
+    public boolean putOpMessages(List<MessageExt> messageExts, String opType) {
+        if (!TransactionalMessageUtil.REMOVETAG.equals(opType)) {
+            return true;
+        }
+        Map<Integer, StringBuilder> offsetsByQueue = new LinkedHashMap<>();
+        Map<Integer, Integer> countByQueue = new HashMap<>();
+        boolean written = true;
+        for (MessageExt messageExt : messageExts) {
+            int queueId = messageExt.getQueueId();
+            StringBuilder offsets = offsetsByQueue.get(queueId);
+            if (offsets == null) {
+                offsets = new StringBuilder();
+                offsetsByQueue.put(queueId, offsets);
+                countByQueue.put(queueId, 0);
+            } else {
+                offsets.append(TransactionalMessageUtil.OFFSET_SEPARATOR);
+            }
+            offsets.append(messageExt.getQueueOffset());
+
+            int count = countByQueue.get(queueId) + 1;
+            if (count >= MAX_OFFSETS_PER_OP_MESSAGE) {
+                written &= addRemoveTagInTransactionOp(queueId, offsets.toString());
+                offsetsByQueue.remove(queueId);
+                count = 0;
+            }
+            countByQueue.put(queueId, count);
+        }
+        for (Map.Entry<Integer, StringBuilder> entry : offsetsByQueue.entrySet()) {
+            written &= addRemoveTagInTransactionOp(entry.getKey(), entry.getValue().toString());
+        }
+        return written;
+    }
+
+    private boolean addRemoveTagInTransactionOp(int queueId, String offsets) {
+        MessageQueue messageQueue = new MessageQueue(TransactionalMessageUtil.buildHalfTopic(), this.brokerController.getBrokerConfig().getBrokerName(), queueId);
+        Message message = new Message(TransactionalMessageUtil.buildOpTopic(), TransactionalMessageUtil.REMOVETAG,
+            offsets.getBytes(TransactionalMessageUtil.charset));
+        return writeOp(message, messageQueue);
+    }
+
     /**
      * Use this function while transaction msg is committed or rollback write a flag 'd' to operation queue for the
      * msg's offset
@@ -304,7 +355,7 @@ public class TransactionalMessageBridge {
         return true;
     }
 
-    private void writeOp(Message message, MessageQueue mq) {
+    private boolean writeOp(Message message, MessageQueue mq) {
         MessageQueue opQueue;
         if (opQueueMap.containsKey(mq)) {
             opQueue = opQueueMap.get(mq);
@@ -318,7 +369,7 @@ public class TransactionalMessageBridge {
         if (opQueue == null) {
             opQueue = new MessageQueue(TransactionalMessageUtil.buildOpTopic(), mq.getBrokerName(), mq.getQueueId());
         }
-        putMessage(makeOpMessageInner(message, opQueue));
+        return putMessage(makeOpMessageInner(message, opQueue));
     }
 
     private MessageQueue getOpQueueByHalf(MessageQueue halfMQ) {
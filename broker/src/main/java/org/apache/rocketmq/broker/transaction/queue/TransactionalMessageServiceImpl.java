@@ -16,6 +16,8 @@
  */
 package org.apache.rocketmq.broker.transaction.queue;
 
+import org.apache.rocketmq.broker.BrokerController;
+import org.apache.rocketmq.broker.BrokerPathConfigHelper;
 import org.apache.rocketmq.broker.transaction.AbstractTransactionalMessageCheckListener;
 import org.apache.rocketmq.broker.transaction.OperationResult;
 import org.apache.rocketmq.broker.transaction.TransactionalMessageService;
@@ -53,8 +55,14 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
 
     private static final int MAX_RETRY_COUNT_WHEN_HALF_NULL = 1;
 
+    private final ResolvedHalfBitmap resolvedHalfBitmap;
+
     public TransactionalMessageServiceImpl(TransactionalMessageBridge transactionBridge) {
         this.transactionalMessageBridge = transactionBridge;
+        BrokerController brokerController = transactionBridge.getBrokerController();
+        this.resolvedHalfBitmap = new ResolvedHalfBitmap(brokerController == null ? null
+            : BrokerPathConfigHelper.getTransactionResolvedBitmapPath(brokerController.getMessageStoreConfig().getStorePathRootDir()),
+            brokerController == null ? null : brokerController.getMessageStore());
     }
 
     private ConcurrentHashMap<MessageQueue, MessageQueue> opQueueMap = new ConcurrentHashMap<>();
@@ -142,7 +150,8 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
 
                 List<Long> doneOpOffset = new ArrayList<>();
                 HashMap<Long, Long> removeMap = new HashMap<>();
-                PullResult pullResult = fillOpRemoveMap(removeMap, opQueue, opOffset, halfOffset, doneOpOffset);
+                HashMap<Long, Integer> opRefCount = new HashMap<>();
+                PullResult pullResult = fillOpRemoveMap(removeMap, opRefCount, opQueue, opOffset, halfOffset, doneOpOffset);
                 if (null == pullResult) {
                     log.error("The queue={} check msgOffset={} with opOffset={} failed, pullResult is null",
                         messageQueue, halfOffset, opOffset);
@@ -157,9 +166,15 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
                         log.info("Queue={} process time reach max={}", messageQueue, MAX_PROCESS_TIME_LIMIT);
                         break;
                     }
-                    if (removeMap.containsKey(i)) {
+                    if (this.resolvedHalfBitmap.isResolved(messageQueue.getQueueId(), i)) {
+                        log.debug("Half offset {} has been committed/rolled back, by bitmap", i);
+                        Long removedOpOffset = removeMap.remove(i);
+                        if (removedOpOffset != null) {
+                            releaseOpOffset(opRefCount, removedOpOffset);
+                        }
+                    } else if (removeMap.containsKey(i)) {
                         log.info("Half offset {} has been committed/rolled back", i);
-                        removeMap.remove(i);
+                        releaseOpOffset(opRefCount, removeMap.remove(i));
                     } else {
                         GetResult getResult = getHalfMsg(messageQueue, i);
                         MessageExt msgExt = getResult.getMsg();
@@ -198,7 +213,7 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
                         if (null != checkImmunityTimeStr) {
                             checkImmunityTime = getImmunityTime(checkImmunityTimeStr, transactionTimeout);
                             if (valueOfCurrentMinusBorn < checkImmunityTime) {
-                                if (checkPrepareQueueOffset(removeMap, doneOpOffset, msgExt)) {
+                                if (checkPrepareQueueOffset(removeMap, opRefCount, doneOpOffset, msgExt, messageQueue.getQueueId())) {
                                     newOffset = i + 1;
                                     i++;
                                     continue;
@@ -222,7 +237,7 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
                             }
                             listener.resolveHalfMsg(msgExt);
                         } else {
-                            pullResult = fillOpRemoveMap(removeMap, opQueue, pullResult.getNextBeginOffset(), halfOffset, doneOpOffset);
+                            pullResult = fillOpRemoveMap(removeMap, opRefCount, opQueue, pullResult.getNextBeginOffset(), halfOffset, doneOpOffset);
                             log.info("The miss offset:{} in messageQueue:{} need to get more opMsg, result is:{}", i,
                                 messageQueue, pullResult);
                             continue;
@@ -234,11 +249,13 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
                 if (newOffset != halfOffset) {
                     transactionalMessageBridge.updateConsumeOffset(messageQueue, newOffset);
                 }
+                this.resolvedHalfBitmap.truncateBelow(messageQueue.getQueueId(), newOffset);
                 long newOpOffset = calculateOpOffset(doneOpOffset, opOffset);
                 if (newOpOffset != opOffset) {
                     transactionalMessageBridge.updateConsumeOffset(opQueue, newOpOffset);
                 }
             }
+            this.resolvedHalfBitmap.persist();
         } catch (Exception e) {
             e.printStackTrace();
             log.error("Check error", e);
@@ -262,13 +279,14 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
      * Read op message, parse op message, and fill removeMap
      *
      * @param removeMap Half message to be remove, key:halfOffset, value: opOffset.
+     * @param opRefCount How many half offsets of removeMap each op offset still carries.
      * @param opQueue Op message queue.
      * @param pullOffsetOfOp The begin offset of op message queue.
      * @param miniOffset The current minimum offset of half message queue.
      * @param doneOpOffset Stored op messages that have been processed.
      * @return Op message result.
      */
-    private PullResult fillOpRemoveMap(HashMap<Long, Long> removeMap,
+    private PullResult fillOpRemoveMap(HashMap<Long, Long> removeMap, HashMap<Long, Integer> opRefCount,
         MessageQueue opQueue, long pullOffsetOfOp, long miniOffset, List<Long> doneOpOffset) {
         PullResult pullResult = pullOpMsg(opQueue, pullOffsetOfOp, 32);
         if (null == pullResult) {
@@ -291,14 +309,26 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
             return pullResult;
         }
         for (MessageExt opMessageExt : opMsg) {
-            Long queueOffset = getLong(new String(opMessageExt.getBody(), TransactionalMessageUtil.charset));
+            String body = new String(opMessageExt.getBody(), TransactionalMessageUtil.charset);
             log.info("Topic: {} tags: {}, OpOffset: {}, HalfOffset: {}", opMessageExt.getTopic(),
-                opMessageExt.getTags(), opMessageExt.getQueueOffset(), queueOffset);
+                opMessageExt.getTags(), opMessageExt.getQueueOffset(), body);
             if (TransactionalMessageUtil.REMOVETAG.equals(opMessageExt.getTags())) {
-                if (queueOffset < miniOffset) {
+                // a packed op message is done only when all of its half offsets are
+                boolean done = true;
+                for (String offset : body.split(TransactionalMessageUtil.OFFSET_SEPARATOR)) {
+                    Long queueOffset = getLong(offset);
+                    if (queueOffset >= miniOffset) {
+                        Long replacedOpOffset = removeMap.put(queueOffset, opMessageExt.getQueueOffset());
+                        if (replacedOpOffset != null) {
+                            releaseOpOffset(opRefCount, replacedOpOffset);
+                        }
+                        Integer count = opRefCount.get(opMessageExt.getQueueOffset());
+                        opRefCount.put(opMessageExt.getQueueOffset(), count == null ? 1 : count + 1);
+                        done = false;
+                    }
+                }
+                if (done) {
                     doneOpOffset.add(opMessageExt.getQueueOffset());
-                } else {
-                    removeMap.put(queueOffset, opMessageExt.getQueueOffset());
                 }
             } else {
                 log.error("Found a illegal tag in opMessageExt= {} ", opMessageExt);
@@ -313,12 +343,15 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
      * If return true, skip this msg
      *
      * @param removeMap Op message map to determine whether a half message was responded by producer.
+     * @param opRefCount How many half offsets of removeMap each op offset still carries.
      * @param doneOpOffset Op Message which has been checked.
      * @param msgExt Half message
+     * @param queueId Half message queue id.
      * @return Return true if put success, otherwise return false.
      */
-    private boolean checkPrepareQueueOffset(HashMap<Long, Long> removeMap, List<Long> doneOpOffset,
-        MessageExt msgExt) {
+    private boolean checkPrepareQueueOffset(HashMap<Long, Long> removeMap, HashMap<Long, Integer> opRefCount,
+        List<Long> doneOpOffset,
+        MessageExt msgExt, int queueId) {
         String prepareQueueOffsetStr = msgExt.getUserProperty(MessageConst.PROPERTY_TRANSACTION_PREPARED_QUEUE_OFFSET);
         if (null == prepareQueueOffsetStr) {
             return putImmunityMsgBackToHalfQueue(msgExt);
@@ -327,9 +360,13 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
             if (-1 == prepareQueueOffset) {
                 return false;
             } else {
-                if (removeMap.containsKey(prepareQueueOffset)) {
+                if (this.resolvedHalfBitmap.isResolved(queueId, prepareQueueOffset)) {
+                    return true;
+                } else if (removeMap.containsKey(prepareQueueOffset)) {
                     long tmpOpOffset = removeMap.remove(prepareQueueOffset);
-                    doneOpOffset.add(tmpOpOffset);
+                    if (releaseOpOffset(opRefCount, tmpOpOffset)) {
+                        doneOpOffset.add(tmpOpOffset);
+                    }
                     return true;
                 } else {
                     return putImmunityMsgBackToHalfQueue(msgExt);
@@ -338,6 +375,19 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
         }
     }
 
+    /**
+     * @return true if no half offset of removeMap refers to the op offset any more
+     */
+    private boolean releaseOpOffset(HashMap<Long, Integer> opRefCount, long opOffset) {
+        Integer count = opRefCount.get(opOffset);
+        if (count == null || count <= 1) {
+            opRefCount.remove(opOffset);
+            return true;
+        }
+        opRefCount.put(opOffset, count - 1);
+        return false;
+    }
+
     /**
      * Write messageExt to Half topic again
      *
@@ -460,6 +510,7 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
     @Override
     public boolean deletePrepareMessage(MessageExt msgExt) {
         if (this.transactionalMessageBridge.putOpMessage(msgExt, TransactionalMessageUtil.REMOVETAG)) {
+            this.resolvedHalfBitmap.markResolved(msgExt.getQueueId(), msgExt.getQueueOffset());
             log.info("Transaction op message write successfully. messageId={}, queueId={} msgExt:{}", msgExt.getMsgId(), msgExt.getQueueId(), msgExt);
             return true;
         } else {
@@ -478,14 +529,29 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
         return getHalfMessageByOffset(requestHeader.getCommitLogOffset());
     }
 
+    @Override
+    public boolean deletePrepareMessages(List<MessageExt> msgExts) {
+        if (this.transactionalMessageBridge.putOpMessages(msgExts, TransactionalMessageUtil.REMOVETAG)) {
+            for (MessageExt msgExt : msgExts) {
+                this.resolvedHalfBitmap.markResolved(msgExt.getQueueId(), msgExt.getQueueOffset());
+            }
+            log.debug("Transaction op messages write OK, {} prepare messages", msgExts.size());
+            return true;
+        } else {
+            log.error("Transaction op messages write failed, {} prepare messages", msgExts.size());
+            return false;
+        }
+    }
+
     @Override
     public boolean open() {
+        this.resolvedHalfBitmap.load();
         return true;
     }
 
     @Override
     public void close() {
-
+        this.resolvedHalfBitmap.persist();
     }
 
 }
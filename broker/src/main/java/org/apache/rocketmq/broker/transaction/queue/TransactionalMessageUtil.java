@@ -22,6 +22,10 @@ import java.nio.charset.Charset;
 
 public class TransactionalMessageUtil {
     public static final String REMOVETAG = "d";
+    /**
+     * Separates the half offsets of a packed op message.
+     */
+    public static final String OFFSET_SEPARATOR = ",";
     public static Charset charset = Charset.forName("utf-8");
 
     public static String buildOpTopic() {
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.util;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Versions of the changes made to the entries of a config table, so that a reader which is in sync up to some version
+ * only asks for the entries changed since.
+ * <p>
+ * Every update or removal of a key takes the next version. The log lives in memory only, its epoch changes with
+ * every start of the broker and a reader holding another epoch has to take the whole table. Removals are kept up to
+ * {@link #MAX_REMOVED_KEYS}, a reader older than the oldest one kept has to take the whole table as well.
+ */
+public class ConfigChangeLog {
+    private static final int MAX_REMOVED_KEYS = 1024 * 64;
+
+    private final long epoch = System.currentTimeMillis();
+    private final ConcurrentMap<String, Long> changedVersionTable = new ConcurrentHashMap<String, Long>(1024);
+    private final ConcurrentSkipListMap<Long, String> removedKeys = new ConcurrentSkipListMap<Long, String>();
+    private long version = 0;
+    /**
+     * Changes up to this version are no longer fully known.
+     */
+    private volatile long minVersion = 0;
+
+    public synchronized long recordChange(final String key) {
+        this.changedVersionTable.put(key, ++this.version);
+        return this.version;
+    }
+
+    public synchronized long recordRemove(final String key) {
+        this.changedVersionTable.remove(key);
+        this.removedKeys.put(++this.version, key);
+        while (this.removedKeys.size() > MAX_REMOVED_KEYS) {
+            Map.Entry<Long, String> oldest = this.removedKeys.pollFirstEntry();
+            this.minVersion = oldest.getKey();
+        }
+        return this.version;
+    }
+
+    /**
+     * Every change up to the returned version is visible to {@link #changedSince} and {@link #removedSince}.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public boolean isDeltaAvailable(final long readerEpoch, final long sinceVersion) {
+        return readerEpoch == this.epoch && sinceVersion >= this.minVersion && sinceVersion <= this.getVersion();
+    }
+
+    /**
+     * @return the keys updated after the given version and still present, may include keys updated meanwhile
+     */
+    public Set<String> changedSince(final long sinceVersion) {
+        Set<String> keys = new HashSet<String>();
+        for (Map.Entry<String, Long> entry : this.changedVersionTable.entrySet()) {
+            if (entry.getValue() > sinceVersion) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the keys removed after the given version, a key created again afterwards is also in
+     * {@link #changedSince}
+     */
+    public Set<String> removedSince(final long sinceVersion) {
+        return new LinkedHashSet<String>(this.removedKeys.tailMap(sinceVersion, false).values());
+    }
+}
@@ -19,7 +19,10 @@ package org.apache.rocketmq.broker.latency;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.protocol.RequestCode;
 import org.apache.rocketmq.remoting.netty.RequestTask;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -62,4 +65,35 @@ public class BrokerFastFailureTest {
         assertThat(((FutureTaskExt) queue.peek()).getRunnable()).isEqualTo(requestTask);
     }
 
+    @Test
+    public void testCleanExpiredRequestInFairQueue() throws Exception {
+        BrokerFastFailure brokerFastFailure = new BrokerFastFailure(null);
+        WeightedFairQueue queue = new WeightedFairQueue(10, new BrokerConfig(), null);
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        queue.add(new FutureTaskExt<>(new RequestTask(runnable, null, sendRequest("a")), null));
+        RequestTask expiredRequest = new RequestTask(runnable, null, sendRequest("b"));
+        queue.add(new FutureTaskExt<>(expiredRequest, null));
+        TimeUnit.MILLISECONDS.sleep(100);
+        RequestTask requestTask = new RequestTask(runnable, null, sendRequest("a"));
+        queue.add(new FutureTaskExt<>(requestTask, null));
+        queue.poll();
+
+        // the head of the queue is the young request of group a, the expired one of group b is still found
+        brokerFastFailure.cleanExpiredRequestInQueue(queue, 100);
+        assertThat(expiredRequest.isStopRun()).isTrue();
+        assertThat(queue.size()).isEqualTo(1);
+        assertThat(((FutureTaskExt) queue.peek()).getRunnable()).isEqualTo(requestTask);
+    }
+
+    private static RemotingCommand sendRequest(final String group) {
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE_V2, null);
+        request.addExtField("a", group);
+        return request;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.latency;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrencyLimiterTest {
+    @Test
+    public void testRejectOverLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, 100);
+
+        AtomicInteger first = limiter.tryAcquire("group");
+        AtomicInteger second = limiter.tryAcquire("group");
+        assertThat(first).isNotNull();
+        assertThat(second).isNotNull();
+        assertThat(limiter.tryAcquire("group")).isNull();
+        assertThat(limiter.getRejected()).isEqualTo(1);
+
+        limiter.release("group", first, -1);
+        assertThat(limiter.getInflight()).isEqualTo(1);
+        assertThat(limiter.tryAcquire("group")).isNotNull();
+    }
+
+    @Test
+    public void testFairShare() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 10, 50);
+
+        assertThat(limiter.tryAcquire("aggressive")).isNotNull();
+        assertThat(limiter.tryAcquire("polite")).isNotNull();
+        assertThat(limiter.tryAcquire("aggressive")).isNotNull();
+        // half of the limit is in flight, two groups share it evenly
+        assertThat(limiter.tryAcquire("aggressive")).isNull();
+        assertThat(limiter.tryAcquire("polite")).isNotNull();
+        assertThat(limiter.getInflight()).isEqualTo(4);
+    }
+
+    @Test
+    public void testLimitFollowsLatency() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100, 10, 1000, 100);
+
+        for (int i = 0; i < 200; i++) {
+            limiter.onSample(1000000, 100);
+        }
+        int grown = limiter.getLimit();
+        assertThat(grown).isGreaterThan(100);
+
+        for (int i = 0; i < 200; i++) {
+            limiter.onSample(10000000, grown);
+        }
+        assertThat(limiter.getLimit()).isLessThan(grown);
+
+        // an idle broker keeps its limit
+        int limit = limiter.getLimit();
+        limiter.onSample(1000000, 1);
+        assertThat(limiter.getLimit()).isEqualTo(limit);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.latency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.remoting.netty.RequestTask;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WeightedFairQueueTest {
+    private final Runnable runnable = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Test
+    public void testLargeBatchesDoNotStarveSmallSends() {
+        WeightedFairQueue queue = new WeightedFairQueue(100, new BrokerConfig(), null);
+        for (int i = 0; i < 10; i++) {
+            assertThat(queue.offer(this.sendTask("batch", 64 * 1024))).isTrue();
+        }
+        List<Runnable> small = new ArrayList<Runnable>();
+        for (int i = 0; i < 3; i++) {
+            small.add(this.sendTask("small", 100));
+            assertThat(queue.offer(small.get(i))).isTrue();
+        }
+        assertThat(queue.size()).isEqualTo(13);
+
+        List<Runnable> served = new ArrayList<Runnable>();
+        for (int i = 0; i < 6; i++) {
+            served.add(queue.poll());
+        }
+        assertThat(served).containsAll(small);
+        assertThat(queue.size()).isEqualTo(7);
+    }
+
+    @Test
+    public void testWeights() {
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setFairQueueGroupWeights("gold:2, silver:1");
+        WeightedFairQueue queue = new WeightedFairQueue(1000, brokerConfig, null);
+        for (int i = 0; i < 300; i++) {
+            queue.offer(this.sendTask("gold", 0));
+            queue.offer(this.sendTask("silver", 0));
+        }
+
+        // two full rounds
+        int gold = 0;
+        for (int i = 0; i < 384; i++) {
+            Runnable task = queue.poll();
+            if ("gold".equals(BrokerFastFailure.castRunnable(task).getRequest().getExtFields().get("a"))) {
+                gold++;
+            }
+        }
+        assertThat(gold).isEqualTo(256);
+    }
+
+    @Test
+    public void testPeekRemoveAndCapacity() {
+        final List<String> waited = new ArrayList<String>();
+        WeightedFairQueue queue = new WeightedFairQueue(2, new BrokerConfig(), new WeightedFairQueue.QueueWaitListener() {
+            @Override
+            public void onDequeue(String group, long waitMillis) {
+                waited.add(group);
+            }
+        });
+        Runnable first = this.sendTask("a", 0);
+        Runnable second = this.sendTask("b", 0);
+        assertThat(queue.offer(first)).isTrue();
+        assertThat(queue.offer(second)).isTrue();
+        assertThat(queue.offer(this.sendTask("c", 0))).isFalse();
+        assertThat(queue.remainingCapacity()).isZero();
+
+        assertThat(queue.remove(first)).isTrue();
+        assertThat(queue.remove(first)).isFalse();
+        assertThat(queue.peek()).isSameAs(second);
+        assertThat(queue.poll()).isSameAs(second);
+        assertThat(queue.poll()).isNull();
+        assertThat(waited).containsExactly("b");
+    }
+
+    @Test
+    public void testExpireScansEveryGroup() throws Exception {
+        WeightedFairQueue queue = new WeightedFairQueue(10, new BrokerConfig(), null);
+        Runnable oldA = this.sendTask("a", 0);
+        Runnable oldB = this.sendTask("b", 0);
+        queue.offer(oldA);
+        queue.offer(oldB);
+        TimeUnit.MILLISECONDS.sleep(100);
+        Runnable newA = this.sendTask("a", 0);
+        queue.offer(newA);
+
+        // group a keeps its quantum, so the young request is served before the old one of group b
+        assertThat(queue.poll()).isSameAs(oldA);
+        assertThat(queue.peek()).isSameAs(newA);
+
+        assertThat(queue.removeOlderThan(100)).containsExactly(oldB);
+        assertThat(queue.removeOlderThan(100)).isEmpty();
+        assertThat(queue.size()).isEqualTo(1);
+        assertThat(queue.poll()).isSameAs(newA);
+    }
+
+    @Test
+    public void testPollOldest() throws Exception {
+        WeightedFairQueue queue = new WeightedFairQueue(10, new BrokerConfig(), null);
+        Runnable oldA = this.sendTask("a", 0);
+        Runnable oldB = this.sendTask("b", 0);
+        queue.offer(oldA);
+        queue.offer(oldB);
+        TimeUnit.MILLISECONDS.sleep(10);
+        Runnable newA = this.sendTask("a", 0);
+        queue.offer(newA);
+        assertThat(queue.poll()).isSameAs(oldA);
+
+        assertThat(queue.pollOldest()).isSameAs(oldB);
+        assertThat(queue.pollOldest()).isSameAs(newA);
+        assertThat(queue.pollOldest()).isNull();
+        assertThat(queue.size()).isZero();
+    }
+
+    private Runnable sendTask(final String group, final int bodySize) {
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE_V2, null);
+        request.addExtField("a", group);
+        request.setBody(new byte[bodySize]);
+        return new FutureTaskExt<Void>(new RequestTask(this.runnable, null, request), null);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.longpolling;
+
+import java.util.List;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ManyPullRequestTest {
+
+    private PullRequest buildPullRequest(long offset) {
+        return new PullRequest(null, null, 1000, System.currentTimeMillis(), offset, null, null);
+    }
+
+    @Test
+    public void testTakeBelow() {
+        ManyPullRequest mpr = new ManyPullRequest();
+        mpr.addPullRequest(buildPullRequest(10));
+        mpr.addPullRequest(buildPullRequest(10));
+        mpr.addPullRequest(buildPullRequest(12));
+        mpr.addPullRequest(buildPullRequest(20));
+        assertThat(mpr.size()).isEqualTo(4);
+
+        assertThat(mpr.takeBelow(10)).isNull();
+
+        List<PullRequest> taken = mpr.takeBelow(13);
+        assertThat(taken).hasSize(3);
+        assertThat(mpr.size()).isEqualTo(1);
+
+        taken = mpr.takeBelow(Long.MAX_VALUE);
+        assertThat(taken).hasSize(1);
+        assertThat(taken.get(0).getPullFromThisOffset()).isEqualTo(20);
+        assertThat(mpr.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testWokenUpRequestNotAdded() {
+        ManyPullRequest mpr = new ManyPullRequest();
+        PullRequest pullRequest = buildPullRequest(5);
+        assertThat(mpr.addPullRequest(pullRequest)).isTrue();
+        assertThat(pullRequest.markWokenUp()).isTrue();
+        assertThat(pullRequest.markWokenUp()).isFalse();
+        assertThat(mpr.removePullRequest(pullRequest)).isTrue();
+        assertThat(mpr.removePullRequest(pullRequest)).isFalse();
+
+        assertThat(mpr.addPullRequest(pullRequest)).isFalse();
+        assertThat(mpr.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.offset;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.rocketmq.common.UtilAll;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class ConsumerOffsetJournalTest {
+    private final String rootDir = System.getProperty("user.home") + File.separator + "unitteststore"
+        + File.separator + UUID.randomUUID().toString();
+    private final String snapshotPath = rootDir + File.separator + "consumerOffset.snapshot";
+    private final String journalPath = rootDir + File.separator + "consumerOffset.journal";
+
+    @After
+    public void destroy() {
+        UtilAll.deleteFile(new File(rootDir));
+    }
+
+    @Test
+    public void testLoadWithoutSnapshot() throws Exception {
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(snapshotPath, journalPath);
+        assertThat(journal.load(new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>())).isFalse();
+    }
+
+    @Test
+    public void testSnapshotAndReplay() throws Exception {
+        ConcurrentMap<String, ConcurrentMap<Integer, Long>> offsetTable = new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>();
+        offsetTable.put("TopicA@GroupA", offsets(0, 10L));
+        offsetTable.put("TopicB@GroupA", offsets(1, 20L));
+
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(snapshotPath, journalPath);
+        journal.snapshot(offsetTable);
+        journal.append("TopicA@GroupA", offsets(0, 11L));
+        journal.append("TopicB@GroupA", null);
+        journal.append("TopicC@GroupB", offsets(2, 30L));
+        journal.close();
+
+        ConcurrentMap<String, ConcurrentMap<Integer, Long>> loaded = new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>();
+        assertThat(new ConsumerOffsetJournal(snapshotPath, journalPath).load(loaded)).isTrue();
+        assertThat(loaded).hasSize(2);
+        assertThat(loaded.get("TopicA@GroupA").get(0)).isEqualTo(11L);
+        assertThat(loaded.get("TopicC@GroupB").get(2)).isEqualTo(30L);
+    }
+
+    @Test
+    public void testTornRecordIgnored() throws Exception {
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(snapshotPath, journalPath);
+        journal.snapshot(new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>());
+        journal.append("TopicA@GroupA", offsets(0, 10L));
+        journal.append("TopicA@GroupA", offsets(0, 12L));
+        journal.close();
+
+        RandomAccessFile file = new RandomAccessFile(journalPath, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        ConcurrentMap<String, ConcurrentMap<Integer, Long>> loaded = new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>();
+        assertThat(new ConsumerOffsetJournal(snapshotPath, journalPath).load(loaded)).isTrue();
+        assertThat(loaded.get("TopicA@GroupA").get(0)).isEqualTo(10L);
+    }
+
+    @Test
+    public void testStaleJournalIgnored() throws Exception {
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(snapshotPath, journalPath);
+        journal.snapshot(new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>());
+        journal.append("TopicA@GroupA", offsets(0, 10L));
+        journal.close();
+
+        // a newer snapshot whose journal was never started
+        File staleJournal = new File(journalPath + ".stale");
+        new File(journalPath).renameTo(staleJournal);
+        ConcurrentMap<String, ConcurrentMap<Integer, Long>> offsetTable = new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>();
+        offsetTable.put("TopicA@GroupA", offsets(0, 20L));
+        journal.snapshot(offsetTable);
+        journal.close();
+        new File(journalPath).delete();
+        staleJournal.renameTo(new File(journalPath));
+
+        ConcurrentMap<String, ConcurrentMap<Integer, Long>> loaded = new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>();
+        assertThat(new ConsumerOffsetJournal(snapshotPath, journalPath).load(loaded)).isTrue();
+        assertThat(loaded.get("TopicA@GroupA").get(0)).isEqualTo(20L);
+    }
+
+    @Test
+    public void testBrokenRecordSizeIgnored() throws Exception {
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(snapshotPath, journalPath);
+        journal.snapshot(new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>());
+        journal.append("TopicA@GroupA", offsets(0, 10L));
+        journal.close();
+
+        RandomAccessFile file = new RandomAccessFile(journalPath, "rw");
+        file.seek(file.length());
+        file.writeInt(Integer.MAX_VALUE);
+        file.writeInt(0);
+        file.close();
+
+        ConcurrentMap<String, ConcurrentMap<Integer, Long>> loaded = new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>();
+        assertThat(new ConsumerOffsetJournal(snapshotPath, journalPath).load(loaded)).isTrue();
+        assertThat(loaded.get("TopicA@GroupA").get(0)).isEqualTo(10L);
+    }
+
+    @Test
+    public void testBrokenSnapshotFailsLoad() throws Exception {
+        ConcurrentMap<String, ConcurrentMap<Integer, Long>> offsetTable = new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>();
+        offsetTable.put("TopicA@GroupA", offsets(0, 10L));
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(snapshotPath, journalPath);
+        journal.snapshot(offsetTable);
+        journal.close();
+
+        RandomAccessFile file = new RandomAccessFile(snapshotPath, "rw");
+        file.seek(file.length() - 1);
+        int last = file.readByte();
+        file.seek(file.length() - 1);
+        file.writeByte(last ^ 0xFF);
+        file.close();
+        assertLoadFails();
+
+        file = new RandomAccessFile(snapshotPath, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+        assertLoadFails();
+    }
+
+    @Test
+    public void testSnapshotReplaced() throws Exception {
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(snapshotPath, journalPath);
+        journal.snapshot(new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>());
+        ConcurrentMap<String, ConcurrentMap<Integer, Long>> offsetTable = new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>();
+        offsetTable.put("TopicA@GroupA", offsets(0, 20L));
+        journal.snapshot(offsetTable);
+        journal.close();
+
+        assertThat(new File(snapshotPath + ".tmp")).doesNotExist();
+        ConcurrentMap<String, ConcurrentMap<Integer, Long>> loaded = new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>();
+        assertThat(new ConsumerOffsetJournal(snapshotPath, journalPath).load(loaded)).isTrue();
+        assertThat(loaded.get("TopicA@GroupA").get(0)).isEqualTo(20L);
+    }
+
+    private void assertLoadFails() {
+        try {
+            new ConsumerOffsetJournal(snapshotPath, journalPath).load(new ConcurrentHashMap<String, ConcurrentMap<Integer, Long>>());
+            fail("a broken snapshot must fail the load");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static ConcurrentMap<Integer, Long> offsets(int queueId, long offset) {
+        ConcurrentMap<Integer, Long> offsets = new ConcurrentHashMap<Integer, Long>();
+        offsets.put(queueId, offset);
+        return offsets;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.offset;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConsumerOffsetTableTest {
+
+    @Test
+    public void testCommitAndQuery() {
+        ConsumerOffsetTable table = new ConsumerOffsetTable();
+        assertThat(table.commit("GroupA", "TopicA", 1, 10L)).isEqualTo(-1L);
+        assertThat(table.commit("GroupA", "TopicA", 1, 12L)).isEqualTo(10L);
+        table.commit("GroupA", "TopicA", 3, 30L);
+
+        assertThat(table.query("GroupA", "TopicA", 1)).isEqualTo(12L);
+        assertThat(table.query("GroupA", "TopicA", 0)).isEqualTo(-1L);
+        assertThat(table.query("GroupA", "TopicB", 1)).isEqualTo(-1L);
+        assertThat(table.queryOffsets("GroupA", "TopicA")).hasSize(2).containsEntry(3, 30L);
+        assertThat(table.queryOffsets("GroupB", "TopicA")).isNull();
+    }
+
+    @Test
+    public void testDrainDirty() {
+        ConsumerOffsetTable table = new ConsumerOffsetTable();
+        table.commit("GroupA", "TopicA", 0, 1L);
+        table.commit("GroupA", "TopicA", 1, 1L);
+        table.commit("GroupB", "TopicA", 0, 1L);
+        assertThat(table.drainDirty()).hasSize(2);
+        assertThat(table.drainDirty()).isEmpty();
+
+        table.commit("GroupA", "TopicA", 1, 2L);
+        Map<String, Map<Integer, Long>> changes = table.drainDirty();
+        assertThat(changes).hasSize(1);
+        assertThat(changes.get("TopicA@GroupA")).hasSize(1).containsEntry(1, 2L);
+
+        table.commit("GroupB", "TopicA", 0, 2L);
+        table.remove("GroupB", "TopicA");
+        assertThat(table.drainDirty()).isEmpty();
+        assertThat(table.query("GroupB", "TopicA", 0)).isEqualTo(-1L);
+    }
+
+    @Test
+    public void testGrowAcrossChunks() {
+        ConsumerOffsetTable table = new ConsumerOffsetTable();
+        for (int i = 0; i < 100000; i++) {
+            table.commit("Group" + (i % 100), "Topic" + (i / 100), i % 8, i);
+        }
+        assertThat(table.query("Group99", "Topic999", 99999 % 8)).isEqualTo(99999L);
+        assertThat(table.drainDirty()).hasSize(100000);
+    }
+
+    @Test
+    public void testToMapAndLoad() {
+        ConsumerOffsetTable table = new ConsumerOffsetTable();
+        table.commit("GroupA", "TopicA", 0, 5L);
+        table.commit("GroupB", "TopicB", 2, 7L);
+
+        ConcurrentMap<String, ConcurrentMap<Integer, Long>> map = table.toMap();
+        assertThat(map).hasSize(2);
+        assertThat(map.get("TopicB@GroupB")).containsEntry(2, 7L);
+
+        ConsumerOffsetTable loaded = new ConsumerOffsetTable();
+        loaded.load(map);
+        assertThat(loaded.query("GroupA", "TopicA", 0)).isEqualTo(5L);
+        assertThat(loaded.query("GroupB", "TopicB", 2)).isEqualTo(7L);
+    }
+
+    @Test
+    public void testReuseSlotsOfRemovedRows() {
+        ConsumerOffsetTable table = new ConsumerOffsetTable(0);
+        for (int queueId = 0; queueId < 4; queueId++) {
+            table.commit("GroupA", "TopicA", queueId, 10L);
+        }
+        assertThat(table.remove("GroupA", "TopicA")).isTrue();
+        assertThat(table.getFreedSlotCount()).isEqualTo(4);
+
+        for (int queueId = 0; queueId < 3; queueId++) {
+            table.commit("GroupB", "TopicB", queueId, 20L + queueId);
+        }
+        assertThat(table.getSlotCount()).isEqualTo(4);
+        assertThat(table.getFreedSlotCount()).isEqualTo(1);
+        assertThat(table.query("GroupA", "TopicA", 0)).isEqualTo(-1L);
+        assertThat(table.queryOffsets("GroupB", "TopicB")).hasSize(3).containsEntry(2, 22L);
+
+        Map<String, Map<Integer, Long>> changes = table.drainDirty();
+        assertThat(changes).hasSize(1);
+        assertThat(changes.get("TopicB@GroupB")).hasSize(3);
+        assertThat(table.changedSince(0)).containsOnlyKeys("TopicB@GroupB");
+    }
+
+    @Test
+    public void testKeepSlotsOfRemovedRowsWithinDelay() {
+        ConsumerOffsetTable table = new ConsumerOffsetTable();
+        table.commit("GroupA", "TopicA", 0, 10L);
+        table.remove("GroupA", "TopicA");
+        table.commit("GroupB", "TopicA", 0, 20L);
+
+        assertThat(table.getSlotCount()).isEqualTo(2);
+        assertThat(table.getFreedSlotCount()).isEqualTo(1);
+        assertThat(table.query("GroupB", "TopicA", 0)).isEqualTo(20L);
+    }
+
+    @Test
+    public void testChangedSinceSkipsUnchangedChunks() {
+        ConsumerOffsetTable table = new ConsumerOffsetTable();
+        for (int i = 0; i < 10000; i++) {
+            table.commit("Group" + (i % 10), "Topic" + (i / 10), i % 4, i);
+        }
+        long version = table.nextChangeVersion();
+        assertThat(table.changedSince(version + 1)).isEmpty();
+
+        table.commit("Group9", "Topic999", 9999 % 4, 10000L);
+        table.commit("Group0", "Topic0", 0, 10001L);
+        table.nextChangeVersion();
+        Map<String, Map<Integer, Long>> changes = table.changedSince(version + 1);
+        assertThat(changes).hasSize(2);
+        assertThat(changes.get("Topic999@Group9")).containsEntry(9999 % 4, 10000L);
+        assertThat(changes.get("Topic0@Group0")).containsEntry(0, 10001L);
+        assertThat(table.changedSince(0)).hasSize(10000);
+    }
+}
@@ -17,6 +17,7 @@
 package org.apache.rocketmq.broker.processor;
 
 import io.netty.channel.ChannelHandlerContext;
+import java.util.List;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.broker.transaction.OperationResult;
 import org.apache.rocketmq.broker.transaction.TransactionalMessageService;
@@ -26,6 +27,7 @@ import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.protocol.RequestCode;
 import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.protocol.body.EndTransactionBatchRequestBody;
 import org.apache.rocketmq.common.protocol.header.EndTransactionRequestHeader;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
@@ -42,12 +44,17 @@ import org.apache.rocketmq.store.config.MessageStoreConfig;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -119,6 +126,76 @@ public class EndTransactionProcessorTest {
         assertThat(response.getCode()).isEqualTo(ResponseCode.SUCCESS);
     }
 
+    @Test
+    public void testProcessBatchRequest() throws RemotingCommandException {
+        when(transactionMsgService.commitMessage(any(EndTransactionRequestHeader.class))).thenReturn(createResponse(ResponseCode.SUCCESS));
+        when(transactionMsgService.rollbackMessage(any(EndTransactionRequestHeader.class))).thenReturn(createResponse(ResponseCode.SUCCESS));
+        when(transactionMsgService.deletePrepareMessages(anyList())).thenReturn(true);
+        when(messageStore.putMessage(any(MessageExtBrokerInner.class))).thenReturn(new PutMessageResult
+            (PutMessageStatus.PUT_OK, new AppendMessageResult(AppendMessageStatus.PUT_OK)));
+        RemotingCommand request = createEndTransactionBatchCommand(
+            createEndTransactionRequestHeader(MessageSysFlag.TRANSACTION_COMMIT_TYPE, false),
+            createEndTransactionRequestHeader(MessageSysFlag.TRANSACTION_NOT_TYPE, false),
+            createEndTransactionRequestHeader(MessageSysFlag.TRANSACTION_ROLLBACK_TYPE, true));
+        RemotingCommand response = endTransactionProcessor.processRequest(handlerContext, request);
+        assertThat(response.getCode()).isEqualTo(ResponseCode.SUCCESS);
+
+        ArgumentCaptor<List> resolved = ArgumentCaptor.forClass(List.class);
+        verify(transactionMsgService).deletePrepareMessages(resolved.capture());
+        assertThat(resolved.getValue()).hasSize(2);
+    }
+
+    @Test
+    public void testProcessBatchRequest_OpWriteFailed() throws RemotingCommandException {
+        when(transactionMsgService.rollbackMessage(any(EndTransactionRequestHeader.class))).thenReturn(createResponse(ResponseCode.SUCCESS));
+        when(transactionMsgService.deletePrepareMessages(anyList())).thenReturn(false);
+        RemotingCommand request = createEndTransactionBatchCommand(
+            createEndTransactionRequestHeader(MessageSysFlag.TRANSACTION_ROLLBACK_TYPE, false));
+        RemotingCommand response = endTransactionProcessor.processRequest(handlerContext, request);
+        assertThat(response.getCode()).isEqualTo(ResponseCode.SYSTEM_ERROR);
+    }
+
+    @Test
+    public void testProcessBatchRequest_BadHeaderInTheMiddle() {
+        EndTransactionRequestHeader badHeader = createEndTransactionRequestHeader(MessageSysFlag.TRANSACTION_COMMIT_TYPE, false);
+        badHeader.setCommitLogOffset(null);
+        RemotingCommand request = createEndTransactionBatchCommand(
+            createEndTransactionRequestHeader(MessageSysFlag.TRANSACTION_COMMIT_TYPE, false),
+            badHeader,
+            createEndTransactionRequestHeader(MessageSysFlag.TRANSACTION_ROLLBACK_TYPE, false));
+        try {
+            endTransactionProcessor.processRequest(handlerContext, request);
+            fail("a batch with a bad header must be rejected");
+        } catch (RemotingCommandException e) {
+            // expected
+        }
+
+        // nothing of the batch was ended, so there is no op record to write either
+        verify(transactionMsgService, never()).commitMessage(any(EndTransactionRequestHeader.class));
+        verify(transactionMsgService, never()).rollbackMessage(any(EndTransactionRequestHeader.class));
+        verify(transactionMsgService, never()).deletePrepareMessages(anyList());
+        verify(messageStore, never()).putMessage(any(MessageExtBrokerInner.class));
+    }
+
+    @Test
+    public void testProcessBatchRequest_WriteOpsOfEndedTransactionsOnException() {
+        when(transactionMsgService.rollbackMessage(any(EndTransactionRequestHeader.class))).thenReturn(createResponse(ResponseCode.SUCCESS));
+        when(transactionMsgService.commitMessage(any(EndTransactionRequestHeader.class))).thenThrow(new IllegalStateException("store down"));
+        RemotingCommand request = createEndTransactionBatchCommand(
+            createEndTransactionRequestHeader(MessageSysFlag.TRANSACTION_ROLLBACK_TYPE, false),
+            createEndTransactionRequestHeader(MessageSysFlag.TRANSACTION_COMMIT_TYPE, false));
+        try {
+            endTransactionProcessor.processRequest(handlerContext, request);
+            fail("the exception of the commit must be thrown");
+        } catch (Exception e) {
+            assertThat(e).isInstanceOf(IllegalStateException.class);
+        }
+
+        ArgumentCaptor<List> resolved = ArgumentCaptor.forClass(List.class);
+        verify(transactionMsgService).deletePrepareMessages(resolved.capture());
+        assertThat(resolved.getValue()).hasSize(1);
+    }
+
     private MessageExt createDefaultMessageExt() {
         MessageExt messageExt = new MessageExt();
         messageExt.setMsgId("12345678");
@@ -143,6 +220,16 @@ public class EndTransactionProcessorTest {
         return header;
     }
 
+    private RemotingCommand createEndTransactionBatchCommand(EndTransactionRequestHeader... headers) {
+        EndTransactionBatchRequestBody requestBody = new EndTransactionBatchRequestBody();
+        for (EndTransactionRequestHeader header : headers) {
+            requestBody.getRequestHeaders().add(header);
+        }
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.END_TRANSACTION_BATCH, null);
+        request.setBody(requestBody.encode());
+        return request;
+    }
+
     private RemotingCommand createEndTransactionMsgCommand(int status, boolean isCheckMsg) {
         EndTransactionRequestHeader header = createEndTransactionRequestHeader(status, isCheckMsg);
         RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.END_TRANSACTION, header);
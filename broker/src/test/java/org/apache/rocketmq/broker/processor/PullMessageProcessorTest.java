@@ -17,17 +17,28 @@
 package org.apache.rocketmq.broker.processor;
 
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.ssl.SslHandler;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.broker.client.ClientChannelInfo;
 import org.apache.rocketmq.broker.filter.ExpressionMessageFilter;
+import org.apache.rocketmq.broker.longpolling.PullRequest;
 import org.apache.rocketmq.broker.mqtrace.ConsumeMessageContext;
 import org.apache.rocketmq.broker.mqtrace.ConsumeMessageHook;
+import org.apache.rocketmq.broker.pagecache.ManyMessageTransfer;
 import org.apache.rocketmq.common.BrokerConfig;
 import org.apache.rocketmq.common.TopicConfig;
 import org.apache.rocketmq.common.consumer.ConsumeFromWhere;
@@ -45,20 +56,29 @@ import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.store.GetMessageResult;
 import org.apache.rocketmq.store.GetMessageStatus;
 import org.apache.rocketmq.store.MessageStore;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
 import org.apache.rocketmq.store.config.MessageStoreConfig;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -192,6 +212,106 @@ public class PullMessageProcessorTest {
         assertThat(response.getCode()).isEqualTo(ResponseCode.PULL_OFFSET_MOVED);
     }
 
+    @Test
+    public void testExecuteRequestsWhenWakeup_SharedReadWithFailingRequest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        doReturn(executor).when(brokerController).getPullMessageExecutor();
+        GetMessageResult getMessageResult = spy(createGetMessageResult());
+        when(messageStore.getMessage(anyString(), anyString(), anyInt(), anyLong(), anyInt(), any(ExpressionMessageFilter.class))).thenReturn(getMessageResult);
+
+        final CountDownLatch answered = new CountDownLatch(3);
+        final List<RemotingCommand> responses = Collections.synchronizedList(new ArrayList<RemotingCommand>());
+        SubscriptionData subscriptionData = new SubscriptionData(topic, "*");
+        List<PullRequest> pullRequests = new ArrayList<PullRequest>();
+        for (int i = 0; i < 4; i++) {
+            RemotingCommand request = createPullMsgCommand(RequestCode.PULL_MESSAGE);
+            Channel channel = mock(Channel.class);
+            if (i == 1) {
+                // fails to decode, before reaching the store
+                request.getExtFields().remove("topic");
+            } else {
+                when(channel.writeAndFlush(any())).thenAnswer(new Answer<ChannelFuture>() {
+                    @Override
+                    public ChannelFuture answer(InvocationOnMock invocation) {
+                        responses.add((RemotingCommand) invocation.getArgument(0));
+                        answered.countDown();
+                        return mock(ChannelFuture.class);
+                    }
+                });
+            }
+            pullRequests.add(new PullRequest(request, channel, 15000, System.currentTimeMillis(), 456L, subscriptionData, null));
+        }
+
+        try {
+            pullMessageProcessor.executeRequestsWhenWakeup(pullRequests);
+            assertThat(answered.await(3, TimeUnit.SECONDS)).isTrue();
+            for (RemotingCommand response : responses) {
+                assertThat(response.getCode()).isEqualTo(ResponseCode.SUCCESS);
+            }
+            verify(messageStore, times(1)).getMessage(anyString(), anyString(), anyInt(), anyLong(), anyInt(), any(ExpressionMessageFilter.class));
+            verify(getMessageResult, timeout(3000).times(1)).release();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTransferChoice_Adaptive() throws RemotingCommandException {
+        brokerController.getBrokerConfig().setTransferMsgAdaptive(true);
+        brokerController.getBrokerConfig().setTransferMsgByHeapMaxBytes(400);
+        brokerController.getBrokerConfig().setTransferMsgByHeapMaxCount(4);
+
+        // at both limits
+        assertThat(pullAndGetTransfer(createGetMessageResult(4, 100, false), false)).isEqualTo("heap");
+        // over the count limit
+        assertThat(pullAndGetTransfer(createGetMessageResult(5, 64, false), false)).isEqualTo("zeroCopy");
+        // over the bytes limit
+        assertThat(pullAndGetTransfer(createGetMessageResult(3, 200, false), false)).isEqualTo("zeroCopy");
+        // no longer in memory
+        assertThat(pullAndGetTransfer(createGetMessageResult(2, 100, true), false)).isEqualTo("zeroCopy");
+        assertThat(pullAndGetTransfer(createGetMessageResult(5, 64, false), true)).isEqualTo("composite");
+    }
+
+    @Test
+    public void testTransferChoice_Fixed() throws RemotingCommandException {
+        brokerController.getBrokerConfig().setTransferMsgAdaptive(false);
+        brokerController.getBrokerConfig().setTransferMsgByHeap(false);
+        assertThat(pullAndGetTransfer(createGetMessageResult(1, 100, false), false)).isEqualTo("zeroCopy");
+
+        brokerController.getBrokerConfig().setTransferMsgByHeap(true);
+        assertThat(pullAndGetTransfer(createGetMessageResult(64, 1024, true), false)).isEqualTo("heap");
+    }
+
+    /**
+     * @return heap, zeroCopy or composite, the path the response took
+     */
+    private String pullAndGetTransfer(final GetMessageResult getMessageResult, final boolean tls) throws RemotingCommandException {
+        when(messageStore.getMessage(anyString(), anyString(), anyInt(), anyLong(), anyInt(), any(ExpressionMessageFilter.class))).thenReturn(getMessageResult);
+        final String[] transfer = new String[1];
+        Channel channel = mock(Channel.class);
+        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        when(ctx.channel()).thenReturn(channel);
+        // the heap path touches neither the pipeline nor the channel
+        ChannelPipeline pipeline = mock(ChannelPipeline.class);
+        lenient().when(pipeline.get(SslHandler.class)).thenReturn(tls ? mock(SslHandler.class) : null);
+        lenient().when(channel.pipeline()).thenReturn(pipeline);
+        lenient().when(channel.writeAndFlush(any())).thenAnswer(new Answer<ChannelFuture>() {
+            @Override
+            public ChannelFuture answer(InvocationOnMock invocation) {
+                transfer[0] = invocation.getArgument(0) instanceof ManyMessageTransfer ? "zeroCopy" : "composite";
+                return mock(ChannelFuture.class);
+            }
+        });
+
+        RemotingCommand response = pullMessageProcessor.processRequest(ctx, createPullMsgCommand(RequestCode.PULL_MESSAGE));
+        if (response != null) {
+            assertThat(response.getCode()).isEqualTo(ResponseCode.SUCCESS);
+            assertThat(response.getBody()).hasSize(getMessageResult.getBufferTotalSize());
+            return "heap";
+        }
+        return transfer[0];
+    }
+
     private RemotingCommand createPullMsgCommand(int requestCode) {
         PullMessageRequestHeader requestHeader = new PullMessageRequestHeader();
         requestHeader.setCommitOffset(123L);
@@ -224,6 +344,15 @@ public class PullMessageProcessorTest {
         return consumerData;
     }
 
+    private GetMessageResult createGetMessageResult(int messageCount, int messageSize, boolean suggestPullingFromSlave) {
+        GetMessageResult getMessageResult = createGetMessageResult();
+        for (int i = 0; i < messageCount; i++) {
+            getMessageResult.addMessage(new SelectMappedBufferResult(i * messageSize, ByteBuffer.allocate(messageSize), messageSize, null));
+        }
+        getMessageResult.setSuggestPullingFromSlave(suggestPullingFromSlave);
+        return getMessageResult;
+    }
+
     private GetMessageResult createGetMessageResult() {
         GetMessageResult getMessageResult = new GetMessageResult();
         getMessageResult.setStatus(GetMessageStatus.FOUND);
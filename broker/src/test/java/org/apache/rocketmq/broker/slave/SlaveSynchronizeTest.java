@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.slave;
+
+import org.apache.rocketmq.broker.BrokerController;
+import org.apache.rocketmq.broker.out.BrokerOuterAPI;
+import org.apache.rocketmq.client.exception.MQBrokerException;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.protocol.body.TopicConfigDeltaBody;
+import org.apache.rocketmq.remoting.exception.RemotingTimeoutException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SlaveSynchronizeTest {
+    private static final String MASTER_ADDR = "127.0.0.1:10911";
+
+    @Mock
+    private BrokerController brokerController;
+    @Mock
+    private BrokerOuterAPI brokerOuterAPI;
+
+    private SlaveSynchronize slaveSynchronize;
+
+    @Before
+    public void init() {
+        when(brokerController.getBrokerAddr()).thenReturn("127.0.0.1:10921");
+        when(brokerController.getBrokerOuterAPI()).thenReturn(brokerOuterAPI);
+        slaveSynchronize = new SlaveSynchronize(brokerController);
+        slaveSynchronize.setMasterAddr(MASTER_ADDR);
+    }
+
+    @Test
+    public void testRetryDeltaAfterTimeout() throws Exception {
+        when(brokerOuterAPI.getTopicConfigDelta(anyString(), anyLong(), anyLong()))
+            .thenThrow(new RemotingTimeoutException(MASTER_ADDR, 3000))
+            .thenReturn(new TopicConfigDeltaBody());
+
+        slaveSynchronize.syncAll();
+        slaveSynchronize.syncAll();
+
+        verify(brokerOuterAPI, times(2)).getTopicConfigDelta(anyString(), anyLong(), anyLong());
+        verify(brokerOuterAPI, never()).getAllTopicConfig(anyString());
+    }
+
+    @Test
+    public void testFallBackToFullSyncOnlyWhenDeltaNotSupported() throws Exception {
+        when(brokerOuterAPI.getTopicConfigDelta(anyString(), anyLong(), anyLong()))
+            .thenThrow(new MQBrokerException(ResponseCode.SYSTEM_BUSY, "busy"))
+            .thenThrow(new MQBrokerException(ResponseCode.REQUEST_CODE_NOT_SUPPORTED, "not supported"));
+
+        slaveSynchronize.syncAll();
+        verify(brokerOuterAPI, never()).getAllTopicConfig(anyString());
+
+        slaveSynchronize.syncAll();
+        slaveSynchronize.syncAll();
+        verify(brokerOuterAPI, times(2)).getTopicConfigDelta(anyString(), anyLong(), anyLong());
+        verify(brokerOuterAPI, times(2)).getAllTopicConfig(anyString());
+
+        // a new master is asked for deltas again
+        slaveSynchronize.setMasterAddr("127.0.0.1:10811");
+        slaveSynchronize.syncAll();
+        verify(brokerOuterAPI, times(3)).getTopicConfigDelta(anyString(), anyLong(), anyLong());
+    }
+}
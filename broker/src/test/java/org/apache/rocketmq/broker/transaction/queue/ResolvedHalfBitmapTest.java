@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.transaction.queue;
+
+import java.io.File;
+import java.util.UUID;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.store.MessageStore;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ResolvedHalfBitmapTest {
+    private final String filePath = System.getProperty("user.home") + File.separator + "unitteststore"
+        + File.separator + UUID.randomUUID().toString() + File.separator + "transactionResolvedBitmap";
+
+    @After
+    public void destroy() {
+        UtilAll.deleteFile(new File(filePath).getParentFile());
+    }
+
+    @Test
+    public void testMarkResolved() {
+        ResolvedHalfBitmap bitmap = new ResolvedHalfBitmap(null);
+        bitmap.markResolved(0, 3);
+        bitmap.markResolved(0, 70000);
+        bitmap.markResolved(1, 5);
+
+        assertThat(bitmap.isResolved(0, 3)).isTrue();
+        assertThat(bitmap.isResolved(0, 4)).isFalse();
+        assertThat(bitmap.isResolved(0, 70000)).isTrue();
+        assertThat(bitmap.isResolved(1, 3)).isFalse();
+        assertThat(bitmap.isResolved(1, 5)).isTrue();
+        assertThat(bitmap.isResolved(2, 5)).isFalse();
+    }
+
+    @Test
+    public void testTruncateBelow() {
+        ResolvedHalfBitmap bitmap = new ResolvedHalfBitmap(null);
+        bitmap.markResolved(0, 3);
+        bitmap.markResolved(0, 70000);
+
+        bitmap.truncateBelow(0, 70000);
+        assertThat(bitmap.isResolved(0, 3)).isFalse();
+        assertThat(bitmap.isResolved(0, 70000)).isTrue();
+    }
+
+    @Test
+    public void testPersistAndLoad() {
+        ResolvedHalfBitmap bitmap = new ResolvedHalfBitmap(filePath);
+        bitmap.markResolved(0, 3);
+        bitmap.markResolved(2, 70000);
+        bitmap.persist();
+
+        ResolvedHalfBitmap loaded = new ResolvedHalfBitmap(filePath);
+        loaded.load();
+        assertThat(loaded.isResolved(0, 3)).isTrue();
+        assertThat(loaded.isResolved(2, 70000)).isTrue();
+        assertThat(loaded.isResolved(0, 4)).isFalse();
+        assertThat(new File(filePath + ".tmp")).doesNotExist();
+    }
+
+    @Test
+    public void testLoadDropsQueuesWhoseOffsetsNoLongerMatch() {
+        MessageStore store = mock(MessageStore.class);
+        String halfTopic = TransactionalMessageUtil.buildHalfTopic();
+        when(store.getMinOffsetInQueue(halfTopic, 0)).thenReturn(0L);
+        when(store.getMaxOffsetInQueue(halfTopic, 0)).thenReturn(100L);
+        when(store.getMinOffsetInQueue(halfTopic, 1)).thenReturn(0L);
+        when(store.getMaxOffsetInQueue(halfTopic, 1)).thenReturn(100L);
+        when(store.getMinOffsetInQueue(halfTopic, 2)).thenReturn(0L);
+        when(store.getMaxOffsetInQueue(halfTopic, 2)).thenReturn(100L);
+
+        ResolvedHalfBitmap bitmap = new ResolvedHalfBitmap(filePath, store);
+        bitmap.markResolved(0, 3);
+        bitmap.markResolved(1, 3);
+        bitmap.markResolved(2, 3);
+        bitmap.persist();
+
+        // queue 0 got new messages, queue 1 lost its tail, queue 2 was recreated
+        when(store.getMaxOffsetInQueue(halfTopic, 0)).thenReturn(120L);
+        when(store.getMaxOffsetInQueue(halfTopic, 1)).thenReturn(50L);
+        when(store.getMinOffsetInQueue(halfTopic, 2)).thenReturn(10L);
+
+        ResolvedHalfBitmap loaded = new ResolvedHalfBitmap(filePath, store);
+        loaded.load();
+        assertThat(loaded.isResolved(0, 3)).isTrue();
+        assertThat(loaded.isResolved(1, 3)).isFalse();
+        assertThat(loaded.isResolved(2, 3)).isFalse();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.util;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConfigChangeLogTest {
+
+    @Test
+    public void testChangedSince() {
+        ConfigChangeLog changeLog = new ConfigChangeLog();
+        changeLog.recordChange("a");
+        long version = changeLog.recordChange("b");
+        changeLog.recordChange("c");
+        changeLog.recordChange("a");
+
+        assertThat(changeLog.isDeltaAvailable(changeLog.getEpoch(), version)).isTrue();
+        assertThat(changeLog.changedSince(version)).containsOnly("a", "c");
+        assertThat(changeLog.changedSince(changeLog.getVersion())).isEmpty();
+        assertThat(changeLog.changedSince(0)).containsOnly("a", "b", "c");
+    }
+
+    @Test
+    public void testRemovedSince() {
+        ConfigChangeLog changeLog = new ConfigChangeLog();
+        changeLog.recordChange("a");
+        long version = changeLog.recordChange("b");
+        changeLog.recordRemove("a");
+        changeLog.recordRemove("b");
+        changeLog.recordChange("b");
+
+        assertThat(changeLog.removedSince(version)).containsOnly("a", "b");
+        assertThat(changeLog.changedSince(version)).containsOnly("b");
+        assertThat(changeLog.removedSince(changeLog.getVersion())).isEmpty();
+    }
+
+    @Test
+    public void testDeltaNotAvailable() {
+        ConfigChangeLog changeLog = new ConfigChangeLog();
+        changeLog.recordChange("a");
+
+        assertThat(changeLog.isDeltaAvailable(changeLog.getEpoch() - 1, 0)).isFalse();
+        assertThat(changeLog.isDeltaAvailable(changeLog.getEpoch(), changeLog.getVersion() + 1)).isFalse();
+        assertThat(changeLog.isDeltaAvailable(changeLog.getEpoch(), 0)).isTrue();
+    }
+}
@@ -57,6 +57,12 @@ public class ClientConfig {
 
     private boolean useTLS = TlsSystemConfig.tlsEnable;
 
+    /**
+     * Let pipelined requests to the same broker, such as async sends, leave in one socket write instead of one
+     * each. Shared by all clients of the same instance, like useTLS.
+     */
+    private boolean requestCoalesceEnable = false;
+
     private LanguageCode language = LanguageCode.JAVA;
 
     public String buildMQClientId() {
@@ -139,6 +145,7 @@ public class ClientConfig {
         this.unitName = cc.unitName;
         this.vipChannelEnabled = cc.vipChannelEnabled;
         this.useTLS = cc.useTLS;
+        this.requestCoalesceEnable = cc.requestCoalesceEnable;
         this.namespace = cc.namespace;
         this.language = cc.language;
     }
@@ -156,6 +163,7 @@ public class ClientConfig {
         cc.unitName = unitName;
         cc.vipChannelEnabled = vipChannelEnabled;
         cc.useTLS = useTLS;
+        cc.requestCoalesceEnable = requestCoalesceEnable;
         cc.namespace = namespace;
         cc.language = language;
         return cc;
@@ -240,6 +248,14 @@ public class ClientConfig {
         this.useTLS = useTLS;
     }
 
+    public boolean isRequestCoalesceEnable() {
+        return requestCoalesceEnable;
+    }
+
+    public void setRequestCoalesceEnable(boolean requestCoalesceEnable) {
+        this.requestCoalesceEnable = requestCoalesceEnable;
+    }
+
     public LanguageCode getLanguage() {
         return language;
     }
@@ -279,6 +295,6 @@ public class ClientConfig {
             + ", clientCallbackExecutorThreads=" + clientCallbackExecutorThreads + ", pollNameServerInterval=" + pollNameServerInterval
             + ", heartbeatBrokerInterval=" + heartbeatBrokerInterval + ", persistConsumerOffsetInterval="
             + persistConsumerOffsetInterval + ", unitMode=" + unitMode + ", unitName=" + unitName + ", vipChannelEnabled="
-            + vipChannelEnabled + ", useTLS=" + useTLS + ", language=" + language.name() + ", namespace=" + namespace + "]";
+            + vipChannelEnabled + ", useTLS=" + useTLS + ", requestCoalesceEnable=" + requestCoalesceEnable + ", language=" + language.name() + ", namespace=" + namespace + "]";
     }
 }
@@ -61,7 +61,10 @@ import org.apache.rocketmq.client.producer.TransactionMQProducer;
 import org.apache.rocketmq.client.producer.TransactionSendResult;
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.ServiceState;
-import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.Compressor;
+import org.apache.rocketmq.common.compression.CompressorFactory;
+import org.apache.rocketmq.common.compression.ZlibCompressor;
 import org.apache.rocketmq.common.help.FAQUrl;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.common.message.MessageAccessor;
@@ -101,12 +104,14 @@ public class DefaultMQProducerImpl implements MQProducerInner {
     private MQClientInstance mQClientFactory;
     private ArrayList<CheckForbiddenHook> checkForbiddenHookList = new ArrayList<CheckForbiddenHook>();
     private int zipCompressLevel = Integer.parseInt(System.getProperty(MixAll.MESSAGE_COMPRESS_LEVEL, "5"));
+    private volatile ZlibCompressor dictionaryCompressor;
 
     private MQFaultStrategy mqFaultStrategy = new MQFaultStrategy();
 
     private final BlockingQueue<Runnable> asyncSenderThreadPoolQueue;
     private final ExecutorService defaultAsyncSenderExecutor;
     private ExecutorService asyncSenderExecutor;
+    private ProduceAccumulator produceAccumulator;
 
     public DefaultMQProducerImpl(final DefaultMQProducer defaultMQProducer) {
         this(defaultMQProducer, null);
@@ -192,6 +197,11 @@ public class DefaultMQProducerImpl implements MQProducerInner {
 
                 this.topicPublishInfoTable.put(this.defaultMQProducer.getCreateTopicKey(), new TopicPublishInfo());
 
+                if (this.defaultMQProducer.isAutoBatch()) {
+                    this.produceAccumulator = new ProduceAccumulator(this);
+                    this.produceAccumulator.start();
+                }
+
                 if (startFactory) {
                     mQClientFactory.start();
                 }
@@ -236,6 +246,10 @@ public class DefaultMQProducerImpl implements MQProducerInner {
             case CREATE_JUST:
                 break;
             case RUNNING:
+                // sends the last batches and waits for them before the executor and the client go away
+                if (this.produceAccumulator != null) {
+                    this.produceAccumulator.shutdown();
+                }
                 this.mQClientFactory.unregisterProducer(this.defaultMQProducer.getProducerGroup());
                 this.defaultAsyncSenderExecutor.shutdown();
                 if (shutdownFactory) {
@@ -479,6 +493,13 @@ public class DefaultMQProducerImpl implements MQProducerInner {
     @Deprecated
     public void send(final Message msg, final SendCallback sendCallback, final long timeout)
         throws MQClientException, RemotingException, InterruptedException {
+        if (this.produceAccumulator != null && ProduceAccumulator.isBatchable(msg)) {
+            this.makeSureStateOK();
+            Validators.checkMessage(msg, this.defaultMQProducer);
+            this.produceAccumulator.append(msg, sendCallback, timeout);
+            return;
+        }
+
         final long beginStartTime = System.currentTimeMillis();
         ExecutorService executor = this.getAsyncSenderExecutor();
         try {
@@ -506,6 +527,14 @@ public class DefaultMQProducerImpl implements MQProducerInner {
     }
 
 
+    /**
+     * Sends a batch built by the {@link ProduceAccumulator}, the callback fans the result out to its messages.
+     */
+    void sendAccumulatedBatch(final MessageBatch batch, final SendCallback sendCallback, final long timeout)
+        throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        this.sendDefaultImpl(batch, CommunicationMode.ASYNC, sendCallback, timeout);
+    }
+
     public MessageQueue selectOneMessageQueue(final TopicPublishInfo tpInfo, final String lastBrokerName) {
         return this.mqFaultStrategy.selectOneMessageQueue(tpInfo, lastBrokerName);
     }
@@ -714,6 +743,7 @@ public class DefaultMQProducerImpl implements MQProducerInner {
                 boolean msgBodyCompressed = false;
                 if (this.tryToCompressMessage(msg)) {
                     sysFlag |= MessageSysFlag.COMPRESSED_FLAG;
+                    sysFlag = MessageSysFlag.setCompressionType(sysFlag, this.getMessageCompressionType());
                     msgBodyCompressed = true;
                 }
 
@@ -881,16 +911,18 @@ public class DefaultMQProducerImpl implements MQProducerInner {
     }
 
     private boolean tryToCompressMessage(final Message msg) {
-        if (msg instanceof MessageBatch) {
-            //batch dose not support compressing right now
+        if (msg instanceof MessageBatch && !this.defaultMQProducer.isCompressBatchEnable()) {
             return false;
         }
         byte[] body = msg.getBody();
         if (body != null) {
             if (body.length >= this.defaultMQProducer.getCompressMsgBodyOverHowmuch()) {
                 try {
-                    byte[] data = UtilAll.compress(body, zipCompressLevel);
-                    if (data != null) {
+                    Compressor compressor = this.getMessageCompressor();
+                    byte[] data = msg instanceof MessageBatch
+                        ? ((MessageBatch) msg).encodeCompressed(compressor, zipCompressLevel)
+                        : compressor.compress(body, zipCompressLevel);
+                    if (data != null && data.length < body.length) {
                         msg.setBody(data);
                         return true;
                     }
@@ -904,6 +936,33 @@ public class DefaultMQProducerImpl implements MQProducerInner {
         return false;
     }
 
+    /**
+     * Zlib primed with a dictionary is flagged apart from plain zlib, consumers missing the dictionary keep the body
+     * compressed instead of taking it for plain zlib.
+     */
+    private CompressionType getMessageCompressionType() {
+        CompressionType type = this.defaultMQProducer.getCompressType();
+        if (type == CompressionType.ZLIB && this.defaultMQProducer.getCompressDictionary() != null) {
+            return CompressionType.ZLIB_DICTIONARY;
+        }
+        return type;
+    }
+
+    private Compressor getMessageCompressor() {
+        CompressionType type = this.getMessageCompressionType();
+        byte[] dictionary = this.defaultMQProducer.getCompressDictionary();
+        if (type != CompressionType.ZLIB_DICTIONARY || null == dictionary) {
+            return CompressorFactory.getCompressor(type);
+        }
+
+        ZlibCompressor compressor = this.dictionaryCompressor;
+        if (null == compressor || compressor.getDictionary() != dictionary) {
+            compressor = new ZlibCompressor(dictionary);
+            this.dictionaryCompressor = compressor;
+        }
+        return compressor;
+    }
+
     public boolean hasCheckForbiddenHook() {
         return !checkForbiddenHookList.isEmpty();
     }
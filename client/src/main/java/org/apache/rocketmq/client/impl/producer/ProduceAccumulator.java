@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.client.impl.producer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.log.ClientLogger;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageBatch;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.remoting.exception.RemotingTooMuchRequestException;
+
+/**
+ * Accumulates the messages sent asynchronously with a callback into one batch per topic and sends each batch as a
+ * single {@code SEND_BATCH_MESSAGE} once it is {@code lingerMs} old or holds {@code batchSizeBytes}, but never more
+ * than {@code maxMessageSize}, of encoded messages. The queue of a batch is chosen when it is sent, so consecutive
+ * messages of a topic stick to one queue per batch.
+ * <p>
+ * Every message gets its own callback with its own msgId, offset msgId and queue offset. Once
+ * {@code totalBatchMaxBytes} of encoded messages are waiting, senders block until earlier batches completed or their
+ * timeout passed.
+ */
+public class ProduceAccumulator {
+    private final InternalLogger log = ClientLogger.getLog();
+
+    private final DefaultMQProducerImpl producer;
+    private final Map<String, Batch> batchTable = new HashMap<String, Batch>();
+    private final int totalBatchMaxBytes;
+    private final Semaphore bufferedBytes;
+    /**
+     * Latest deadline of any accumulated message, no batch is still in flight once it passed.
+     */
+    private volatile long latestDeadline = 0;
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryImpl("ProduceAccumulatorThread_"));
+
+    public ProduceAccumulator(final DefaultMQProducerImpl producer) {
+        this.producer = producer;
+        this.totalBatchMaxBytes = producer.getDefaultMQProducer().getTotalBatchMaxBytes();
+        this.bufferedBytes = new Semaphore(this.totalBatchMaxBytes);
+    }
+
+    /**
+     * Batches only carry plain messages, delayed, retry and transactional ones are sent alone.
+     */
+    public static boolean isBatchable(final Message msg) {
+        return !(msg instanceof MessageBatch)
+            && msg.getDelayTimeLevel() <= 0
+            && msg.getDelayTime() <= 0
+            && msg.isWaitStoreMsgOK()
+            && !msg.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)
+            && !"true".equals(msg.getProperty(MessageConst.PROPERTY_TRANSACTION_PREPARED));
+    }
+
+    public void start() {
+        long period = Math.max(1, this.producer.getDefaultMQProducer().getLingerMs() / 2);
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ProduceAccumulator.this.flush(false);
+                } catch (Throwable e) {
+                    log.error("ProduceAccumulator flush exception", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends whatever is still waiting and waits for every batch in flight to complete, so the sender executor and the
+     * client can be shut down afterwards.
+     */
+    public void shutdown() {
+        this.scheduledExecutorService.shutdown();
+        try {
+            long lingerMs = this.producer.getDefaultMQProducer().getLingerMs();
+            if (!this.scheduledExecutorService.awaitTermination(lingerMs + 1000, TimeUnit.MILLISECONDS)) {
+                log.warn("ProduceAccumulator flush thread did not terminate in time");
+            }
+
+            this.flush(true);
+
+            // every buffered byte is given back once its batch completed, successfully or not; a timed out async
+            // request is only expired by the next response table scan, hence the extra second
+            long waitMillis = Math.max(0, this.latestDeadline - System.currentTimeMillis()) + 1000;
+            if (this.bufferedBytes.tryAcquire(this.totalBatchMaxBytes, waitMillis, TimeUnit.MILLISECONDS)) {
+                this.bufferedBytes.release(this.totalBatchMaxBytes);
+            } else {
+                log.warn("ProduceAccumulator shutdown with batches still in flight, {} bytes",
+                    this.totalBatchMaxBytes - this.bufferedBytes.availablePermits());
+            }
+        } catch (InterruptedException e) {
+            log.warn("ProduceAccumulator shutdown interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void append(final Message msg, final SendCallback sendCallback, final long timeout)
+        throws MQClientException, InterruptedException {
+        final DefaultMQProducer config = this.producer.getDefaultMQProducer();
+        final long beginTimestamp = System.currentTimeMillis();
+        MessageClientIDSetter.setUniqID(msg);
+        final int size = encodedSize(msg);
+        if (!this.bufferedBytes.tryAcquire(size, timeout, TimeUnit.MILLISECONDS)) {
+            throw new MQClientException("accumulated batches exceed totalBatchMaxBytes " + config.getTotalBatchMaxBytes()
+                + " for " + timeout + "ms", null);
+        }
+
+        if (beginTimestamp + timeout > this.latestDeadline) {
+            this.latestDeadline = beginTimestamp + timeout;
+        }
+        // the batch body is checked against maxMessageSize like any other message body
+        final int batchMaxBytes = Math.min(config.getBatchSizeBytes(), config.getMaxMessageSize());
+        List<Batch> ready = new ArrayList<Batch>(2);
+        synchronized (this.batchTable) {
+            Batch batch = this.batchTable.get(msg.getTopic());
+            // only a single message may exceed batchMaxBytes, so batches of several messages stay below maxMessageSize
+            if (batch != null && batch.bytes + size > batchMaxBytes) {
+                this.batchTable.remove(msg.getTopic());
+                ready.add(batch);
+                batch = null;
+            }
+            if (null == batch) {
+                batch = new Batch(beginTimestamp + timeout);
+                this.batchTable.put(msg.getTopic(), batch);
+            }
+            batch.add(msg, sendCallback, size);
+            if (batch.bytes >= batchMaxBytes) {
+                this.batchTable.remove(msg.getTopic());
+                ready.add(batch);
+            }
+        }
+
+        for (Batch batch : ready) {
+            this.send(batch);
+        }
+    }
+
+    /**
+     * Size of the message within the batch body, see {@link MessageDecoder#encodeMessage(Message)}.
+     */
+    static int encodedSize(final Message msg) {
+        String properties = MessageDecoder.messageProperties2String(msg.getProperties());
+        return 4 // TOTALSIZE
+            + 4 // MAGICCODE
+            + 4 // BODYCRC
+            + 4 // FLAG
+            + 4 + msg.getBody().length // BODY
+            + 2 + properties.getBytes(MessageDecoder.CHARSET_UTF8).length;
+    }
+
+    void flush(final boolean all) {
+        final long lingerMs = this.producer.getDefaultMQProducer().getLingerMs();
+        final long now = System.currentTimeMillis();
+        List<Batch> ready = new ArrayList<Batch>();
+        synchronized (this.batchTable) {
+            Iterator<Batch> it = this.batchTable.values().iterator();
+            while (it.hasNext()) {
+                Batch batch = it.next();
+                if (all || now - batch.createTimestamp >= lingerMs) {
+                    it.remove();
+                    ready.add(batch);
+                }
+            }
+        }
+
+        for (Batch batch : ready) {
+            this.send(batch);
+        }
+    }
+
+    private void send(final Batch batch) {
+        try {
+            this.producer.getAsyncSenderExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    ProduceAccumulator.this.doSend(batch);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            batch.onException(new MQClientException("executor rejected ", e));
+        }
+    }
+
+    private void doSend(final Batch batch) {
+        long timeout = batch.deadline - System.currentTimeMillis();
+        if (timeout <= 0) {
+            batch.onException(new RemotingTooMuchRequestException("DEFAULT ASYNC send call timeout"));
+            return;
+        }
+
+        try {
+            MessageBatch messageBatch = MessageBatch.generateFromList(batch.messages);
+            messageBatch.setBody(messageBatch.encode());
+            this.producer.sendAccumulatedBatch(messageBatch, batch, timeout);
+        } catch (Throwable e) {
+            batch.onException(e);
+        }
+    }
+
+    class Batch implements SendCallback {
+        private final long createTimestamp = System.currentTimeMillis();
+        private final long deadline;
+        private final List<Message> messages = new ArrayList<Message>();
+        private final List<SendCallback> callbacks = new ArrayList<SendCallback>();
+        private int bytes = 0;
+
+        Batch(final long deadline) {
+            this.deadline = deadline;
+        }
+
+        void add(final Message msg, final SendCallback sendCallback, final int size) {
+            this.messages.add(msg);
+            this.callbacks.add(sendCallback);
+            this.bytes += size;
+        }
+
+        @Override
+        public void onSuccess(final SendResult sendResult) {
+            // the bytes are given back only after the callbacks ran, shutdown waits for them
+            try {
+                String[] offsetMsgIds = sendResult.getOffsetMsgId() != null ? sendResult.getOffsetMsgId().split(",") : new String[0];
+                for (int i = 0; i < this.messages.size(); i++) {
+                    SendResult result = new SendResult(sendResult.getSendStatus(),
+                        MessageClientIDSetter.getUniqID(this.messages.get(i)),
+                        i < offsetMsgIds.length ? offsetMsgIds[i] : null,
+                        sendResult.getMessageQueue(),
+                        sendResult.getQueueOffset() + i);
+                    result.setRegionId(sendResult.getRegionId());
+                    result.setTraceOn(sendResult.isTraceOn());
+                    try {
+                        this.callbacks.get(i).onSuccess(result);
+                    } catch (Throwable e) {
+                        log.warn("execute the send callback of a batched message exception", e);
+                    }
+                }
+            } finally {
+                ProduceAccumulator.this.bufferedBytes.release(this.bytes);
+            }
+        }
+
+        @Override
+        public void onException(final Throwable e) {
+            try {
+                for (SendCallback callback : this.callbacks) {
+                    try {
+                        callback.onException(e);
+                    } catch (Throwable t) {
+                        log.warn("execute the send callback of a batched message exception", t);
+                    }
+                }
+            } finally {
+                ProduceAccumulator.this.bufferedBytes.release(this.bytes);
+            }
+        }
+    }
+}
@@ -30,6 +30,8 @@ import org.apache.rocketmq.client.trace.AsyncTraceDispatcher;
 import org.apache.rocketmq.client.trace.TraceDispatcher;
 import org.apache.rocketmq.client.trace.hook.SendMessageTraceHookImpl;
 import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.ZlibCompressor;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.common.message.MessageBatch;
 import org.apache.rocketmq.common.message.MessageClientIDSetter;
@@ -99,6 +101,27 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
      */
     private int compressMsgBodyOverHowmuch = 1024 * 4;
 
+    /**
+     * Codec of compressed bodies. Consumers older than the producer only decode plain {@link CompressionType#ZLIB}:
+     * upgrade every consumer group of the topics first before switching to {@link CompressionType#LZ4}.
+     */
+    private CompressionType compressType = CompressionType.ZLIB;
+
+    /**
+     * Preset dictionary for {@link CompressionType#ZLIB}, worth it for small bodies sharing a vocabulary such as JSON
+     * field names, together with a lower {@code compressMsgBodyOverHowmuch}. Bodies are then flagged
+     * {@link CompressionType#ZLIB_DICTIONARY}: older consumers read them as empty bodies, and consumers without the
+     * dictionary get them still compressed. So upgrade every consumer and register the same dictionary through
+     * {@link ZlibCompressor#registerDictionary(byte[])} before setting it.
+     */
+    private byte[] compressDictionary = null;
+
+    /**
+     * Whether to compress batches whose encoded size reaches {@code compressMsgBodyOverHowmuch}. Every body of the batch
+     * is compressed on its own, so only enable it when the bodies are big enough to shrink one by one.
+     */
+    private boolean compressBatchEnable = false;
+
     /**
      * Maximum number of retry to perform internally before claiming sending failure in synchronous mode.
      * </p>
@@ -125,6 +148,27 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
      */
     private int maxMessageSize = 1024 * 1024 * 4; // 4M
 
+    /**
+     * Accumulate the messages sent asynchronously with a callback into one batch per topic, sent once it is lingerMs
+     * old or holds batchSizeBytes of encoded messages. Delayed, retry and transactional messages are still sent alone.
+     */
+    private boolean autoBatch = false;
+
+    /**
+     * How long a batch waits for more messages, in milliseconds.
+     */
+    private int lingerMs = 5;
+
+    /**
+     * Encoded message bytes that make a batch full, capped at maxMessageSize.
+     */
+    private int batchSizeBytes = 1024 * 32;
+
+    /**
+     * Maximum encoded message bytes waiting in batches, senders block up to their timeout once reached.
+     */
+    private int totalBatchMaxBytes = 1024 * 1024 * 32;
+
     /**
      * Interface of asynchronous transfer data
      */
@@ -956,4 +1000,60 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
         return traceDispatcher;
     }
 
+
+    public boolean isAutoBatch() {
+        return autoBatch;
+    }
+
+    public void setAutoBatch(boolean autoBatch) {
+        this.autoBatch = autoBatch;
+    }
+
+    public int getLingerMs() {
+        return lingerMs;
+    }
+
+    public void setLingerMs(int lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    public int getBatchSizeBytes() {
+        return batchSizeBytes;
+    }
+
+    public void setBatchSizeBytes(int batchSizeBytes) {
+        this.batchSizeBytes = batchSizeBytes;
+    }
+
+    public int getTotalBatchMaxBytes() {
+        return totalBatchMaxBytes;
+    }
+
+    public void setTotalBatchMaxBytes(int totalBatchMaxBytes) {
+        this.totalBatchMaxBytes = totalBatchMaxBytes;
+    }
+
+    public CompressionType getCompressType() {
+        return compressType;
+    }
+
+    public void setCompressType(CompressionType compressType) {
+        this.compressType = compressType;
+    }
+
+    public byte[] getCompressDictionary() {
+        return compressDictionary;
+    }
+
+    public void setCompressDictionary(byte[] compressDictionary) {
+        this.compressDictionary = compressDictionary;
+    }
+
+    public boolean isCompressBatchEnable() {
+        return compressBatchEnable;
+    }
+
+    public void setCompressBatchEnable(boolean compressBatchEnable) {
+        this.compressBatchEnable = compressBatchEnable;
+    }
 }
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.client.impl.producer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageBatch;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ProduceAccumulatorTest {
+    private final DefaultMQProducerImpl producerImpl = mock(DefaultMQProducerImpl.class);
+    private final DefaultMQProducer producer = new DefaultMQProducer("ProduceAccumulatorTest");
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final List<MessageBatch> sentBatches = new ArrayList<MessageBatch>();
+    private ProduceAccumulator accumulator;
+
+    @Before
+    public void init() throws Exception {
+        producer.setLingerMs(20);
+        producer.setBatchSizeBytes(300);
+        when(producerImpl.getDefaultMQProducer()).thenReturn(producer);
+        when(producerImpl.getAsyncSenderExecutor()).thenReturn(executor);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                MessageBatch batch = invocation.getArgument(0);
+                SendCallback callback = invocation.getArgument(1);
+                synchronized (sentBatches) {
+                    sentBatches.add(batch);
+                }
+                StringBuilder offsetMsgIds = new StringBuilder();
+                int count = 0;
+                for (Message ignored : batch) {
+                    offsetMsgIds.append(count == 0 ? "" : ",").append("offset-").append(count++);
+                }
+                callback.onSuccess(new SendResult(SendStatus.SEND_OK, null, offsetMsgIds.toString(),
+                    new MessageQueue(batch.getTopic(), "broker-a", 0), 100));
+                return null;
+            }
+        }).when(producerImpl).sendAccumulatedBatch(any(MessageBatch.class), any(SendCallback.class), anyLong());
+
+        accumulator = new ProduceAccumulator(producerImpl);
+        accumulator.start();
+    }
+
+    @After
+    public void terminate() {
+        accumulator.shutdown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testCallbackPerMessage() throws Exception {
+        final int count = 3;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final SendResult[] results = new SendResult[count];
+        Message[] messages = new Message[count];
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            messages[i] = new Message("BatchTopic", new byte[10]);
+            accumulator.append(messages[i], new SendCallback() {
+                @Override
+                public void onSuccess(SendResult sendResult) {
+                    results[index] = sendResult;
+                    latch.countDown();
+                }
+
+                @Override
+                public void onException(Throwable e) {
+                }
+            }, 3000);
+        }
+
+        assertThat(latch.await(3, TimeUnit.SECONDS)).isTrue();
+        assertThat(sentBatches).hasSize(1);
+        for (int i = 0; i < count; i++) {
+            assertThat(results[i].getMsgId()).isEqualTo(MessageClientIDSetter.getUniqID(messages[i]));
+            assertThat(results[i].getOffsetMsgId()).isEqualTo("offset-" + i);
+            assertThat(results[i].getQueueOffset()).isEqualTo(100 + i);
+        }
+    }
+
+    @Test
+    public void testFlushBySize() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(4);
+        SendCallback callback = new SendCallback() {
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onException(Throwable e) {
+            }
+        };
+        Message sample = new Message("BatchTopic", new byte[150]);
+        MessageClientIDSetter.setUniqID(sample);
+        producer.setBatchSizeBytes(2 * ProduceAccumulator.encodedSize(sample));
+        for (int i = 0; i < 4; i++) {
+            accumulator.append(new Message("BatchTopic", new byte[150]), callback, 3000);
+        }
+
+        assertThat(latch.await(3, TimeUnit.SECONDS)).isTrue();
+        assertThat(sentBatches).hasSize(2);
+    }
+
+    @Test
+    public void testBatchBelowMaxMessageSize() throws Exception {
+        producer.setBatchSizeBytes(1024 * 1024);
+        producer.setMaxMessageSize(500);
+        final CountDownLatch latch = new CountDownLatch(4);
+        SendCallback callback = new SendCallback() {
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onException(Throwable e) {
+            }
+        };
+        for (int i = 0; i < 4; i++) {
+            accumulator.append(new Message("BatchTopic", new byte[150]), callback, 3000);
+        }
+
+        assertThat(latch.await(3, TimeUnit.SECONDS)).isTrue();
+        assertThat(sentBatches).hasSize(2);
+        for (MessageBatch batch : sentBatches) {
+            assertThat(batch.encode().length).isLessThanOrEqualTo(producer.getMaxMessageSize());
+        }
+    }
+
+    @Test
+    public void testShutdownWaitsForLastBatch() throws Exception {
+        producer.setLingerMs(60 * 1000);
+        ProduceAccumulator lingering = new ProduceAccumulator(producerImpl);
+        lingering.start();
+
+        final AtomicBoolean sent = new AtomicBoolean(false);
+        lingering.append(new Message("BatchTopic", new byte[10]), new SendCallback() {
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                sent.set(true);
+            }
+
+            @Override
+            public void onException(Throwable e) {
+            }
+        }, 3000);
+        assertThat(sent.get()).isFalse();
+
+        lingering.shutdown();
+        assertThat(sent.get()).isTrue();
+    }
+
+    @Test
+    public void testIsBatchable() {
+        assertThat(ProduceAccumulator.isBatchable(new Message("BatchTopic", new byte[1]))).isTrue();
+
+        Message delayed = new Message("BatchTopic", new byte[1]);
+        delayed.setDelayTimeLevel(1);
+        assertThat(ProduceAccumulator.isBatchable(delayed)).isFalse();
+        assertThat(ProduceAccumulator.isBatchable(new Message("%RETRY%group", new byte[1]))).isFalse();
+    }
+}
@@ -57,7 +57,8 @@ public class BrokerConfig {
     private boolean traceTopicEnable = false;
     /**
      * thread numbers for send message thread pool, since spin lock will be used by default since 4.0.x, the default
-     * value is 1.
+     * value is 1. With a single thread the store's putMessageBatchEnable never combines messages, it only adds its
+     * wait window to every put, so raise this value together with it.
      */
     private int sendMessageThreadPoolNums = 1; //16 + Runtime.getRuntime().availableProcessors() * 4;
     private int pullMessageThreadPoolNums = 16 + Runtime.getRuntime().availableProcessors() * 2;
@@ -77,6 +78,16 @@ public class BrokerConfig {
 
     private int flushConsumerOffsetHistoryInterval = 1000 * 60;
 
+    /**
+     * Persist consumer offsets as a binary snapshot plus a journal of the changed offsets instead of rewriting
+     * consumerOffset.json on every flush. The json file is only read when there is no snapshot yet.
+     */
+    private boolean consumerOffsetJournalEnable = false;
+    /**
+     * Write a new snapshot once the journal grows beyond this size.
+     */
+    private long consumerOffsetJournalMaxSize = 1024 * 1024 * 64;
+
     @ImportantField
     private boolean rejectTransactionMessage = false;
     @ImportantField
@@ -106,6 +117,13 @@ public class BrokerConfig {
     private int commercialBaseCount = 1;
 
     private boolean transferMsgByHeap = true;
+    /**
+     * Choose heap copy or zero copy for every pull response instead of following transferMsgByHeap: small batches
+     * resident in memory are copied to heap, large or cold batches are sent by zero copy.
+     */
+    private boolean transferMsgAdaptive = false;
+    private int transferMsgByHeapMaxBytes = 1024 * 16;
+    private int transferMsgByHeapMaxCount = 8;
     private int maxDelayTime = 40;
 
     private String regionId = MixAll.DEFAULT_TRACE_REGION_ID;
@@ -149,6 +167,41 @@ public class BrokerConfig {
 
     private boolean forceRegister = true;
 
+    /**
+     * Once registered in full at a name server, only send the topic configs changed since, a plain heartbeat when
+     * nothing changed. Falls back to full registration whenever the name server asks for it.
+     */
+    private boolean registerBrokerDeltaEnable = false;
+
+    /**
+     * Process consumer list queries and offset commits right on the thread that decoded them, they only touch memory.
+     * Pays off together with serverInlineCodecEnable.
+     */
+    private boolean consumerManageInlineEnable = false;
+
+    /**
+     * Limit the in-flight send and pull requests per request code to a limit that follows their latency, the excess
+     * is answered with SYSTEM_BUSY before it is queued. BrokerFastFailure keeps cleaning the queues behind it.
+     */
+    private boolean admissionControlEnable = false;
+    private int admissionInitialLimit = 256;
+    private int admissionMinLimit = 16;
+    private int admissionMaxLimit = 10000;
+    /**
+     * Once this percentage of the limit is in flight, no producer or consumer group may hold more than its even share.
+     */
+    private int admissionFairSharePercent = 50;
+
+    /**
+     * Serve the queued send and pull requests in weighted round robin over their producer or consumer groups instead
+     * of in arrival order, so a burst from one group does not starve the others.
+     */
+    private boolean fairQueueEnable = false;
+    /**
+     * Weights of the groups as group:weight pairs separated by commas, groups not listed weigh 1.
+     */
+    private String fairQueueGroupWeights = "";
+
     /**
      * This configurable item defines interval of topics registration of broker to name server. Allowing values are
      * between 10, 000 and 60, 000 milliseconds.
@@ -278,6 +331,30 @@ public class BrokerConfig {
         this.transferMsgByHeap = transferMsgByHeap;
     }
 
+    public boolean isTransferMsgAdaptive() {
+        return transferMsgAdaptive;
+    }
+
+    public void setTransferMsgAdaptive(boolean transferMsgAdaptive) {
+        this.transferMsgAdaptive = transferMsgAdaptive;
+    }
+
+    public int getTransferMsgByHeapMaxBytes() {
+        return transferMsgByHeapMaxBytes;
+    }
+
+    public void setTransferMsgByHeapMaxBytes(int transferMsgByHeapMaxBytes) {
+        this.transferMsgByHeapMaxBytes = transferMsgByHeapMaxBytes;
+    }
+
+    public int getTransferMsgByHeapMaxCount() {
+        return transferMsgByHeapMaxCount;
+    }
+
+    public void setTransferMsgByHeapMaxCount(int transferMsgByHeapMaxCount) {
+        this.transferMsgByHeapMaxCount = transferMsgByHeapMaxCount;
+    }
+
     public String getMessageStorePlugIn() {
         return messageStorePlugIn;
     }
@@ -406,6 +483,22 @@ public class BrokerConfig {
         this.flushConsumerOffsetHistoryInterval = flushConsumerOffsetHistoryInterval;
     }
 
+    public boolean isConsumerOffsetJournalEnable() {
+        return consumerOffsetJournalEnable;
+    }
+
+    public void setConsumerOffsetJournalEnable(boolean consumerOffsetJournalEnable) {
+        this.consumerOffsetJournalEnable = consumerOffsetJournalEnable;
+    }
+
+    public long getConsumerOffsetJournalMaxSize() {
+        return consumerOffsetJournalMaxSize;
+    }
+
+    public void setConsumerOffsetJournalMaxSize(long consumerOffsetJournalMaxSize) {
+        this.consumerOffsetJournalMaxSize = consumerOffsetJournalMaxSize;
+    }
+
     public boolean isClusterTopicEnable() {
         return clusterTopicEnable;
     }
@@ -662,6 +755,22 @@ public class BrokerConfig {
         this.forceRegister = forceRegister;
     }
 
+    public boolean isRegisterBrokerDeltaEnable() {
+        return registerBrokerDeltaEnable;
+    }
+
+    public void setRegisterBrokerDeltaEnable(boolean registerBrokerDeltaEnable) {
+        this.registerBrokerDeltaEnable = registerBrokerDeltaEnable;
+    }
+
+    public boolean isConsumerManageInlineEnable() {
+        return consumerManageInlineEnable;
+    }
+
+    public void setConsumerManageInlineEnable(boolean consumerManageInlineEnable) {
+        this.consumerManageInlineEnable = consumerManageInlineEnable;
+    }
+
     public int getHeartbeatThreadPoolQueueCapacity() {
         return heartbeatThreadPoolQueueCapacity;
     }
@@ -765,4 +874,60 @@ public class BrokerConfig {
     public void setAclEnable(boolean aclEnable) {
         this.aclEnable = aclEnable;
     }
+
+    public boolean isAdmissionControlEnable() {
+        return admissionControlEnable;
+    }
+
+    public void setAdmissionControlEnable(boolean admissionControlEnable) {
+        this.admissionControlEnable = admissionControlEnable;
+    }
+
+    public int getAdmissionInitialLimit() {
+        return admissionInitialLimit;
+    }
+
+    public void setAdmissionInitialLimit(int admissionInitialLimit) {
+        this.admissionInitialLimit = admissionInitialLimit;
+    }
+
+    public int getAdmissionMinLimit() {
+        return admissionMinLimit;
+    }
+
+    public void setAdmissionMinLimit(int admissionMinLimit) {
+        this.admissionMinLimit = admissionMinLimit;
+    }
+
+    public int getAdmissionMaxLimit() {
+        return admissionMaxLimit;
+    }
+
+    public void setAdmissionMaxLimit(int admissionMaxLimit) {
+        this.admissionMaxLimit = admissionMaxLimit;
+    }
+
+    public int getAdmissionFairSharePercent() {
+        return admissionFairSharePercent;
+    }
+
+    public void setAdmissionFairSharePercent(int admissionFairSharePercent) {
+        this.admissionFairSharePercent = admissionFairSharePercent;
+    }
+
+    public boolean isFairQueueEnable() {
+        return fairQueueEnable;
+    }
+
+    public void setFairQueueEnable(boolean fairQueueEnable) {
+        this.fairQueueEnable = fairQueueEnable;
+    }
+
+    public String getFairQueueGroupWeights() {
+        return fairQueueGroupWeights;
+    }
+
+    public void setFairQueueGroupWeights(String fairQueueGroupWeights) {
+        this.fairQueueGroupWeights = fairQueueGroupWeights;
+    }
 }
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.common.compression;
+
+public enum CompressionType {
+    /**
+     * java.util.zip deflate, the historical message body codec.
+     */
+    ZLIB(1),
+    /**
+     * Pure java LZ4 block format, much cheaper on CPU than zlib at a lower ratio.
+     */
+    LZ4(2),
+    /**
+     * Zlib primed with a preset dictionary, see {@link ZlibCompressor}. Decoding needs the dictionary registered on
+     * the consumer, so it gets its own value rather than passing for plain zlib.
+     */
+    ZLIB_DICTIONARY(3);
+
+    private final int value;
+
+    CompressionType(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public static CompressionType findByValue(int value) {
+        for (CompressionType type : CompressionType.values()) {
+            if (type.value == value) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("unknown compression type value: " + value);
+    }
+
+    public static CompressionType of(String name) {
+        for (CompressionType type : CompressionType.values()) {
+            if (type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("unknown compression type: " + name);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.common.compression;
+
+import java.io.IOException;
+
+public interface Compressor {
+
+    /**
+     * Compress the whole source array.
+     *
+     * @param src data to compress
+     * @param level codec specific level, ignored by codecs without levels
+     * @return self-describing compressed bytes, accepted by {@link #decompress(byte[])}
+     */
+    byte[] compress(final byte[] src, final int level) throws IOException;
+
+    byte[] decompress(final byte[] src) throws IOException;
+
+    /**
+     * Decompress, refusing to produce more than maxRawLength bytes, so a corrupt or hostile input can not exhaust the
+     * heap.
+     *
+     * @throws IOException if the data is corrupted or decompresses to more than maxRawLength bytes
+     */
+    byte[] decompress(final byte[] src, final int maxRawLength) throws IOException;
+}
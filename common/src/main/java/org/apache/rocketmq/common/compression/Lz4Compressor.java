@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.common.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure java implementation of the LZ4 block format.
+ * <p>
+ * The output of {@link #compress(byte[], int)} is the raw length as a 4 bytes big endian int followed by one LZ4
+ * block, so it can be decompressed without any out-of-band length.
+ */
+public class Lz4Compressor implements Compressor {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int RUN_MASK = 0x0F;
+    private static final int MAX_EXPANSION = 255;
+
+    @Override
+    public byte[] compress(byte[] src, int level) throws IOException {
+        byte[] dst = new byte[4 + maxCompressedLength(src.length)];
+        writeInt(dst, 0, src.length);
+        int size = compress(src, 0, src.length, dst, 4);
+        return Arrays.copyOf(dst, 4 + size);
+    }
+
+    @Override
+    public byte[] decompress(byte[] src) throws IOException {
+        return this.decompress(src, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int maxRawLength) throws IOException {
+        if (src.length < 4) {
+            throw new IOException("lz4 data too short, length: " + src.length);
+        }
+        // check the untrusted header before allocating, no block expands more than MAX_EXPANSION times
+        int rawLength = readIntBE(src, 0);
+        if (rawLength < 0 || rawLength > (long) (src.length - 4) * MAX_EXPANSION) {
+            throw new IOException("lz4 data corrupted, raw length: " + rawLength + ", compressed length: " + src.length);
+        }
+        if (rawLength > maxRawLength) {
+            throw new IOException("lz4 raw length " + rawLength + " exceeds the limit " + maxRawLength);
+        }
+        byte[] dst = new byte[rawLength];
+        int size = decompress(src, 4, src.length - 4, dst, 0, rawLength);
+        if (size != rawLength) {
+            throw new IOException("lz4 data corrupted, expect " + rawLength + " bytes but got " + size);
+        }
+        return dst;
+    }
+
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * @return bytes written into dst, dst must have at least {@link #maxCompressedLength(int)} bytes available
+     */
+    public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        final int srcEnd = srcOff + srcLen;
+        int op = dstOff;
+        int anchor = srcOff;
+
+        if (srcLen >= MF_LIMIT + 1) {
+            final int[] hashTable = new int[1 << HASH_LOG];
+            Arrays.fill(hashTable, -1);
+            final int matchLimit = srcEnd - LAST_LITERALS;
+            final int limit = srcEnd - MF_LIMIT;
+
+            int ip = srcOff;
+            while (ip < limit) {
+                int sequence = readIntLE(src, ip);
+                int h = hash(sequence);
+                int ref = hashTable[h];
+                hashTable[h] = ip;
+
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readIntLE(src, ref) != sequence) {
+                    ip++;
+                    continue;
+                }
+
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+                ip += matchLen;
+                anchor = ip;
+
+                if (ip < limit) {
+                    hashTable[hash(readIntLE(src, ip - 2))] = ip - 2;
+                }
+            }
+        }
+
+        op = writeLastLiterals(src, anchor, srcEnd - anchor, dst, op);
+        return op - dstOff;
+    }
+
+    /**
+     * @return bytes written into dst
+     */
+    public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff,
+        int dstLen) throws IOException {
+        final int srcEnd = srcOff + srcLen;
+        final int dstEnd = dstOff + dstLen;
+        int ip = srcOff;
+        int op = dstOff;
+
+        try {
+            while (ip < srcEnd) {
+                final int token = src[ip++] & 0xFF;
+
+                int literalLen = token >>> 4;
+                if (literalLen == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLen += b;
+                    }
+                    while (b == 0xFF);
+                }
+                if (ip + literalLen > srcEnd || op + literalLen > dstEnd) {
+                    throw new IOException("lz4 data corrupted, literals out of bound at " + (ip - srcOff));
+                }
+                System.arraycopy(src, ip, dst, op, literalLen);
+                ip += literalLen;
+                op += literalLen;
+
+                if (ip >= srcEnd) {
+                    break;
+                }
+
+                final int offset = (src[ip++] & 0xFF) | ((src[ip++] & 0xFF) << 8);
+                int matchLen = token & RUN_MASK;
+                if (matchLen == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    }
+                    while (b == 0xFF);
+                }
+                matchLen += MIN_MATCH;
+
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOff || op + matchLen > dstEnd) {
+                    throw new IOException("lz4 data corrupted, bad match at " + (ip - srcOff));
+                }
+                for (int i = 0; i < matchLen; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("lz4 data corrupted, truncated input", e);
+        }
+
+        return op - dstOff;
+    }
+
+    private static int writeSequence(byte[] src, int literalOff, int literalLen, int offset, int matchLen,
+        byte[] dst, int op) {
+        final int tokenPos = op++;
+        int token;
+        if (literalLen >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            op = writeLength(literalLen - RUN_MASK, dst, op);
+        } else {
+            token = literalLen << 4;
+        }
+        System.arraycopy(src, literalOff, dst, op, literalLen);
+        op += literalLen;
+
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+
+        int len = matchLen - MIN_MATCH;
+        if (len >= RUN_MASK) {
+            token |= RUN_MASK;
+            op = writeLength(len - RUN_MASK, dst, op);
+        } else {
+            token |= len;
+        }
+        dst[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalOff, int literalLen, byte[] dst, int op) {
+        if (literalLen >= RUN_MASK) {
+            dst[op++] = (byte) (RUN_MASK << 4);
+            op = writeLength(literalLen - RUN_MASK, dst, op);
+        } else {
+            dst[op++] = (byte) (literalLen << 4);
+        }
+        System.arraycopy(src, literalOff, dst, op, literalLen);
+        return op + literalLen;
+    }
+
+    private static int writeLength(int len, byte[] dst, int op) {
+        while (len >= 0xFF) {
+            dst[op++] = (byte) 0xFF;
+            len -= 0xFF;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readIntLE(byte[] buf, int i) {
+        return (buf[i] & 0xFF) | ((buf[i + 1] & 0xFF) << 8) | ((buf[i + 2] & 0xFF) << 16) | ((buf[i + 3] & 0xFF) << 24);
+    }
+
+    private static int readIntBE(byte[] buf, int i) {
+        return ((buf[i] & 0xFF) << 24) | ((buf[i + 1] & 0xFF) << 16) | ((buf[i + 2] & 0xFF) << 8) | (buf[i + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] buf, int i, int value) {
+        buf[i] = (byte) (value >>> 24);
+        buf[i + 1] = (byte) (value >>> 16);
+        buf[i + 2] = (byte) (value >>> 8);
+        buf[i + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.common.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.apache.rocketmq.common.UtilAll;
+
+/**
+ * Zlib codec, optionally primed with a preset dictionary.
+ * <p>
+ * A preset dictionary lets small bodies sharing the same vocabulary, JSON field names for instance, compress well. The
+ * zlib stream carries the Adler-32 of its dictionary, so decompressing only needs the same dictionary registered
+ * through {@link #registerDictionary(byte[])} beforehand.
+ */
+public class ZlibCompressor implements Compressor {
+    private static final ConcurrentMap<Integer, byte[]> DICTIONARIES = new ConcurrentHashMap<Integer, byte[]>();
+
+    private final byte[] dictionary;
+
+    public ZlibCompressor() {
+        this(null);
+    }
+
+    /**
+     * @param dictionary preset dictionary used to compress, registered for decompressing too
+     */
+    public ZlibCompressor(final byte[] dictionary) {
+        if (dictionary != null) {
+            registerDictionary(dictionary);
+        }
+        this.dictionary = dictionary;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return id of the dictionary, as carried by the streams compressed with it
+     */
+    public static int registerDictionary(final byte[] dictionary) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(dictionary, 0, dictionary.length);
+        int id = (int) adler32.getValue();
+        DICTIONARIES.put(id, dictionary);
+        return id;
+    }
+
+    @Override
+    public byte[] compress(byte[] src, int level) throws IOException {
+        if (null == this.dictionary) {
+            return UtilAll.compress(src, level);
+        }
+
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setDictionary(this.dictionary);
+            deflater.setInput(src);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, src.length / 2));
+            byte[] buffer = new byte[Math.max(64, Math.min(src.length, 8192))];
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buffer);
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] src) throws IOException {
+        return this.decompress(src, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int maxRawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(src);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxRawLength, src.length * 4));
+            byte[] buffer = new byte[Math.max(64, Math.min(src.length * 4, 8192))];
+            while (!inflater.finished()) {
+                int len = inflater.inflate(buffer);
+                if (len > 0) {
+                    if (out.size() + len > maxRawLength) {
+                        throw new IOException("zlib raw length exceeds the limit " + maxRawLength);
+                    }
+                    out.write(buffer, 0, len);
+                } else if (inflater.needsDictionary()) {
+                    byte[] dictionary = DICTIONARIES.get(inflater.getAdler());
+                    if (null == dictionary) {
+                        throw new IOException("unknown zlib dictionary, id: " + inflater.getAdler());
+                    }
+                    inflater.setDictionary(dictionary);
+                } else if (inflater.needsInput()) {
+                    throw new IOException("zlib data truncated");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("zlib data corrupted", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
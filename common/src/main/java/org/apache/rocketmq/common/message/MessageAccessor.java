@@ -90,6 +90,9 @@ public class MessageAccessor {
     }
 
     public static Message cloneMessage(final Message msg) {
+        if (msg instanceof MessageBatch) {
+            return ((MessageBatch) msg).copy();
+        }
         Message newMsg = new Message(msg.getTopic(), msg.getBody());
         newMsg.setFlag(msg.getFlag());
         newMsg.setProperties(msg.getProperties());
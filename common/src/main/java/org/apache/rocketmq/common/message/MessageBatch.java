@@ -16,11 +16,13 @@
  */
 package org.apache.rocketmq.common.message;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.compression.Compressor;
 
 public class MessageBatch extends Message implements Iterable<Message> {
 
@@ -39,6 +41,32 @@ public class MessageBatch extends Message implements Iterable<Message> {
         return messages.iterator();
     }
 
+    /**
+     * Encode the messages with their bodies compressed one by one, the broker stores them as they are and flags all
+     * of them with the sysFlag of the batch.
+     */
+    public byte[] encodeCompressed(final Compressor compressor, final int level) throws IOException {
+        List<Message> compressed = new ArrayList<Message>(messages.size());
+        for (Message message : messages) {
+            Message copy = MessageAccessor.cloneMessage(message);
+            copy.setBody(compressor.compress(message.getBody(), level));
+            compressed.add(copy);
+        }
+        return MessageDecoder.encodeMessages(compressed);
+    }
+
+    /**
+     * Copy sharing the same messages, so the body of the copy can be swapped without touching this batch.
+     */
+    MessageBatch copy() {
+        MessageBatch messageBatch = new MessageBatch(messages);
+        messageBatch.setTopic(this.getTopic());
+        messageBatch.setFlag(this.getFlag());
+        messageBatch.setProperties(this.getProperties());
+        messageBatch.setBody(this.getBody());
+        return messageBatch;
+    }
+
     public static MessageBatch generateFromList(Collection<Message> messages) {
         assert messages != null;
         assert messages.size() > 0;
@@ -16,9 +16,12 @@
  */
 package org.apache.rocketmq.common.message;
 
+import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.compression.CompressorFactory;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
@@ -39,6 +42,11 @@ public class MessageDecoder {
     public final static int MESSAGE_PHYSIC_OFFSET_POSTION = 28;
     public final static int MESSAGE_STORE_TIMESTAMP_POSTION = 56;
     public final static int MESSAGE_MAGIC_CODE = -626843481;
+    /**
+     * Largest body a compressed body may decompress to, bounds what a corrupt body makes the consumer allocate.
+     */
+    public final static int MAX_DECOMPRESSED_BODY_SIZE =
+        Integer.parseInt(System.getProperty(MixAll.MESSAGE_DECOMPRESS_MAX_SIZE, String.valueOf(1024 * 1024 * 64)));
     public static final char NAME_VALUE_SEPARATOR = 1;
     public static final char PROPERTY_SEPARATOR = 2;
     public static final int PHY_POS_POSITION =  4 + 4 + 4 + 4 + 4 + 8;
@@ -141,7 +149,7 @@ public class MessageDecoder {
         int sysFlag = messageExt.getSysFlag();
         byte[] newBody = messageExt.getBody();
         if (needCompress && (sysFlag & MessageSysFlag.COMPRESSED_FLAG) == MessageSysFlag.COMPRESSED_FLAG) {
-            newBody = UtilAll.compress(body, 5);
+            newBody = CompressorFactory.getCompressor(MessageSysFlag.getCompressionType(sysFlag)).compress(body, 5);
         }
         int bodyLength = newBody.length;
         int storeSize = messageExt.getStoreSize();
@@ -323,7 +331,7 @@ public class MessageDecoder {
 
                     // uncompress body
                     if (deCompressBody && (sysFlag & MessageSysFlag.COMPRESSED_FLAG) == MessageSysFlag.COMPRESSED_FLAG) {
-                        body = UtilAll.uncompress(body);
+                        body = decompressBody(body, sysFlag);
                     }
 
                     msgExt.setBody(body);
@@ -364,6 +372,20 @@ public class MessageDecoder {
         return null;
     }
 
+    /**
+     * A body this consumer cannot decompress, an unknown codec or a dictionary never registered, is handed over still
+     * compressed rather than failing the decode: messages are framed by their lengths, so the ones after it still decode.
+     */
+    private static byte[] decompressBody(final byte[] body, final int sysFlag) {
+        try {
+            return CompressorFactory.getCompressor(MessageSysFlag.getCompressionType(sysFlag)).decompress(body, MAX_DECOMPRESSED_BODY_SIZE);
+        } catch (IOException e) {
+            return body;
+        } catch (IllegalArgumentException e) {
+            return body;
+        }
+    }
+
     public static List<MessageExt> decodes(java.nio.ByteBuffer byteBuffer) {
         return decodes(byteBuffer, true);
     }
@@ -180,4 +180,21 @@ public class RequestCode {
      * resume logic of checking half messages that have been put in TRANS_CHECK_MAXTIME_TOPIC before
      */
     public static final int RESUME_CHECK_HALF_MESSAGE = 323;
+
+    /**
+     * commit or roll back many transactions at once, the op records of the batch are packed
+     */
+    public static final int END_TRANSACTION_BATCH = 324;
+
+    /**
+     * changes of the config tables since the version a slave is in sync with
+     */
+    public static final int GET_TOPIC_CONFIG_DELTA = 325;
+    public static final int GET_CONSUMER_OFFSET_DELTA = 326;
+    public static final int GET_SUBSCRIPTIONGROUP_CONFIG_DELTA = 327;
+
+    /**
+     * heartbeat of a broker already registered, carrying only the topic configs changed since
+     */
+    public static final int REGISTER_BROKER_DELTA = 328;
 }
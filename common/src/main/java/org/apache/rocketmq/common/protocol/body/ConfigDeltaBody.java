@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.common.protocol.body;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.rocketmq.remoting.protocol.RemotingSerializable;
+
+/**
+ * Changes of a config table since the version asked for. When {@code full} is set the body carries the whole table
+ * and the reader replaces its own.
+ */
+public class ConfigDeltaBody extends RemotingSerializable {
+    private long epoch;
+    private long version;
+    private boolean full;
+    private Set<String> removedKeys = new HashSet<String>();
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public void setFull(boolean full) {
+        this.full = full;
+    }
+
+    public Set<String> getRemovedKeys() {
+        return removedKeys;
+    }
+
+    public void setRemovedKeys(Set<String> removedKeys) {
+        this.removedKeys = removedKeys;
+    }
+}
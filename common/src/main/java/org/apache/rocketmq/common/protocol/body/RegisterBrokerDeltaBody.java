@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.common.protocol.body;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.rocketmq.common.DataVersion;
+import org.apache.rocketmq.common.TopicConfig;
+import org.apache.rocketmq.remoting.protocol.RemotingSerializable;
+
+/**
+ * The topic configs a broker changed since its registration at {@code baseDataVersion}, empty for a plain heartbeat.
+ * The name server only applies it while it still holds {@code baseDataVersion} for that broker.
+ */
+public class RegisterBrokerDeltaBody extends RemotingSerializable {
+    private DataVersion baseDataVersion = new DataVersion();
+    private DataVersion dataVersion = new DataVersion();
+    private ConcurrentMap<String, TopicConfig> topicConfigTable = new ConcurrentHashMap<String, TopicConfig>();
+    private Set<String> removedTopics = new HashSet<String>();
+    private List<String> filterServerList = new ArrayList<String>();
+
+    public DataVersion getBaseDataVersion() {
+        return baseDataVersion;
+    }
+
+    public void setBaseDataVersion(DataVersion baseDataVersion) {
+        this.baseDataVersion = baseDataVersion;
+    }
+
+    public DataVersion getDataVersion() {
+        return dataVersion;
+    }
+
+    public void setDataVersion(DataVersion dataVersion) {
+        this.dataVersion = dataVersion;
+    }
+
+    public ConcurrentMap<String, TopicConfig> getTopicConfigTable() {
+        return topicConfigTable;
+    }
+
+    public void setTopicConfigTable(ConcurrentMap<String, TopicConfig> topicConfigTable) {
+        this.topicConfigTable = topicConfigTable;
+    }
+
+    public Set<String> getRemovedTopics() {
+        return removedTopics;
+    }
+
+    public void setRemovedTopics(Set<String> removedTopics) {
+        this.removedTopics = removedTopics;
+    }
+
+    public List<String> getFilterServerList() {
+        return filterServerList;
+    }
+
+    public void setFilterServerList(List<String> filterServerList) {
+        this.filterServerList = filterServerList;
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.rocketmq.common.sysflag;
 
+import org.apache.rocketmq.common.compression.CompressionType;
+
 public class MessageSysFlag {
     public final static int COMPRESSED_FLAG = 0x1;
     public final static int MULTI_TAGS_FLAG = 0x1 << 1;
@@ -23,6 +25,12 @@ public class MessageSysFlag {
     public final static int TRANSACTION_PREPARED_TYPE = 0x1 << 2;
     public final static int TRANSACTION_COMMIT_TYPE = 0x2 << 2;
     public final static int TRANSACTION_ROLLBACK_TYPE = 0x3 << 2;
+    /**
+     * Codec of a compressed body, the {@link CompressionType} value. Zero stands for zlib, so bodies compressed by
+     * older producers keep decoding.
+     */
+    public final static int COMPRESSION_TYPE_COMPARATOR = 0x7 << 8;
+    private final static int COMPRESSION_TYPE_SHIFT = 8;
 
     public static int getTransactionValue(final int flag) {
         return flag & TRANSACTION_ROLLBACK_TYPE;
@@ -33,6 +41,16 @@ public class MessageSysFlag {
     }
 
     public static int clearCompressedFlag(final int flag) {
-        return flag & (~COMPRESSED_FLAG);
+        return flag & (~(COMPRESSED_FLAG | COMPRESSION_TYPE_COMPARATOR));
+    }
+
+    public static CompressionType getCompressionType(final int flag) {
+        int value = (flag & COMPRESSION_TYPE_COMPARATOR) >>> COMPRESSION_TYPE_SHIFT;
+        return value == 0 ? CompressionType.ZLIB : CompressionType.findByValue(value);
+    }
+
+    public static int setCompressionType(final int flag, final CompressionType type) {
+        int value = type == CompressionType.ZLIB ? 0 : type.getValue() << COMPRESSION_TYPE_SHIFT;
+        return (flag & (~COMPRESSION_TYPE_COMPARATOR)) | value;
     }
 }
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.common.compression;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressorTest {
+
+    @Test
+    public void testLz4RoundTrip() throws IOException {
+        Compressor compressor = CompressorFactory.getCompressor(CompressionType.LZ4);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("{\"orderId\":").append(i).append(",\"status\":\"PAID\",\"amount\":100}");
+        }
+        byte[] src = sb.toString().getBytes();
+        byte[] compressed = compressor.compress(src, 0);
+        assertThat(compressed.length).isLessThan(src.length / 4);
+        assertThat(compressor.decompress(compressed)).isEqualTo(src);
+    }
+
+    @Test
+    public void testLz4IncompressibleAndTiny() throws IOException {
+        Compressor compressor = CompressorFactory.getCompressor(CompressionType.LZ4);
+        byte[] random = new byte[64 * 1024];
+        new Random(7).nextBytes(random);
+        assertThat(compressor.decompress(compressor.compress(random, 0))).isEqualTo(random);
+
+        for (int len = 0; len < 32; len++) {
+            byte[] tiny = new byte[len];
+            assertThat(compressor.decompress(compressor.compress(tiny, 0))).isEqualTo(tiny);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testLz4Corrupted() throws IOException {
+        Compressor compressor = CompressorFactory.getCompressor(CompressionType.LZ4);
+        byte[] compressed = compressor.compress(new byte[4096], 0);
+        compressor.decompress(java.util.Arrays.copyOf(compressed, compressed.length - 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void testLz4HugeRawLength() throws IOException {
+        // a corrupt header must be refused before the raw buffer is allocated
+        byte[] compressed = new byte[] {0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x10, 0x00};
+        CompressorFactory.getCompressor(CompressionType.LZ4).decompress(compressed);
+    }
+
+    @Test
+    public void testDecompressLimit() throws IOException {
+        byte[] src = new byte[64 * 1024];
+        for (CompressionType type : CompressionType.values()) {
+            Compressor compressor = CompressorFactory.getCompressor(type);
+            byte[] compressed = compressor.compress(src, 5);
+            assertThat(compressor.decompress(compressed, src.length)).isEqualTo(src);
+            try {
+                compressor.decompress(compressed, src.length - 1);
+                org.junit.Assert.fail("limit not enforced by " + type);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testZlibRoundTrip() throws IOException {
+        Compressor compressor = CompressorFactory.getCompressor(CompressionType.ZLIB);
+        byte[] src = "hello rocketmq, hello rocketmq, hello rocketmq".getBytes();
+        assertThat(compressor.decompress(compressor.compress(src, 5))).isEqualTo(src);
+    }
+
+    @Test
+    public void testZlibDictionary() throws IOException {
+        byte[] dictionary = "{\"orderId\":,\"status\":\"PAID\",\"amount\":}".getBytes();
+        byte[] src = "{\"orderId\":42,\"status\":\"PAID\",\"amount\":100}".getBytes();
+        byte[] compressed = new ZlibCompressor(dictionary).compress(src, 5);
+        assertThat(compressed.length).isLessThan(CompressorFactory.getCompressor(CompressionType.ZLIB).compress(src, 5).length);
+        assertThat(CompressorFactory.getCompressor(CompressionType.ZLIB_DICTIONARY).decompress(compressed)).isEqualTo(src);
+    }
+
+    @Test(expected = IOException.class)
+    public void testZlibUnknownDictionary() throws IOException {
+        Deflater deflater = new Deflater(5);
+        deflater.setDictionary("never registered".getBytes());
+        deflater.setInput("hello rocketmq".getBytes());
+        deflater.finish();
+        byte[] compressed = new byte[128];
+        int len = deflater.deflate(compressed);
+        deflater.end();
+        CompressorFactory.getCompressor(CompressionType.ZLIB).decompress(java.util.Arrays.copyOf(compressed, len));
+    }
+
+    @Test
+    public void testFindByValue() {
+        for (CompressionType type : CompressionType.values()) {
+            assertThat(CompressionType.findByValue(type.getValue())).isEqualTo(type);
+            assertThat(CompressionType.of(type.name().toLowerCase())).isEqualTo(type);
+        }
+    }
+}
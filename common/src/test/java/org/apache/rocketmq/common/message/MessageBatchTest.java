@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.Compressor;
+import org.apache.rocketmq.common.compression.CompressorFactory;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessageBatchTest {
+
+    @Test
+    public void testEncodeCompressed() throws Exception {
+        List<Message> messages = new ArrayList<Message>();
+        for (int i = 0; i < 4; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < 100; j++) {
+                sb.append("{\"orderId\":").append(i * 100 + j).append('}');
+            }
+            Message message = new Message("TopicA", "TagA", "Key" + i, sb.toString().getBytes());
+            message.putUserProperty("index", String.valueOf(i));
+            messages.add(message);
+        }
+        MessageBatch messageBatch = MessageBatch.generateFromList(messages);
+
+        for (CompressionType type : CompressionType.values()) {
+            Compressor compressor = CompressorFactory.getCompressor(type);
+            byte[] encoded = messageBatch.encodeCompressed(compressor, 5);
+            assertThat(encoded.length).isLessThan(messageBatch.encode().length);
+
+            List<Message> decoded = MessageDecoder.decodeMessages(ByteBuffer.wrap(encoded));
+            assertThat(decoded).hasSize(messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+                assertThat(compressor.decompress(decoded.get(i).getBody())).isEqualTo(messages.get(i).getBody());
+                assertThat(decoded.get(i).getKeys()).isEqualTo("Key" + i);
+                assertThat(decoded.get(i).getUserProperty("index")).isEqualTo(String.valueOf(i));
+            }
+        }
+        // the bodies of the batch itself are left as they were
+        for (int i = 0; i < messages.size(); i++) {
+            assertThat(new String(messages.get(i).getBody())).startsWith("{\"orderId\":" + i * 100 + "}");
+        }
+    }
+
+    @Test
+    public void testCloneMessageKeepsBatch() {
+        List<Message> messages = new ArrayList<Message>();
+        messages.add(new Message("TopicA", "first".getBytes()));
+        messages.add(new Message("TopicA", "second".getBytes()));
+        MessageBatch messageBatch = MessageBatch.generateFromList(messages);
+        messageBatch.setBody(messageBatch.encode());
+
+        Message cloned = MessageAccessor.cloneMessage(messageBatch);
+        assertThat(cloned).isInstanceOf(MessageBatch.class);
+        assertThat(cloned.getTopic()).isEqualTo("TopicA");
+        assertThat(cloned.getBody()).isEqualTo(messageBatch.getBody());
+        assertThat((Iterable<Message>) cloned).containsExactlyElementsOf(messageBatch);
+
+        cloned.setBody("swapped".getBytes());
+        assertThat(messageBatch.getBody()).isEqualTo(messageBatch.encode());
+    }
+}
@@ -17,13 +17,18 @@
 
 package org.apache.rocketmq.common.message;
 
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.junit.Test;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.Deflater;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -77,4 +82,63 @@ public class MessageDecoderTest {
         assertThat("hello").isEqualTo(properties.get("b"));
         assertThat("3.14").isEqualTo(properties.get("c"));
     }
+
+    @Test
+    public void testDecodeCompressedBody() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("{\"orderId\":").append(i).append('}');
+        }
+        byte[] body = sb.toString().getBytes();
+
+        for (CompressionType type : CompressionType.values()) {
+            MessageExt messageExt = new MessageExt();
+            messageExt.setTopic("abc");
+            messageExt.setBody(body);
+            messageExt.setBornHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            messageExt.setStoreHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            messageExt.setSysFlag(MessageSysFlag.setCompressionType(MessageSysFlag.COMPRESSED_FLAG, type));
+
+            byte[] msgBytes = MessageDecoder.encode(messageExt, true);
+            assertThat(msgBytes.length).isLessThan(body.length);
+
+            MessageExt decoded = MessageDecoder.decode(ByteBuffer.wrap(msgBytes));
+            assertThat(decoded.getBody()).isEqualTo(body);
+            assertThat(MessageSysFlag.getCompressionType(decoded.getSysFlag())).isEqualTo(type);
+        }
+    }
+
+    @Test
+    public void testDecodesKeepsBodyOfUnknownDictionary() throws Exception {
+        Deflater deflater = new Deflater(5);
+        deflater.setDictionary("never registered".getBytes());
+        deflater.setInput("hello rocketmq".getBytes());
+        deflater.finish();
+        byte[] compressed = new byte[128];
+        compressed = Arrays.copyOf(compressed, deflater.deflate(compressed));
+        deflater.end();
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(4096);
+        for (int i = 0; i < 3; i++) {
+            MessageExt messageExt = new MessageExt();
+            messageExt.setTopic("abc");
+            messageExt.setBornHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            messageExt.setStoreHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            if (i == 1) {
+                messageExt.setBody(compressed);
+                messageExt.setSysFlag(MessageSysFlag.setCompressionType(MessageSysFlag.COMPRESSED_FLAG, CompressionType.ZLIB_DICTIONARY));
+            } else {
+                messageExt.setBody(("body" + i).getBytes());
+            }
+            byteBuffer.put(MessageDecoder.encode(messageExt, false));
+        }
+        byteBuffer.flip();
+
+        List<MessageExt> decoded = MessageDecoder.decodes(byteBuffer);
+        assertThat(decoded).hasSize(3);
+        assertThat(decoded.get(0).getBody()).isEqualTo("body0".getBytes());
+        assertThat(decoded.get(1).getBody()).isEqualTo(compressed);
+        assertThat(MessageSysFlag.getCompressionType(decoded.get(1).getSysFlag())).isEqualTo(CompressionType.ZLIB_DICTIONARY);
+        assertThat(decoded.get(2).getBody()).isEqualTo("body2".getBytes());
+    }
 }
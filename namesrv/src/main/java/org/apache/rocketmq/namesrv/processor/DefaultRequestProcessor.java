@@ -34,6 +34,7 @@ import org.apache.rocketmq.common.namesrv.RegisterBrokerResult;
 import org.apache.rocketmq.common.protocol.RequestCode;
 import org.apache.rocketmq.common.protocol.ResponseCode;
 import org.apache.rocketmq.common.protocol.body.RegisterBrokerBody;
+import org.apache.rocketmq.common.protocol.body.RegisterBrokerDeltaBody;
 import org.apache.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
 import org.apache.rocketmq.common.protocol.header.GetTopicsByClusterRequestHeader;
 import org.apache.rocketmq.common.protocol.header.namesrv.DeleteKVConfigRequestHeader;
@@ -94,6 +95,8 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
                 } else {
                     return this.registerBroker(ctx, request);
                 }
+            case RequestCode.REGISTER_BROKER_DELTA:
+                return this.registerBrokerDelta(ctx, request);
             case RequestCode.UNREGISTER_BROKER:
                 return this.unregisterBroker(ctx, request);
             case RequestCode.GET_ROUTEINTO_BY_TOPIC:
@@ -237,6 +240,55 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
         return response;
     }
 
+    public RemotingCommand registerBrokerDelta(ChannelHandlerContext ctx, RemotingCommand request)
+        throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(RegisterBrokerResponseHeader.class);
+        final RegisterBrokerResponseHeader responseHeader = (RegisterBrokerResponseHeader) response.readCustomHeader();
+        final RegisterBrokerRequestHeader requestHeader =
+            (RegisterBrokerRequestHeader) request.decodeCommandCustomHeader(RegisterBrokerRequestHeader.class);
+
+        if (!checksum(ctx, request, requestHeader)) {
+            response.setCode(ResponseCode.SYSTEM_ERROR);
+            response.setRemark("crc32 not match");
+            return response;
+        }
+
+        RegisterBrokerDeltaBody deltaBody;
+        try {
+            deltaBody = RegisterBrokerDeltaBody.decode(request.getBody(), RegisterBrokerDeltaBody.class);
+        } catch (Exception e) {
+            throw new RemotingCommandException("Failed to decode RegisterBrokerDeltaBody", e);
+        }
+
+        RegisterBrokerResult result = null;
+        if (deltaBody != null) {
+            result = this.namesrvController.getRouteInfoManager().registerBrokerDelta(
+                requestHeader.getClusterName(),
+                requestHeader.getBrokerAddr(),
+                requestHeader.getBrokerName(),
+                requestHeader.getBrokerId(),
+                requestHeader.getHaServerAddr(),
+                deltaBody,
+                ctx.channel());
+        }
+
+        if (null == result) {
+            response.setCode(ResponseCode.REGISTER_BROKER_FULL_REQUIRED);
+            response.setRemark("broker " + requestHeader.getBrokerAddr() + " not registered at the base data version");
+            return response;
+        }
+
+        responseHeader.setHaServerAddr(result.getHaServerAddr());
+        responseHeader.setMasterAddr(result.getMasterAddr());
+
+        byte[] jsonValue = this.namesrvController.getKvConfigManager().getKVListByNamespace(NamesrvUtil.NAMESPACE_ORDER_TOPIC_CONFIG);
+        response.setBody(jsonValue);
+
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        return response;
+    }
+
     private boolean checksum(ChannelHandlerContext ctx, RemotingCommand request,
         RegisterBrokerRequestHeader requestHeader) {
         if (requestHeader.getBodyCrc32() != 0) {
@@ -340,17 +392,22 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
         final GetRouteInfoRequestHeader requestHeader =
             (GetRouteInfoRequestHeader) request.decodeCommandCustomHeader(GetRouteInfoRequestHeader.class);
 
-        TopicRouteData topicRouteData = this.namesrvController.getRouteInfoManager().pickupTopicRouteData(requestHeader.getTopic());
-
-        if (topicRouteData != null) {
-            if (this.namesrvController.getNamesrvConfig().isOrderMessageEnable()) {
+        byte[] content = null;
+        if (this.namesrvController.getNamesrvConfig().isOrderMessageEnable()) {
+            TopicRouteData topicRouteData = this.namesrvController.getRouteInfoManager().pickupTopicRouteData(requestHeader.getTopic());
+            if (topicRouteData != null) {
                 String orderTopicConf =
                     this.namesrvController.getKvConfigManager().getKVConfig(NamesrvUtil.NAMESPACE_ORDER_TOPIC_CONFIG,
                         requestHeader.getTopic());
                 topicRouteData.setOrderTopicConf(orderTopicConf);
+                content = topicRouteData.encode();
             }
+        } else {
+            // the route without order config is the same for every client, serve the shared encoded snapshot
+            content = this.namesrvController.getRouteInfoManager().pickupTopicRouteBody(requestHeader.getTopic());
+        }
 
-            byte[] content = topicRouteData.encode();
+        if (content != null) {
             response.setBody(content);
             response.setCode(ResponseCode.SUCCESS);
             response.setRemark(null);
@@ -17,6 +17,7 @@
 package org.apache.rocketmq.namesrv.routeinfo;
 
 import io.netty.channel.Channel;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -25,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -37,6 +39,7 @@ import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.common.namesrv.RegisterBrokerResult;
 import org.apache.rocketmq.common.protocol.body.ClusterInfo;
+import org.apache.rocketmq.common.protocol.body.RegisterBrokerDeltaBody;
 import org.apache.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
 import org.apache.rocketmq.common.protocol.body.TopicList;
 import org.apache.rocketmq.common.protocol.route.BrokerData;
@@ -45,10 +48,19 @@ import org.apache.rocketmq.common.protocol.route.TopicRouteData;
 import org.apache.rocketmq.common.sysflag.TopicSysFlag;
 import org.apache.rocketmq.remoting.common.RemotingUtil;
 
+/**
+ * Route tables of the name server, all updated under one lock.
+ * <p>
+ * Route queries are served from immutable per topic snapshots, built once under the read lock and kept together with
+ * their encoded form until an update touching the topic drops them. Updates drop the snapshots under the write lock,
+ * and snapshots are only published under the read lock, so a snapshot never outlives the state it was built from.
+ */
 public class RouteInfoManager {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.NAMESRV_LOGGER_NAME);
     private final static long BROKER_CHANNEL_EXPIRED_TIME = 1000 * 60 * 2;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ConcurrentMap<String/* topic */, TopicRouteSnapshot> topicRouteSnapshotTable =
+        new ConcurrentHashMap<String, TopicRouteSnapshot>(1024);
     private final HashMap<String/* topic */, List<QueueData>> topicQueueTable;
     private final HashMap<String/* brokerName */, BrokerData> brokerAddrTable;
     private final HashMap<String/* clusterName */, Set<String/* brokerName */>> clusterAddrTable;
@@ -75,6 +87,7 @@ public class RouteInfoManager {
             try {
                 this.lock.writeLock().lockInterruptibly();
                 this.topicQueueTable.remove(topic);
+                this.topicRouteSnapshotTable.remove(topic);
             } finally {
                 this.lock.writeLock().unlock();
             }
@@ -136,11 +149,15 @@ public class RouteInfoManager {
                     Entry<Long, String> item = it.next();
                     if (null != brokerAddr && brokerAddr.equals(item.getValue()) && brokerId != item.getKey()) {
                         it.remove();
+                        this.topicRouteSnapshotTable.clear();
                     }
                 }
 
                 String oldAddr = brokerData.getBrokerAddrs().put(brokerId, brokerAddr);
                 registerFirst = registerFirst || (null == oldAddr);
+                if (null == oldAddr || !oldAddr.equals(brokerAddr)) {
+                    this.topicRouteSnapshotTable.clear();
+                }
 
                 if (null != topicConfigWrapper
                     && MixAll.MASTER_ID == brokerId) {
@@ -166,13 +183,7 @@ public class RouteInfoManager {
                     log.info("new broker registered, {} HAServer: {}", brokerAddr, haServerAddr);
                 }
 
-                if (filterServerList != null) {
-                    if (filterServerList.isEmpty()) {
-                        this.filterServerTable.remove(brokerAddr);
-                    } else {
-                        this.filterServerTable.put(brokerAddr, filterServerList);
-                    }
-                }
+                this.updateFilterServerList(brokerAddr, filterServerList);
 
                 if (MixAll.MASTER_ID != brokerId) {
                     String masterAddr = brokerData.getBrokerAddrs().get(MixAll.MASTER_ID);
@@ -194,6 +205,91 @@ public class RouteInfoManager {
         return result;
     }
 
+    /**
+     * Apply the topic configs a registered broker changed since {@code baseDataVersion}, and refresh its liveness.
+     *
+     * @return null if the broker is not registered at the base data version and has to register in full
+     */
+    public RegisterBrokerResult registerBrokerDelta(
+        final String clusterName,
+        final String brokerAddr,
+        final String brokerName,
+        final long brokerId,
+        final String haServerAddr,
+        final RegisterBrokerDeltaBody deltaBody,
+        final Channel channel) {
+        RegisterBrokerResult result = new RegisterBrokerResult();
+        try {
+            try {
+                this.lock.writeLock().lockInterruptibly();
+
+                BrokerLiveInfo brokerLiveInfo = this.brokerLiveTable.get(brokerAddr);
+                BrokerData brokerData = this.brokerAddrTable.get(brokerName);
+                Set<String> brokerNames = this.clusterAddrTable.get(clusterName);
+                if (null == brokerLiveInfo || null == brokerData || null == brokerNames
+                    || !brokerNames.contains(brokerName)
+                    || !brokerAddr.equals(brokerData.getBrokerAddrs().get(brokerId))
+                    || !deltaBody.getBaseDataVersion().equals(brokerLiveInfo.getDataVersion())) {
+                    return null;
+                }
+
+                if (MixAll.MASTER_ID == brokerId) {
+                    for (TopicConfig topicConfig : deltaBody.getTopicConfigTable().values()) {
+                        this.createAndUpdateQueueData(brokerName, topicConfig);
+                    }
+                    for (String topic : deltaBody.getRemovedTopics()) {
+                        if (!deltaBody.getTopicConfigTable().containsKey(topic)) {
+                            this.removeQueueDataOfBroker(brokerName, topic);
+                        }
+                    }
+                }
+
+                brokerLiveInfo.setLastUpdateTimestamp(System.currentTimeMillis());
+                brokerLiveInfo.setDataVersion(deltaBody.getDataVersion());
+                brokerLiveInfo.setChannel(channel);
+                brokerLiveInfo.setHaServerAddr(haServerAddr);
+
+                List<String> filterServerList = deltaBody.getFilterServerList();
+                this.updateFilterServerList(brokerAddr, filterServerList);
+
+                if (MixAll.MASTER_ID != brokerId) {
+                    String masterAddr = brokerData.getBrokerAddrs().get(MixAll.MASTER_ID);
+                    if (masterAddr != null) {
+                        BrokerLiveInfo masterLiveInfo = this.brokerLiveTable.get(masterAddr);
+                        if (masterLiveInfo != null) {
+                            result.setHaServerAddr(masterLiveInfo.getHaServerAddr());
+                            result.setMasterAddr(masterAddr);
+                        }
+                    }
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        } catch (Exception e) {
+            log.error("registerBrokerDelta Exception", e);
+            return null;
+        }
+
+        return result;
+    }
+
+    private void updateFilterServerList(final String brokerAddr, final List<String> filterServerList) {
+        if (null == filterServerList) {
+            return;
+        }
+
+        List<String> prev;
+        if (filterServerList.isEmpty()) {
+            prev = this.filterServerTable.remove(brokerAddr);
+        } else {
+            prev = this.filterServerTable.put(brokerAddr, filterServerList);
+        }
+        boolean changed = filterServerList.isEmpty() ? prev != null : !filterServerList.equals(prev);
+        if (changed) {
+            this.topicRouteSnapshotTable.clear();
+        }
+    }
+
     public boolean isBrokerTopicConfigChanged(final String brokerAddr, final DataVersion dataVersion) {
         DataVersion prev = queryBrokerTopicConfig(brokerAddr);
         return null == prev || !prev.equals(dataVersion);
@@ -227,6 +323,7 @@ public class RouteInfoManager {
             queueDataList = new LinkedList<QueueData>();
             queueDataList.add(queueData);
             this.topicQueueTable.put(topicConfig.getTopicName(), queueDataList);
+            this.topicRouteSnapshotTable.remove(topicConfig.getTopicName());
             log.info("new topic registered, {} {}", topicConfig.getTopicName(), queueData);
         } else {
             boolean addNewOne = true;
@@ -247,10 +344,33 @@ public class RouteInfoManager {
 
             if (addNewOne) {
                 queueDataList.add(queueData);
+                this.topicRouteSnapshotTable.remove(topicConfig.getTopicName());
             }
         }
     }
 
+    private void removeQueueDataOfBroker(final String brokerName, final String topic) {
+        List<QueueData> queueDataList = this.topicQueueTable.get(topic);
+        if (null == queueDataList) {
+            return;
+        }
+
+        Iterator<QueueData> it = queueDataList.iterator();
+        while (it.hasNext()) {
+            QueueData qd = it.next();
+            if (qd.getBrokerName().equals(brokerName)) {
+                log.info("topic removed from broker, {} {}", topic, qd);
+                it.remove();
+                this.topicRouteSnapshotTable.remove(topic);
+            }
+        }
+
+        if (queueDataList.isEmpty()) {
+            this.topicQueueTable.remove(topic);
+            log.info("topic removed, {}", topic);
+        }
+    }
+
     public int wipeWritePermOfBrokerByLock(final String brokerName) {
         try {
             try {
@@ -281,6 +401,7 @@ public class RouteInfoManager {
                     perm &= ~PermName.PERM_WRITE;
                     qd.setPerm(perm);
                     wipeTopicCnt++;
+                    this.topicRouteSnapshotTable.remove(entry.getKey());
                 }
             }
         }
@@ -302,7 +423,9 @@ public class RouteInfoManager {
                     brokerAddr
                 );
 
-                this.filterServerTable.remove(brokerAddr);
+                if (this.filterServerTable.remove(brokerAddr) != null) {
+                    this.topicRouteSnapshotTable.clear();
+                }
 
                 boolean removeBrokerName = false;
                 BrokerData brokerData = this.brokerAddrTable.get(brokerName);
@@ -312,6 +435,9 @@ public class RouteInfoManager {
                         addr != null ? "OK" : "Failed",
                         brokerAddr
                     );
+                    if (addr != null) {
+                        this.topicRouteSnapshotTable.clear();
+                    }
 
                     if (brokerData.getBrokerAddrs().isEmpty()) {
                         this.brokerAddrTable.remove(brokerName);
@@ -372,42 +498,39 @@ public class RouteInfoManager {
     }
 
     public TopicRouteData pickupTopicRouteData(final String topic) {
-        TopicRouteData topicRouteData = new TopicRouteData();
-        boolean foundQueueData = false;
-        boolean foundBrokerData = false;
-        Set<String> brokerNameSet = new HashSet<String>();
-        List<BrokerData> brokerDataList = new LinkedList<BrokerData>();
-        topicRouteData.setBrokerDatas(brokerDataList);
+        TopicRouteSnapshot snapshot = this.pickupTopicRouteSnapshot(topic);
+        if (null == snapshot) {
+            return null;
+        }
+        return snapshot.getTopicRouteData().cloneTopicRouteData();
+    }
 
-        HashMap<String, List<String>> filterServerMap = new HashMap<String, List<String>>();
-        topicRouteData.setFilterServerTable(filterServerMap);
+    /**
+     * @return the encoded route of the topic, shared by all callers, or null if the topic has no route
+     */
+    public byte[] pickupTopicRouteBody(final String topic) {
+        TopicRouteSnapshot snapshot = this.pickupTopicRouteSnapshot(topic);
+        if (null == snapshot) {
+            return null;
+        }
+        return snapshot.getBody();
+    }
+
+    private TopicRouteSnapshot pickupTopicRouteSnapshot(final String topic) {
+        TopicRouteSnapshot snapshot = this.topicRouteSnapshotTable.get(topic);
+        if (snapshot != null) {
+            return snapshot;
+        }
 
         try {
             try {
                 this.lock.readLock().lockInterruptibly();
-                List<QueueData> queueDataList = this.topicQueueTable.get(topic);
-                if (queueDataList != null) {
-                    topicRouteData.setQueueDatas(queueDataList);
-                    foundQueueData = true;
-
-                    Iterator<QueueData> it = queueDataList.iterator();
-                    while (it.hasNext()) {
-                        QueueData qd = it.next();
-                        brokerNameSet.add(qd.getBrokerName());
-                    }
-
-                    for (String brokerName : brokerNameSet) {
-                        BrokerData brokerData = this.brokerAddrTable.get(brokerName);
-                        if (null != brokerData) {
-                            BrokerData brokerDataClone = new BrokerData(brokerData.getCluster(), brokerData.getBrokerName(), (HashMap<Long, String>) brokerData
-                                .getBrokerAddrs().clone());
-                            brokerDataList.add(brokerDataClone);
-                            foundBrokerData = true;
-                            for (final String brokerAddr : brokerDataClone.getBrokerAddrs().values()) {
-                                List<String> filterServerList = this.filterServerTable.get(brokerAddr);
-                                filterServerMap.put(brokerAddr, filterServerList);
-                            }
-                        }
+                TopicRouteData topicRouteData = this.buildTopicRouteData(topic);
+                if (topicRouteData != null) {
+                    snapshot = new TopicRouteSnapshot(topicRouteData);
+                    TopicRouteSnapshot prev = this.topicRouteSnapshotTable.putIfAbsent(topic, snapshot);
+                    if (prev != null) {
+                        snapshot = prev;
                     }
                 }
             } finally {
@@ -417,13 +540,54 @@ public class RouteInfoManager {
             log.error("pickupTopicRouteData Exception", e);
         }
 
-        log.debug("pickupTopicRouteData {} {}", topic, topicRouteData);
+        log.debug("pickupTopicRouteData {} {}", topic, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Copies the route of the topic out of the tables, called with the read lock held.
+     */
+    private TopicRouteData buildTopicRouteData(final String topic) {
+        List<QueueData> queueDataList = this.topicQueueTable.get(topic);
+        if (null == queueDataList) {
+            return null;
+        }
 
-        if (foundBrokerData && foundQueueData) {
-            return topicRouteData;
+        TopicRouteData topicRouteData = new TopicRouteData();
+        List<QueueData> queueDataListClone = new ArrayList<QueueData>(queueDataList.size());
+        Set<String> brokerNameSet = new HashSet<String>();
+        for (QueueData qd : queueDataList) {
+            QueueData queueDataClone = new QueueData();
+            queueDataClone.setBrokerName(qd.getBrokerName());
+            queueDataClone.setReadQueueNums(qd.getReadQueueNums());
+            queueDataClone.setWriteQueueNums(qd.getWriteQueueNums());
+            queueDataClone.setPerm(qd.getPerm());
+            queueDataClone.setTopicSynFlag(qd.getTopicSynFlag());
+            queueDataListClone.add(queueDataClone);
+            brokerNameSet.add(qd.getBrokerName());
         }
+        topicRouteData.setQueueDatas(queueDataListClone);
 
-        return null;
+        List<BrokerData> brokerDataList = new LinkedList<BrokerData>();
+        HashMap<String, List<String>> filterServerMap = new HashMap<String, List<String>>();
+        for (String brokerName : brokerNameSet) {
+            BrokerData brokerData = this.brokerAddrTable.get(brokerName);
+            if (null != brokerData) {
+                BrokerData brokerDataClone = new BrokerData(brokerData.getCluster(), brokerData.getBrokerName(), (HashMap<Long, String>) brokerData
+                    .getBrokerAddrs().clone());
+                brokerDataList.add(brokerDataClone);
+                for (final String brokerAddr : brokerDataClone.getBrokerAddrs().values()) {
+                    List<String> filterServerList = this.filterServerTable.get(brokerAddr);
+                    filterServerMap.put(brokerAddr, filterServerList);
+                }
+            }
+        }
+        if (brokerDataList.isEmpty()) {
+            return null;
+        }
+        topicRouteData.setBrokerDatas(brokerDataList);
+        topicRouteData.setFilterServerTable(filterServerMap);
+        return topicRouteData;
     }
 
     public void scanNotActiveBroker() {
@@ -476,6 +640,7 @@ public class RouteInfoManager {
                     this.lock.writeLock().lockInterruptibly();
                     this.brokerLiveTable.remove(brokerAddrFound);
                     this.filterServerTable.remove(brokerAddrFound);
+                    this.topicRouteSnapshotTable.clear();
                     String brokerNameFound = null;
                     boolean removeBrokerName = false;
                     Iterator<Entry<String, BrokerData>> itBrokerAddrTable =
@@ -804,3 +969,33 @@ class BrokerLiveInfo {
             + ", channel=" + channel + ", haServerAddr=" + haServerAddr + "]";
     }
 }
+
+class TopicRouteSnapshot {
+    private final TopicRouteData topicRouteData;
+    private volatile byte[] body;
+
+    TopicRouteSnapshot(final TopicRouteData topicRouteData) {
+        this.topicRouteData = topicRouteData;
+    }
+
+    public TopicRouteData getTopicRouteData() {
+        return topicRouteData;
+    }
+
+    /**
+     * Encoded on first use, racing callers may encode it twice.
+     */
+    public byte[] getBody() {
+        byte[] encoded = this.body;
+        if (null == encoded) {
+            encoded = this.topicRouteData.encode();
+            this.body = encoded;
+        }
+        return encoded;
+    }
+
+    @Override
+    public String toString() {
+        return "TopicRouteSnapshot [topicRouteData=" + topicRouteData + "]";
+    }
+}
@@ -19,8 +19,11 @@ package org.apache.rocketmq.namesrv.routeinfo;
 import io.netty.channel.Channel;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
+import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.TopicConfig;
+import org.apache.rocketmq.common.constant.PermName;
 import org.apache.rocketmq.common.namesrv.RegisterBrokerResult;
+import org.apache.rocketmq.common.protocol.body.RegisterBrokerDeltaBody;
 import org.apache.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
 import org.apache.rocketmq.common.protocol.route.TopicRouteData;
 import org.junit.After;
@@ -78,6 +81,55 @@ public class RouteInfoManagerTest {
         assertThat(registerBrokerResult).isNotNull();
     }
 
+    @Test
+    public void testRegisterBrokerDelta() {
+        TopicConfigSerializeWrapper topicConfigSerializeWrapper = new TopicConfigSerializeWrapper();
+        topicConfigSerializeWrapper.getDataVersion().nextVersion();
+        topicConfigSerializeWrapper.getTopicConfigTable().put("delta-a", new TopicConfig("delta-a", 8, 8, 6));
+        Channel channel = mock(Channel.class);
+        routeInfoManager.registerBroker("default-cluster", "127.0.0.1:10921", "delta-broker", MixAll.MASTER_ID, "127.0.0.1:1011",
+            topicConfigSerializeWrapper, new ArrayList<String>(), channel);
+        assertThat(routeInfoManager.pickupTopicRouteData("delta-a")).isNotNull();
+
+        RegisterBrokerDeltaBody deltaBody = new RegisterBrokerDeltaBody();
+        deltaBody.setBaseDataVersion(topicConfigSerializeWrapper.getDataVersion());
+        deltaBody.getDataVersion().assignNewOne(topicConfigSerializeWrapper.getDataVersion());
+        deltaBody.getDataVersion().nextVersion();
+        deltaBody.getTopicConfigTable().put("delta-b", new TopicConfig("delta-b", 4, 4, 6));
+        deltaBody.getRemovedTopics().add("delta-a");
+        RegisterBrokerResult registerBrokerResult = routeInfoManager.registerBrokerDelta("default-cluster", "127.0.0.1:10921",
+            "delta-broker", MixAll.MASTER_ID, "127.0.0.1:1011", deltaBody, channel);
+        assertThat(registerBrokerResult).isNotNull();
+        assertThat(routeInfoManager.pickupTopicRouteData("delta-a")).isNull();
+        assertThat(routeInfoManager.pickupTopicRouteData("delta-b").getQueueDatas().get(0).getWriteQueueNums()).isEqualTo(4);
+
+        // the base data version is no longer the one held by the name server
+        registerBrokerResult = routeInfoManager.registerBrokerDelta("default-cluster", "127.0.0.1:10921",
+            "delta-broker", MixAll.MASTER_ID, "127.0.0.1:1011", deltaBody, channel);
+        assertThat(registerBrokerResult).isNull();
+
+        routeInfoManager.unregisterBroker("default-cluster", "127.0.0.1:10921", "delta-broker", MixAll.MASTER_ID);
+    }
+
+    @Test
+    public void testTopicRouteSnapshot() {
+        TopicConfigSerializeWrapper topicConfigSerializeWrapper = new TopicConfigSerializeWrapper();
+        topicConfigSerializeWrapper.getTopicConfigTable().put("snapshot-topic", new TopicConfig("snapshot-topic", 8, 8, 6));
+        routeInfoManager.registerBroker("default-cluster", "127.0.0.1:10931", "snapshot-broker", MixAll.MASTER_ID, "127.0.0.1:1021",
+            topicConfigSerializeWrapper, new ArrayList<String>(), mock(Channel.class));
+
+        byte[] body = routeInfoManager.pickupTopicRouteBody("snapshot-topic");
+        assertThat(body).isNotNull();
+        assertThat(routeInfoManager.pickupTopicRouteBody("snapshot-topic")).isSameAs(body);
+
+        routeInfoManager.wipeWritePermOfBrokerByLock("snapshot-broker");
+        TopicRouteData topicRouteData = TopicRouteData.decode(routeInfoManager.pickupTopicRouteBody("snapshot-topic"), TopicRouteData.class);
+        assertThat(topicRouteData.getQueueDatas().get(0).getPerm()).isEqualTo(PermName.PERM_READ);
+
+        routeInfoManager.unregisterBroker("default-cluster", "127.0.0.1:10931", "snapshot-broker", MixAll.MASTER_ID);
+        assertThat(routeInfoManager.pickupTopicRouteBody("snapshot-topic")).isNull();
+    }
+
     @Test
     public void testWipeWritePermOfBrokerByLock() {
         int result = routeInfoManager.wipeWritePermOfBrokerByLock("default-broker");
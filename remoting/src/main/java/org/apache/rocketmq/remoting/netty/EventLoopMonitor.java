@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.netty;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Samples the task queue depth of every event loop of a group and how long a task waits there before it runs.
+ */
+public class EventLoopMonitor {
+    private final String name;
+    private final List<EventExecutor> executors = new ArrayList<EventExecutor>();
+    private final AtomicIntegerArray pendingTasks;
+    private final AtomicLongArray latencyNanos;
+
+    public EventLoopMonitor(final String name, final EventExecutorGroup group) {
+        this.name = name;
+        for (EventExecutor executor : group) {
+            this.executors.add(executor);
+        }
+        this.pendingTasks = new AtomicIntegerArray(this.executors.size());
+        this.latencyNanos = new AtomicLongArray(this.executors.size());
+    }
+
+    /**
+     * Record the queue depths and post a probe to every loop, the probe reports its wait when it runs.
+     */
+    public void probe() {
+        for (int i = 0; i < this.executors.size(); i++) {
+            EventExecutor executor = this.executors.get(i);
+            if (executor.isShuttingDown()) {
+                continue;
+            }
+            if (executor instanceof SingleThreadEventExecutor) {
+                this.pendingTasks.set(i, ((SingleThreadEventExecutor) executor).pendingTasks());
+            }
+
+            final int index = i;
+            final long beginTime = System.nanoTime();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    EventLoopMonitor.this.latencyNanos.set(index, System.nanoTime() - beginTime);
+                }
+            });
+        }
+    }
+
+    public HashMap<String, String> getRuntimeInfo() {
+        HashMap<String, String> result = new HashMap<String, String>();
+        for (int i = 0; i < this.executors.size(); i++) {
+            result.put(String.format("%s_%d", this.name, i),
+                String.format("pendingTasks: %d, latencyMicros: %d", this.pendingTasks.get(i), this.latencyNanos.get(i) / 1000));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.netty;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consolidates the flushes of a channel, so a burst of commands leaves in one write to the socket.
+ * <p>
+ * A flush is passed on once {@code maxPendingFlushes} flushes are pending, otherwise it is deferred to a task that runs
+ * after {@code flushDelayMicros}, or right after the tasks already queued on the event loop when the delay is 0.
+ * Flushes issued while reading are passed on when the read completes. Must run on the event loop of the channel.
+ */
+public class FlushConsolidationHandler extends ChannelDuplexHandler {
+    private final int maxPendingFlushes;
+    private final long flushDelayMicros;
+    private final Runnable flushTask;
+    private ChannelHandlerContext ctx;
+    private int pendingFlushes;
+    private boolean readInProgress;
+    private boolean flushScheduled;
+
+    public FlushConsolidationHandler(final int maxPendingFlushes, final long flushDelayMicros) {
+        if (maxPendingFlushes <= 0) {
+            throw new IllegalArgumentException("maxPendingFlushes: " + maxPendingFlushes + " (expected: > 0)");
+        }
+        this.maxPendingFlushes = maxPendingFlushes;
+        this.flushDelayMicros = Math.max(0, flushDelayMicros);
+        this.flushTask = new Runnable() {
+            @Override
+            public void run() {
+                FlushConsolidationHandler.this.flushScheduled = false;
+                if (FlushConsolidationHandler.this.pendingFlushes > 0 && !FlushConsolidationHandler.this.readInProgress) {
+                    FlushConsolidationHandler.this.flushNow();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (++this.pendingFlushes >= this.maxPendingFlushes) {
+            this.flushNow();
+        } else if (!this.readInProgress) {
+            this.scheduleFlush();
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        this.readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        this.readInProgress = false;
+        this.flushIfNeeded();
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (!ctx.channel().isWritable()) {
+            // let the socket drain what is already written
+            this.flushIfNeeded();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        this.flushIfNeeded();
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        this.flushIfNeeded();
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        this.flushIfNeeded();
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        this.flushIfNeeded();
+    }
+
+    private void scheduleFlush() {
+        if (this.flushScheduled) {
+            return;
+        }
+        this.flushScheduled = true;
+        if (this.flushDelayMicros > 0) {
+            this.ctx.executor().schedule(this.flushTask, this.flushDelayMicros, TimeUnit.MICROSECONDS);
+        } else {
+            this.ctx.executor().execute(this.flushTask);
+        }
+    }
+
+    private void flushIfNeeded() {
+        if (this.pendingFlushes > 0) {
+            this.flushNow();
+        }
+    }
+
+    private void flushNow() {
+        this.pendingFlushes = 0;
+        this.ctx.flush();
+    }
+}
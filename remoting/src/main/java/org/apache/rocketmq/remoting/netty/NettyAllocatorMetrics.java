@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.netty;
+
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PoolChunkListMetric;
+import io.netty.buffer.PoolChunkMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Usage of {@link PooledByteBufAllocator#DEFAULT}, the allocator of the remoting server and client.
+ */
+public class NettyAllocatorMetrics {
+
+    public static HashMap<String, String> getRuntimeInfo() {
+        PooledByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+        HashMap<String, String> result = new HashMap<String, String>();
+        result.put("nettyPooledDirectArenas", String.valueOf(allocator.numDirectArenas()));
+        result.put("nettyPooledDirectMemory", String.valueOf(usedMemory(allocator.directArenas())));
+        result.put("nettyPooledDirectActiveAllocations", String.valueOf(activeAllocations(allocator.directArenas())));
+        result.put("nettyPooledHeapArenas", String.valueOf(allocator.numHeapArenas()));
+        result.put("nettyPooledHeapMemory", String.valueOf(usedMemory(allocator.heapArenas())));
+        result.put("nettyPooledHeapActiveAllocations", String.valueOf(activeAllocations(allocator.heapArenas())));
+        return result;
+    }
+
+    /**
+     * @return bytes of the chunks the arenas hold, used or not
+     */
+    public static long usedMemory(final List<PoolArenaMetric> arenas) {
+        long used = 0;
+        for (PoolArenaMetric arena : arenas) {
+            for (PoolChunkListMetric chunkList : arena.chunkLists()) {
+                for (PoolChunkMetric chunk : chunkList) {
+                    used += chunk.chunkSize();
+                }
+            }
+        }
+        return used;
+    }
+
+    public static long activeAllocations(final List<PoolArenaMetric> arenas) {
+        long active = 0;
+        for (PoolArenaMetric arena : arenas) {
+            active += arena.numActiveAllocations();
+        }
+        return active;
+    }
+}
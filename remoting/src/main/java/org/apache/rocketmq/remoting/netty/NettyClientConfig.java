@@ -35,11 +35,42 @@ public class NettyClientConfig {
 
     private int clientSocketSndBufSize = NettySystemConfig.socketSndbufSize;
     private int clientSocketRcvBufSize = NettySystemConfig.socketRcvbufSize;
-    private boolean clientPooledByteBufAllocatorEnable = false;
+    private boolean clientPooledByteBufAllocatorEnable = true;
     private boolean clientCloseSocketIfTimeout = false;
 
     private boolean useTLS;
 
+    /**
+     * Consolidate the flushes of every connection, so pipelined requests to the same server leave in one write.
+     */
+    private boolean clientFlushConsolidationEnable = false;
+    private int clientFlushMaxPendingWrites = 64;
+    private long clientFlushDelayMicros = 0;
+
+    public boolean isClientFlushConsolidationEnable() {
+        return clientFlushConsolidationEnable;
+    }
+
+    public void setClientFlushConsolidationEnable(boolean clientFlushConsolidationEnable) {
+        this.clientFlushConsolidationEnable = clientFlushConsolidationEnable;
+    }
+
+    public int getClientFlushMaxPendingWrites() {
+        return clientFlushMaxPendingWrites;
+    }
+
+    public void setClientFlushMaxPendingWrites(int clientFlushMaxPendingWrites) {
+        this.clientFlushMaxPendingWrites = clientFlushMaxPendingWrites;
+    }
+
+    public long getClientFlushDelayMicros() {
+        return clientFlushDelayMicros;
+    }
+
+    public void setClientFlushDelayMicros(long clientFlushDelayMicros) {
+        this.clientFlushDelayMicros = clientFlushDelayMicros;
+    }
+
     public boolean isClientCloseSocketIfTimeout() {
         return clientCloseSocketIfTimeout;
     }
@@ -17,36 +17,56 @@
 package org.apache.rocketmq.remoting.netty;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
-import java.nio.ByteBuffer;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import java.util.List;
 import org.apache.rocketmq.remoting.common.RemotingHelper;
 import org.apache.rocketmq.remoting.common.RemotingUtil;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 
+/**
+ * Writes the header of a command into a buffer of the channel allocator. Large bodies are not copied but wrapped
+ * behind the header in a composite buffer, small ones are appended to the header buffer.
+ */
 @ChannelHandler.Sharable
-public class NettyEncoder extends MessageToByteEncoder<RemotingCommand> {
+public class NettyEncoder extends MessageToMessageEncoder<RemotingCommand> {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(RemotingHelper.ROCKETMQ_REMOTING);
+    private static final int HEADER_INITIAL_CAPACITY = 256;
+    private static final int COMPOSITE_BODY_THRESHOLD = 1024 * 4;
 
     @Override
-    public void encode(ChannelHandlerContext ctx, RemotingCommand remotingCommand, ByteBuf out)
+    public void encode(ChannelHandlerContext ctx, RemotingCommand remotingCommand, List<Object> out)
         throws Exception {
+        ByteBuf header = null;
         try {
-            ByteBuffer header = remotingCommand.encodeHeader();
-            out.writeBytes(header);
             byte[] body = remotingCommand.getBody();
-            if (body != null) {
-                out.writeBytes(body);
+            boolean wrapBody = body != null && body.length >= COMPOSITE_BODY_THRESHOLD;
+            int bodyLength = body != null && !wrapBody ? body.length : 0;
+
+            header = ctx.alloc().ioBuffer(HEADER_INITIAL_CAPACITY + bodyLength);
+            remotingCommand.fastEncodeHeader(header);
+            if (wrapBody) {
+                out.add(Unpooled.wrappedBuffer(header, Unpooled.wrappedBuffer(body)));
+            } else {
+                if (body != null) {
+                    header.writeBytes(body);
+                }
+                out.add(header);
             }
         } catch (Exception e) {
+            if (header != null) {
+                header.release();
+            }
             log.error("encode exception, " + RemotingHelper.parseChannelRemoteAddr(ctx.channel()), e);
             if (remotingCommand != null) {
                 log.error(remotingCommand.toString());
             }
             RemotingUtil.closeChannel(ctx.channel());
+            out.add(Unpooled.EMPTY_BUFFER);
         }
     }
 }
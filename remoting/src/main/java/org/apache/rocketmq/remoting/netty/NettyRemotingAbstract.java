@@ -22,19 +22,20 @@ import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslHandler;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
@@ -68,11 +69,22 @@ public abstract class NettyRemotingAbstract {
      */
     protected final Semaphore semaphoreAsync;
 
+    /**
+     * Expires the on-going asynchronous requests, one timeout per request, shared by all clients and servers.
+     */
+    private static final Timer RESPONSE_TIMEOUT_TIMER = new HashedWheelTimer(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "NettyResponseTimeoutTimer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }, 10, TimeUnit.MILLISECONDS);
+
     /**
      * This map caches all on-going requests.
      */
-    protected final ConcurrentMap<Integer /* opaque */, ResponseFuture> responseTable =
-        new ConcurrentHashMap<Integer, ResponseFuture>(256);
+    protected final ResponseTable responseTable = new ResponseTable();
 
     /**
      * This container holds all processors per request code, aka, for each incoming request, we may look up the
@@ -240,6 +252,11 @@ public abstract class NettyRemotingAbstract {
                 return;
             }
 
+            if (pair.getObject2() instanceof InlineExecutorService && !pair.getObject2().isShutdown()) {
+                run.run();
+                return;
+            }
+
             try {
                 final RequestTask requestTask = new RequestTask(run, ctx.channel(), cmd);
                 pair.getObject2().submit(requestTask);
@@ -276,12 +293,11 @@ public abstract class NettyRemotingAbstract {
      */
     public void processResponseCommand(ChannelHandlerContext ctx, RemotingCommand cmd) {
         final int opaque = cmd.getOpaque();
-        final ResponseFuture responseFuture = responseTable.get(opaque);
+        final ResponseFuture responseFuture = responseTable.remove(opaque);
         if (responseFuture != null) {
+            responseFuture.cancelTimeout();
             responseFuture.setResponseCommand(cmd);
 
-            responseTable.remove(opaque);
-
             if (responseFuture.getInvokeCallback() != null) {
                 executeInvokeCallback(responseFuture);
             } else {
@@ -367,19 +383,17 @@ public abstract class NettyRemotingAbstract {
 
     /**
      * <p>
-     * This method is periodically invoked to scan and expire deprecated request.
+     * Scan and expire all deprecated requests at once. Asynchronous requests are expired one by one by their own
+     * timeout already, this is left for callers wanting to sweep the table.
      * </p>
      */
     public void scanResponseTable() {
         final List<ResponseFuture> rfList = new LinkedList<ResponseFuture>();
-        Iterator<Entry<Integer, ResponseFuture>> it = this.responseTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<Integer, ResponseFuture> next = it.next();
-            ResponseFuture rep = next.getValue();
-
-            if ((rep.getBeginTimestamp() + rep.getTimeoutMillis() + 1000) <= System.currentTimeMillis()) {
+        for (ResponseFuture rep : this.responseTable.values()) {
+            if ((rep.getBeginTimestamp() + rep.getTimeoutMillis() + 1000) <= System.currentTimeMillis()
+                && this.responseTable.remove(rep.getOpaque(), rep)) {
+                rep.cancelTimeout();
                 rep.release();
-                it.remove();
                 rfList.add(rep);
                 log.warn("remove timeout request, " + rep);
             }
@@ -452,6 +466,12 @@ public abstract class NettyRemotingAbstract {
 
             final ResponseFuture responseFuture = new ResponseFuture(channel, opaque, timeoutMillis - costTime, invokeCallback, once);
             this.responseTable.put(opaque, responseFuture);
+            responseFuture.setTimeout(RESPONSE_TIMEOUT_TIMER.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) {
+                    requestTimeout(opaque, responseFuture);
+                }
+            }, responseFuture.getTimeoutMillis(), TimeUnit.MILLISECONDS));
             try {
                 channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
                     @Override
@@ -485,9 +505,24 @@ public abstract class NettyRemotingAbstract {
         }
     }
 
+    private void requestTimeout(final int opaque, final ResponseFuture responseFuture) {
+        if (!this.responseTable.remove(opaque, responseFuture)) {
+            return;
+        }
+
+        responseFuture.release();
+        log.warn("remove timeout request, " + responseFuture);
+        try {
+            executeInvokeCallback(responseFuture);
+        } catch (Throwable e) {
+            log.warn("requestTimeout, operationComplete Exception", e);
+        }
+    }
+
     private void requestFail(final int opaque) {
         ResponseFuture responseFuture = responseTable.remove(opaque);
         if (responseFuture != null) {
+            responseFuture.cancelTimeout();
             responseFuture.setSendRequestOK(false);
             responseFuture.putResponse(null);
             try {
@@ -505,14 +540,9 @@ public abstract class NettyRemotingAbstract {
      * @param channel the channel which is close already
      */
     protected void failFast(final Channel channel) {
-        Iterator<Entry<Integer, ResponseFuture>> it = responseTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<Integer, ResponseFuture> entry = it.next();
-            if (entry.getValue().getProcessChannel() == channel) {
-                Integer opaque = entry.getKey();
-                if (opaque != null) {
-                    requestFail(opaque);
-                }
+        for (ResponseFuture responseFuture : responseTable.values()) {
+            if (responseFuture.getProcessChannel() == channel) {
+                requestFail(responseFuture.getOpaque());
             }
         }
     }
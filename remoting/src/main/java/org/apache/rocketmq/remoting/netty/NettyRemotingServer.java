@@ -29,6 +29,7 @@ import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -38,9 +39,11 @@ import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.security.cert.CertificateException;
+import java.util.HashMap;
 import java.util.NoSuchElementException;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -75,6 +78,8 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
 
     private final Timer timer = new Timer("ServerHouseKeepingService", true);
     private DefaultEventExecutorGroup defaultEventExecutorGroup;
+    private final EventLoopMonitor eventLoopMonitor;
+    private EventLoopMonitor codecEventLoopMonitor;
 
 
     private int port = 0;
@@ -82,6 +87,7 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
     private static final String HANDSHAKE_HANDLER_NAME = "handshakeHandler";
     private static final String TLS_HANDLER_NAME = "sslHandler";
     private static final String FILE_REGION_ENCODER_NAME = "fileRegionEncoder";
+    private static final String FLUSH_CONSOLIDATION_HANDLER_NAME = "flushConsolidationHandler";
 
     // sharable handlers
     private HandshakeHandler handshakeHandler;
@@ -115,7 +121,7 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
         });
 
         if (useEpoll()) {
-            this.eventLoopGroupBoss = new EpollEventLoopGroup(1, new ThreadFactory() {
+            this.eventLoopGroupBoss = new EpollEventLoopGroup(useReusePort() ? nettyServerConfig.getServerReusePortAcceptors() : 1, new ThreadFactory() {
                 private AtomicInteger threadIndex = new AtomicInteger(0);
 
                 @Override
@@ -154,6 +160,8 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
             });
         }
 
+        this.eventLoopMonitor = new EventLoopMonitor("nettyServerSelector", this.eventLoopGroupSelector);
+
         loadSslContext();
     }
 
@@ -179,6 +187,17 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
             && Epoll.isAvailable();
     }
 
+    private boolean useReusePort() {
+        return useEpoll() && nettyServerConfig.getServerReusePortAcceptors() > 1;
+    }
+
+    /**
+     * @return the group running the codec and the dispatch, null for the selector threads themselves
+     */
+    private EventExecutorGroup codecExecutorGroup() {
+        return nettyServerConfig.isServerInlineCodecEnable() ? null : defaultEventExecutorGroup;
+    }
+
     @Override
     public void start() {
         this.defaultEventExecutorGroup = new DefaultEventExecutorGroup(
@@ -193,6 +212,10 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
                 }
             });
 
+        if (codecExecutorGroup() != null) {
+            this.codecEventLoopMonitor = new EventLoopMonitor("nettyServerCodec", this.defaultEventExecutorGroup);
+        }
+
         prepareSharableHandlers();
 
         ServerBootstrap childHandler =
@@ -209,14 +232,18 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
                     @Override
                     public void initChannel(SocketChannel ch) throws Exception {
                         ch.pipeline()
-                            .addLast(defaultEventExecutorGroup, HANDSHAKE_HANDLER_NAME, handshakeHandler)
-                            .addLast(defaultEventExecutorGroup,
+                            .addLast(codecExecutorGroup(), HANDSHAKE_HANDLER_NAME, handshakeHandler)
+                            .addLast(codecExecutorGroup(),
                                 encoder,
                                 new NettyDecoder(),
                                 new IdleStateHandler(0, 0, nettyServerConfig.getServerChannelMaxIdleTimeSeconds()),
                                 connectionManageHandler,
                                 serverHandler
                             );
+                        if (nettyServerConfig.isServerFlushConsolidationEnable()) {
+                            ch.pipeline().addFirst(FLUSH_CONSOLIDATION_HANDLER_NAME, new FlushConsolidationHandler(
+                                nettyServerConfig.getServerFlushMaxPendingWrites(), nettyServerConfig.getServerFlushDelayMicros()));
+                        }
                     }
                 });
 
@@ -224,10 +251,21 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
             childHandler.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
         }
 
+        if (useReusePort()) {
+            childHandler.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+
         try {
             ChannelFuture sync = this.serverBootstrap.bind().sync();
             InetSocketAddress addr = (InetSocketAddress) sync.channel().localAddress();
             this.port = addr.getPort();
+
+            if (useReusePort()) {
+                for (int i = 1; i < nettyServerConfig.getServerReusePortAcceptors(); i++) {
+                    this.serverBootstrap.bind(this.port).sync();
+                }
+                log.info("{} acceptors bound to port {} with SO_REUSEPORT", nettyServerConfig.getServerReusePortAcceptors(), this.port);
+            }
         } catch (InterruptedException e1) {
             throw new RuntimeException("this.serverBootstrap.bind().sync() InterruptedException", e1);
         }
@@ -241,9 +279,12 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
             @Override
             public void run() {
                 try {
-                    NettyRemotingServer.this.scanResponseTable();
+                    NettyRemotingServer.this.eventLoopMonitor.probe();
+                    if (NettyRemotingServer.this.codecEventLoopMonitor != null) {
+                        NettyRemotingServer.this.codecEventLoopMonitor.probe();
+                    }
                 } catch (Throwable e) {
-                    log.error("scanResponseTable exception", e);
+                    log.error("probe event loops exception", e);
                 }
             }
         }, 1000 * 3, 1000);
@@ -267,6 +308,16 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
             if (this.defaultEventExecutorGroup != null) {
                 this.defaultEventExecutorGroup.shutdownGracefully();
             }
+
+            // inline executors own no thread, shutting them down stops dispatching on the closing selector threads
+            for (Pair<NettyRequestProcessor, ExecutorService> pair : this.processorTable.values()) {
+                if (pair.getObject2() instanceof InlineExecutorService) {
+                    pair.getObject2().shutdown();
+                }
+            }
+            if (this.defaultRequestProcessor != null && this.defaultRequestProcessor.getObject2() instanceof InlineExecutorService) {
+                this.defaultRequestProcessor.getObject2().shutdown();
+            }
         } catch (Exception e) {
             log.error("NettyRemotingServer shutdown exception, ", e);
         }
@@ -342,6 +393,18 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
         return this.publicExecutor;
     }
 
+    /**
+     * @return the task queue depth and the task latency of every selector thread, and of every codec thread unless
+     * the codec runs inline, sampled every second
+     */
+    public HashMap<String, String> getEventLoopRuntimeInfo() {
+        HashMap<String, String> result = this.eventLoopMonitor.getRuntimeInfo();
+        if (this.codecEventLoopMonitor != null) {
+            result.putAll(this.codecEventLoopMonitor.getRuntimeInfo());
+        }
+        return result;
+    }
+
     private void prepareSharableHandlers() {
         handshakeHandler = new HandshakeHandler(TlsSystemConfig.tlsMode);
         encoder = new NettyEncoder();
@@ -379,8 +442,8 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
                     case ENFORCING:
                         if (null != sslContext) {
                             ctx.pipeline()
-                                .addAfter(defaultEventExecutorGroup, HANDSHAKE_HANDLER_NAME, TLS_HANDLER_NAME, sslContext.newHandler(ctx.channel().alloc()))
-                                .addAfter(defaultEventExecutorGroup, TLS_HANDLER_NAME, FILE_REGION_ENCODER_NAME, new FileRegionEncoder());
+                                .addAfter(codecExecutorGroup(), HANDSHAKE_HANDLER_NAME, TLS_HANDLER_NAME, sslContext.newHandler(ctx.channel().alloc()))
+                                .addAfter(codecExecutorGroup(), TLS_HANDLER_NAME, FILE_REGION_ENCODER_NAME, new FileRegionEncoder());
                             log.info("Handlers prepended to channel pipeline to establish SSL connection");
                         } else {
                             ctx.close();
@@ -38,6 +38,26 @@ public class NettyServerConfig implements Cloneable {
      */
     private boolean useEpollNativeSelector = false;
 
+    /**
+     * Accept connections on this many server sockets bound to the same port with SO_REUSEPORT, each with its own
+     * boss thread. Only with the epoll native selector.
+     */
+    private int serverReusePortAcceptors = 1;
+
+    /**
+     * Decode, encode and dispatch on the selector threads instead of handing every request over to the worker
+     * threads first.
+     */
+    private boolean serverInlineCodecEnable = false;
+
+    /**
+     * Consolidate the flushes of every connection, passing one on per {@code serverFlushMaxPendingWrites} writes or
+     * after {@code serverFlushDelayMicros} at the latest.
+     */
+    private boolean serverFlushConsolidationEnable = false;
+    private int serverFlushMaxPendingWrites = 64;
+    private long serverFlushDelayMicros = 0;
+
     public int getListenPort() {
         return listenPort;
     }
@@ -126,6 +146,46 @@ public class NettyServerConfig implements Cloneable {
         this.useEpollNativeSelector = useEpollNativeSelector;
     }
 
+    public int getServerReusePortAcceptors() {
+        return serverReusePortAcceptors;
+    }
+
+    public void setServerReusePortAcceptors(int serverReusePortAcceptors) {
+        this.serverReusePortAcceptors = serverReusePortAcceptors;
+    }
+
+    public boolean isServerInlineCodecEnable() {
+        return serverInlineCodecEnable;
+    }
+
+    public void setServerInlineCodecEnable(boolean serverInlineCodecEnable) {
+        this.serverInlineCodecEnable = serverInlineCodecEnable;
+    }
+
+    public boolean isServerFlushConsolidationEnable() {
+        return serverFlushConsolidationEnable;
+    }
+
+    public void setServerFlushConsolidationEnable(boolean serverFlushConsolidationEnable) {
+        this.serverFlushConsolidationEnable = serverFlushConsolidationEnable;
+    }
+
+    public int getServerFlushMaxPendingWrites() {
+        return serverFlushMaxPendingWrites;
+    }
+
+    public void setServerFlushMaxPendingWrites(int serverFlushMaxPendingWrites) {
+        this.serverFlushMaxPendingWrites = serverFlushMaxPendingWrites;
+    }
+
+    public long getServerFlushDelayMicros() {
+        return serverFlushDelayMicros;
+    }
+
+    public void setServerFlushDelayMicros(long serverFlushDelayMicros) {
+        this.serverFlushDelayMicros = serverFlushDelayMicros;
+    }
+
     @Override
     public Object clone() throws CloneNotSupportedException {
         return (NettyServerConfig) super.clone();
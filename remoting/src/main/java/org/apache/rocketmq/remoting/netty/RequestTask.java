@@ -66,6 +66,14 @@ public class RequestTask implements Runnable {
         return createTimestamp;
     }
 
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public RemotingCommand getRequest() {
+        return request;
+    }
+
     public boolean isStopRun() {
         return stopRun;
     }
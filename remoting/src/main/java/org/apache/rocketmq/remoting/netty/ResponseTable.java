@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.netty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * On-going requests by opaque. An open addressing int-keyed table split into stripes by the low bits of the opaque,
+ * each guarded by its own lock, so registering a request neither boxes its opaque nor allocates an entry.
+ */
+public class ResponseTable {
+    private static final int STRIPE_COUNT = 64;
+    private static final int STRIPE_INITIAL_CAPACITY = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+    public ResponseTable() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            this.stripes[i] = new Stripe(STRIPE_INITIAL_CAPACITY);
+        }
+    }
+
+    /**
+     * @return the previous future of the opaque, null if there was none
+     */
+    public ResponseFuture put(final int opaque, final ResponseFuture responseFuture) {
+        Stripe stripe = this.stripe(opaque);
+        synchronized (stripe) {
+            return stripe.put(opaque, responseFuture);
+        }
+    }
+
+    public ResponseFuture get(final int opaque) {
+        Stripe stripe = this.stripe(opaque);
+        synchronized (stripe) {
+            return stripe.get(opaque);
+        }
+    }
+
+    public ResponseFuture remove(final int opaque) {
+        Stripe stripe = this.stripe(opaque);
+        synchronized (stripe) {
+            return stripe.remove(opaque);
+        }
+    }
+
+    /**
+     * Remove the opaque only while it still maps to the given future, the opaque may be reused after a wrap around.
+     */
+    public boolean remove(final int opaque, final ResponseFuture responseFuture) {
+        Stripe stripe = this.stripe(opaque);
+        synchronized (stripe) {
+            if (stripe.get(opaque) != responseFuture) {
+                return false;
+            }
+            stripe.remove(opaque);
+            return true;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return a snapshot of the on-going requests
+     */
+    public List<ResponseFuture> values() {
+        List<ResponseFuture> values = new ArrayList<ResponseFuture>();
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                for (ResponseFuture value : stripe.values) {
+                    if (value != null) {
+                        values.add(value);
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    private Stripe stripe(final int opaque) {
+        return this.stripes[opaque & (STRIPE_COUNT - 1)];
+    }
+
+    static class Stripe {
+        private int[] keys;
+        private ResponseFuture[] values;
+        private int mask;
+        private int size;
+
+        Stripe(final int capacity) {
+            this.keys = new int[capacity];
+            this.values = new ResponseFuture[capacity];
+            this.mask = capacity - 1;
+        }
+
+        ResponseFuture get(final int key) {
+            int index = this.indexOf(key);
+            return index < 0 ? null : this.values[index];
+        }
+
+        ResponseFuture put(final int key, final ResponseFuture value) {
+            int index = this.slot(key);
+            while (this.values[index] != null) {
+                if (this.keys[index] == key) {
+                    ResponseFuture old = this.values[index];
+                    this.values[index] = value;
+                    return old;
+                }
+                index = (index + 1) & this.mask;
+            }
+
+            this.keys[index] = key;
+            this.values[index] = value;
+            if (++this.size > (this.mask + 1) * 3 / 4) {
+                this.rehash((this.mask + 1) * 2);
+            }
+            return null;
+        }
+
+        ResponseFuture remove(final int key) {
+            int index = this.indexOf(key);
+            if (index < 0) {
+                return null;
+            }
+
+            ResponseFuture old = this.values[index];
+            this.values[index] = null;
+            this.size--;
+
+            // shift back the entries of the run behind the hole that do not belong after it
+            int hole = index;
+            int next = (index + 1) & this.mask;
+            while (this.values[next] != null) {
+                int slot = this.slot(this.keys[next]);
+                boolean stays = hole <= next ? hole < slot && slot <= next : hole < slot || slot <= next;
+                if (!stays) {
+                    this.keys[hole] = this.keys[next];
+                    this.values[hole] = this.values[next];
+                    this.values[next] = null;
+                    hole = next;
+                }
+                next = (next + 1) & this.mask;
+            }
+            return old;
+        }
+
+        private int indexOf(final int key) {
+            int index = this.slot(key);
+            while (this.values[index] != null) {
+                if (this.keys[index] == key) {
+                    return index;
+                }
+                index = (index + 1) & this.mask;
+            }
+            return -1;
+        }
+
+        private int slot(final int key) {
+            int hash = key * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & this.mask;
+        }
+
+        private void rehash(final int capacity) {
+            int[] oldKeys = this.keys;
+            ResponseFuture[] oldValues = this.values;
+            this.keys = new int[capacity];
+            this.values = new ResponseFuture[capacity];
+            this.mask = capacity - 1;
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    int index = this.slot(oldKeys[i]);
+                    while (this.values[index] != null) {
+                        index = (index + 1) & this.mask;
+                    }
+                    this.keys[index] = oldKeys[i];
+                    this.values[index] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.protocol;
+
+import io.netty.buffer.ByteBuf;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
+import org.apache.rocketmq.remoting.annotation.CFNotNull;
+import org.apache.rocketmq.remoting.common.RemotingHelper;
+import org.apache.rocketmq.remoting.exception.RemotingCommandException;
+
+/**
+ * Reads and writes the fields of one {@link CommandCustomHeader} class.
+ * <p>
+ * The fields are looked up, made accessible and typed once per class. Primitive fields are accessed without boxing,
+ * and {@link #encode(CommandCustomHeader)} writes the fields straight in the extFields layout of
+ * {@link RocketMQSerializable}, numbers as their decimal digits, so a command without other extFields needs no map
+ * on the way out.
+ */
+class CommandCustomHeaderCodec {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(RemotingHelper.ROCKETMQ_REMOTING);
+    private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+    private static final ConcurrentMap<Class<? extends CommandCustomHeader>, CommandCustomHeaderCodec> CODEC_TABLE =
+        new ConcurrentHashMap<Class<? extends CommandCustomHeader>, CommandCustomHeaderCodec>();
+
+    private static final int TYPE_STRING = 0;
+    private static final int TYPE_INT = 1;
+    private static final int TYPE_LONG = 2;
+    private static final int TYPE_BOOLEAN = 3;
+    private static final int TYPE_DOUBLE = 4;
+    private static final int TYPE_UNSUPPORTED = 5;
+
+    private static final byte[] TRUE_BYTES = "true".getBytes(CHARSET_UTF8);
+    private static final byte[] FALSE_BYTES = "false".getBytes(CHARSET_UTF8);
+
+    private final FieldCodec[] fieldCodecs;
+
+    private CommandCustomHeaderCodec(final Class<? extends CommandCustomHeader> classHeader) {
+        List<FieldCodec> codecs = new ArrayList<FieldCodec>();
+        for (Field field : classHeader.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !field.getName().startsWith("this")) {
+                codecs.add(new FieldCodec(field));
+            }
+        }
+        this.fieldCodecs = codecs.toArray(new FieldCodec[0]);
+    }
+
+    static CommandCustomHeaderCodec of(final Class<? extends CommandCustomHeader> classHeader) {
+        CommandCustomHeaderCodec codec = CODEC_TABLE.get(classHeader);
+        if (null == codec) {
+            codec = new CommandCustomHeaderCodec(classHeader);
+            CommandCustomHeaderCodec prev = CODEC_TABLE.putIfAbsent(classHeader, codec);
+            if (prev != null) {
+                codec = prev;
+            }
+        }
+        return codec;
+    }
+
+    /**
+     * Put the non null fields of the header into the extFields, as strings.
+     */
+    void toExtFields(final CommandCustomHeader header, final Map<String, String> extFields) {
+        for (FieldCodec fieldCodec : this.fieldCodecs) {
+            Object value = null;
+            try {
+                value = fieldCodec.field.get(header);
+            } catch (Exception e) {
+                log.error("Failed to access field [{}]", fieldCodec.name, e);
+            }
+
+            if (value != null) {
+                extFields.put(fieldCodec.name, value.toString());
+            }
+        }
+    }
+
+    /**
+     * Set the fields of the header from the extFields. Like before, a field that is missing although not nullable or
+     * that fails to parse is logged and left unset, {@link CommandCustomHeader#checkFields()} has the last word.
+     */
+    void fromExtFields(final Map<String, String> extFields, final CommandCustomHeader header) {
+        for (FieldCodec fieldCodec : this.fieldCodecs) {
+            String value = extFields.get(fieldCodec.name);
+            if (null == value) {
+                if (!fieldCodec.nullable) {
+                    log.error("Failed field [{}] decoding", fieldCodec.name,
+                        new RemotingCommandException("the custom field <" + fieldCodec.name + "> is null"));
+                }
+                continue;
+            }
+
+            try {
+                fieldCodec.parse(header, value);
+            } catch (Throwable e) {
+                log.error("Failed field [{}] decoding", fieldCodec.name, e);
+            }
+        }
+    }
+
+    /**
+     * @return the non null fields of the header in the extFields layout of {@link RocketMQSerializable}, null if there
+     * is none
+     */
+    byte[] encode(final CommandCustomHeader header) {
+        final int count = this.fieldCodecs.length;
+        byte[][] valueBytes = new byte[count][];
+        long[] numbers = new long[count];
+        int[] valueLengths = new int[count];
+        int totalLength = 0;
+
+        for (int i = 0; i < count; i++) {
+            FieldCodec fieldCodec = this.fieldCodecs[i];
+            valueLengths[i] = -1;
+            try {
+                Field field = fieldCodec.field;
+                if (fieldCodec.primitive && fieldCodec.type == TYPE_INT) {
+                    numbers[i] = field.getInt(header);
+                    valueLengths[i] = stringSize(numbers[i]);
+                } else if (fieldCodec.primitive && fieldCodec.type == TYPE_LONG) {
+                    numbers[i] = field.getLong(header);
+                    valueLengths[i] = stringSize(numbers[i]);
+                } else if (fieldCodec.primitive && fieldCodec.type == TYPE_BOOLEAN) {
+                    valueBytes[i] = field.getBoolean(header) ? TRUE_BYTES : FALSE_BYTES;
+                } else {
+                    Object value = field.get(header);
+                    if (value instanceof Integer || value instanceof Long) {
+                        numbers[i] = ((Number) value).longValue();
+                        valueLengths[i] = stringSize(numbers[i]);
+                    } else if (value != null) {
+                        valueBytes[i] = value.toString().getBytes(CHARSET_UTF8);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Failed to access field [{}]", fieldCodec.name, e);
+            }
+
+            if (valueBytes[i] != null) {
+                valueLengths[i] = valueBytes[i].length;
+            }
+            if (valueLengths[i] >= 0) {
+                totalLength += 2 + fieldCodec.nameBytes.length + 4 + valueLengths[i];
+            }
+        }
+
+        if (0 == totalLength) {
+            return null;
+        }
+
+        ByteBuffer content = ByteBuffer.allocate(totalLength);
+        for (int i = 0; i < count; i++) {
+            if (valueLengths[i] < 0) {
+                continue;
+            }
+            byte[] nameBytes = this.fieldCodecs[i].nameBytes;
+            content.putShort((short) nameBytes.length);
+            content.put(nameBytes);
+            content.putInt(valueLengths[i]);
+            if (valueBytes[i] != null) {
+                content.put(valueBytes[i]);
+            } else {
+                putDigits(content, numbers[i], valueLengths[i]);
+            }
+        }
+        return content.array();
+    }
+
+    /**
+     * Write the non null fields of the header into the buffer, in the same layout as {@link #encode(CommandCustomHeader)}.
+     */
+    void encode(final CommandCustomHeader header, final ByteBuf out) {
+        for (FieldCodec fieldCodec : this.fieldCodecs) {
+            long number = 0;
+            boolean isNumber = false;
+            byte[] valueBytes = null;
+            String value = null;
+            try {
+                Field field = fieldCodec.field;
+                if (fieldCodec.primitive && fieldCodec.type == TYPE_INT) {
+                    number = field.getInt(header);
+                    isNumber = true;
+                } else if (fieldCodec.primitive && fieldCodec.type == TYPE_LONG) {
+                    number = field.getLong(header);
+                    isNumber = true;
+                } else if (fieldCodec.primitive && fieldCodec.type == TYPE_BOOLEAN) {
+                    valueBytes = field.getBoolean(header) ? TRUE_BYTES : FALSE_BYTES;
+                } else {
+                    Object object = field.get(header);
+                    if (object instanceof Integer || object instanceof Long) {
+                        number = ((Number) object).longValue();
+                        isNumber = true;
+                    } else if (object != null) {
+                        value = object.toString();
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Failed to access field [{}]", fieldCodec.name, e);
+                continue;
+            }
+
+            if (!isNumber && null == valueBytes && null == value) {
+                continue;
+            }
+            out.writeShort(fieldCodec.nameBytes.length);
+            out.writeBytes(fieldCodec.nameBytes);
+            if (isNumber) {
+                int size = stringSize(number);
+                out.writeInt(size);
+                writeDigits(out, number, size);
+            } else if (valueBytes != null) {
+                out.writeInt(valueBytes.length);
+                out.writeBytes(valueBytes);
+            } else {
+                RocketMQSerializable.writeStr(out, value, false);
+            }
+        }
+    }
+
+    static int stringSize(final long value) {
+        if (value == Long.MIN_VALUE) {
+            return 20;
+        }
+        long x = value < 0 ? -value : value;
+        int size = 1;
+        long p = 10;
+        while (size < 19 && x >= p) {
+            size++;
+            p *= 10;
+        }
+        return value < 0 ? size + 1 : size;
+    }
+
+    static void putDigits(final ByteBuffer buffer, final long value, final int size) {
+        if (value == Long.MIN_VALUE) {
+            buffer.put(Long.toString(value).getBytes(CHARSET_UTF8));
+            return;
+        }
+        int start = buffer.position();
+        long x = value;
+        if (x < 0) {
+            buffer.put(start, (byte) '-');
+            x = -x;
+        }
+        for (int i = start + size - 1; i >= start + (value < 0 ? 1 : 0); i--) {
+            buffer.put(i, (byte) ('0' + x % 10));
+            x /= 10;
+        }
+        buffer.position(start + size);
+    }
+
+    static void writeDigits(final ByteBuf out, final long value, final int size) {
+        if (value == Long.MIN_VALUE) {
+            out.writeBytes(Long.toString(value).getBytes(CHARSET_UTF8));
+            return;
+        }
+        int start = out.writerIndex();
+        out.writeZero(size);
+        long x = value;
+        if (x < 0) {
+            out.setByte(start, '-');
+            x = -x;
+        }
+        for (int i = start + size - 1; i >= start + (value < 0 ? 1 : 0); i--) {
+            out.setByte(i, (int) ('0' + x % 10));
+            x /= 10;
+        }
+    }
+
+    static class FieldCodec {
+        private final Field field;
+        private final String name;
+        private final byte[] nameBytes;
+        private final int type;
+        private final boolean primitive;
+        private final boolean nullable;
+
+        FieldCodec(final Field field) {
+            field.setAccessible(true);
+            this.field = field;
+            this.name = field.getName();
+            this.nameBytes = this.name.getBytes(CHARSET_UTF8);
+            this.primitive = field.getType().isPrimitive();
+            this.nullable = field.getAnnotation(CFNotNull.class) == null;
+
+            Class<?> clazz = field.getType();
+            if (clazz == String.class) {
+                this.type = TYPE_STRING;
+            } else if (clazz == Integer.class || clazz == int.class) {
+                this.type = TYPE_INT;
+            } else if (clazz == Long.class || clazz == long.class) {
+                this.type = TYPE_LONG;
+            } else if (clazz == Boolean.class || clazz == boolean.class) {
+                this.type = TYPE_BOOLEAN;
+            } else if (clazz == Double.class || clazz == double.class) {
+                this.type = TYPE_DOUBLE;
+            } else {
+                this.type = TYPE_UNSUPPORTED;
+            }
+        }
+
+        boolean isNullable() {
+            return nullable;
+        }
+
+        void parse(final CommandCustomHeader header, final String value) throws Exception {
+            switch (this.type) {
+                case TYPE_STRING:
+                    this.field.set(header, value);
+                    break;
+                case TYPE_INT:
+                    if (this.primitive) {
+                        this.field.setInt(header, Integer.parseInt(value));
+                    } else {
+                        this.field.set(header, Integer.valueOf(value));
+                    }
+                    break;
+                case TYPE_LONG:
+                    if (this.primitive) {
+                        this.field.setLong(header, Long.parseLong(value));
+                    } else {
+                        this.field.set(header, Long.valueOf(value));
+                    }
+                    break;
+                case TYPE_BOOLEAN:
+                    if (this.primitive) {
+                        this.field.setBoolean(header, Boolean.parseBoolean(value));
+                    } else {
+                        this.field.set(header, Boolean.valueOf(value));
+                    }
+                    break;
+                case TYPE_DOUBLE:
+                    if (this.primitive) {
+                        this.field.setDouble(header, Double.parseDouble(value));
+                    } else {
+                        this.field.set(header, Double.valueOf(value));
+                    }
+                    break;
+                default:
+                    throw new RemotingCommandException("the custom field <" + this.name + "> type is not supported");
+            }
+        }
+    }
+}
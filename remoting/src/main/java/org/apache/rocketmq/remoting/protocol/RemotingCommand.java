@@ -17,15 +17,12 @@
 package org.apache.rocketmq.remoting.protocol;
 
 import com.alibaba.fastjson.annotation.JSONField;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import io.netty.buffer.ByteBuf;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.rocketmq.remoting.CommandCustomHeader;
-import org.apache.rocketmq.remoting.annotation.CFNotNull;
 import org.apache.rocketmq.remoting.common.RemotingHelper;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
 import org.apache.rocketmq.logging.InternalLogger;
@@ -38,21 +35,8 @@ public class RemotingCommand {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(RemotingHelper.ROCKETMQ_REMOTING);
     private static final int RPC_TYPE = 0; // 0, REQUEST_COMMAND
     private static final int RPC_ONEWAY = 1; // 0, RPC
-    private static final Map<Class<? extends CommandCustomHeader>, Field[]> CLASS_HASH_MAP =
-        new HashMap<Class<? extends CommandCustomHeader>, Field[]>();
-    private static final Map<Class, String> CANONICAL_NAME_CACHE = new HashMap<Class, String>();
     // 1, Oneway
     // 1, RESPONSE_COMMAND
-    private static final Map<Field, Boolean> NULLABLE_FIELD_CACHE = new HashMap<Field, Boolean>();
-    private static final String STRING_CANONICAL_NAME = String.class.getCanonicalName();
-    private static final String DOUBLE_CANONICAL_NAME_1 = Double.class.getCanonicalName();
-    private static final String DOUBLE_CANONICAL_NAME_2 = double.class.getCanonicalName();
-    private static final String INTEGER_CANONICAL_NAME_1 = Integer.class.getCanonicalName();
-    private static final String INTEGER_CANONICAL_NAME_2 = int.class.getCanonicalName();
-    private static final String LONG_CANONICAL_NAME_1 = Long.class.getCanonicalName();
-    private static final String LONG_CANONICAL_NAME_2 = long.class.getCanonicalName();
-    private static final String BOOLEAN_CANONICAL_NAME_1 = Boolean.class.getCanonicalName();
-    private static final String BOOLEAN_CANONICAL_NAME_2 = boolean.class.getCanonicalName();
     private static volatile int configVersion = -1;
     private static AtomicInteger requestId = new AtomicInteger(0);
 
@@ -243,47 +227,7 @@ public class RemotingCommand {
         }
 
         if (this.extFields != null) {
-
-            Field[] fields = getClazzFields(classHeader);
-            for (Field field : fields) {
-                if (!Modifier.isStatic(field.getModifiers())) {
-                    String fieldName = field.getName();
-                    if (!fieldName.startsWith("this")) {
-                        try {
-                            String value = this.extFields.get(fieldName);
-                            if (null == value) {
-                                if (!isFieldNullable(field)) {
-                                    throw new RemotingCommandException("the custom field <" + fieldName + "> is null");
-                                }
-                                continue;
-                            }
-
-                            field.setAccessible(true);
-                            String type = getCanonicalName(field.getType());
-                            Object valueParsed;
-
-                            if (type.equals(STRING_CANONICAL_NAME)) {
-                                valueParsed = value;
-                            } else if (type.equals(INTEGER_CANONICAL_NAME_1) || type.equals(INTEGER_CANONICAL_NAME_2)) {
-                                valueParsed = Integer.parseInt(value);
-                            } else if (type.equals(LONG_CANONICAL_NAME_1) || type.equals(LONG_CANONICAL_NAME_2)) {
-                                valueParsed = Long.parseLong(value);
-                            } else if (type.equals(BOOLEAN_CANONICAL_NAME_1) || type.equals(BOOLEAN_CANONICAL_NAME_2)) {
-                                valueParsed = Boolean.parseBoolean(value);
-                            } else if (type.equals(DOUBLE_CANONICAL_NAME_1) || type.equals(DOUBLE_CANONICAL_NAME_2)) {
-                                valueParsed = Double.parseDouble(value);
-                            } else {
-                                throw new RemotingCommandException("the custom field <" + fieldName + "> type is not supported");
-                            }
-
-                            field.set(objectHeader, valueParsed);
-
-                        } catch (Throwable e) {
-                            log.error("Failed field [{}] decoding", fieldName, e);
-                        }
-                    }
-                }
-            }
+            CommandCustomHeaderCodec.of(classHeader).fromExtFields(this.extFields, objectHeader);
 
             objectHeader.checkFields();
         }
@@ -291,40 +235,6 @@ public class RemotingCommand {
         return objectHeader;
     }
 
-    private Field[] getClazzFields(Class<? extends CommandCustomHeader> classHeader) {
-        Field[] field = CLASS_HASH_MAP.get(classHeader);
-
-        if (field == null) {
-            field = classHeader.getDeclaredFields();
-            synchronized (CLASS_HASH_MAP) {
-                CLASS_HASH_MAP.put(classHeader, field);
-            }
-        }
-        return field;
-    }
-
-    private boolean isFieldNullable(Field field) {
-        if (!NULLABLE_FIELD_CACHE.containsKey(field)) {
-            Annotation annotation = field.getAnnotation(CFNotNull.class);
-            synchronized (NULLABLE_FIELD_CACHE) {
-                NULLABLE_FIELD_CACHE.put(field, annotation == null);
-            }
-        }
-        return NULLABLE_FIELD_CACHE.get(field);
-    }
-
-    private String getCanonicalName(Class clazz) {
-        String name = CANONICAL_NAME_CACHE.get(clazz);
-
-        if (name == null) {
-            name = clazz.getCanonicalName();
-            synchronized (CANONICAL_NAME_CACHE) {
-                CANONICAL_NAME_CACHE.put(clazz, name);
-            }
-        }
-        return name;
-    }
-
     public ByteBuffer encode() {
         // 1> header length size
         int length = 4;
@@ -360,6 +270,12 @@ public class RemotingCommand {
     }
 
     private byte[] headerEncode() {
+        if (SerializeType.ROCKETMQ == serializeTypeCurrentRPC && null == this.extFields && this.customHeader != null) {
+            // nothing to merge with, write the header fields straight into the extFields layout
+            byte[] extFieldsBytes = CommandCustomHeaderCodec.of(this.customHeader.getClass()).encode(this.customHeader);
+            return RocketMQSerializable.rocketMQProtocolEncode(this, extFieldsBytes);
+        }
+
         this.makeCustomHeaderToNet();
         if (SerializeType.ROCKETMQ == serializeTypeCurrentRPC) {
             return RocketMQSerializable.rocketMQProtocolEncode(this);
@@ -370,30 +286,40 @@ public class RemotingCommand {
 
     public void makeCustomHeaderToNet() {
         if (this.customHeader != null) {
-            Field[] fields = getClazzFields(customHeader.getClass());
             if (null == this.extFields) {
                 this.extFields = new HashMap<String, String>();
             }
 
-            for (Field field : fields) {
-                if (!Modifier.isStatic(field.getModifiers())) {
-                    String name = field.getName();
-                    if (!name.startsWith("this")) {
-                        Object value = null;
-                        try {
-                            field.setAccessible(true);
-                            value = field.get(this.customHeader);
-                        } catch (Exception e) {
-                            log.error("Failed to access field [{}]", name, e);
-                        }
-
-                        if (value != null) {
-                            this.extFields.put(name, value.toString());
-                        }
-                    }
-                }
+            CommandCustomHeaderCodec.of(this.customHeader.getClass()).toExtFields(this.customHeader, this.extFields);
+        }
+    }
+
+    /**
+     * Write the length, the header length and the header into the buffer, the body is left to the caller. The header
+     * fields are written straight into the buffer, the two lengths in front of them are filled in afterwards.
+     */
+    public void fastEncodeHeader(ByteBuf out) {
+        int bodyLength = this.body != null ? this.body.length : 0;
+        int beginIndex = out.writerIndex();
+        out.writeLong(0);
+
+        int headerLength;
+        if (SerializeType.ROCKETMQ == serializeTypeCurrentRPC) {
+            if (null == this.extFields && this.customHeader != null) {
+                headerLength = RocketMQSerializable.rocketMQProtocolEncode(this, this.customHeader, out);
+            } else {
+                this.makeCustomHeaderToNet();
+                headerLength = RocketMQSerializable.rocketMQProtocolEncode(this, null, out);
             }
+        } else {
+            this.makeCustomHeaderToNet();
+            byte[] headerData = RemotingSerializable.encode(this);
+            out.writeBytes(headerData);
+            headerLength = headerData.length;
         }
+
+        out.setInt(beginIndex, 4 + headerLength + bodyLength);
+        out.setBytes(beginIndex + 4, markProtocolType(headerLength, serializeTypeCurrentRPC));
     }
 
     public ByteBuffer encodeHeader() {
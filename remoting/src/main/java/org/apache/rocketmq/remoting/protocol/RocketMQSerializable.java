@@ -16,16 +16,31 @@
  */
 package org.apache.rocketmq.remoting.protocol;
 
+import io.netty.buffer.ByteBuf;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
 
 public class RocketMQSerializable {
     private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
 
     public static byte[] rocketMQProtocolEncode(RemotingCommand cmd) {
+        // HashMap<String, String> extFields
+        byte[] extFieldsBytes = null;
+        if (cmd.getExtFields() != null && !cmd.getExtFields().isEmpty()) {
+            extFieldsBytes = mapSerialize(cmd.getExtFields());
+        }
+
+        return rocketMQProtocolEncode(cmd, extFieldsBytes);
+    }
+
+    /**
+     * @param extFieldsBytes the extFields already serialized, null if there is none
+     */
+    public static byte[] rocketMQProtocolEncode(RemotingCommand cmd, byte[] extFieldsBytes) {
         // String remark
         byte[] remarkBytes = null;
         int remarkLen = 0;
@@ -35,12 +50,7 @@ public class RocketMQSerializable {
         }
 
         // HashMap<String, String> extFields
-        byte[] extFieldsBytes = null;
-        int extLen = 0;
-        if (cmd.getExtFields() != null && !cmd.getExtFields().isEmpty()) {
-            extFieldsBytes = mapSerialize(cmd.getExtFields());
-            extLen = extFieldsBytes.length;
-        }
+        int extLen = extFieldsBytes != null ? extFieldsBytes.length : 0;
 
         int totalLen = calTotalLen(remarkLen, extLen);
 
@@ -73,6 +83,78 @@ public class RocketMQSerializable {
         return headerBuffer.array();
     }
 
+    /**
+     * Write the header of the command straight into the buffer, in the layout of {@link #rocketMQProtocolEncode}.
+     *
+     * @param customHeader header whose fields are written as the extFields, null to write the extFields of the command
+     * @return the number of bytes written
+     */
+    public static int rocketMQProtocolEncode(RemotingCommand cmd, CommandCustomHeader customHeader, ByteBuf out) {
+        int beginIndex = out.writerIndex();
+        // int code(~32767)
+        out.writeShort((short) cmd.getCode());
+        // LanguageCode language
+        out.writeByte(cmd.getLanguage().getCode());
+        // int version(~32767)
+        out.writeShort((short) cmd.getVersion());
+        // int opaque
+        out.writeInt(cmd.getOpaque());
+        // int flag
+        out.writeInt(cmd.getFlag());
+        // String remark
+        if (cmd.getRemark() != null && cmd.getRemark().length() > 0) {
+            writeStr(out, cmd.getRemark(), false);
+        } else {
+            out.writeInt(0);
+        }
+        // HashMap<String, String> extFields, its length is known once written
+        int extIndex = out.writerIndex();
+        out.writeInt(0);
+        if (customHeader != null) {
+            CommandCustomHeaderCodec.of(customHeader.getClass()).encode(customHeader, out);
+        } else if (cmd.getExtFields() != null) {
+            for (Map.Entry<String, String> entry : cmd.getExtFields().entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    writeStr(out, entry.getKey(), true);
+                    writeStr(out, entry.getValue(), false);
+                }
+            }
+        }
+        out.setInt(extIndex, out.writerIndex() - extIndex - 4);
+
+        return out.writerIndex() - beginIndex;
+    }
+
+    /**
+     * Write the UTF-8 bytes of the string preceded by their length, as a short or as an int. ASCII strings are written
+     * char by char, the others are encoded by {@link String#getBytes} like before.
+     */
+    static void writeStr(ByteBuf out, String str, boolean shortLength) {
+        int length = str.length();
+        for (int i = 0; i < length; i++) {
+            if (str.charAt(i) >= 0x80) {
+                byte[] bytes = str.getBytes(CHARSET_UTF8);
+                if (shortLength) {
+                    out.writeShort(bytes.length);
+                } else {
+                    out.writeInt(bytes.length);
+                }
+                out.writeBytes(bytes);
+                return;
+            }
+        }
+
+        if (shortLength) {
+            out.writeShort(length);
+        } else {
+            out.writeInt(length);
+        }
+        out.ensureWritable(length);
+        for (int i = 0; i < length; i++) {
+            out.writeByte(str.charAt(i));
+        }
+    }
+
     public static byte[] mapSerialize(HashMap<String, String> map) {
         // keySize+key+valSize+val
         if (null == map || map.isEmpty())
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FlushConsolidationHandlerTest {
+
+    @Test
+    public void testFlushAfterMaxPendingFlushes() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidationHandler(3, 0));
+
+        channel.writeAndFlush("1");
+        channel.writeAndFlush("2");
+        assertThat(counter.flushes).isEqualTo(0);
+
+        channel.writeAndFlush("3");
+        assertThat(counter.flushes).isEqualTo(1);
+
+        channel.runPendingTasks();
+        assertThat(counter.flushes).isEqualTo(1);
+        channel.finish();
+    }
+
+    @Test
+    public void testFlushByTask() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidationHandler(64, 0));
+
+        channel.writeAndFlush("1");
+        channel.writeAndFlush("2");
+        assertThat(counter.flushes).isEqualTo(0);
+
+        channel.runPendingTasks();
+        assertThat(counter.flushes).isEqualTo(1);
+        assertThat(channel.outboundMessages()).hasSize(2);
+        channel.finish();
+    }
+
+    @Test
+    public void testFlushOnReadComplete() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidationHandler(64, 0),
+            new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                    ctx.writeAndFlush(msg);
+                }
+            });
+
+        channel.pipeline().fireChannelRead("1");
+        channel.pipeline().fireChannelRead("2");
+        assertThat(counter.flushes).isEqualTo(0);
+
+        channel.pipeline().fireChannelReadComplete();
+        assertThat(counter.flushes).isEqualTo(1);
+        channel.finish();
+    }
+
+    @Test
+    public void testFlushOnClose() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidationHandler(64, 1000 * 1000));
+
+        channel.writeAndFlush("1");
+        assertThat(counter.flushes).isEqualTo(0);
+
+        channel.close();
+        assertThat(counter.flushes).isEqualTo(1);
+    }
+
+    static class FlushCounter extends ChannelOutboundHandlerAdapter {
+        private int flushes = 0;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            this.flushes++;
+            ctx.flush();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.remoting.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
+import org.apache.rocketmq.remoting.annotation.CFNotNull;
+import org.apache.rocketmq.remoting.exception.RemotingCommandException;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.protocol.SerializeType;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NettyEncoderTest {
+
+    @Test
+    public void testEncodeSmallBody() {
+        for (SerializeType type : SerializeType.values()) {
+            assertEncodedLikeLegacy(createCommand(type, 128), false);
+        }
+    }
+
+    @Test
+    public void testEncodeLargeBody() {
+        for (SerializeType type : SerializeType.values()) {
+            assertEncodedLikeLegacy(createCommand(type, 1024 * 4), true);
+            assertEncodedLikeLegacy(createCommand(type, 1024 * 64), true);
+        }
+    }
+
+    @Test
+    public void testEncodeWithoutBody() {
+        for (SerializeType type : SerializeType.values()) {
+            assertEncodedLikeLegacy(createCommand(type, -1), false);
+        }
+    }
+
+    @Test
+    public void testEncodeCustomHeader() {
+        for (SerializeType type : SerializeType.values()) {
+            for (int bodyLength : new int[] {-1, 128, 1024 * 4}) {
+                RemotingCommand command = RemotingCommand.createRequestCommand(10, new SampleHeader());
+                command.setSerializeTypeCurrentRPC(type);
+                command.setRemark("\u5907\u6ce8 \ud83d\ude00");
+                setBody(command, bodyLength);
+
+                // the reflection based encoding of every release so far
+                RemotingCommand legacy = RemotingCommand.createRequestCommand(10, new SampleHeader());
+                legacy.makeCustomHeaderToNet();
+
+                RemotingCommand decoded = assertEncodedLikeLegacy(command, bodyLength >= 1024 * 4);
+                assertThat(decoded.getExtFields()).isEqualTo(legacy.getExtFields());
+                assertThat(decoded.getExtFields()).containsEntry("longValue", String.valueOf(Long.MIN_VALUE))
+                    .containsEntry("intValue", "-2333").containsEntry("stringValue", "\u4e3b\u9898 \ud83d\ude00")
+                    .doesNotContainKey("nullValue");
+            }
+        }
+    }
+
+    @Test
+    public void testEncodeCustomHeaderMergedWithExtFields() {
+        for (SerializeType type : SerializeType.values()) {
+            RemotingCommand command = RemotingCommand.createRequestCommand(10, new SampleHeader());
+            command.setSerializeTypeCurrentRPC(type);
+            command.addExtField("extra", "\u00e9t\u00e9");
+
+            RemotingCommand decoded = assertEncodedLikeLegacy(command, false);
+            assertThat(decoded.getExtFields()).containsEntry("extra", "\u00e9t\u00e9").containsEntry("booleanValue", "true");
+        }
+    }
+
+    @Test
+    public void testFastEncodeHeaderAfterOtherBytes() {
+        for (SerializeType type : SerializeType.values()) {
+            RemotingCommand command = RemotingCommand.createRequestCommand(10, new SampleHeader());
+            command.setSerializeTypeCurrentRPC(type);
+            command.setBody(new byte[16]);
+
+            ByteBuf out = Unpooled.buffer(4);
+            out.writeInt(0xCAFEBABE);
+            command.fastEncodeHeader(out);
+            assertThat(out.readInt()).isEqualTo(0xCAFEBABE);
+            byte[] actual = new byte[out.readableBytes()];
+            out.readBytes(actual);
+
+            // commands without custom header still go through the legacy encode()
+        if (null == command.readCustomHeader()) {
+            ByteBuffer legacy = command.encode();
+            byte[] legacyBytes = new byte[legacy.remaining()];
+            legacy.get(legacyBytes);
+            assertThat(actual).isEqualTo(legacyBytes);
+        }
+
+        ByteBuffer header = command.encodeHeader();
+            byte[] expected = new byte[header.remaining()];
+            header.get(expected);
+            assertThat(actual).isEqualTo(expected);
+        }
+    }
+
+    private static RemotingCommand createCommand(final SerializeType type, final int bodyLength) {
+        RemotingCommand command = RemotingCommand.createRequestCommand(10, null);
+        command.setSerializeTypeCurrentRPC(type);
+        command.setRemark("remark \u5907\u6ce8");
+        command.addExtField("topic", "TopicTest");
+        command.addExtField("queueId", "3");
+        command.addExtField("keys", "\u952e \ud83d\ude00");
+        setBody(command, bodyLength);
+        return command;
+    }
+
+    private static void setBody(final RemotingCommand command, final int bodyLength) {
+        if (bodyLength >= 0) {
+            byte[] body = new byte[bodyLength];
+            new Random(bodyLength).nextBytes(body);
+            command.setBody(body);
+        }
+    }
+
+    /**
+     * @return the command read back by the decoder
+     */
+    private static RemotingCommand assertEncodedLikeLegacy(final RemotingCommand command, final boolean composite) {
+        EmbeddedChannel encoderChannel = new EmbeddedChannel(new NettyEncoder());
+        assertThat(encoderChannel.writeOutbound(command)).isTrue();
+        ByteBuf encoded = (ByteBuf) encoderChannel.readOutbound();
+        assertThat(encoded instanceof CompositeByteBuf).isEqualTo(composite);
+        byte[] actual = new byte[encoded.readableBytes()];
+        encoded.readBytes(actual);
+        encoded.release();
+
+        ByteBuffer header = command.encodeHeader();
+        int bodyLength = command.getBody() != null ? command.getBody().length : 0;
+        byte[] expected = new byte[header.remaining() + bodyLength];
+        header.get(expected, 0, header.remaining());
+        if (bodyLength > 0) {
+            System.arraycopy(command.getBody(), 0, expected, expected.length - bodyLength, bodyLength);
+        }
+        assertThat(actual).isEqualTo(expected);
+
+        EmbeddedChannel decoderChannel = new EmbeddedChannel(new NettyDecoder());
+        assertThat(decoderChannel.writeInbound(Unpooled.wrappedBuffer(actual))).isTrue();
+        RemotingCommand decoded = (RemotingCommand) decoderChannel.readInbound();
+        assertThat(decoded.getCode()).isEqualTo(command.getCode());
+        assertThat(decoded.getOpaque()).isEqualTo(command.getOpaque());
+        assertThat(decoded.getFlag()).isEqualTo(command.getFlag());
+        assertThat(decoded.getRemark()).isEqualTo(command.getRemark());
+        assertThat(decoded.getSerializeTypeCurrentRPC()).isEqualTo(command.getSerializeTypeCurrentRPC());
+        if (command.getExtFields() != null) {
+            assertThat(decoded.getExtFields()).isEqualTo(command.getExtFields());
+        }
+        assertThat(decoded.getBody()).isEqualTo(command.getBody());
+        return decoded;
+    }
+
+    static class SampleHeader implements CommandCustomHeader {
+        @CFNotNull
+        private String stringValue = "\u4e3b\u9898 \ud83d\ude00";
+        private String nullValue = null;
+        private int intValue = -2333;
+        private long longValue = Long.MIN_VALUE;
+        private Integer boxedInt = 0;
+        private Long boxedLong = 9223372036854775807L;
+        private boolean booleanValue = true;
+        private Boolean boxedBoolean = false;
+        private double doubleValue = 0.618;
+
+        @Override
+        public void checkFields() throws RemotingCommandException {
+        }
+    }
+}
@@ -16,7 +16,11 @@
  */
 package org.apache.rocketmq.remoting.netty;
 
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.remoting.InvokeCallback;
 import org.apache.rocketmq.remoting.common.SemaphoreReleaseOnlyOnce;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
@@ -28,7 +32,9 @@ import org.mockito.junit.MockitoJUnitRunner;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.notNull;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -46,7 +52,7 @@ public class NettyRemotingAbstractTest {
             }
         }, new SemaphoreReleaseOnlyOnce(semaphore));
 
-        remotingAbstract.responseTable.putIfAbsent(1, responseFuture);
+        remotingAbstract.responseTable.put(1, responseFuture);
 
         RemotingCommand response = RemotingCommand.createResponseCommand(0, "Foo");
         response.setOpaque(1);
@@ -63,7 +69,7 @@ public class NettyRemotingAbstractTest {
         ResponseFuture responseFuture = new ResponseFuture(null,1, 3000, null,
             new SemaphoreReleaseOnlyOnce(semaphore));
 
-        remotingAbstract.responseTable.putIfAbsent(1, responseFuture);
+        remotingAbstract.responseTable.put(1, responseFuture);
 
         RemotingCommand response = RemotingCommand.createResponseCommand(0, "Foo");
         response.setOpaque(1);
@@ -82,7 +88,7 @@ public class NettyRemotingAbstractTest {
             }
         }, new SemaphoreReleaseOnlyOnce(semaphore));
 
-        remotingAbstract.responseTable.putIfAbsent(1, responseFuture);
+        remotingAbstract.responseTable.put(1, responseFuture);
         when(remotingAbstract.getCallbackExecutor()).thenReturn(null);
 
         RemotingCommand response = RemotingCommand.createResponseCommand(0, "Foo");
@@ -103,8 +109,58 @@ public class NettyRemotingAbstractTest {
             public void operationComplete(final ResponseFuture responseFuture) {
             }
         }, null);
-        remotingAbstract.responseTable.putIfAbsent(dummyId, responseFuture);
+        remotingAbstract.responseTable.put(dummyId, responseFuture);
         remotingAbstract.scanResponseTable();
         assertNull(remotingAbstract.responseTable.get(dummyId));
     }
+
+    @Test
+    public void testRequestTimeout() throws Exception {
+        final Semaphore semaphore = new Semaphore(0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        RemotingCommand request = RemotingCommand.createRequestCommand(0, null);
+        Channel channel = mock(Channel.class);
+        ChannelFuture channelFuture = mock(ChannelFuture.class);
+        when(channel.writeAndFlush(any())).thenReturn(channelFuture);
+
+        remotingAbstract.invokeAsyncImpl(channel, request, 100, new InvokeCallback() {
+            @Override
+            public void operationComplete(final ResponseFuture responseFuture) {
+                assertThat(responseFuture.getResponseCommand()).isNull();
+                latch.countDown();
+            }
+        });
+        assertThat(remotingAbstract.responseTable.get(request.getOpaque())).isNotNull();
+
+        assertTrue(latch.await(3000, TimeUnit.MILLISECONDS));
+        assertNull(remotingAbstract.responseTable.get(request.getOpaque()));
+    }
+
+    @Test
+    public void testResponseTable() {
+        ResponseTable responseTable = new ResponseTable();
+        for (int i = 0; i < 1000; i++) {
+            responseTable.put(Integer.MAX_VALUE - 500 + i, new ResponseFuture(null, Integer.MAX_VALUE - 500 + i, 3000, null, null));
+        }
+        assertThat(responseTable.size()).isEqualTo(1000);
+
+        for (int i = 0; i < 1000; i += 2) {
+            assertThat(responseTable.remove(Integer.MAX_VALUE - 500 + i).getOpaque()).isEqualTo(Integer.MAX_VALUE - 500 + i);
+        }
+        assertThat(responseTable.size()).isEqualTo(500);
+        assertThat(responseTable.values()).hasSize(500);
+
+        for (int i = 0; i < 1000; i++) {
+            ResponseFuture responseFuture = responseTable.get(Integer.MAX_VALUE - 500 + i);
+            if (i % 2 == 0) {
+                assertNull(responseFuture);
+            } else {
+                assertThat(responseFuture.getOpaque()).isEqualTo(Integer.MAX_VALUE - 500 + i);
+            }
+        }
+
+        ResponseFuture other = new ResponseFuture(null, Integer.MAX_VALUE - 499, 3000, null, null);
+        assertThat(responseTable.remove(Integer.MAX_VALUE - 499, other)).isFalse();
+        assertThat(responseTable.get(Integer.MAX_VALUE - 499)).isNotNull();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.remoting.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.rocketmq.remoting.RemotingClient;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NettyRemotingServerInlineTest {
+    private NettyRemotingServer remotingServer;
+    private RemotingClient remotingClient;
+    private InlineExecutorService inlineExecutor;
+    private final AtomicReference<String> processingThread = new AtomicReference<String>();
+
+    @Before
+    public void setup() {
+        NettyServerConfig config = new NettyServerConfig();
+        config.setListenPort(0);
+        config.setServerInlineCodecEnable(true);
+        remotingServer = new NettyRemotingServer(config);
+        inlineExecutor = new InlineExecutorService();
+        remotingServer.registerProcessor(0, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) {
+                processingThread.set(Thread.currentThread().getName());
+                RemotingCommand response = RemotingCommand.createResponseCommand(0, "Hi " + request.getRemark());
+                response.setBody(request.getBody());
+                return response;
+            }
+
+            @Override
+            public boolean rejectRequest() {
+                return false;
+            }
+        }, inlineExecutor);
+        remotingServer.start();
+
+        remotingClient = new NettyRemotingClient(new NettyClientConfig());
+        remotingClient.start();
+    }
+
+    @After
+    public void destroy() {
+        remotingClient.shutdown();
+        remotingServer.shutdown();
+    }
+
+    @Test
+    public void testInvokeSyncInline() throws Exception {
+        RemotingCommand request = RemotingCommand.createRequestCommand(0, null);
+        request.setRemark("messi");
+        request.setBody(new byte[1024 * 8]);
+        RemotingCommand response = remotingClient.invokeSync("localhost:" + remotingServer.localListenPort(), request, 1000 * 3);
+
+        assertThat(response).isNotNull();
+        assertThat(response.getRemark()).isEqualTo("Hi messi");
+        assertThat(response.getBody()).hasSize(1024 * 8);
+        // the codec and the processor both ran on a selector thread, there is no codec group to monitor
+        assertThat(processingThread.get()).startsWith("NettyServer").contains("Selector");
+        assertThat(remotingServer.getEventLoopRuntimeInfo()).isNotEmpty();
+        for (String name : remotingServer.getEventLoopRuntimeInfo().keySet()) {
+            assertThat(name).startsWith("nettyServerSelector");
+        }
+    }
+
+    @Test
+    public void testShutdownStopsInlineExecutor() {
+        assertThat(inlineExecutor.isShutdown()).isFalse();
+        remotingServer.shutdown();
+        assertThat(inlineExecutor.isShutdown()).isTrue();
+    }
+}
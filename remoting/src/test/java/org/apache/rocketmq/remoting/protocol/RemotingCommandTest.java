@@ -17,7 +17,6 @@
 package org.apache.rocketmq.remoting.protocol;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import org.apache.rocketmq.remoting.CommandCustomHeader;
 import org.apache.rocketmq.remoting.annotation.CFNotNull;
@@ -184,19 +183,50 @@ public class RemotingCommandTest {
     }
 
     @Test
-    public void testNotNullField() throws Exception {
-        RemotingCommand remotingCommand = new RemotingCommand();
-        Method method = RemotingCommand.class.getDeclaredMethod("isFieldNullable", Field.class);
-        method.setAccessible(true);
+    public void testEncodeAndDecode_RocketMQSerializeType() throws RemotingCommandException {
+        int code = 103; //org.apache.rocketmq.common.protocol.RequestCode.REGISTER_BROKER
+        CommandCustomHeader header = new ExtFieldsHeader();
+        RemotingCommand cmd = RemotingCommand.createRequestCommand(code, header);
+        cmd.setSerializeTypeCurrentRPC(SerializeType.ROCKETMQ);
+        cmd.setRemark("remark");
+
+        ByteBuffer buffer = cmd.encode();
+
+        //Simulate buffer being read in NettyDecoder
+        buffer.getInt();
+        byte[] bytes = new byte[buffer.limit() - 4];
+        buffer.get(bytes, 0, buffer.limit() - 4);
+        buffer = ByteBuffer.wrap(bytes);
+
+        RemotingCommand decodedCommand = RemotingCommand.decode(buffer);
 
+        assertThat(decodedCommand.getSerializeTypeCurrentRPC()).isEqualTo(SerializeType.ROCKETMQ);
+        assertThat(decodedCommand.getRemark()).isEqualTo("remark");
+        assertThat(decodedCommand.getExtFields()).hasSize(5);
+        assertThat(decodedCommand.getExtFields().get("intValue")).isEqualTo("2333");
+        assertThat(decodedCommand.getExtFields().get("longValue")).isEqualTo("23333333");
+
+        CommandCustomHeader decodedHeader = decodedCommand.decodeCommandCustomHeader(ExtFieldsHeader.class);
+        assertThat(((ExtFieldsHeader) decodedHeader).getStringValue()).isEqualTo("bilibili");
+        assertThat(((ExtFieldsHeader) decodedHeader).getIntValue()).isEqualTo(2333);
+        assertThat(((ExtFieldsHeader) decodedHeader).getLongValue()).isEqualTo(23333333l);
+        assertThat(((ExtFieldsHeader) decodedHeader).isBooleanValue()).isEqualTo(true);
+        assertThat(((ExtFieldsHeader) decodedHeader).getDoubleValue()).isBetween(0.617, 0.619);
+
+        // the header was written without going through the extFields of the command
+        assertThat(cmd.getExtFields()).isNull();
+    }
+
+    @Test
+    public void testNotNullField() throws Exception {
         Field nullString = FieldTestClass.class.getDeclaredField("nullString");
-        assertThat(method.invoke(remotingCommand, nullString)).isEqualTo(false);
+        assertThat(new CommandCustomHeaderCodec.FieldCodec(nullString).isNullable()).isEqualTo(false);
 
         Field nullableString = FieldTestClass.class.getDeclaredField("nullable");
-        assertThat(method.invoke(remotingCommand, nullableString)).isEqualTo(true);
+        assertThat(new CommandCustomHeaderCodec.FieldCodec(nullableString).isNullable()).isEqualTo(true);
 
         Field value = FieldTestClass.class.getDeclaredField("value");
-        assertThat(method.invoke(remotingCommand, value)).isEqualTo(false);
+        assertThat(new CommandCustomHeaderCodec.FieldCodec(value).isNullable()).isEqualTo(false);
     }
 }
 
@@ -21,8 +21,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.constant.LoggerName;
@@ -36,6 +39,8 @@ import org.apache.rocketmq.common.message.MessageExtBatch;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.store.config.BrokerRole;
 import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
 import org.apache.rocketmq.store.delay.DelayMessageManager;
 import org.apache.rocketmq.store.ha.HAService;
 import org.apache.rocketmq.store.schedule.ScheduleMessageService;
@@ -63,10 +68,13 @@ public class CommitLog {
 
     private volatile long beginTimeInLock = 0;
     protected final PutMessageLock putMessageLock;
+    private final PutMessageCombiner putMessageCombiner;
 
     public CommitLog(final DefaultMessageStore defaultMessageStore) {
+        String coldRootDir = defaultMessageStore.getMessageStoreConfig().getStorePathColdRootDir();
         this.mappedFileQueue = new MappedFileQueue(defaultMessageStore.getMessageStoreConfig().getStorePathCommitLog(),
-            defaultMessageStore.getMessageStoreConfig().getMappedFileSizeCommitLog(), defaultMessageStore.getAllocateMappedFileService());
+            defaultMessageStore.getMessageStoreConfig().getMappedFileSizeCommitLog(), defaultMessageStore.getAllocateMappedFileService(),
+            coldRootDir == null ? null : StorePathConfigHelper.getStorePathCommitLog(coldRootDir));
         this.defaultMessageStore = defaultMessageStore;
 
         if (FlushDiskType.SYNC_FLUSH == defaultMessageStore.getMessageStoreConfig().getFlushDiskType()) {
@@ -85,6 +93,7 @@ public class CommitLog {
             }
         };
         this.putMessageLock = defaultMessageStore.getMessageStoreConfig().isUseReentrantLockWhenPutMessage() ? new PutMessageReentrantLock() : new PutMessageSpinLock();
+        this.putMessageCombiner = defaultMessageStore.getMessageStoreConfig().isPutMessageBatchEnable() ? new PutMessageCombiner() : null;
 
     }
 
@@ -134,7 +143,9 @@ public class CommitLog {
         final long intervalForcibly,
         final boolean cleanImmediately
     ) {
-        return this.mappedFileQueue.deleteExpiredFileByTime(expiredTime, deleteFilesInterval, intervalForcibly, cleanImmediately);
+        // files still holding the newest message of a compacted key are kept
+        return this.mappedFileQueue.deleteExpiredFileByTime(expiredTime, deleteFilesInterval, intervalForcibly, cleanImmediately,
+            this.defaultMessageStore.getCompactionService().getRetainedPhyOffset());
     }
 
     /**
@@ -540,10 +551,6 @@ public class CommitLog {
         // Set the message body BODY CRC (consider the most appropriate setting
         // on the client)
         msg.setBodyCRC(UtilAll.crc32(msg.getBody()));
-        // Back to Results
-        AppendMessageResult result = null;
-
-        StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
 
         String topic = msg.getTopic();
         int queueId = msg.getQueueId();
@@ -579,54 +586,22 @@ public class CommitLog {
             }
         }
 
+        if (this.putMessageCombiner != null) {
+            return this.putMessageCombiner.put(msg);
+        }
+
         long elapsedTimeInLock = 0;
-        MappedFile unlockMappedFile = null;
-        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile();
+        AppendContext context = new AppendContext(this.mappedFileQueue.getLastMappedFile());
 
         putMessageLock.lock(); //spin or ReentrantLock ,depending on store config
         try {
             long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
             this.beginTimeInLock = beginLockTimestamp;
 
-            // Here settings are stored timestamp, in order to ensure an orderly
-            // global
-            msg.setStoreTimestamp(beginLockTimestamp);
-
-            if (null == mappedFile || mappedFile.isFull()) {
-                mappedFile = this.mappedFileQueue.getLastMappedFile(0); // Mark: NewFile may be cause noise
-            }
-            if (null == mappedFile) {
-                log.error("create mapped file1 error, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString());
+            PutMessageResult failure = this.appendMessageInLock(msg, beginLockTimestamp, context);
+            if (failure != null) {
                 beginTimeInLock = 0;
-                return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null);
-            }
-
-            result = mappedFile.appendMessage(msg, this.appendMessageCallback);
-            switch (result.getStatus()) {
-                case PUT_OK:
-                    break;
-                case END_OF_FILE:
-                    unlockMappedFile = mappedFile;
-                    // Create a new file, re-write the message
-                    mappedFile = this.mappedFileQueue.getLastMappedFile(0);
-                    if (null == mappedFile) {
-                        // XXX: warn and notify me
-                        log.error("create mapped file2 error, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString());
-                        beginTimeInLock = 0;
-                        return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result);
-                    }
-                    result = mappedFile.appendMessage(msg, this.appendMessageCallback);
-                    break;
-                case MESSAGE_SIZE_EXCEEDED:
-                case PROPERTIES_SIZE_EXCEEDED:
-                    beginTimeInLock = 0;
-                    return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
-                case UNKNOWN_ERROR:
-                    beginTimeInLock = 0;
-                    return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
-                default:
-                    beginTimeInLock = 0;
-                    return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+                return failure;
             }
 
             elapsedTimeInLock = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
@@ -636,18 +611,73 @@ public class CommitLog {
         }
 
         if (elapsedTimeInLock > 500) {
-            log.warn("[NOTIFYME]putMessage in lock cost time(ms)={}, bodyLength={} AppendMessageResult={}", elapsedTimeInLock, msg.getBody().length, result);
+            log.warn("[NOTIFYME]putMessage in lock cost time(ms)={}, bodyLength={} AppendMessageResult={}", elapsedTimeInLock, msg.getBody().length, context.result);
         }
 
-        if (null != unlockMappedFile && this.defaultMessageStore.getMessageStoreConfig().isWarmMapedFileEnable()) {
-            this.defaultMessageStore.unlockMappedFile(unlockMappedFile);
+        if (null != context.unlockMappedFile && this.defaultMessageStore.getMessageStoreConfig().isWarmMapedFileEnable()) {
+            this.defaultMessageStore.unlockMappedFile(context.unlockMappedFile);
         }
 
+        return this.completePutMessage(msg, context.result);
+    }
+
+    /**
+     * Appends the message to the last mapped file, rolling over to a new one when it is full. The caller holds the put
+     * message lock.
+     *
+     * @return null once appended, the result is left in the context, the failed result otherwise
+     */
+    private PutMessageResult appendMessageInLock(final MessageExtBrokerInner msg, final long beginLockTimestamp,
+        final AppendContext context) {
+        // Here settings are stored timestamp, in order to ensure an orderly
+        // global
+        msg.setStoreTimestamp(beginLockTimestamp);
+
+        MappedFile mappedFile = context.mappedFile;
+        if (null == mappedFile || mappedFile.isFull()) {
+            mappedFile = this.mappedFileQueue.getLastMappedFile(0); // Mark: NewFile may be cause noise
+        }
+        if (null == mappedFile) {
+            log.error("create mapped file1 error, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString());
+            return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null);
+        }
+
+        AppendMessageResult result = mappedFile.appendMessage(msg, this.appendMessageCallback);
+        switch (result.getStatus()) {
+            case PUT_OK:
+                break;
+            case END_OF_FILE:
+                context.unlockMappedFile = mappedFile;
+                // Create a new file, re-write the message
+                mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+                if (null == mappedFile) {
+                    // XXX: warn and notify me
+                    log.error("create mapped file2 error, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString());
+                    return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result);
+                }
+                result = mappedFile.appendMessage(msg, this.appendMessageCallback);
+                break;
+            case MESSAGE_SIZE_EXCEEDED:
+            case PROPERTIES_SIZE_EXCEEDED:
+                return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
+            case UNKNOWN_ERROR:
+                return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+            default:
+                return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+        }
+
+        context.mappedFile = mappedFile;
+        context.result = result;
+        return null;
+    }
+
+    private PutMessageResult completePutMessage(final MessageExtBrokerInner msg, final AppendMessageResult result) {
+        StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
         PutMessageResult putMessageResult = new PutMessageResult(PutMessageStatus.PUT_OK, result);
 
         // Statistics
         storeStatsService.getSinglePutMessageTopicTimesTotal(msg.getTopic()).incrementAndGet();
-        storeStatsService.getSinglePutMessageTopicSizeTotal(topic).addAndGet(result.getWroteBytes());
+        storeStatsService.getSinglePutMessageTopicSizeTotal(msg.getTopic()).addAndGet(result.getWroteBytes());
 
         handleDiskFlush(result, putMessageResult, msg);
         handleHA(result, putMessageResult, msg);
@@ -824,6 +854,10 @@ public class CommitLog {
         return -1;
     }
 
+    public MappedFileQueue getMappedFileQueue() {
+        return mappedFileQueue;
+    }
+
     public long getMinOffset() {
         MappedFile mappedFile = this.mappedFileQueue.getFirstMappedFile();
         if (mappedFile != null) {
@@ -1176,6 +1210,139 @@ public class CommitLog {
         }
     }
 
+    static class AppendContext {
+        private MappedFile mappedFile;
+        private MappedFile unlockMappedFile;
+        private AppendMessageResult result;
+
+        AppendContext(final MappedFile mappedFile) {
+            this.mappedFile = mappedFile;
+        }
+    }
+
+    /**
+     * Appends the single messages of concurrent senders under one lock acquisition. A sender queues its message and
+     * either leaves it to the sender already combining or combines itself: it waits putMessageBatchWindowMicros for
+     * more senders, then appends up to putMessageBatchMaxSize queued messages in one go. Every message still gets its
+     * own offset and msgId, each sender waits for its own flush and replication afterwards.
+     */
+    class PutMessageCombiner {
+        private static final long PARK_NANOS = 50 * 1000;
+
+        private final ConcurrentLinkedQueue<PutRequest> pendingRequests = new ConcurrentLinkedQueue<PutRequest>();
+        private final AtomicBoolean combining = new AtomicBoolean(false);
+
+        PutMessageResult put(final MessageExtBrokerInner msg) {
+            PutRequest request = new PutRequest(msg);
+            this.pendingRequests.offer(request);
+
+            while (!request.done) {
+                if (this.combining.compareAndSet(false, true)) {
+                    try {
+                        if (!request.done) {
+                            this.combine();
+                        }
+                    } finally {
+                        this.combining.set(false);
+                    }
+                    // hand over to a sender still waiting
+                    PutRequest next = this.pendingRequests.peek();
+                    if (next != null) {
+                        LockSupport.unpark(next.thread);
+                    }
+                } else {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+            }
+
+            if (request.failure != null) {
+                return request.failure;
+            }
+            return CommitLog.this.completePutMessage(msg, request.result);
+        }
+
+        private void combine() {
+            final MessageStoreConfig config = CommitLog.this.defaultMessageStore.getMessageStoreConfig();
+            // a non positive max size would poll nothing and leave every waiting sender spinning
+            final int maxSize = Math.max(1, config.getPutMessageBatchMaxSize());
+            if (config.getPutMessageBatchWindowMicros() > 0) {
+                LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(config.getPutMessageBatchWindowMicros()));
+            }
+
+            List<PutRequest> batch = new ArrayList<PutRequest>(Math.min(maxSize, 64));
+            PutRequest request;
+            while (batch.size() < maxSize && (request = this.pendingRequests.poll()) != null) {
+                batch.add(request);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            long elapsedTimeInLock = 0;
+            List<MappedFile> unlockMappedFiles = null;
+            AppendContext context = new AppendContext(CommitLog.this.mappedFileQueue.getLastMappedFile());
+            try {
+                putMessageLock.lock();
+                try {
+                    long beginLockTimestamp = CommitLog.this.defaultMessageStore.getSystemClock().now();
+                    CommitLog.this.beginTimeInLock = beginLockTimestamp;
+
+                    for (PutRequest putRequest : batch) {
+                        putRequest.failure = CommitLog.this.appendMessageInLock(putRequest.msg, beginLockTimestamp, context);
+                        putRequest.result = context.result;
+                        if (context.unlockMappedFile != null) {
+                            if (null == unlockMappedFiles) {
+                                unlockMappedFiles = new ArrayList<MappedFile>(1);
+                            }
+                            unlockMappedFiles.add(context.unlockMappedFile);
+                            context.unlockMappedFile = null;
+                        }
+                    }
+
+                    elapsedTimeInLock = CommitLog.this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
+                    CommitLog.this.beginTimeInLock = 0;
+                } finally {
+                    putMessageLock.unlock();
+                }
+            } finally {
+                for (PutRequest putRequest : batch) {
+                    if (null == putRequest.failure && null == putRequest.result) {
+                        putRequest.failure = new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, null);
+                    }
+                    putRequest.done = true;
+                    // a permit left to the combining thread would cut its next batch window short
+                    if (putRequest.thread != Thread.currentThread()) {
+                        LockSupport.unpark(putRequest.thread);
+                    }
+                }
+            }
+
+            if (elapsedTimeInLock > 500) {
+                log.warn("[NOTIFYME]putMessage in lock cost time(ms)={}, batch size={}", elapsedTimeInLock, batch.size());
+            }
+
+            if (null != unlockMappedFiles && config.isWarmMapedFileEnable()) {
+                for (MappedFile mappedFile : unlockMappedFiles) {
+                    CommitLog.this.defaultMessageStore.unlockMappedFile(mappedFile);
+                }
+            }
+
+            CommitLog.this.defaultMessageStore.getStoreStatsService().recordPutMessageBatchSize(batch.size());
+        }
+    }
+
+    static class PutRequest {
+        private final MessageExtBrokerInner msg;
+        private final Thread thread = Thread.currentThread();
+        private volatile boolean done = false;
+        private AppendMessageResult result;
+        private PutMessageResult failure;
+
+        PutRequest(final MessageExtBrokerInner msg) {
+            this.msg = msg;
+        }
+    }
+
     class DefaultAppendMessageCallback implements AppendMessageCallback {
         // File at the end of the minimum fixed length empty
         private static final int END_FILE_MIN_BLANK_LENGTH = 4 + 4;
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+
+/**
+ * Compacts the consume queues of the topics in {@code compactionTopics}, keeping only the newest message per key.
+ * <p>
+ * Each queue is scanned forward up to its last, still written, file while remembering the newest offset of every
+ * key, the first key of the {@code KEYS} property. Whenever a key shows up again its previous entry is marked with
+ * {@link ConsumeQueue#COMPACTED_TAGS_CODE}, so {@code getMessage} skips it without touching the commit log and a
+ * consumer replaying from the beginning reads one message per key plus the not yet sealed tail. Messages without
+ * keys are always kept. The per-queue state lives in memory only, after a restart it is rebuilt by a scan that
+ * reads the commit log for surviving entries only. Runs on the same thread as the clean services.
+ * <p>
+ * Entries are only marked, never moved, so the commit log files holding the newest entry of a key must outlive
+ * {@code fileReservedTime}. {@link #getRetainedPhyOffset()} is the lowest commit log offset still referenced by such
+ * an entry, or by an entry not scanned yet, and the commit log clean service keeps every file from there on.
+ */
+public class CompactionService {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final Map<ConsumeQueue, CompactionState> compactionStateTable = new HashMap<ConsumeQueue, CompactionState>();
+    private final AtomicLong compactedEntries = new AtomicLong(0);
+    // nothing is known before the first scan, so keep the whole commit log until then
+    private volatile long retainedPhyOffset;
+
+    public CompactionService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        this.retainedPhyOffset = UtilAll.isBlank(defaultMessageStore.getMessageStoreConfig().getCompactionTopics())
+            ? Long.MAX_VALUE : 0;
+    }
+
+    public void run() {
+        String topics = this.defaultMessageStore.getMessageStoreConfig().getCompactionTopics();
+        if (UtilAll.isBlank(topics)) {
+            this.compactionStateTable.clear();
+            this.retainedPhyOffset = Long.MAX_VALUE;
+            return;
+        }
+
+        try {
+            Set<ConsumeQueue> alive = new HashSet<ConsumeQueue>();
+            int budget = this.defaultMessageStore.getMessageStoreConfig().getCompactionMaxEntriesPerRound();
+            for (String topic : topics.split(",")) {
+                ConcurrentMap<Integer, ConsumeQueue> queues = this.defaultMessageStore.getConsumeQueueTable().get(topic.trim());
+                if (null == queues) {
+                    continue;
+                }
+                for (ConsumeQueue consumeQueue : queues.values()) {
+                    alive.add(consumeQueue);
+                    if (budget > 0) {
+                        budget -= this.compact(consumeQueue, budget);
+                    }
+                }
+            }
+
+            // drop the state of deleted queues and of topics no longer compacted
+            Iterator<ConsumeQueue> iterator = this.compactionStateTable.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (!alive.contains(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+
+            long retained = Long.MAX_VALUE;
+            for (ConsumeQueue consumeQueue : alive) {
+                retained = Math.min(retained, this.retainedPhyOffset(consumeQueue));
+            }
+            this.retainedPhyOffset = retained;
+        } catch (Throwable e) {
+            log.warn("CompactionService run exception", e);
+        }
+    }
+
+    /**
+     * @return how many entries were scanned
+     */
+    private int compact(final ConsumeQueue consumeQueue, final int maxEntries) {
+        List<MappedFile> mappedFiles = consumeQueue.getMappedFileQueue().getMappedFiles();
+        if (mappedFiles.size() < 2) {
+            return 0;
+        }
+        MappedFile lastMappedFile = mappedFiles.get(mappedFiles.size() - 1);
+        final long sealedMaxIndex = lastMappedFile.getFileFromOffset() / ConsumeQueue.CQ_STORE_UNIT_SIZE;
+
+        CompactionState state = this.compactionStateTable.get(consumeQueue);
+        if (null == state) {
+            state = new CompactionState();
+            this.compactionStateTable.put(consumeQueue, state);
+        }
+        if (state.nextIndex < consumeQueue.getMinOffsetInQueue()) {
+            state.nextIndex = consumeQueue.getMinOffsetInQueue();
+        }
+
+        int scanned = 0;
+        int compacted = 0;
+        Set<MappedFile> dirtyFiles = new HashSet<MappedFile>();
+        while (state.nextIndex < sealedMaxIndex && scanned < maxEntries) {
+            SelectMappedBufferResult bufferConsumeQueue = consumeQueue.getIndexBuffer(state.nextIndex);
+            if (null == bufferConsumeQueue) {
+                state.nextIndex = consumeQueue.rollNextFile(state.nextIndex);
+                continue;
+            }
+
+            try {
+                ByteBuffer byteBuffer = bufferConsumeQueue.getByteBuffer();
+                for (int i = 0; i < bufferConsumeQueue.getSize() && state.nextIndex < sealedMaxIndex && scanned < maxEntries;
+                     i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                    long offsetPy = byteBuffer.getLong();
+                    int sizePy = byteBuffer.getInt();
+                    long tagsCode = byteBuffer.getLong();
+                    long index = state.nextIndex++;
+                    scanned++;
+
+                    if (tagsCode == ConsumeQueue.COMPACTED_TAGS_CODE) {
+                        continue;
+                    }
+
+                    String key = this.readKey(offsetPy, sizePy);
+                    if (null == key) {
+                        continue;
+                    }
+
+                    LatestEntry latest = state.latestByKey.get(key);
+                    if (null == latest) {
+                        state.latestByKey.put(key, new LatestEntry(index, offsetPy));
+                        continue;
+                    }
+                    MappedFile mappedFile = consumeQueue.markCompacted(latest.index);
+                    if (mappedFile != null) {
+                        dirtyFiles.add(mappedFile);
+                        compacted++;
+                    }
+                    latest.index = index;
+                    latest.offsetPy = offsetPy;
+                }
+            } finally {
+                bufferConsumeQueue.release();
+            }
+        }
+
+        for (MappedFile mappedFile : dirtyFiles) {
+            mappedFile.getMappedByteBuffer().force();
+        }
+
+        if (compacted > 0) {
+            this.compactedEntries.addAndGet(compacted);
+            log.info("compact consume queue {}-{}, scanned {}, compacted {}, keys {}", consumeQueue.getTopic(),
+                consumeQueue.getQueueId(), scanned, compacted, state.latestByKey.size());
+        }
+        return scanned;
+    }
+
+    /**
+     * @return the lowest commit log offset of the newest entries per key and of the entries not scanned yet
+     */
+    private long retainedPhyOffset(final ConsumeQueue consumeQueue) {
+        CompactionState state = this.compactionStateTable.get(consumeQueue);
+        long nextIndex = Math.max(null == state ? 0 : state.nextIndex, consumeQueue.getMinOffsetInQueue());
+
+        long retained = Long.MAX_VALUE;
+        SelectMappedBufferResult bufferConsumeQueue = consumeQueue.getIndexBuffer(nextIndex);
+        if (bufferConsumeQueue != null) {
+            try {
+                retained = bufferConsumeQueue.getByteBuffer().getLong();
+            } finally {
+                bufferConsumeQueue.release();
+            }
+        }
+
+        if (state != null) {
+            for (LatestEntry latest : state.latestByKey.values()) {
+                retained = Math.min(retained, latest.offsetPy);
+            }
+        }
+        return retained;
+    }
+
+    private String readKey(final long offsetPy, final int sizePy) {
+        SelectMappedBufferResult selectResult = this.defaultMessageStore.getCommitLog().getMessage(offsetPy, sizePy);
+        if (null == selectResult) {
+            return null;
+        }
+
+        try {
+            MessageExt msg = MessageDecoder.decode(selectResult.getByteBuffer(), false);
+            if (null == msg || UtilAll.isBlank(msg.getKeys())) {
+                return null;
+            }
+            String keys = msg.getKeys().trim();
+            int end = keys.indexOf(MessageConst.KEY_SEPARATOR);
+            return end > 0 ? keys.substring(0, end) : keys;
+        } finally {
+            selectResult.release();
+        }
+    }
+
+    public long getCompactedEntries() {
+        return compactedEntries.get();
+    }
+
+    public long getRetainedPhyOffset() {
+        return retainedPhyOffset;
+    }
+
+    static class CompactionState {
+        private long nextIndex = 0;
+        private final Map<String, LatestEntry> latestByKey = new HashMap<String, LatestEntry>();
+    }
+
+    static class LatestEntry {
+        private long index;
+        private long offsetPy;
+
+        LatestEntry(final long index, final long offsetPy) {
+            this.index = index;
+            this.offsetPy = offsetPy;
+        }
+    }
+}
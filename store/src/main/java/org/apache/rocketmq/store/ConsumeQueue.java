@@ -28,6 +28,11 @@ public class ConsumeQueue {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
 
     public static final int CQ_STORE_UNIT_SIZE = 20;
+    /**
+     * Tags code of an entry superseded by a newer message with the same key in a compacted topic, readers skip such
+     * entries. Real tags codes are tag hashes, delivery timestamps or ext addresses, never this value.
+     */
+    public static final long COMPACTED_TAGS_CODE = Long.MAX_VALUE;
     private static final InternalLogger LOG_ERROR = InternalLoggerFactory.getLogger(LoggerName.STORE_ERROR_LOGGER_NAME);
 
     private final DefaultMessageStore defaultMessageStore;
@@ -41,6 +46,11 @@ public class ConsumeQueue {
     private final int mappedFileSize;
     private long maxPhysicOffset = -1;
     private volatile long minLogicOffset = 0;
+    /**
+     * Snapshot of the max offset in queue, refreshed by every write or truncation so that pulls and held requests read
+     * it without going through the mapped files.
+     */
+    private volatile long maxOffsetInQueue = 0;
     private ConsumeQueueExt consumeQueueExt = null;
 
     public ConsumeQueue(
@@ -60,7 +70,12 @@ public class ConsumeQueue {
             + File.separator + topic
             + File.separator + queueId;
 
-        this.mappedFileQueue = new MappedFileQueue(queueDir, mappedFileSize, null);
+        String coldRootDir = defaultMessageStore.getMessageStoreConfig().getStorePathColdRootDir();
+        String coldQueueDir = coldRootDir == null ? null : StorePathConfigHelper.getStorePathConsumeQueue(coldRootDir)
+            + File.separator + topic
+            + File.separator + queueId;
+
+        this.mappedFileQueue = new MappedFileQueue(queueDir, mappedFileSize, null, coldQueueDir);
 
         this.byteBufferIndex = ByteBuffer.allocate(CQ_STORE_UNIT_SIZE);
 
@@ -77,6 +92,7 @@ public class ConsumeQueue {
 
     public boolean load() {
         boolean result = this.mappedFileQueue.load();
+        this.refreshMaxOffsetInQueue();
         log.info("load consume queue " + this.topic + "-" + this.queueId + " " + (result ? "OK" : "Failed"));
         if (isExtReadEnable()) {
             result &= this.consumeQueueExt.load();
@@ -142,6 +158,7 @@ public class ConsumeQueue {
             this.mappedFileQueue.setFlushedWhere(processOffset);
             this.mappedFileQueue.setCommittedWhere(processOffset);
             this.mappedFileQueue.truncateDirtyFiles(processOffset);
+            this.refreshMaxOffsetInQueue();
 
             if (isExtReadEnable()) {
                 this.consumeQueueExt.recover();
@@ -221,6 +238,11 @@ public class ConsumeQueue {
     }
 
     public void truncateDirtyLogicFiles(long phyOffet) {
+        this.doTruncateDirtyLogicFiles(phyOffet);
+        this.refreshMaxOffsetInQueue();
+    }
+
+    private void doTruncateDirtyLogicFiles(long phyOffet) {
 
         int logicFileSize = this.mappedFileSize;
 
@@ -466,7 +488,9 @@ public class ConsumeQueue {
                 }
             }
             this.maxPhysicOffset = offset + size;
-            return mappedFile.appendMessage(this.byteBufferIndex.array());
+            boolean result = mappedFile.appendMessage(this.byteBufferIndex.array());
+            this.refreshMaxOffsetInQueue();
+            return result;
         }
         return false;
     }
@@ -496,6 +520,24 @@ public class ConsumeQueue {
         return null;
     }
 
+    /**
+     * Mark the entry at the index as compacted away, the caller forces the returned file once done with it.
+     *
+     * @return the mapped file written, null if the entry no longer exists
+     */
+    public MappedFile markCompacted(final long index) {
+        long offset = index * CQ_STORE_UNIT_SIZE;
+        if (offset >= this.getMinLogicOffset()) {
+            MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(offset);
+            if (mappedFile != null) {
+                int pos = (int) (offset % this.mappedFileSize);
+                mappedFile.getMappedByteBuffer().putLong(pos + 12, COMPACTED_TAGS_CODE);
+                return mappedFile;
+            }
+        }
+        return null;
+    }
+
     public ConsumeQueueExt.CqExtUnit getExt(final long offset) {
         if (isExtReadEnable()) {
             return this.consumeQueueExt.get(offset);
@@ -524,6 +566,10 @@ public class ConsumeQueue {
         return index + totalUnitsInFile - index % totalUnitsInFile;
     }
 
+    public MappedFileQueue getMappedFileQueue() {
+        return mappedFileQueue;
+    }
+
     public String getTopic() {
         return topic;
     }
@@ -544,6 +590,7 @@ public class ConsumeQueue {
         this.maxPhysicOffset = -1;
         this.minLogicOffset = 0;
         this.mappedFileQueue.destroy();
+        this.maxOffsetInQueue = 0;
         if (isExtReadEnable()) {
             this.consumeQueueExt.destroy();
         }
@@ -554,7 +601,11 @@ public class ConsumeQueue {
     }
 
     public long getMaxOffsetInQueue() {
-        return this.mappedFileQueue.getMaxOffset() / CQ_STORE_UNIT_SIZE;
+        return this.maxOffsetInQueue;
+    }
+
+    private void refreshMaxOffsetInQueue() {
+        this.maxOffsetInQueue = this.mappedFileQueue.getMaxOffset() / CQ_STORE_UNIT_SIZE;
     }
 
     public void checkSelf() {
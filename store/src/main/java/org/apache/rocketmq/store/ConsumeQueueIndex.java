@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Flat view of the consume queue table serving the hot lookups of pulls, offset queries and dispatch.
+ * <p>
+ * Every topic maps to an array indexed by queue id, so a lookup costs one hash of the topic, which the string caches,
+ * plus an array read, without boxing the queue id or creating anything. Published arrays are never modified, writers
+ * are rare, serialized and publish a copy. Queue ids out of the indexed range are left to the consume queue table.
+ */
+public class ConsumeQueueIndex {
+    private static final int MAX_INDEXED_QUEUE_ID = 1024 * 64;
+
+    private final ConcurrentMap<String/* topic */, ConsumeQueue[]/* indexed by queueId */> table =
+        new ConcurrentHashMap<String, ConsumeQueue[]>(1024);
+
+    public ConsumeQueue get(final String topic, final int queueId) {
+        ConsumeQueue[] queues = this.table.get(topic);
+        if (queues != null && queueId >= 0 && queueId < queues.length) {
+            return queues[queueId];
+        }
+        return null;
+    }
+
+    public synchronized void put(final ConsumeQueue consumeQueue) {
+        final int queueId = consumeQueue.getQueueId();
+        if (queueId < 0 || queueId >= MAX_INDEXED_QUEUE_ID) {
+            return;
+        }
+
+        ConsumeQueue[] queues = this.table.get(consumeQueue.getTopic());
+        ConsumeQueue[] newQueues;
+        if (null == queues) {
+            newQueues = new ConsumeQueue[queueId + 1];
+        } else {
+            newQueues = Arrays.copyOf(queues, Math.max(queues.length, queueId + 1));
+        }
+        newQueues[queueId] = consumeQueue;
+        this.table.put(consumeQueue.getTopic(), newQueues);
+    }
+
+    public synchronized void remove(final String topic, final int queueId) {
+        ConsumeQueue[] queues = this.table.get(topic);
+        if (null == queues || queueId < 0 || queueId >= queues.length || null == queues[queueId]) {
+            return;
+        }
+
+        ConsumeQueue[] newQueues = Arrays.copyOf(queues, queues.length);
+        newQueues[queueId] = null;
+        for (ConsumeQueue consumeQueue : newQueues) {
+            if (consumeQueue != null) {
+                this.table.put(topic, newQueues);
+                return;
+            }
+        }
+        this.table.remove(topic);
+    }
+
+    public synchronized void removeTopic(final String topic) {
+        this.table.remove(topic);
+    }
+}
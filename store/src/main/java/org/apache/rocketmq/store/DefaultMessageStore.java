@@ -70,12 +70,18 @@ public class DefaultMessageStore implements MessageStore {
 
     private final ConcurrentMap<String/* topic */, ConcurrentMap<Integer/* queueId */, ConsumeQueue>> consumeQueueTable;
 
+    private final ConsumeQueueIndex consumeQueueIndex = new ConsumeQueueIndex();
+
     private final FlushConsumeQueueService flushConsumeQueueService;
 
     private final CleanCommitLogService cleanCommitLogService;
 
     private final CleanConsumeQueueService cleanConsumeQueueService;
 
+    private final TieredStoreService tieredStoreService;
+
+    private final CompactionService compactionService;
+
     private final IndexService indexService;
 
     private final AllocateMappedFileService allocateMappedFileService;
@@ -132,6 +138,8 @@ public class DefaultMessageStore implements MessageStore {
         this.flushConsumeQueueService = new FlushConsumeQueueService();
         this.cleanCommitLogService = new CleanCommitLogService();
         this.cleanConsumeQueueService = new CleanConsumeQueueService();
+        this.tieredStoreService = new TieredStoreService(this);
+        this.compactionService = new CompactionService(this);
         this.storeStatsService = new StoreStatsService();
         this.indexService = new IndexService(this);
         if (!messageStoreConfig.isEnableDLegerCommitLog()) {
@@ -286,6 +294,7 @@ public class DefaultMessageStore implements MessageStore {
         this.flushConsumeQueueService.start();
         this.commitLog.start();
         this.storeStatsService.start();
+        this.tieredStoreService.start();
         this.delayMessageManager.start();
 
         this.createTempFile();
@@ -316,6 +325,7 @@ public class DefaultMessageStore implements MessageStore {
             }
 
             this.storeStatsService.shutdown();
+            this.tieredStoreService.shutdown();
             this.indexService.shutdown();
             this.commitLog.shutdown();
             this.reputMessageService.shutdown();
@@ -557,6 +567,10 @@ public class DefaultMessageStore implements MessageStore {
                             int sizePy = bufferConsumeQueue.getByteBuffer().getInt();
                             long tagsCode = bufferConsumeQueue.getByteBuffer().getLong();
 
+                            if (tagsCode == ConsumeQueue.COMPACTED_TAGS_CODE) {
+                                continue;
+                            }
+
                             maxPhyOffsetPulling = offsetPy;
 
                             if (nextPhyFileStartOffset != Long.MIN_VALUE) {
@@ -771,6 +785,10 @@ public class DefaultMessageStore implements MessageStore {
             }
         }
 
+        if (this.haService != null) {
+            this.haService.buildRunningStats(result);
+        }
+
         result.put(RunningStats.commitLogMinOffset.name(), String.valueOf(DefaultMessageStore.this.getMinPhyOffset()));
         result.put(RunningStats.commitLogMaxOffset.name(), String.valueOf(DefaultMessageStore.this.getMaxPhyOffset()));
 
@@ -975,6 +993,7 @@ public class DefaultMessageStore implements MessageStore {
                     this.commitLog.removeQueueFromTopicQueueTable(cq.getTopic(), cq.getQueueId());
                 }
                 it.remove();
+                this.consumeQueueIndex.removeTopic(topic);
 
                 log.info("cleanUnusedTopic: {},topic destroyed", topic);
             }
@@ -1016,6 +1035,7 @@ public class DefaultMessageStore implements MessageStore {
 
                         nextQT.getValue().destroy();
                         itQT.remove();
+                        this.consumeQueueIndex.remove(topic, nextQT.getKey());
                     }
                 }
 
@@ -1136,6 +1156,11 @@ public class DefaultMessageStore implements MessageStore {
     }
 
     public ConsumeQueue findConsumeQueue(String topic, int queueId) {
+        ConsumeQueue indexed = this.consumeQueueIndex.get(topic, queueId);
+        if (indexed != null) {
+            return indexed;
+        }
+
         ConcurrentMap<Integer, ConsumeQueue> map = consumeQueueTable.get(topic);
         if (null == map) {
             ConcurrentMap<Integer, ConsumeQueue> newMap = new ConcurrentHashMap<Integer, ConsumeQueue>(128);
@@ -1163,9 +1188,23 @@ public class DefaultMessageStore implements MessageStore {
             }
         }
 
+        this.indexConsumeQueue(topic, queueId, logic);
         return logic;
     }
 
+    /**
+     * Index the queue unless the clean services removed it from the table meanwhile, they remove it from the index
+     * after the table, so the index never keeps a destroyed queue.
+     */
+    private void indexConsumeQueue(final String topic, final int queueId, final ConsumeQueue logic) {
+        synchronized (this.consumeQueueIndex) {
+            ConcurrentMap<Integer, ConsumeQueue> map = this.consumeQueueTable.get(topic);
+            if (map != null && map.get(queueId) == logic) {
+                this.consumeQueueIndex.put(logic);
+            }
+        }
+    }
+
     private long nextOffsetCorrection(long oldOffset, long newOffset) {
         long nextOffset = oldOffset;
         if (this.getMessageStoreConfig().getBrokerRole() != BrokerRole.SLAVE || this.getMessageStoreConfig().isOffsetCheckInSlave()) {
@@ -1243,6 +1282,15 @@ public class DefaultMessageStore implements MessageStore {
             }
         }, 1, 10, TimeUnit.MINUTES);
 
+        if (this.haService != null) {
+            this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    DefaultMessageStore.this.haService.getCompressionStats().sampling();
+                }
+            }, 10, 10, TimeUnit.SECONDS);
+        }
+
         this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
@@ -1275,6 +1323,7 @@ public class DefaultMessageStore implements MessageStore {
     private void cleanFilesPeriodically() {
         this.cleanCommitLogService.run();
         this.cleanConsumeQueueService.run();
+        this.compactionService.run();
     }
 
     private void checkSelf() {
@@ -1354,6 +1403,10 @@ public class DefaultMessageStore implements MessageStore {
         return transientStorePool;
     }
 
+    public IndexService getIndexService() {
+        return indexService;
+    }
+
     private void putConsumeQueue(final String topic, final int queueId, final ConsumeQueue consumeQueue) {
         ConcurrentMap<Integer/* queueId */, ConsumeQueue> map = this.consumeQueueTable.get(topic);
         if (null == map) {
@@ -1363,6 +1416,7 @@ public class DefaultMessageStore implements MessageStore {
         } else {
             map.put(queueId, consumeQueue);
         }
+        this.consumeQueueIndex.put(consumeQueue);
     }
 
     private long recoverConsumeQueue() {
@@ -1397,6 +1451,14 @@ public class DefaultMessageStore implements MessageStore {
         return allocateMappedFileService;
     }
 
+    public CompactionService getCompactionService() {
+        return compactionService;
+    }
+
+    public TieredStoreService getTieredStoreService() {
+        return tieredStoreService;
+    }
+
     public StoreStatsService getStoreStatsService() {
         return storeStatsService;
     }
@@ -1459,7 +1521,7 @@ public class DefaultMessageStore implements MessageStore {
 
     @Override
     public boolean isTransientStorePoolDeficient() {
-        return remainTransientStoreBufferNumbs() == 0;
+        return remainTransientStoreBufferNumbs() == 0 && this.transientStorePool.expandableBufferNums() == 0;
     }
 
     @Override
@@ -1469,6 +1531,11 @@ public class DefaultMessageStore implements MessageStore {
 
     @Override
     public ConsumeQueue getConsumeQueue(String topic, int queueId) {
+        ConsumeQueue indexed = this.consumeQueueIndex.get(topic, queueId);
+        if (indexed != null) {
+            return indexed;
+        }
+
         ConcurrentMap<Integer, ConsumeQueue> map = consumeQueueTable.get(topic);
         if (map == null) {
             return null;
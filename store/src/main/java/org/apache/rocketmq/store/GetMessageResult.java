@@ -96,6 +96,32 @@ public class GetMessageResult {
         }
     }
 
+    /**
+     * Copy of this result sharing the message bytes, to be released on its own, so one read can answer several pulls.
+     *
+     * @return null if one of the mapped files is no longer available
+     */
+    public GetMessageResult duplicate() {
+        GetMessageResult result = new GetMessageResult();
+        for (SelectMappedBufferResult select : this.messageMapedList) {
+            SelectMappedBufferResult copy = select.duplicate();
+            if (null == copy) {
+                result.release();
+                return null;
+            }
+            result.messageMapedList.add(copy);
+            result.messageBufferList.add(copy.getByteBuffer());
+        }
+        result.status = this.status;
+        result.nextBeginOffset = this.nextBeginOffset;
+        result.minOffset = this.minOffset;
+        result.maxOffset = this.maxOffset;
+        result.bufferTotalSize = this.bufferTotalSize;
+        result.suggestPullingFromSlave = this.suggestPullingFromSlave;
+        result.msgCount4Commercial = this.msgCount4Commercial;
+        return result;
+    }
+
     public int getBufferTotalSize() {
         return bufferTotalSize;
     }
@@ -23,7 +23,10 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.TreeMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
@@ -37,6 +40,11 @@ public class MappedFileQueue {
 
     private final String storePath;
 
+    /**
+     * Directory of the cold tier, sealed files may live there instead of {@link #storePath}, null if no cold tier.
+     */
+    private final String coldStorePath;
+
     private final int mappedFileSize;
 
     private final CopyOnWriteArrayList<MappedFile> mappedFiles = new CopyOnWriteArrayList<MappedFile>();
@@ -50,9 +58,15 @@ public class MappedFileQueue {
 
     public MappedFileQueue(final String storePath, int mappedFileSize,
         AllocateMappedFileService allocateMappedFileService) {
+        this(storePath, mappedFileSize, allocateMappedFileService, null);
+    }
+
+    public MappedFileQueue(final String storePath, int mappedFileSize,
+        AllocateMappedFileService allocateMappedFileService, final String coldStorePath) {
         this.storePath = storePath;
         this.mappedFileSize = mappedFileSize;
         this.allocateMappedFileService = allocateMappedFileService;
+        this.coldStorePath = coldStorePath;
     }
 
     public void checkSelf() {
@@ -145,11 +159,8 @@ public class MappedFileQueue {
     }
 
     public boolean load() {
-        File dir = new File(this.storePath);
-        File[] files = dir.listFiles();
+        File[] files = this.listStoreFiles();
         if (files != null) {
-            // ascending order
-            Arrays.sort(files);
             for (File file : files) {
 
                 if (file.length() != this.mappedFileSize) {
@@ -176,6 +187,89 @@ public class MappedFileQueue {
         return true;
     }
 
+    /**
+     * @return files of both tiers in ascending order, a file present in both tiers is taken from the cold one
+     */
+    private File[] listStoreFiles() {
+        File[] hotFiles = new File(this.storePath).listFiles();
+        if (hotFiles != null) {
+            Arrays.sort(hotFiles);
+        }
+        if (null == this.coldStorePath) {
+            return hotFiles;
+        }
+
+        File[] coldFiles = new File(this.coldStorePath).listFiles();
+        if (null == coldFiles || coldFiles.length == 0) {
+            return hotFiles;
+        }
+
+        TreeMap<String, File> filesByName = new TreeMap<String, File>();
+        if (hotFiles != null) {
+            for (File file : hotFiles) {
+                filesByName.put(file.getName(), file);
+            }
+        }
+
+        for (File file : coldFiles) {
+            if (file.getName().endsWith(StoreUtil.TMP_FILE_SUFFIX)) {
+                log.warn("delete unfinished cold file " + file);
+                file.delete();
+                continue;
+            }
+
+            File hotFile = filesByName.put(file.getName(), file);
+            if (hotFile != null) {
+                // the process stopped after the copy completed but before the hot file was deleted
+                log.warn("found " + file.getName() + " in both tiers, delete the hot one " + hotFile);
+                hotFile.delete();
+            }
+        }
+
+        return filesByName.values().toArray(new File[0]);
+    }
+
+    public boolean isColdMappedFile(final MappedFile mappedFile) {
+        return this.coldStorePath != null
+            && new File(this.coldStorePath).equals(mappedFile.getFile().getParentFile());
+    }
+
+    /**
+     * Copy a sealed mapped file to the cold tier and let readers switch to the copy. The caller must destroy the
+     * returned hot mapped file once it is no longer referenced. May run concurrently with the deletion of expired
+     * files, the swap is atomic against {@link #deleteExpiredFile(List)}.
+     *
+     * @param bytesPerSecond copy no faster than this, not throttled if not positive
+     * @return the replaced hot mapped file, null if the file is no longer in the queue
+     */
+    public MappedFile offloadToColdStore(final MappedFile mappedFile, final long bytesPerSecond) throws IOException {
+        File coldFile = StoreUtil.copyToDir(mappedFile.getFile(), this.coldStorePath, bytesPerSecond);
+        final MappedFile coldMappedFile = new MappedFile(coldFile.getPath(), this.mappedFileSize);
+        coldMappedFile.setWrotePosition(this.mappedFileSize);
+        coldMappedFile.setFlushedPosition(this.mappedFileSize);
+        coldMappedFile.setCommittedPosition(this.mappedFileSize);
+
+        final AtomicBoolean replaced = new AtomicBoolean(false);
+        this.mappedFiles.replaceAll(new UnaryOperator<MappedFile>() {
+            @Override
+            public MappedFile apply(MappedFile file) {
+                if (file == mappedFile) {
+                    replaced.set(true);
+                    return coldMappedFile;
+                }
+                return file;
+            }
+        });
+        if (!replaced.get()) {
+            log.warn("mapped file {} removed while being offloaded", mappedFile.getFileName());
+            coldMappedFile.destroy(0);
+            return null;
+        }
+
+        log.info("offload " + mappedFile.getFileName() + " to " + coldFile.getPath());
+        return mappedFile;
+    }
+
     public long howMuchFallBehind() {
         if (this.mappedFiles.isEmpty())
             return 0;
@@ -337,6 +431,17 @@ public class MappedFileQueue {
         final int deleteFilesInterval,
         final long intervalForcibly,
         final boolean cleanImmediately) {
+        return this.deleteExpiredFileByTime(expiredTime, deleteFilesInterval, intervalForcibly, cleanImmediately, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param retainedOffset files holding data at or after this offset are kept, whatever their age
+     */
+    public int deleteExpiredFileByTime(final long expiredTime,
+        final int deleteFilesInterval,
+        final long intervalForcibly,
+        final boolean cleanImmediately,
+        final long retainedOffset) {
         Object[] mfs = this.copyMappedFiles(0);
 
         if (null == mfs)
@@ -348,6 +453,9 @@ public class MappedFileQueue {
         if (null != mfs) {
             for (int i = 0; i < mfsLength; i++) {
                 MappedFile mappedFile = (MappedFile) mfs[i];
+                if (mappedFile.getFileFromOffset() + this.mappedFileSize > retainedOffset) {
+                    break;
+                }
                 long liveMaxTimestamp = mappedFile.getLastModifiedTimestamp() + expiredTime;
                 if (System.currentTimeMillis() >= liveMaxTimestamp || cleanImmediately) {
                     if (mappedFile.destroy(intervalForcibly)) {
@@ -578,6 +686,12 @@ public class MappedFileQueue {
         if (file.isDirectory()) {
             file.delete();
         }
+        if (this.coldStorePath != null) {
+            File coldDir = new File(this.coldStorePath);
+            if (coldDir.isDirectory()) {
+                coldDir.delete();
+            }
+        }
     }
 
     public long getFlushedWhere() {
@@ -62,6 +62,16 @@ public class SelectMappedBufferResult {
         }
     }
 
+    /**
+     * @return a view of the same bytes holding its own reference to the mapped file, null if already released
+     */
+    public synchronized SelectMappedBufferResult duplicate() {
+        if (this.mappedFile != null && this.mappedFile.hold()) {
+            return new SelectMappedBufferResult(this.startOffset, this.byteBuffer.duplicate(), this.size, this.mappedFile);
+        }
+        return null;
+    }
+
     public long getStartOffset() {
         return startOffset;
     }
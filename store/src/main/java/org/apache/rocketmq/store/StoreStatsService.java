@@ -38,6 +38,9 @@ public class StoreStatsService extends ServiceThread {
     private static final String[] PUT_MESSAGE_ENTIRE_TIME_MAX_DESC = new String[] {
         "[<=0ms]", "[0~10ms]", "[10~50ms]", "[50~100ms]", "[100~200ms]", "[200~500ms]", "[500ms~1s]", "[1~2s]", "[2~3s]", "[3~4s]", "[4~5s]", "[5~10s]", "[10s~]",
     };
+    private static final String[] PUT_MESSAGE_BATCH_SIZE_DESC = new String[] {
+        "[1]", "[2~3]", "[4~7]", "[8~15]", "[16~31]", "[32~63]", "[64~]",
+    };
 
     private static int printTPSInterval = 60 * 1;
 
@@ -57,6 +60,7 @@ public class StoreStatsService extends ServiceThread {
     private final LinkedList<CallSnapshot> getTimesMissList = new LinkedList<CallSnapshot>();
     private final LinkedList<CallSnapshot> transferedMsgCountList = new LinkedList<CallSnapshot>();
     private volatile AtomicLong[] putMessageDistributeTime;
+    private final AtomicLong[] putMessageBatchSizeDistribute = new AtomicLong[PUT_MESSAGE_BATCH_SIZE_DESC.length];
     private long messageStoreBootTimestamp = System.currentTimeMillis();
     private volatile long putMessageEntireTimeMax = 0;
     private volatile long getMessageEntireTimeMax = 0;
@@ -72,6 +76,9 @@ public class StoreStatsService extends ServiceThread {
 
     public StoreStatsService() {
         this.initPutMessageDistributeTime();
+        for (int i = 0; i < this.putMessageBatchSizeDistribute.length; i++) {
+            this.putMessageBatchSizeDistribute[i] = new AtomicLong(0);
+        }
     }
 
     private AtomicLong[] initPutMessageDistributeTime() {
@@ -144,6 +151,29 @@ public class StoreStatsService extends ServiceThread {
         }
     }
 
+    /**
+     * Counts the messages appended together under one put message lock acquisition, by powers of two.
+     */
+    public void recordPutMessageBatchSize(final int size) {
+        if (size <= 0) {
+            return;
+        }
+        int index = Math.min(31 - Integer.numberOfLeadingZeros(size), this.putMessageBatchSizeDistribute.length - 1);
+        this.putMessageBatchSizeDistribute[index].incrementAndGet();
+    }
+
+    /**
+     * @return the count of each batch size bucket, bucket i holds the batches of 2^i up to 2^(i+1)-1 messages, the
+     * last one all larger batches too
+     */
+    public long[] getPutMessageBatchSizeDistribute() {
+        long[] distribute = new long[this.putMessageBatchSizeDistribute.length];
+        for (int i = 0; i < distribute.length; i++) {
+            distribute[i] = this.putMessageBatchSizeDistribute[i].get();
+        }
+        return distribute;
+    }
+
     public long getGetMessageEntireTimeMax() {
         return getMessageEntireTimeMax;
     }
@@ -179,6 +209,7 @@ public class StoreStatsService extends ServiceThread {
         sb.append("\tputMessageSizeTotal: " + this.getPutMessageSizeTotal() + "\r\n");
         sb.append("\tputMessageDistributeTime: " + this.getPutMessageDistributeTimeStringInfo(totalTimes)
             + "\r\n");
+        sb.append("\tputMessageBatchSizeDistribute: " + this.putMessageBatchSizeDistributeToString() + "\r\n");
         sb.append("\tputMessageAverageSize: " + (this.getPutMessageSizeTotal() / totalTimes.doubleValue())
             + "\r\n");
         sb.append("\tdispatchMaxBuffer: " + this.dispatchMaxBuffer + "\r\n");
@@ -312,6 +343,16 @@ public class StoreStatsService extends ServiceThread {
         return sb.toString();
     }
 
+    private String putMessageBatchSizeDistributeToString() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.putMessageBatchSizeDistribute.length; i++) {
+            sb.append(String.format("%s:%d", PUT_MESSAGE_BATCH_SIZE_DESC[i], this.putMessageBatchSizeDistribute[i].get()));
+            sb.append(" ");
+        }
+
+        return sb.toString();
+    }
+
     private String getPutTps(int time) {
         String result = "";
         this.lockSampling.lock();
@@ -431,6 +472,7 @@ public class StoreStatsService extends ServiceThread {
         result.put("putMessageSizeTotal", String.valueOf(this.getPutMessageSizeTotal()));
         result.put("putMessageDistributeTime",
             String.valueOf(this.getPutMessageDistributeTimeStringInfo(totalTimes)));
+        result.put("putMessageBatchSizeDistribute", this.putMessageBatchSizeDistributeToString());
         result.put("putMessageAverageSize",
             String.valueOf(this.getPutMessageSizeTotal() / totalTimes.doubleValue()));
         result.put("dispatchMaxBuffer", String.valueOf(this.dispatchMaxBuffer));
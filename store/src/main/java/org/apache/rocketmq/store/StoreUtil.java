@@ -16,11 +16,25 @@
  */
 package org.apache.rocketmq.store;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 public class StoreUtil {
     public static final long TOTAL_PHYSICAL_MEMORY_SIZE = getTotalPhysicalMemorySize();
+    public static final String TMP_FILE_SUFFIX = ".tmp";
+    private static final String MEMINFO_PATH = "/proc/meminfo";
+    private static final String MEM_AVAILABLE = "MemAvailable:";
+    private static final long COPY_CHUNK_SIZE = 1024 * 1024 * 4;
 
     @SuppressWarnings("restriction")
     public static long getTotalPhysicalMemorySize() {
@@ -32,4 +46,73 @@ public class StoreUtil {
 
         return physicalTotal;
     }
+
+    /**
+     * Copy a file into another directory, possibly on another file system. The copy is written under a temporary
+     * name, forced to disk and then renamed, so a file with the final name is always complete.
+     *
+     * @param bytesPerSecond copy no faster than this, not throttled if not positive
+     * @return the copied file
+     */
+    public static File copyToDir(final File src, final String dir, final long bytesPerSecond) throws IOException {
+        File targetDir = new File(dir);
+        if (!targetDir.exists() && !targetDir.mkdirs() && !targetDir.exists()) {
+            throw new IOException("create dir failed, " + dir);
+        }
+
+        File target = new File(dir, src.getName());
+        File tmp = new File(dir, src.getName() + TMP_FILE_SUFFIX);
+        try (FileChannel in = new FileInputStream(src).getChannel();
+             FileChannel out = new FileOutputStream(tmp).getChannel()) {
+            long beginTime = System.currentTimeMillis();
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+                position += in.transferTo(position, Math.min(COPY_CHUNK_SIZE, size - position), out);
+                if (bytesPerSecond > 0) {
+                    long ahead = position * 1000 / bytesPerSecond - (System.currentTimeMillis() - beginTime);
+                    if (ahead > 0) {
+                        try {
+                            Thread.sleep(ahead);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("copy " + src + " interrupted");
+                        }
+                    }
+                }
+            }
+            out.force(true);
+        }
+        // keep the age, the clean services expire files by their last modified time
+        tmp.setLastModified(src.lastModified());
+
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return target;
+    }
+
+    /**
+     * Memory the OS can hand out without swapping, reclaimable page cache included, as MemAvailable of /proc/meminfo.
+     *
+     * @return -1 if unknown on this platform
+     */
+    public static long getAvailablePhysicalMemorySize() {
+        File meminfo = new File(MEMINFO_PATH);
+        if (!meminfo.exists()) {
+            return -1;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(meminfo))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(MEM_AVAILABLE)) {
+                    // MemAvailable:   12345678 kB
+                    String[] parts = line.substring(MEM_AVAILABLE.length()).trim().split("\\s+");
+                    return Long.parseLong(parts[0]) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
 }
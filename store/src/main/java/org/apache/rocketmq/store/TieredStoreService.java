@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+
+/**
+ * Moves sealed commit log, consume queue and index files to the cold tier under {@code storePathColdRootDir}.
+ * <p>
+ * A moved file is mapped again from the cold tier and replaces the hot one in place, so {@code getMessage} and
+ * {@code queryMessage} keep working unchanged and the page cache of the cold mount serves replays. Expired files are
+ * still deleted by the clean services, wherever they live.
+ * <p>
+ * Copying a file takes long, so it runs on its own thread at most {@code tieredStoreOffloadMBPerSecond}, and the clean
+ * services keep their pace. A file deleted while it is being copied is simply not swapped, the cold copy is dropped.
+ */
+public class TieredStoreService extends ServiceThread {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+    private static final long DESTROY_HOT_FILE_INTERVAL = 1000 * 120;
+
+    private final DefaultMessageStore defaultMessageStore;
+    /**
+     * Hot files already replaced by their cold copy but still referenced by readers. Those left over on shutdown are
+     * deleted by the next load, which prefers the cold copy.
+     */
+    private final List<MappedFile> hotFilesToDestroy = new LinkedList<MappedFile>();
+
+    public TieredStoreService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                this.waitForRunning(this.defaultMessageStore.getMessageStoreConfig().getCleanResourceInterval());
+                this.offload();
+            } catch (Throwable e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+    /**
+     * One round of offloading, at most {@code tieredStoreMaxFilesPerRound} files.
+     */
+    synchronized void offload() {
+        MessageStoreConfig config = this.defaultMessageStore.getMessageStoreConfig();
+        if (!config.isTieredStoreEnable()) {
+            return;
+        }
+
+        this.destroyHotFiles();
+
+        long expiredTime = System.currentTimeMillis() - config.getTieredStoreHotRetentionHours() * 3600L * 1000;
+        long bytesPerSecond = config.getTieredStoreOffloadMBPerSecond() * 1024L * 1024;
+        int budget = config.getTieredStoreMaxFilesPerRound();
+
+        if (!config.isEnableDLegerCommitLog()) {
+            budget -= this.offload(this.defaultMessageStore.getCommitLog().getMappedFileQueue(), expiredTime, budget,
+                bytesPerSecond);
+        }
+
+        for (ConcurrentMap<Integer, ConsumeQueue> maps : this.defaultMessageStore.getConsumeQueueTable().values()) {
+            for (ConsumeQueue logic : maps.values()) {
+                if (budget <= 0 || this.isStopped()) {
+                    break;
+                }
+                budget -= this.offload(logic.getMappedFileQueue(), expiredTime, budget, bytesPerSecond);
+            }
+        }
+
+        // called even without budget left, it also retries destroying the index files it replaced before
+        this.defaultMessageStore.getIndexService().offloadToColdStore(expiredTime,
+            this.isStopped() ? 0 : Math.max(0, budget), bytesPerSecond);
+    }
+
+    private int offload(final MappedFileQueue mappedFileQueue, final long expiredTime, final int maxFiles,
+        final long bytesPerSecond) {
+        Object[] mfs = mappedFileQueue.getMappedFiles().toArray();
+        int offloaded = 0;
+        // the last file is still being written
+        for (int i = 0; i < mfs.length - 1 && offloaded < maxFiles && !this.isStopped(); i++) {
+            MappedFile mappedFile = (MappedFile) mfs[i];
+            if (mappedFile.getLastModifiedTimestamp() >= expiredTime) {
+                break;
+            }
+            if (!mappedFile.isFull() || mappedFile.getFlushedPosition() < mappedFile.getFileSize()
+                || mappedFileQueue.isColdMappedFile(mappedFile)) {
+                continue;
+            }
+
+            try {
+                MappedFile hotFile = mappedFileQueue.offloadToColdStore(mappedFile, bytesPerSecond);
+                if (hotFile != null) {
+                    this.hotFilesToDestroy.add(hotFile);
+                    offloaded++;
+                }
+            } catch (IOException e) {
+                log.error("offload " + mappedFile.getFileName() + " to cold store error", e);
+                break;
+            }
+        }
+
+        if (offloaded > 0) {
+            this.destroyHotFiles();
+        }
+        return offloaded;
+    }
+
+    @Override
+    public String getServiceName() {
+        return TieredStoreService.class.getSimpleName();
+    }
+
+    private void destroyHotFiles() {
+        Iterator<MappedFile> iterator = this.hotFilesToDestroy.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().destroy(DESTROY_HOT_FILE_INTERVAL)) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -21,6 +21,8 @@ import com.sun.jna.Pointer;
 import java.nio.ByteBuffer;
 import java.util.Deque;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
@@ -28,17 +30,36 @@ import org.apache.rocketmq.store.config.MessageStoreConfig;
 import org.apache.rocketmq.store.util.LibC;
 import sun.nio.ch.DirectBuffer;
 
+/**
+ * Pool of locked direct buffers used as write buffers of the commit log.
+ * <p>
+ * The pool starts with {@code transientStorePoolSize} buffers. When {@code transientStorePoolMaxSize} is larger, a
+ * background service grows the pool as soon as the available buffers drop below
+ * {@code transientStorePoolLowWaterMark}, as long as enough memory stays available, and gives the extra buffers back
+ * after they stayed idle for {@code transientStorePoolIdleTimeMills}. Allocating, locking and touching a buffer is
+ * slow, so it only happens on that service: a file borrowing a buffer while none is left falls back to mmap writes
+ * and wakes the service up.
+ */
 public class TransientStorePool {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+    private static final int OS_PAGE_SIZE = 1024 * 4;
+    private static final long MEMORY_SAMPLE_INTERVAL = 1000;
 
     private final int poolSize;
+    private final int maxPoolSize;
     private final int fileSize;
     private final Deque<ByteBuffer> availableBuffers;
+    private final AtomicInteger totalBuffers = new AtomicInteger(0);
     private final MessageStoreConfig storeConfig;
+    private final ResizeService resizeService = new ResizeService();
+    private volatile long lastDemandTimestamp = System.currentTimeMillis();
+    private volatile long availableMemory;
+    private volatile long availableMemorySampleTime = 0;
 
     public TransientStorePool(final MessageStoreConfig storeConfig) {
         this.storeConfig = storeConfig;
         this.poolSize = storeConfig.getTransientStorePoolSize();
+        this.maxPoolSize = Math.max(this.poolSize, storeConfig.getTransientStorePoolMaxSize());
         this.fileSize = storeConfig.getMappedFileSizeCommitLog();
         this.availableBuffers = new ConcurrentLinkedDeque<>();
     }
@@ -48,17 +69,20 @@ public class TransientStorePool {
      */
     public void init() {
         for (int i = 0; i < poolSize; i++) {
-            ByteBuffer byteBuffer = ByteBuffer.allocateDirect(fileSize);
-
-            final long address = ((DirectBuffer) byteBuffer).address();
-            Pointer pointer = new Pointer(address);
-            LibC.INSTANCE.mlock(pointer, new NativeLong(fileSize));
+            this.totalBuffers.incrementAndGet();
+            availableBuffers.offer(this.allocateBuffer(false));
+        }
 
-            availableBuffers.offer(byteBuffer);
+        if (this.isElastic()) {
+            this.resizeService.start();
         }
     }
 
     public void destroy() {
+        if (this.isElastic()) {
+            this.resizeService.shutdown();
+        }
+
         for (ByteBuffer byteBuffer : availableBuffers) {
             final long address = ((DirectBuffer) byteBuffer).address();
             Pointer pointer = new Pointer(address);
@@ -74,9 +98,16 @@ public class TransientStorePool {
 
     public ByteBuffer borrowBuffer() {
         ByteBuffer buffer = availableBuffers.pollFirst();
+        if (null == buffer && this.isElastic()) {
+            log.warn("TransientStorePool exhausted, the file falls back to mmap writes while the pool grows");
+        }
         if (availableBuffers.size() < poolSize * 0.4) {
             log.warn("TransientStorePool only remain {} sheets.", availableBuffers.size());
         }
+        if (this.isElastic() && availableBuffers.size() < this.storeConfig.getTransientStorePoolLowWaterMark()) {
+            this.lastDemandTimestamp = System.currentTimeMillis();
+            this.resizeService.wakeup();
+        }
         return buffer;
     }
 
@@ -86,4 +117,170 @@ public class TransientStorePool {
         }
         return Integer.MAX_VALUE;
     }
+
+    /**
+     * @return how many more buffers the pool could still allocate right now
+     */
+    public int expandableBufferNums() {
+        if (!storeConfig.isTransientStorePoolEnable() || !this.isElastic()) {
+            return 0;
+        }
+        int byCount = this.maxPoolSize - this.totalBuffers.get();
+        long byMemory = (this.availableMemory() - this.storeConfig.getTransientStorePoolReservedMemory()) / this.fileSize;
+        return (int) Math.max(0, Math.min(byCount, byMemory));
+    }
+
+    /**
+     * Sampled at most once per {@link #MEMORY_SAMPLE_INTERVAL}, the send path asks for it on every request.
+     */
+    private long availableMemory() {
+        long now = System.currentTimeMillis();
+        if (now - this.availableMemorySampleTime >= MEMORY_SAMPLE_INTERVAL) {
+            long available = StoreUtil.getAvailablePhysicalMemorySize();
+            if (available < 0) {
+                // without MemAvailable, everything but the pool itself counts as available
+                available = StoreUtil.TOTAL_PHYSICAL_MEMORY_SIZE - (long) this.totalBuffers.get() * this.fileSize;
+            }
+            this.availableMemory = available;
+            this.availableMemorySampleTime = now;
+        }
+        return this.availableMemory;
+    }
+
+    /**
+     * Allocate one more buffer if the bounds allow it, the slot is reserved first so concurrent growers never exceed
+     * {@code transientStorePoolMaxSize}.
+     *
+     * @return the new buffer, or null if the pool may not grow
+     */
+    private ByteBuffer expand() {
+        if (this.expandableBufferNums() <= 0) {
+            return null;
+        }
+        while (true) {
+            int total = this.totalBuffers.get();
+            if (total >= this.maxPoolSize) {
+                return null;
+            }
+            if (this.totalBuffers.compareAndSet(total, total + 1)) {
+                break;
+            }
+        }
+
+        ByteBuffer byteBuffer;
+        try {
+            byteBuffer = this.allocateBuffer(true);
+        } catch (Throwable e) {
+            this.totalBuffers.decrementAndGet();
+            log.error("TransientStorePool expand failed", e);
+            return null;
+        }
+        // the next check must see the memory just taken
+        this.availableMemorySampleTime = 0;
+        return byteBuffer;
+    }
+
+    public int totalBufferNums() {
+        return this.totalBuffers.get();
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /**
+     * Commit backlog pressure, the percentage of the buffers the pool may ever hold that are currently holding
+     * uncommitted or not yet returned data.
+     */
+    public double getCommitBacklogPressure() {
+        int inUse = this.totalBuffers.get() - this.availableBuffers.size();
+        return Math.max(0, inUse) * 100.0 / this.maxPoolSize;
+    }
+
+    public boolean isElastic() {
+        return this.maxPoolSize > this.poolSize;
+    }
+
+    private ByteBuffer allocateBuffer(final boolean preTouch) {
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(fileSize);
+
+        final long address = ((DirectBuffer) byteBuffer).address();
+        Pointer pointer = new Pointer(address);
+        LibC.INSTANCE.mlock(pointer, new NativeLong(fileSize));
+
+        if (preTouch) {
+            // make sure every page is backed before the buffer becomes visible to writers
+            for (int i = 0; i < fileSize; i += OS_PAGE_SIZE) {
+                byteBuffer.put(i, (byte) 0);
+            }
+        }
+
+        return byteBuffer;
+    }
+
+    private void releaseBuffer(final ByteBuffer byteBuffer) {
+        final long address = ((DirectBuffer) byteBuffer).address();
+        Pointer pointer = new Pointer(address);
+        LibC.INSTANCE.munlock(pointer, new NativeLong(fileSize));
+        MappedFile.clean(byteBuffer);
+        this.totalBuffers.decrementAndGet();
+    }
+
+    class ResizeService extends ServiceThread {
+        private static final long CHECK_INTERVAL = 1000;
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    this.waitForRunning(CHECK_INTERVAL);
+                    this.expandIfNecessary();
+                    this.shrinkIfIdle();
+                } catch (Throwable e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+        private void expandIfNecessary() {
+            int lowWaterMark = TransientStorePool.this.storeConfig.getTransientStorePoolLowWaterMark();
+            while (!this.isStopped()
+                && TransientStorePool.this.availableBuffers.size() < lowWaterMark) {
+                long beginTime = System.currentTimeMillis();
+                ByteBuffer byteBuffer = TransientStorePool.this.expand();
+                if (null == byteBuffer) {
+                    break;
+                }
+                TransientStorePool.this.availableBuffers.offerLast(byteBuffer);
+                log.info("TransientStorePool expanded to {} sheets, cost {} ms", TransientStorePool.this.totalBuffers.get(),
+                    System.currentTimeMillis() - beginTime);
+            }
+        }
+
+        private void shrinkIfIdle() {
+            long idle = System.currentTimeMillis() - TransientStorePool.this.lastDemandTimestamp;
+            if (idle < TransientStorePool.this.storeConfig.getTransientStorePoolIdleTimeMills()) {
+                return;
+            }
+
+            // give back one buffer per round, never below the configured size
+            if (TransientStorePool.this.totalBuffers.get() > TransientStorePool.this.poolSize
+                && TransientStorePool.this.availableBuffers.size() > TransientStorePool.this.storeConfig.getTransientStorePoolLowWaterMark()) {
+                ByteBuffer byteBuffer = TransientStorePool.this.availableBuffers.pollLast();
+                if (byteBuffer != null) {
+                    TransientStorePool.this.releaseBuffer(byteBuffer);
+                    log.info("TransientStorePool shrunk to {} sheets", TransientStorePool.this.totalBuffers.get());
+                }
+            }
+        }
+
+        @Override
+        public String getServiceName() {
+            return ResizeService.class.getSimpleName();
+        }
+    }
 }
@@ -58,6 +58,15 @@ public class MessageStoreConfig {
      */
     private boolean useReentrantLockWhenPutMessage = false;
 
+    /**
+     * Append the single messages of concurrent senders under one put message lock acquisition, each sender still
+     * gets its own result. Pays off with several send threads.
+     */
+    private boolean putMessageBatchEnable = false;
+    // How long the sender appending a batch waits for more senders to join
+    private int putMessageBatchWindowMicros = 100;
+    private int putMessageBatchMaxSize = 64;
+
     // Whether schedule flush,default is real-time
     @ImportantField
     private boolean flushCommitLogTimed = false;
@@ -121,6 +130,13 @@ public class MessageStoreConfig {
     @ImportantField
     private String haMasterAddress = null;
     private int haSlaveFallbehindMax = 1024 * 1024 * 256;
+    // Slave asks for, and master agrees to, a block compressed replication stream. Upgrade masters first, a slave
+    // meeting an older master falls back to raw transfer after one reconnect
+    private boolean haTransferCompressEnable = false;
+    // Codec requested by slave, see CompressionType
+    private String haTransferCompressType = "LZ4";
+    // Batches smaller than this are shipped raw
+    private int haTransferCompressMinSize = 1024;
     @ImportantField
     private BrokerRole brokerRole = BrokerRole.ASYNC_MASTER;
     @ImportantField
@@ -141,6 +157,14 @@ public class MessageStoreConfig {
     @ImportantField
     private boolean transientStorePoolEnable = false;
     private int transientStorePoolSize = 5;
+    // Upper bound of the elastic pool, no larger than transientStorePoolSize means a fixed pool
+    private int transientStorePoolMaxSize = 0;
+    // Grow the pool in background once fewer buffers than this are available
+    private int transientStorePoolLowWaterMark = 1;
+    // Extra buffers are released after the pool has not been under pressure for this long
+    private long transientStorePoolIdleTimeMills = 1000 * 60 * 10;
+    // Memory, reclaimable page cache included, that growing the pool must leave available
+    private long transientStorePoolReservedMemory = 1024L * 1024 * 1024 * 4;
     private boolean fastFailIfNoBufferInStorePool = false;
 
     private boolean enableDLegerCommitLog = false;
@@ -154,6 +178,21 @@ public class MessageStoreConfig {
     private int dispatchLogKeepTime = 3 * 24;
     private boolean isDeleteExpiredLogsEnable = false;
 
+    // Root of the cold tier, sealed commit log, consume queue and index files are moved there
+    private String storePathColdRootDir = null;
+    @ImportantField
+    private boolean tieredStoreEnable = false;
+    // Sealed files older than this stay on the hot tier (in hours)
+    private int tieredStoreHotRetentionHours = 24;
+    private int tieredStoreMaxFilesPerRound = 8;
+    // Copy rate limit of the offload, so it leaves disk bandwidth to the hot tier, 0 means unlimited
+    private int tieredStoreOffloadMBPerSecond = 64;
+
+    // Comma separated topics that keep only the newest message per key in sealed consume queue files
+    // The commit log files holding those newest messages, and every later file, outlive fileReservedTime
+    private String compactionTopics = "";
+    private int compactionMaxEntriesPerRound = 1024 * 256;
+
 
     public boolean isDebugLockEnable() {
         return debugLockEnable;
@@ -487,6 +526,30 @@ public class MessageStoreConfig {
         this.haHousekeepingInterval = haHousekeepingInterval;
     }
 
+    public boolean isHaTransferCompressEnable() {
+        return haTransferCompressEnable;
+    }
+
+    public void setHaTransferCompressEnable(boolean haTransferCompressEnable) {
+        this.haTransferCompressEnable = haTransferCompressEnable;
+    }
+
+    public String getHaTransferCompressType() {
+        return haTransferCompressType;
+    }
+
+    public void setHaTransferCompressType(String haTransferCompressType) {
+        this.haTransferCompressType = haTransferCompressType;
+    }
+
+    public int getHaTransferCompressMinSize() {
+        return haTransferCompressMinSize;
+    }
+
+    public void setHaTransferCompressMinSize(int haTransferCompressMinSize) {
+        this.haTransferCompressMinSize = haTransferCompressMinSize;
+    }
+
     public BrokerRole getBrokerRole() {
         return brokerRole;
     }
@@ -638,6 +701,38 @@ public class MessageStoreConfig {
         this.transientStorePoolSize = transientStorePoolSize;
     }
 
+    public int getTransientStorePoolMaxSize() {
+        return transientStorePoolMaxSize;
+    }
+
+    public void setTransientStorePoolMaxSize(int transientStorePoolMaxSize) {
+        this.transientStorePoolMaxSize = transientStorePoolMaxSize;
+    }
+
+    public int getTransientStorePoolLowWaterMark() {
+        return transientStorePoolLowWaterMark;
+    }
+
+    public void setTransientStorePoolLowWaterMark(int transientStorePoolLowWaterMark) {
+        this.transientStorePoolLowWaterMark = transientStorePoolLowWaterMark;
+    }
+
+    public long getTransientStorePoolIdleTimeMills() {
+        return transientStorePoolIdleTimeMills;
+    }
+
+    public void setTransientStorePoolIdleTimeMills(long transientStorePoolIdleTimeMills) {
+        this.transientStorePoolIdleTimeMills = transientStorePoolIdleTimeMills;
+    }
+
+    public long getTransientStorePoolReservedMemory() {
+        return transientStorePoolReservedMemory;
+    }
+
+    public void setTransientStorePoolReservedMemory(long transientStorePoolReservedMemory) {
+        this.transientStorePoolReservedMemory = transientStorePoolReservedMemory;
+    }
+
     public int getCommitIntervalCommitLog() {
         return commitIntervalCommitLog;
     }
@@ -734,6 +829,62 @@ public class MessageStoreConfig {
         this.dispatchLogKeepTime = dispatchLogKeepTime;
     }
 
+    public String getStorePathColdRootDir() {
+        return storePathColdRootDir;
+    }
+
+    public void setStorePathColdRootDir(String storePathColdRootDir) {
+        this.storePathColdRootDir = storePathColdRootDir;
+    }
+
+    public boolean isTieredStoreEnable() {
+        return tieredStoreEnable && storePathColdRootDir != null;
+    }
+
+    public void setTieredStoreEnable(boolean tieredStoreEnable) {
+        this.tieredStoreEnable = tieredStoreEnable;
+    }
+
+    public int getTieredStoreHotRetentionHours() {
+        return tieredStoreHotRetentionHours;
+    }
+
+    public void setTieredStoreHotRetentionHours(int tieredStoreHotRetentionHours) {
+        this.tieredStoreHotRetentionHours = tieredStoreHotRetentionHours;
+    }
+
+    public int getTieredStoreMaxFilesPerRound() {
+        return tieredStoreMaxFilesPerRound;
+    }
+
+    public void setTieredStoreMaxFilesPerRound(int tieredStoreMaxFilesPerRound) {
+        this.tieredStoreMaxFilesPerRound = tieredStoreMaxFilesPerRound;
+    }
+
+    public int getTieredStoreOffloadMBPerSecond() {
+        return tieredStoreOffloadMBPerSecond;
+    }
+
+    public void setTieredStoreOffloadMBPerSecond(int tieredStoreOffloadMBPerSecond) {
+        this.tieredStoreOffloadMBPerSecond = tieredStoreOffloadMBPerSecond;
+    }
+
+    public String getCompactionTopics() {
+        return compactionTopics;
+    }
+
+    public void setCompactionTopics(String compactionTopics) {
+        this.compactionTopics = compactionTopics;
+    }
+
+    public int getCompactionMaxEntriesPerRound() {
+        return compactionMaxEntriesPerRound;
+    }
+
+    public void setCompactionMaxEntriesPerRound(int compactionMaxEntriesPerRound) {
+        this.compactionMaxEntriesPerRound = compactionMaxEntriesPerRound;
+    }
+
     public boolean isDeleteExpiredLogsEnable() {
         return isDeleteExpiredLogsEnable;
     }
@@ -741,4 +892,28 @@ public class MessageStoreConfig {
     public void setDeleteExpiredLogsEnable(boolean deleteExpiredLogsEnable) {
         isDeleteExpiredLogsEnable = deleteExpiredLogsEnable;
     }
+
+    public boolean isPutMessageBatchEnable() {
+        return putMessageBatchEnable;
+    }
+
+    public void setPutMessageBatchEnable(boolean putMessageBatchEnable) {
+        this.putMessageBatchEnable = putMessageBatchEnable;
+    }
+
+    public int getPutMessageBatchWindowMicros() {
+        return putMessageBatchWindowMicros;
+    }
+
+    public void setPutMessageBatchWindowMicros(int putMessageBatchWindowMicros) {
+        this.putMessageBatchWindowMicros = putMessageBatchWindowMicros;
+    }
+
+    public int getPutMessageBatchMaxSize() {
+        return putMessageBatchMaxSize;
+    }
+
+    public void setPutMessageBatchMaxSize(int putMessageBatchMaxSize) {
+        this.putMessageBatchMaxSize = putMessageBatchMaxSize;
+    }
 }
@@ -20,6 +20,10 @@ import java.io.File;
 
 public class StorePathConfigHelper {
 
+    public static String getStorePathCommitLog(final String rootDir) {
+        return rootDir + File.separator + "commitlog";
+    }
+
     public static String getStorePathConsumeQueue(final String rootDir) {
         return rootDir + File.separator + "consumequeue";
     }
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.ha;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the compressed replication stream, the master records what it compresses and the slave records what
+ * it decompresses.
+ */
+public class HACompressionStats {
+    private final AtomicLong compressRawBytes = new AtomicLong(0);
+    private final AtomicLong compressWireBytes = new AtomicLong(0);
+    private final AtomicLong compressTimeNanos = new AtomicLong(0);
+
+    private final AtomicLong decompressRawBytes = new AtomicLong(0);
+    private final AtomicLong decompressWireBytes = new AtomicLong(0);
+    private final AtomicLong decompressTimeNanos = new AtomicLong(0);
+
+    private long lastSampleTimestamp = System.currentTimeMillis();
+    private long lastRawBytes = 0;
+    private long lastWireBytes = 0;
+    private volatile long rawBytesPerSecond = 0;
+    private volatile long wireBytesPerSecond = 0;
+
+    public void recordCompress(final int rawBytes, final int wireBytes, final long costNanos) {
+        this.compressRawBytes.addAndGet(rawBytes);
+        this.compressWireBytes.addAndGet(wireBytes);
+        this.compressTimeNanos.addAndGet(costNanos);
+    }
+
+    public void recordDecompress(final int wireBytes, final int rawBytes, final long costNanos) {
+        this.decompressWireBytes.addAndGet(wireBytes);
+        this.decompressRawBytes.addAndGet(rawBytes);
+        this.decompressTimeNanos.addAndGet(costNanos);
+    }
+
+    /**
+     * Refresh the throughput since the previous sampling, called periodically by the store.
+     */
+    public synchronized void sampling() {
+        long now = System.currentTimeMillis();
+        long rawBytes = this.compressRawBytes.get() + this.decompressRawBytes.get();
+        long wireBytes = this.compressWireBytes.get() + this.decompressWireBytes.get();
+        long interval = now - this.lastSampleTimestamp;
+        if (interval > 0) {
+            this.rawBytesPerSecond = (rawBytes - this.lastRawBytes) * 1000 / interval;
+            this.wireBytesPerSecond = (wireBytes - this.lastWireBytes) * 1000 / interval;
+        }
+        this.lastSampleTimestamp = now;
+        this.lastRawBytes = rawBytes;
+        this.lastWireBytes = wireBytes;
+    }
+
+    public void buildRunningStats(final HashMap<String, String> stats) {
+        long rawBytes = this.compressRawBytes.get() + this.decompressRawBytes.get();
+        long wireBytes = this.compressWireBytes.get() + this.decompressWireBytes.get();
+        double ratio = wireBytes == 0 ? 1.0 : (double) rawBytes / wireBytes;
+
+        stats.put("haCompressRawBytes", String.valueOf(this.compressRawBytes.get()));
+        stats.put("haCompressWireBytes", String.valueOf(this.compressWireBytes.get()));
+        stats.put("haCompressTimeMills", String.valueOf(this.compressTimeNanos.get() / 1000000));
+        stats.put("haDecompressRawBytes", String.valueOf(this.decompressRawBytes.get()));
+        stats.put("haDecompressWireBytes", String.valueOf(this.decompressWireBytes.get()));
+        stats.put("haDecompressTimeMills", String.valueOf(this.decompressTimeNanos.get() / 1000000));
+        stats.put("haCompressRatio", String.format("%.2f", ratio));
+        stats.put("haRawBytesPerSecond", String.valueOf(this.rawBytesPerSecond));
+        stats.put("haWireBytesPerSecond", String.valueOf(this.wireBytesPerSecond));
+    }
+
+    public long getCompressRawBytes() {
+        return compressRawBytes.get();
+    }
+
+    public long getCompressWireBytes() {
+        return compressWireBytes.get();
+    }
+
+    public long getDecompressRawBytes() {
+        return decompressRawBytes.get();
+    }
+
+    public long getDecompressWireBytes() {
+        return decompressWireBytes.get();
+    }
+}
@@ -22,6 +22,9 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.Compressor;
+import org.apache.rocketmq.common.compression.CompressorFactory;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
@@ -29,6 +32,13 @@ import org.apache.rocketmq.remoting.common.RemotingUtil;
 import org.apache.rocketmq.store.SelectMappedBufferResult;
 
 public class HAConnection {
+    /**
+     * High 32 bits of the long a slave sends in place of an offset to ask for a compressed stream, the low 32 bits
+     * carry the requested {@link CompressionType} value. Being negative it never collides with a real offset.
+     */
+    public static final long COMPRESS_HANDSHAKE_MAGIC = 0xCAFE484100000000L;
+    private static final long COMPRESS_HANDSHAKE_MASK = 0xFFFFFFFF00000000L;
+    private static final int COMPRESS_LEVEL = 1;
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
     private final HAService haService;
     private final SocketChannel socketChannel;
@@ -38,6 +48,7 @@ public class HAConnection {
 
     private volatile long slaveRequestOffset = -1;
     private volatile long slaveAckOffset = -1;
+    private volatile CompressionType compressionType;
 
     public HAConnection(final HAService haService, final SocketChannel socketChannel) throws IOException {
         this.haService = haService;
@@ -78,6 +89,28 @@ public class HAConnection {
         return socketChannel;
     }
 
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
+    public static boolean isCompressHandshake(final long value) {
+        return (value & COMPRESS_HANDSHAKE_MASK) == COMPRESS_HANDSHAKE_MAGIC;
+    }
+
+    private void acceptCompressHandshake(final long value) {
+        if (!this.haService.getDefaultMessageStore().getMessageStoreConfig().isHaTransferCompressEnable()) {
+            log.info("slave[" + this.clientAddr + "] request compressed transfer, but it is disabled on master");
+            return;
+        }
+
+        try {
+            this.compressionType = CompressionType.findByValue((int) value);
+            log.info("slave[" + this.clientAddr + "] request compressed transfer, codec " + this.compressionType);
+        } catch (IllegalArgumentException e) {
+            log.warn("slave[" + this.clientAddr + "] request unknown codec, transfer raw data", e);
+        }
+    }
+
     class ReadSocketService extends ServiceThread {
         private static final int READ_MAX_BUFFER_SIZE = 1024 * 1024;
         private final Selector selector;
@@ -161,8 +194,19 @@ public class HAConnection {
                         this.lastReadTimestamp = HAConnection.this.haService.getDefaultMessageStore().getSystemClock().now();
                         if ((this.byteBufferRead.position() - this.processPosition) >= 8) {
                             int pos = this.byteBufferRead.position() - (this.byteBufferRead.position() % 8);
-                            long readOffset = this.byteBufferRead.getLong(pos - 8);
+                            long readOffset = -1;
+                            for (int i = this.processPosition; i < pos; i += 8) {
+                                long value = this.byteBufferRead.getLong(i);
+                                if (isCompressHandshake(value)) {
+                                    HAConnection.this.acceptCompressHandshake(value);
+                                } else {
+                                    readOffset = value;
+                                }
+                            }
                             this.processPosition = pos;
+                            if (readOffset < 0) {
+                                continue;
+                            }
 
                             HAConnection.this.slaveAckOffset = readOffset;
                             if (HAConnection.this.slaveRequestOffset < 0) {
@@ -198,6 +242,7 @@ public class HAConnection {
         private final ByteBuffer byteBufferHeader = ByteBuffer.allocate(headerSize);
         private long nextTransferFromWhere = -1;
         private SelectMappedBufferResult selectMappedBufferResult;
+        private ByteBuffer byteBufferCompressed;
         private boolean lastWriteOver = true;
         private long lastWriteTimestamp = System.currentTimeMillis();
 
@@ -281,11 +326,19 @@ public class HAConnection {
                         selectResult.getByteBuffer().limit(size);
                         this.selectMappedBufferResult = selectResult;
 
+                        // A negative size tells the slave the body is compressed
+                        int bodySize = size;
+                        CompressionType compressionType = HAConnection.this.compressionType;
+                        if (compressionType != null
+                            && size >= HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig().getHaTransferCompressMinSize()) {
+                            bodySize = this.compressBody(compressionType, size);
+                        }
+
                         // Build Header
                         this.byteBufferHeader.position(0);
                         this.byteBufferHeader.limit(headerSize);
                         this.byteBufferHeader.putLong(thisOffset);
-                        this.byteBufferHeader.putInt(size);
+                        this.byteBufferHeader.putInt(bodySize);
                         this.byteBufferHeader.flip();
 
                         this.lastWriteOver = this.transferData();
@@ -327,6 +380,33 @@ public class HAConnection {
             HAConnection.log.info(this.getServiceName() + " service end");
         }
 
+        /**
+         * Replace the mapped body by its compressed copy when that is actually smaller.
+         *
+         * @return size to put in the header, negative if the body was compressed
+         */
+        private int compressBody(final CompressionType compressionType, final int size) throws Exception {
+            byte[] raw = new byte[size];
+            this.selectMappedBufferResult.getByteBuffer().get(raw);
+
+            long beginTime = System.nanoTime();
+            Compressor compressor = CompressorFactory.getCompressor(compressionType);
+            byte[] compressed = compressor.compress(raw, COMPRESS_LEVEL);
+            HAConnection.this.haService.getCompressionStats().recordCompress(size, Math.min(size, compressed.length),
+                System.nanoTime() - beginTime);
+
+            this.selectMappedBufferResult.release();
+            this.selectMappedBufferResult = null;
+
+            if (compressed.length >= size) {
+                this.byteBufferCompressed = ByteBuffer.wrap(raw);
+                return size;
+            }
+
+            this.byteBufferCompressed = ByteBuffer.wrap(compressed);
+            return -compressed.length;
+        }
+
         private boolean transferData() throws Exception {
             int writeSizeZeroTimes = 0;
             // Write Header
@@ -344,16 +424,19 @@ public class HAConnection {
                 }
             }
 
-            if (null == this.selectMappedBufferResult) {
+            if (null == this.selectMappedBufferResult && null == this.byteBufferCompressed) {
                 return !this.byteBufferHeader.hasRemaining();
             }
 
             writeSizeZeroTimes = 0;
 
+            ByteBuffer byteBufferBody = this.byteBufferCompressed != null ? this.byteBufferCompressed
+                : this.selectMappedBufferResult.getByteBuffer();
+
             // Write Body
             if (!this.byteBufferHeader.hasRemaining()) {
-                while (this.selectMappedBufferResult.getByteBuffer().hasRemaining()) {
-                    int writeSize = this.socketChannel.write(this.selectMappedBufferResult.getByteBuffer());
+                while (byteBufferBody.hasRemaining()) {
+                    int writeSize = this.socketChannel.write(byteBufferBody);
                     if (writeSize > 0) {
                         writeSizeZeroTimes = 0;
                         this.lastWriteTimestamp = HAConnection.this.haService.getDefaultMessageStore().getSystemClock().now();
@@ -367,11 +450,14 @@ public class HAConnection {
                 }
             }
 
-            boolean result = !this.byteBufferHeader.hasRemaining() && !this.selectMappedBufferResult.getByteBuffer().hasRemaining();
+            boolean result = !this.byteBufferHeader.hasRemaining() && !byteBufferBody.hasRemaining();
 
-            if (!this.selectMappedBufferResult.getByteBuffer().hasRemaining()) {
-                this.selectMappedBufferResult.release();
-                this.selectMappedBufferResult = null;
+            if (!byteBufferBody.hasRemaining()) {
+                if (this.selectMappedBufferResult != null) {
+                    this.selectMappedBufferResult.release();
+                    this.selectMappedBufferResult = null;
+                }
+                this.byteBufferCompressed = null;
             }
 
             return result;
@@ -26,6 +26,7 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -33,6 +34,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.CompressorFactory;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
@@ -58,6 +61,8 @@ public class HAService {
 
     private final HAClient haClient;
 
+    private final HACompressionStats compressionStats = new HACompressionStats();
+
     public HAService(final DefaultMessageStore defaultMessageStore) throws IOException {
         this.defaultMessageStore = defaultMessageStore;
         this.acceptSocketService =
@@ -66,6 +71,14 @@ public class HAService {
         this.haClient = new HAClient();
     }
 
+    public HACompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    public void buildRunningStats(final HashMap<String, String> stats) {
+        this.compressionStats.buildRunningStats(stats);
+    }
+
     public void updateMasterAddress(final String newAddr) {
         if (this.haClient != null) {
             this.haClient.updateMasterAddress(newAddr);
@@ -327,6 +340,12 @@ public class HAService {
         private static final int READ_MAX_BUFFER_SIZE = 1024 * 1024 * 4;
         private final AtomicReference<String> masterAddress = new AtomicReference<>();
         private final ByteBuffer reportOffset = ByteBuffer.allocate(8);
+        private final ByteBuffer compressHandshake = ByteBuffer.allocate(8);
+        private CompressionType compressionType;
+        /**
+         * Master which took the compression handshake for an offset, it is only asked for raw transfer from then on.
+         */
+        private String rawTransferMasterAddress;
         private SocketChannel socketChannel;
         private Selector selector;
         private long lastWriteTimestamp = System.currentTimeMillis();
@@ -378,6 +397,35 @@ public class HAService {
             return !this.reportOffset.hasRemaining();
         }
 
+        private boolean requestCompressedTransfer() {
+            CompressionType compressionType;
+            try {
+                compressionType = CompressionType.of(
+                    HAService.this.defaultMessageStore.getMessageStoreConfig().getHaTransferCompressType());
+            } catch (IllegalArgumentException e) {
+                log.warn("HAClient, bad haTransferCompressType, request raw transfer", e);
+                return true;
+            }
+
+            this.compressHandshake.clear();
+            this.compressHandshake.putLong(HAConnection.COMPRESS_HANDSHAKE_MAGIC | compressionType.getValue());
+            this.compressHandshake.flip();
+
+            for (int i = 0; i < 3 && this.compressHandshake.hasRemaining(); i++) {
+                try {
+                    this.socketChannel.write(this.compressHandshake);
+                } catch (IOException e) {
+                    log.error(this.getServiceName()
+                        + "requestCompressedTransfer this.socketChannel.write exception", e);
+                    return false;
+                }
+            }
+
+            this.compressionType = compressionType;
+            log.info("HAClient, request compressed transfer, codec " + compressionType);
+            return !this.compressHandshake.hasRemaining();
+        }
+
         private void reallocateByteBuffer() {
             int remain = READ_MAX_BUFFER_SIZE - this.dispatchPosition;
             if (remain > 0) {
@@ -440,6 +488,20 @@ public class HAService {
                     long masterPhyOffset = this.byteBufferRead.getLong(this.dispatchPosition);
                     int bodySize = this.byteBufferRead.getInt(this.dispatchPosition + 8);
 
+                    // A master predating compressed transfer starts transferring from the handshake
+                    if (this.compressionType != null && HAConnection.isCompressHandshake(masterPhyOffset)) {
+                        this.rawTransferMasterAddress = this.masterAddress.get();
+                        log.error("HAClient, master " + this.rawTransferMasterAddress + " does not support compressed "
+                            + "transfer, upgrade masters before enabling haTransferCompressEnable on slaves. "
+                            + "Reconnecting for raw transfer");
+                        return false;
+                    }
+                    // Negative size marks a compressed body
+                    boolean compressed = bodySize < 0;
+                    if (compressed) {
+                        bodySize = -bodySize;
+                    }
+
                     long slavePhyOffset = HAService.this.defaultMessageStore.getMaxPhyOffset();
 
                     if (slavePhyOffset != 0) {
@@ -455,6 +517,13 @@ public class HAService {
                         this.byteBufferRead.position(this.dispatchPosition + msgHeaderSize);
                         this.byteBufferRead.get(bodyData);
 
+                        if (compressed) {
+                            bodyData = this.decompressBody(bodyData);
+                            if (bodyData == null) {
+                                return false;
+                            }
+                        }
+
                         HAService.this.defaultMessageStore.appendToCommitLog(masterPhyOffset, bodyData);
 
                         this.byteBufferRead.position(readSocketPos);
@@ -478,6 +547,24 @@ public class HAService {
             return true;
         }
 
+        private byte[] decompressBody(final byte[] bodyData) {
+            if (null == this.compressionType) {
+                log.error("HAClient, master pushed compressed body without compressed transfer requested");
+                return null;
+            }
+
+            long beginTime = System.nanoTime();
+            try {
+                // a raw frame never exceeds the read buffer, the master could not ship it uncompressed either
+                byte[] raw = CompressorFactory.getCompressor(compressionType).decompress(bodyData, READ_MAX_BUFFER_SIZE);
+                HAService.this.compressionStats.recordDecompress(bodyData.length, raw.length, System.nanoTime() - beginTime);
+                return raw;
+            } catch (IOException e) {
+                log.error("HAClient, decompress body error, codec " + compressionType, e);
+                return null;
+            }
+        }
+
         private boolean reportSlaveMaxOffsetPlus() {
             boolean result = true;
             long currentPhyOffset = HAService.this.defaultMessageStore.getMaxPhyOffset();
@@ -503,6 +590,11 @@ public class HAService {
                         this.socketChannel = RemotingUtil.connect(socketAddress);
                         if (this.socketChannel != null) {
                             this.socketChannel.register(this.selector, SelectionKey.OP_READ);
+                            if (HAService.this.defaultMessageStore.getMessageStoreConfig().isHaTransferCompressEnable()
+                                && !addr.equals(this.rawTransferMasterAddress)
+                                && !this.requestCompressedTransfer()) {
+                                this.closeMaster();
+                            }
                         }
                     }
                 }
@@ -533,6 +625,7 @@ public class HAService {
 
                 this.lastWriteTimestamp = 0;
                 this.dispatchPosition = 0;
+                this.compressionType = null;
 
                 this.byteBufferBackup.position(0);
                 this.byteBufferBackup.limit(READ_MAX_BUFFER_SIZE);
@@ -20,7 +20,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.TreeMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.rocketmq.common.UtilAll;
@@ -31,6 +34,7 @@ import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.store.DefaultMessageStore;
 import org.apache.rocketmq.store.DispatchRequest;
+import org.apache.rocketmq.store.StoreUtil;
 import org.apache.rocketmq.store.config.StorePathConfigHelper;
 
 public class IndexService {
@@ -43,8 +47,14 @@ public class IndexService {
     private final int hashSlotNum;
     private final int indexNum;
     private final String storePath;
+    private final String coldStorePath;
     private final ArrayList<IndexFile> indexFileList = new ArrayList<IndexFile>();
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    /**
+     * Hot index files already replaced by their cold copy but still referenced by readers, destroyed again on every
+     * offload round. Those left over on shutdown are deleted by the next load, which prefers the cold copy.
+     */
+    private final List<IndexFile> hotFilesToDestroy = new LinkedList<IndexFile>();
 
     public IndexService(final DefaultMessageStore store) {
         this.defaultMessageStore = store;
@@ -52,14 +62,13 @@ public class IndexService {
         this.indexNum = store.getMessageStoreConfig().getMaxIndexNum();
         this.storePath =
             StorePathConfigHelper.getStorePathIndex(store.getMessageStoreConfig().getStorePathRootDir());
+        String coldRootDir = store.getMessageStoreConfig().getStorePathColdRootDir();
+        this.coldStorePath = coldRootDir == null ? null : StorePathConfigHelper.getStorePathIndex(coldRootDir);
     }
 
     public boolean load(final boolean lastExitOK) {
-        File dir = new File(this.storePath);
-        File[] files = dir.listFiles();
+        File[] files = this.listIndexFiles();
         if (files != null) {
-            // ascending order
-            Arrays.sort(files);
             for (File file : files) {
                 try {
                     IndexFile f = new IndexFile(file.getPath(), this.hashSlotNum, this.indexNum, 0, 0);
@@ -87,6 +96,123 @@ public class IndexService {
         return true;
     }
 
+    /**
+     * @return index files of both tiers in ascending order, a file present in both tiers is taken from the cold one
+     */
+    private File[] listIndexFiles() {
+        File[] hotFiles = new File(this.storePath).listFiles();
+        if (hotFiles != null) {
+            Arrays.sort(hotFiles);
+        }
+        if (null == this.coldStorePath) {
+            return hotFiles;
+        }
+
+        File[] coldFiles = new File(this.coldStorePath).listFiles();
+        if (null == coldFiles || coldFiles.length == 0) {
+            return hotFiles;
+        }
+
+        TreeMap<String, File> filesByName = new TreeMap<String, File>();
+        if (hotFiles != null) {
+            for (File file : hotFiles) {
+                filesByName.put(file.getName(), file);
+            }
+        }
+
+        for (File file : coldFiles) {
+            if (file.getName().endsWith(StoreUtil.TMP_FILE_SUFFIX)) {
+                log.warn("delete unfinished cold index file " + file);
+                file.delete();
+                continue;
+            }
+
+            File hotFile = filesByName.put(file.getName(), file);
+            if (hotFile != null) {
+                log.warn("found index file " + file.getName() + " in both tiers, delete the hot one " + hotFile);
+                hotFile.delete();
+            }
+        }
+
+        return filesByName.values().toArray(new File[0]);
+    }
+
+    /**
+     * Move sealed index files that were last written before {@code expiredTime} to the cold tier.
+     *
+     * @param bytesPerSecond copy no faster than this, not throttled if not positive
+     * @return how many files were moved
+     */
+    public int offloadToColdStore(final long expiredTime, final int maxFiles, final long bytesPerSecond) {
+        if (null == this.coldStorePath) {
+            return 0;
+        }
+
+        this.destroyHotFiles();
+
+        List<IndexFile> candidates = new ArrayList<IndexFile>();
+        try {
+            this.readWriteLock.readLock().lock();
+            long indexMsgTimestamp = this.defaultMessageStore.getStoreCheckpoint().getIndexMsgTimestamp();
+            File coldDir = new File(this.coldStorePath);
+            // the last file is still being written
+            for (int i = 0; i < this.indexFileList.size() - 1 && candidates.size() < maxFiles; i++) {
+                IndexFile f = this.indexFileList.get(i);
+                if (f.getEndTimestamp() < expiredTime && f.getEndTimestamp() <= indexMsgTimestamp
+                    && !coldDir.equals(new File(f.getFileName()).getParentFile())) {
+                    candidates.add(f);
+                }
+            }
+        } finally {
+            this.readWriteLock.readLock().unlock();
+        }
+
+        int offloaded = 0;
+        for (IndexFile f : candidates) {
+            try {
+                File coldFile = StoreUtil.copyToDir(new File(f.getFileName()), this.coldStorePath, bytesPerSecond);
+                IndexFile coldIndexFile = new IndexFile(coldFile.getPath(), this.hashSlotNum, this.indexNum, 0, 0);
+                coldIndexFile.load();
+
+                boolean replaced = false;
+                try {
+                    this.readWriteLock.writeLock().lock();
+                    int index = this.indexFileList.indexOf(f);
+                    if (index >= 0) {
+                        this.indexFileList.set(index, coldIndexFile);
+                        replaced = true;
+                    }
+                } finally {
+                    this.readWriteLock.writeLock().unlock();
+                }
+
+                if (replaced) {
+                    if (!f.destroy(3000)) {
+                        this.hotFilesToDestroy.add(f);
+                    }
+                    offloaded++;
+                    log.info("offload index file " + f.getFileName() + " to " + coldFile.getPath());
+                } else {
+                    coldIndexFile.destroy(0);
+                }
+            } catch (IOException e) {
+                log.error("offload index file " + f.getFileName() + " error", e);
+                break;
+            }
+        }
+
+        return offloaded;
+    }
+
+    private void destroyHotFiles() {
+        Iterator<IndexFile> iterator = this.hotFilesToDestroy.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().destroy(3000)) {
+                iterator.remove();
+            }
+        }
+    }
+
     public void deleteExpiredFile(long offset) {
         Object[] files = null;
         try {
@@ -40,6 +40,11 @@ public class BrokerStatsManager {
     public static final String GROUP_GET_FROM_DISK_SIZE = "GROUP_GET_FROM_DISK_SIZE";
     public static final String BROKER_GET_FROM_DISK_NUMS = "BROKER_GET_FROM_DISK_NUMS";
     public static final String BROKER_GET_FROM_DISK_SIZE = "BROKER_GET_FROM_DISK_SIZE";
+    // bytes and responses of pulled messages, by transfer path
+    public static final String BROKER_GET_TRANSFER_SIZE = "BROKER_GET_TRANSFER_SIZE";
+    public static final String TRANSFER_BY_HEAP = "HEAP";
+    public static final String TRANSFER_BY_ZERO_COPY = "ZERO_COPY";
+    public static final String TRANSFER_BY_COMPOSITE = "COMPOSITE";
     // For commercial
     public static final String COMMERCIAL_SEND_TIMES = "COMMERCIAL_SEND_TIMES";
     public static final String COMMERCIAL_SNDBCK_TIMES = "COMMERCIAL_SNDBCK_TIMES";
@@ -56,6 +61,8 @@ public class BrokerStatsManager {
     public static final String GROUP_GET_FALL_TIME = "GROUP_GET_FALL_TIME";
     // Pull Message Latency
     public static final String GROUP_GET_LATENCY = "GROUP_GET_LATENCY";
+    // Time the requests of a producer or consumer group waited in the fair queue of the send or pull executor
+    public static final String GROUP_QUEUE_WAIT_TIME = "GROUP_QUEUE_WAIT_TIME";
 
     /**
      * read disk follow stats
@@ -79,6 +86,7 @@ public class BrokerStatsManager {
         this.statsTable.put(GROUP_GET_NUMS, new StatsItemSet(GROUP_GET_NUMS, this.scheduledExecutorService, log));
         this.statsTable.put(GROUP_GET_SIZE, new StatsItemSet(GROUP_GET_SIZE, this.scheduledExecutorService, log));
         this.statsTable.put(GROUP_GET_LATENCY, new StatsItemSet(GROUP_GET_LATENCY, this.scheduledExecutorService, log));
+        this.statsTable.put(GROUP_QUEUE_WAIT_TIME, new StatsItemSet(GROUP_QUEUE_WAIT_TIME, this.scheduledExecutorService, log));
         this.statsTable.put(SNDBCK_PUT_NUMS, new StatsItemSet(SNDBCK_PUT_NUMS, this.scheduledExecutorService, log));
         this.statsTable.put(BROKER_PUT_NUMS, new StatsItemSet(BROKER_PUT_NUMS, this.scheduledExecutorService, log));
         this.statsTable.put(BROKER_GET_NUMS, new StatsItemSet(BROKER_GET_NUMS, this.scheduledExecutorService, log));
@@ -86,6 +94,7 @@ public class BrokerStatsManager {
         this.statsTable.put(GROUP_GET_FROM_DISK_SIZE, new StatsItemSet(GROUP_GET_FROM_DISK_SIZE, this.scheduledExecutorService, log));
         this.statsTable.put(BROKER_GET_FROM_DISK_NUMS, new StatsItemSet(BROKER_GET_FROM_DISK_NUMS, this.scheduledExecutorService, log));
         this.statsTable.put(BROKER_GET_FROM_DISK_SIZE, new StatsItemSet(BROKER_GET_FROM_DISK_SIZE, this.scheduledExecutorService, log));
+        this.statsTable.put(BROKER_GET_TRANSFER_SIZE, new StatsItemSet(BROKER_GET_TRANSFER_SIZE, this.scheduledExecutorService, log));
 
         this.statsTable.put(COMMERCIAL_SEND_TIMES, new StatsItemSet(COMMERCIAL_SEND_TIMES, this.commercialExecutor, COMMERCIAL_LOG));
         this.statsTable.put(COMMERCIAL_RCV_TIMES, new StatsItemSet(COMMERCIAL_RCV_TIMES, this.commercialExecutor, COMMERCIAL_LOG));
@@ -156,6 +165,10 @@ public class BrokerStatsManager {
         this.statsTable.get(GROUP_GET_LATENCY).addValue(statsKey, incValue, 1);
     }
 
+    public void incGroupQueueWaitTime(final String group, final int incValue) {
+        this.statsTable.get(GROUP_QUEUE_WAIT_TIME).addValue(group, incValue, 1);
+    }
+
     public void incBrokerPutNums() {
         this.statsTable.get(BROKER_PUT_NUMS).getAndCreateStatsItem(this.clusterName).getValue().incrementAndGet();
     }
@@ -168,6 +181,10 @@ public class BrokerStatsManager {
         this.statsTable.get(BROKER_GET_NUMS).getAndCreateStatsItem(this.clusterName).getValue().addAndGet(incValue);
     }
 
+    public void incBrokerGetTransferSize(final String transferPath, final int incValue) {
+        this.statsTable.get(BROKER_GET_TRANSFER_SIZE).addValue(transferPath, incValue, 1);
+    }
+
     public void incSendBackNums(final String group, final String topic) {
         final String statsKey = buildStatsKey(topic, group);
         this.statsTable.get(SNDBCK_PUT_NUMS).addValue(statsKey, 1, 1);
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class CombinedPutMessageTest {
+    private static final String STORE_PATH = System.getProperty("user.home") + File.separator + "combinedputmessageteststore";
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setPutMessageBatchEnable(true);
+        messageStoreConfig.setPutMessageBatchWindowMicros(1000);
+        messageStoreConfig.setStorePathRootDir(STORE_PATH);
+        messageStoreConfig.setStorePathCommitLog(STORE_PATH + File.separator + "commitlog");
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("simpleTest"), new MyMessageArrivingListener(), new BrokerConfig());
+        assertTrue(messageStore.load());
+        messageStore.start();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+
+        UtilAll.deleteFile(new File(STORE_PATH));
+    }
+
+    @Test
+    public void testConcurrentPutsKeepTheirOwnResults() throws Exception {
+        final int threads = 8;
+        final int messagesPerThread = 200;
+        final ConcurrentMap<Long, String> bodyByOffset = new ConcurrentHashMap<Long, String>();
+        final Set<String> msgIds = new HashSet<String>();
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < messagesPerThread; j++) {
+                            String body = thread + "-" + j;
+                            PutMessageResult result = messageStore.putMessage(buildMessage(body, thread));
+                            if (result.isOk()) {
+                                bodyByOffset.put(result.getAppendMessageResult().getWroteOffset(), body);
+                                synchronized (msgIds) {
+                                    msgIds.add(result.getAppendMessageResult().getMsgId());
+                                }
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+        latch.await();
+
+        assertThat(bodyByOffset).hasSize(threads * messagesPerThread);
+        assertThat(msgIds).hasSize(threads * messagesPerThread);
+        for (Map.Entry<Long, String> entry : bodyByOffset.entrySet()) {
+            MessageExt messageExt = messageStore.lookMessageByOffset(entry.getKey());
+            assertThat(messageExt).isNotNull();
+            assertThat(new String(messageExt.getBody())).isEqualTo(entry.getValue());
+        }
+        assertThat(combinedBatches(messageStore.getStoreStatsService().getPutMessageBatchSizeDistribute())).isGreaterThan(0);
+    }
+
+    @Test
+    public void testNonPositiveBatchMaxSizeStillAppends() {
+        messageStore.getMessageStoreConfig().setPutMessageBatchMaxSize(0);
+        PutMessageResult result = messageStore.putMessage(buildMessage("single", 0));
+        assertThat(result.isOk()).isTrue();
+    }
+
+    /**
+     * Sums the counts of every bucket above the first, i.e. the appends that combined more than one message.
+     */
+    private static long combinedBatches(final long[] distribute) {
+        long combined = 0;
+        for (int i = 1; i < distribute.length; i++) {
+            combined += distribute[i];
+        }
+        return combined;
+    }
+
+    private MessageExtBrokerInner buildMessage(final String body, final int queueId) {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic("CombinedPutTopic");
+        msg.setTags("TAG1");
+        msg.setKeys(body);
+        msg.setBody(body.getBytes());
+        msg.setQueueId(queueId % 4);
+        msg.setSysFlag(0);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setStoreHost(new InetSocketAddress("127.0.0.1", 8123));
+        msg.setBornHost(new InetSocketAddress("127.0.0.1", 8124));
+        return msg;
+    }
+
+    private class MyMessageArrivingListener implements MessageArrivingListener {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+            byte[] filterBitMap, Map<String, String> properties) {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConsumeQueueIndexTest {
+
+    private ConsumeQueue mockConsumeQueue(String topic, int queueId) {
+        ConsumeQueue consumeQueue = mock(ConsumeQueue.class);
+        when(consumeQueue.getTopic()).thenReturn(topic);
+        when(consumeQueue.getQueueId()).thenReturn(queueId);
+        return consumeQueue;
+    }
+
+    @Test
+    public void testPutAndGet() {
+        ConsumeQueueIndex index = new ConsumeQueueIndex();
+        ConsumeQueue queue0 = mockConsumeQueue("TopicA", 0);
+        ConsumeQueue queue7 = mockConsumeQueue("TopicA", 7);
+        index.put(queue7);
+        index.put(queue0);
+
+        assertThat(index.get("TopicA", 0)).isSameAs(queue0);
+        assertThat(index.get("TopicA", 7)).isSameAs(queue7);
+        assertThat(index.get("TopicA", 3)).isNull();
+        assertThat(index.get("TopicA", 8)).isNull();
+        assertThat(index.get("TopicA", -1)).isNull();
+        assertThat(index.get("TopicB", 0)).isNull();
+    }
+
+    @Test
+    public void testRemove() {
+        ConsumeQueueIndex index = new ConsumeQueueIndex();
+        index.put(mockConsumeQueue("TopicA", 0));
+        index.put(mockConsumeQueue("TopicA", 1));
+        index.put(mockConsumeQueue("TopicB", 0));
+
+        index.remove("TopicA", 0);
+        assertThat(index.get("TopicA", 0)).isNull();
+        assertThat(index.get("TopicA", 1)).isNotNull();
+
+        index.remove("TopicA", 1);
+        assertThat(index.get("TopicA", 1)).isNull();
+
+        index.removeTopic("TopicB");
+        assertThat(index.get("TopicB", 0)).isNull();
+    }
+
+    @Test
+    public void testQueueIdOutOfRange() {
+        ConsumeQueueIndex index = new ConsumeQueueIndex();
+        index.put(mockConsumeQueue("TopicA", Integer.MAX_VALUE));
+        assertThat(index.get("TopicA", Integer.MAX_VALUE)).isNull();
+    }
+}
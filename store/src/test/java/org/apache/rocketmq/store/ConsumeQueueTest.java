@@ -24,7 +24,9 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import org.apache.rocketmq.common.BrokerConfig;
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.message.MessageDecoder;
@@ -265,4 +267,83 @@ public class ConsumeQueueTest {
             UtilAll.deleteFile(new File(storePath));
         }
     }
+
+    @Test
+    public void testCompaction() throws Exception {
+        DefaultMessageStore master = gen();
+        try {
+            int totalMsgs = 50;
+            for (int i = 0; i < totalMsgs; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setKeys("key" + (i % 5));
+                msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+                master.putMessage(msg);
+            }
+            Thread.sleep(3000L);//wait ConsumeQueue create success.
+
+            master.getMessageStoreConfig().setCompactionTopics(topic);
+            new CompactionService(master).run();
+
+            // the last file holds entries 40 to 49 and is left alone, so each key shows up there once more
+            int messageCount = 0;
+            Set<String> keys = new HashSet<String>();
+            long offset = 0;
+            while (offset < totalMsgs) {
+                GetMessageResult result = master.getMessage("group", topic, queueId, offset, totalMsgs, null);
+                try {
+                    for (ByteBuffer buffer : result.getMessageBufferList()) {
+                        keys.add(MessageDecoder.decode(buffer, false).getKeys());
+                        messageCount++;
+                    }
+                    assertThat(result.getNextBeginOffset()).isGreaterThan(offset);
+                    offset = result.getNextBeginOffset();
+                } finally {
+                    result.release();
+                }
+            }
+            assertThat(messageCount).isEqualTo(15);
+            assertThat(keys).hasSize(5);
+        } finally {
+            master.shutdown();
+            master.destroy();
+            UtilAll.deleteFile(new File(storePath));
+        }
+    }
+
+    @Test
+    public void testCompactionRetainsNewestEntries() throws Exception {
+        DefaultMessageStore master = gen();
+        try {
+            int totalMsgs = 50;
+            for (int i = 0; i < totalMsgs; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setKeys("key" + (i % 5));
+                msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+                master.putMessage(msg);
+            }
+            Thread.sleep(3000L);//wait ConsumeQueue create success.
+
+            master.getMessageStoreConfig().setCompactionTopics(topic);
+            CompactionService compactionService = new CompactionService(master);
+            assertThat(compactionService.getRetainedPhyOffset()).isEqualTo(0);
+            compactionService.run();
+
+            // entries 35 to 39 are the newest of each key in the sealed files
+            long retained = compactionService.getRetainedPhyOffset();
+            SelectMappedBufferResult bufferConsumeQueue = master.getConsumeQueue(topic, queueId).getIndexBuffer(35);
+            try {
+                assertThat(retained).isEqualTo(bufferConsumeQueue.getByteBuffer().getLong());
+            } finally {
+                bufferConsumeQueue.release();
+            }
+
+            master.getCommitLog().getMappedFileQueue().deleteExpiredFileByTime(0, 0, 0, true, retained);
+            assertThat(master.getCommitLog().getMinOffset()).isEqualTo(retained - retained % commitLogFileSize);
+            assertThat(master.lookMessageByOffset(retained).getKeys()).isEqualTo("key0");
+        } finally {
+            master.shutdown();
+            master.destroy();
+            UtilAll.deleteFile(new File(storePath));
+        }
+    }
 }
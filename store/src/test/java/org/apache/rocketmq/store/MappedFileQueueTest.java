@@ -247,6 +247,42 @@ public class MappedFileQueueTest {
         assertThat(mappedFileQueue.findMappedFileByOffset(1028).getFileFromOffset()).isEqualTo(1024);
     }
 
+    @Test
+    public void testOffloadToColdStore() throws Exception {
+        final String fixedMsg = "abcd";
+        final String hotPath = "target/unit_test_store/h/";
+        final String coldPath = "target/unit_test_store/cold/h";
+
+        MappedFileQueue mappedFileQueue = new MappedFileQueue(hotPath, 1024, null, coldPath);
+        for (int i = 0; i < 1024; i++) {
+            MappedFile mappedFile = mappedFileQueue.getLastMappedFile(0);
+            assertThat(mappedFile.appendMessage(fixedMsg.getBytes())).isTrue();
+        }
+        mappedFileQueue.flush(0);
+
+        MappedFile hotFile = mappedFileQueue.getFirstMappedFile();
+        assertThat(mappedFileQueue.offloadToColdStore(hotFile, 0)).isSameAs(hotFile);
+        assertThat(hotFile.destroy(1000)).isTrue();
+
+        MappedFile coldFile = mappedFileQueue.getFirstMappedFile();
+        assertThat(mappedFileQueue.isColdMappedFile(coldFile)).isTrue();
+        assertThat(coldFile.getFileFromOffset()).isEqualTo(0);
+        SelectMappedBufferResult result = coldFile.selectMappedBuffer(0, fixedMsg.length());
+        byte[] data = new byte[fixedMsg.length()];
+        result.getByteBuffer().get(data);
+        result.release();
+        assertThat(new String(data)).isEqualTo(fixedMsg);
+
+        mappedFileQueue.shutdown(1000);
+
+        MappedFileQueue reloaded = new MappedFileQueue(hotPath, 1024, null, coldPath);
+        assertThat(reloaded.load()).isTrue();
+        assertThat(reloaded.getMappedFiles().size()).isEqualTo(4);
+        assertThat(reloaded.isColdMappedFile(reloaded.getFirstMappedFile())).isTrue();
+        assertThat(reloaded.isColdMappedFile(reloaded.getMappedFiles().get(1))).isFalse();
+        reloaded.shutdown(1000);
+    }
+
     @After
     public void destory() {
         File file = new File("target/unit_test_store");
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TieredStoreServiceTest {
+    private static final String TOPIC = "TieredTopic";
+    private static final int MESSAGE_NUM = 200;
+
+    private final String rootDir = System.getProperty("user.home") + File.separator + "unitteststore"
+        + File.separator + UUID.randomUUID().toString();
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir + File.separator + "hot");
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "hot" + File.separator + "commitlog");
+        messageStoreConfig.setStorePathColdRootDir(rootDir + File.separator + "cold");
+        messageStoreConfig.setTieredStoreEnable(true);
+        messageStoreConfig.setTieredStoreHotRetentionHours(0);
+        messageStoreConfig.setTieredStoreMaxFilesPerRound(100);
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 2);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(50);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.SYNC_FLUSH);
+        messageStoreConfig.setFlushIntervalConsumeQueue(1);
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("tieredTest"),
+            new MessageArrivingListener() {
+                @Override
+                public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+                    byte[] filterBitMap, Map<String, String> properties) {
+                }
+            }, new BrokerConfig());
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+        UtilAll.deleteFile(new File(rootDir));
+    }
+
+    @Test
+    public void testReadThroughColdTier() throws Exception {
+        for (int i = 0; i < MESSAGE_NUM; i++) {
+            assertThat(messageStore.putMessage(buildMessage(i)).isOk()).isTrue();
+        }
+        StoreTestUtil.waitCommitLogReput(messageStore);
+        StoreTestUtil.flushConsumeQueue(messageStore);
+        // the files must be older than the hot retention, full index files are flushed in background
+        TimeUnit.MILLISECONDS.sleep(1000);
+
+        messageStore.getTieredStoreService().offload();
+
+        MappedFileQueue commitLogQueue = messageStore.getCommitLog().getMappedFileQueue();
+        assertThat(commitLogQueue.isColdMappedFile(commitLogQueue.getFirstMappedFile())).isTrue();
+        MappedFileQueue consumeQueue = messageStore.findConsumeQueue(TOPIC, 0).getMappedFileQueue();
+        assertThat(consumeQueue.isColdMappedFile(consumeQueue.getFirstMappedFile())).isTrue();
+        assertThat(new File(rootDir + File.separator + "cold" + File.separator + "index").list()).isNotEmpty();
+
+        long offset = 0;
+        while (offset < MESSAGE_NUM) {
+            GetMessageResult result = messageStore.getMessage("TieredGroup", TOPIC, 0, offset, 32, null);
+            assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+            try {
+                for (ByteBuffer buffer : result.getMessageBufferList()) {
+                    MessageExt msg = MessageDecoder.decode(buffer);
+                    assertThat(new String(msg.getBody())).isEqualTo("body-" + offset);
+                    offset++;
+                }
+            } finally {
+                result.release();
+            }
+        }
+
+        QueryMessageResult queryResult = messageStore.queryMessage(TOPIC, "key-3", 32, 0, Long.MAX_VALUE);
+        try {
+            assertThat(queryResult.getMessageBufferList()).hasSize(1);
+            MessageExt msg = MessageDecoder.decode(queryResult.getMessageBufferList().get(0));
+            assertThat(new String(msg.getBody())).isEqualTo("body-3");
+        } finally {
+            queryResult.release();
+        }
+    }
+
+    private MessageExtBrokerInner buildMessage(final int index) {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(TOPIC);
+        msg.setTags("TAG1");
+        msg.setKeys("key-" + index);
+        msg.setBody(("body-" + index).getBytes());
+        msg.setQueueId(0);
+        msg.setSysFlag(0);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setStoreHost(new InetSocketAddress("127.0.0.1", 8123));
+        msg.setBornHost(new InetSocketAddress("127.0.0.1", 0));
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        return msg;
+    }
+}
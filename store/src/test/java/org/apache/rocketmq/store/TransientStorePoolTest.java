@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransientStorePoolTest {
+    private static final int FILE_SIZE = 1024 * 64;
+
+    private TransientStorePool pool;
+
+    @After
+    public void destroy() {
+        if (this.pool != null) {
+            this.pool.destroy();
+        }
+    }
+
+    @Test
+    public void testGrowAndShrinkWithinBounds() throws Exception {
+        MessageStoreConfig storeConfig = this.storeConfig(1, 3, 2);
+        storeConfig.setTransientStorePoolIdleTimeMills(100);
+        this.pool = new TransientStorePool(storeConfig);
+        this.pool.init();
+        assertThat(this.pool.isElastic()).isTrue();
+
+        // grown in background up to the low water mark
+        assertThat(this.waitForTotal(2)).isTrue();
+        ByteBuffer first = this.pool.borrowBuffer();
+        ByteBuffer second = this.pool.borrowBuffer();
+        assertThat(first).isNotNull();
+        assertThat(second).isNotNull();
+
+        // then up to transientStorePoolMaxSize, never beyond
+        assertThat(this.waitForTotal(3)).isTrue();
+        ByteBuffer third = this.pool.borrowBuffer();
+        assertThat(third).isNotNull();
+        assertThat(this.pool.borrowBuffer()).isNull();
+        TimeUnit.MILLISECONDS.sleep(1500);
+        assertThat(this.pool.totalBufferNums()).isEqualTo(3);
+
+        // once idle the extra buffers are given back, as long as the low water mark stays available
+        this.pool.returnBuffer(first);
+        this.pool.returnBuffer(second);
+        this.pool.returnBuffer(third);
+        assertThat(this.waitForTotal(2)).isTrue();
+        TimeUnit.MILLISECONDS.sleep(1500);
+        assertThat(this.pool.totalBufferNums()).isEqualTo(2);
+        assertThat(this.pool.availableBufferNums()).isEqualTo(2);
+    }
+
+    @Test
+    public void testBorrowWhenExhausted() {
+        // a low water mark of zero keeps the background service from growing the pool
+        this.pool = new TransientStorePool(this.storeConfig(1, 2, 0));
+        this.pool.init();
+
+        assertThat(this.pool.borrowBuffer()).isNotNull();
+        assertThat(this.pool.expandableBufferNums()).isEqualTo(1);
+        // the file falls back to mmap writes, the caller never allocates a buffer itself
+        assertThat(this.pool.borrowBuffer()).isNull();
+        assertThat(this.pool.totalBufferNums()).isEqualTo(1);
+    }
+
+    private MessageStoreConfig storeConfig(final int poolSize, final int maxPoolSize, final int lowWaterMark) {
+        MessageStoreConfig storeConfig = new MessageStoreConfig();
+        storeConfig.setTransientStorePoolEnable(true);
+        storeConfig.setMappedFileSizeCommitLog(FILE_SIZE);
+        storeConfig.setTransientStorePoolSize(poolSize);
+        storeConfig.setTransientStorePoolMaxSize(maxPoolSize);
+        storeConfig.setTransientStorePoolLowWaterMark(lowWaterMark);
+        storeConfig.setTransientStorePoolReservedMemory(0);
+        return storeConfig;
+    }
+
+    private boolean waitForTotal(final int expected) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            if (this.pool.totalBufferNums() == expected) {
+                return true;
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store.ha;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.GetMessageStatus;
+import org.apache.rocketmq.store.MessageArrivingListener;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.config.BrokerRole;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HACompressionTest {
+    private static final String TOPIC = "FooBar";
+
+    private final String storePathRootDir = System.getProperty("user.home") + File.separator
+        + UUID.randomUUID().toString().replace("-", "");
+    private DefaultMessageStore masterStore;
+    private DefaultMessageStore slaveStore;
+
+    @After
+    public void destroy() {
+        if (slaveStore != null) {
+            slaveStore.shutdown();
+            slaveStore.destroy();
+        }
+        if (masterStore != null) {
+            masterStore.shutdown();
+            masterStore.destroy();
+        }
+        UtilAll.deleteFile(new File(storePathRootDir));
+    }
+
+    @Test
+    public void testCompressedTransfer() throws Exception {
+        startMasterAndSlave(true, true, 10932);
+        replicateAndCheck(200);
+
+        HACompressionStats masterStats = masterStore.getHaService().getCompressionStats();
+        HACompressionStats slaveStats = slaveStore.getHaService().getCompressionStats();
+        assertThat(masterStats.getCompressWireBytes()).isGreaterThan(0L).isLessThan(masterStats.getCompressRawBytes());
+        assertThat(slaveStats.getDecompressRawBytes()).isEqualTo(masterStats.getCompressRawBytes());
+        assertThat(slaveStats.getDecompressWireBytes()).isEqualTo(masterStats.getCompressWireBytes());
+    }
+
+    @Test
+    public void testCompressionDisabledOnMaster() throws Exception {
+        startMasterAndSlave(false, true, 10942);
+        replicateAndCheck(200);
+
+        assertThat(masterStore.getHaService().getCompressionStats().getCompressRawBytes()).isEqualTo(0L);
+        assertThat(slaveStore.getHaService().getCompressionStats().getDecompressRawBytes()).isEqualTo(0L);
+    }
+
+    /**
+     * A master predating compressed transfer takes the handshake for the offset to start from and echoes it, the
+     * slave has to reconnect and report its real offset without handshake.
+     */
+    @Test
+    public void testFallbackToRawTransferAgainstOlderMaster() throws Exception {
+        final int port = 10952;
+        final long[] firstLongs = new long[2];
+        final CountDownLatch reconnected = new CountDownLatch(1);
+        final ServerSocketChannel olderMaster = ServerSocketChannel.open();
+        olderMaster.socket().setReuseAddress(true);
+        olderMaster.bind(new InetSocketAddress(port));
+        Thread olderMasterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SocketChannel first = olderMaster.accept();
+                    firstLongs[0] = readLong(first);
+                    ByteBuffer header = ByteBuffer.allocate(12);
+                    header.putLong(firstLongs[0]).putInt(0).flip();
+                    first.write(header);
+
+                    SocketChannel second = olderMaster.accept();
+                    firstLongs[1] = readLong(second);
+                    reconnected.countDown();
+                    second.close();
+                    first.close();
+                } catch (Exception ignored) {
+                }
+            }
+        }, "OlderHAMaster");
+        olderMasterThread.setDaemon(true);
+        olderMasterThread.start();
+
+        try {
+            slaveStore = startStore("slave", BrokerRole.SLAVE, true, 10962, 1L);
+            slaveStore.updateHaMasterAddress("127.0.0.1:" + port);
+
+            assertThat(reconnected.await(20, TimeUnit.SECONDS)).isTrue();
+            assertThat(HAConnection.isCompressHandshake(firstLongs[0])).isTrue();
+            assertThat(HAConnection.isCompressHandshake(firstLongs[1])).isFalse();
+            assertThat(firstLongs[1]).isEqualTo(slaveStore.getMaxPhyOffset());
+        } finally {
+            olderMaster.close();
+        }
+    }
+
+    private void startMasterAndSlave(final boolean masterCompress, final boolean slaveCompress, final int port)
+        throws Exception {
+        masterStore = startStore("master", BrokerRole.ASYNC_MASTER, masterCompress, port, 0L);
+        slaveStore = startStore("slave", BrokerRole.SLAVE, slaveCompress, port + 1, 1L);
+        slaveStore.updateHaMasterAddress("127.0.0.1:" + port);
+    }
+
+    private void replicateAndCheck(final int totalMsgs) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 32; i++) {
+            sb.append("{\"orderId\":").append(i).append(",\"status\":\"PAID\"}");
+        }
+        byte[] body = sb.toString().getBytes();
+        for (int i = 0; i < totalMsgs; i++) {
+            masterStore.putMessage(buildMessage(body));
+        }
+
+        long masterMaxOffset = masterStore.getMaxPhyOffset();
+        for (int i = 0; i < 200 && slaveStore.getMaxPhyOffset() < masterMaxOffset; i++) {
+            Thread.sleep(100);
+        }
+        assertThat(slaveStore.getMaxPhyOffset()).isEqualTo(masterMaxOffset);
+
+        for (int i = 0; i < 100 && slaveStore.getMaxOffsetInQueue(TOPIC, 0) < totalMsgs; i++) {
+            Thread.sleep(100);
+        }
+        for (long offset = 0; offset < totalMsgs; offset += 50) {
+            GetMessageResult result = slaveStore.getMessage("GROUP_A", TOPIC, 0, offset, 1, null);
+            assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+            ByteBuffer message = result.getMessageBufferList().get(0);
+            assertThat(message.getInt(message.position())).isEqualTo(result.getBufferTotalSize());
+            result.release();
+        }
+    }
+
+    private DefaultMessageStore startStore(final String name, final BrokerRole role, final boolean compress,
+        final int haListenPort, final long brokerId) throws Exception {
+        MessageStoreConfig config = new MessageStoreConfig();
+        config.setBrokerRole(role);
+        config.setStorePathRootDir(storePathRootDir + File.separator + name);
+        config.setStorePathCommitLog(storePathRootDir + File.separator + name + File.separator + "commitlog");
+        config.setMappedFileSizeCommitLog(1024 * 1024 * 10);
+        config.setMappedFileSizeConsumeQueue(1024 * 1024 * 10);
+        config.setMaxHashSlotNum(10000);
+        config.setMaxIndexNum(100 * 100);
+        config.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        config.setHaListenPort(haListenPort);
+        config.setHaSendHeartbeatInterval(500);
+        config.setHaTransferCompressEnable(compress);
+
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setBrokerId(brokerId);
+        DefaultMessageStore store = new DefaultMessageStore(config, new BrokerStatsManager("haCompressionTest"),
+            new MessageArrivingListener() {
+                @Override
+                public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+                    byte[] filterBitMap, Map<String, String> properties) {
+                }
+            }, brokerConfig);
+        assertThat(store.load()).isTrue();
+        store.start();
+        return store;
+    }
+
+    private static MessageExtBrokerInner buildMessage(final byte[] body) throws Exception {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(TOPIC);
+        msg.setTags("TAG1");
+        msg.setBody(body);
+        msg.setQueueId(0);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+        msg.setBornHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        return msg;
+    }
+
+    private static long readLong(final SocketChannel channel) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IllegalStateException("closed before 8 bytes");
+            }
+        }
+        return buffer.getLong(0);
+    }
+}